@@ -0,0 +1,162 @@
+package benchmarks;
+
+import images.ImageUtilities;
+import images.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import script.BatchProcessor;
+import script.BatchReport;
+import script.ImageStorage;
+import script.Recipe;
+
+/**
+ * Times a batch on slow storage, simulated by adding a fixed latency to every read
+ * and write, with a few platform threads per I/O stage against a thread per file
+ * bounded by the number in flight. Threads per file are virtual threads only on a
+ * runtime that has them, so run with -PjmhJdk=21 to compare those.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BatchIoBenchmark {
+  private static final int IN_FLIGHT = 64;
+
+  @Param({"200"})
+  public int files;
+
+  @Param({"100"})
+  public int latency;
+
+  @Param({"false", "true"})
+  public boolean threadPerFile;
+
+  private File in;
+  private File out;
+  private List<File> inputs;
+  private Recipe recipe;
+  private ImageStorage storage;
+
+  /**
+   * Write the input files.
+   *
+   * @throws IOException if the files cannot be created
+   */
+  @Setup
+  public void setUp() throws IOException {
+    in = Files.createTempDirectory("benchmark-in").toFile();
+    Raster raster = SyntheticImages.create(0.0768);
+    inputs = new ArrayList<>();
+    for (int i = 0; i < files; i++) {
+      File file = new File(in, "image" + i + ".png");
+      ImageUtilities.writeRaster(raster, file.getPath());
+      inputs.add(file);
+    }
+    recipe = Recipe.parse(new StringReader("blur\nsepia\n"));
+    storage = new DelayedStorage(ImageStorage.FILES, latency);
+  }
+
+  /**
+   * Make an empty output directory, so that no output is skipped as up to date.
+   *
+   * @throws IOException if the directory cannot be created
+   */
+  @Setup(Level.Invocation)
+  public void makeOutput() throws IOException {
+    out = Files.createTempDirectory("benchmark-out").toFile();
+  }
+
+  /**
+   * Delete the outputs of the last batch.
+   */
+  @TearDown(Level.Invocation)
+  public void deleteOutput() {
+    delete(out);
+  }
+
+  /**
+   * Delete the input files.
+   */
+  @TearDown
+  public void tearDown() {
+    delete(in);
+  }
+
+  @Benchmark
+  public BatchReport process() {
+    int cores = Runtime.getRuntime().availableProcessors();
+    BatchProcessor processor = threadPerFile
+            ? new BatchProcessor(IN_FLIGHT, cores, IN_FLIGHT, cores, true)
+            : new BatchProcessor(cores, cores, cores, cores);
+    return processor.process(recipe, inputs, out, "png", storage);
+  }
+
+  private static void delete(File directory) {
+    File[] children = directory.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        child.delete();
+      }
+    }
+    directory.delete();
+  }
+
+  /**
+   * Storage that waits before every read and write, like a network mount.
+   */
+  private static final class DelayedStorage implements ImageStorage {
+    private final ImageStorage storage;
+    private final long millis;
+
+    private DelayedStorage(ImageStorage storage, long millis) {
+      this.storage = storage;
+      this.millis = millis;
+    }
+
+    @Override
+    public Raster read(String filename) {
+      pause();
+      return storage.read(filename);
+    }
+
+    @Override
+    public byte[] load(String filename) {
+      pause();
+      return storage.load(filename);
+    }
+
+    @Override
+    public void write(Raster raster, String filename) {
+      pause();
+      storage.write(raster, filename);
+    }
+
+    private void pause() {
+      try {
+        Thread.sleep(millis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
@@ -0,0 +1,100 @@
+package benchmarks;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares two JMH result files: for every benchmark and parameter combination in
+ * both, the change in time and in bytes allocated per operation. A change in time
+ * is only called faster or slower when it is larger than the error of both runs
+ * together.
+ */
+public class CompareResults {
+  private static final String ALLOCATION = "gc.alloc.rate.norm";
+
+  /**
+   * Print the comparison.
+   *
+   * @param args the baseline and the new results
+   * @throws IOException if a file cannot be read
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.out.println("Usage: CompareResults baseline.json results.json");
+      return;
+    }
+    Map<String, JsonObject> baseline = read(args[0]);
+    Map<String, JsonObject> results = read(args[1]);
+    System.out.printf("%-60s %12s %12s %8s %10s  %s%n", "benchmark", "baseline", "now",
+            "change", "alloc", "");
+    for (Map.Entry<String, JsonObject> entry : results.entrySet()) {
+      JsonObject before = baseline.get(entry.getKey());
+      if (before == null) {
+        continue;
+      }
+      JsonObject after = entry.getValue();
+      double base = score(before);
+      double now = score(after);
+      double error = error(before) + error(after);
+      String verdict = Math.abs(now - base) <= error ? "" : now < base ? "faster" : "slower";
+      System.out.printf("%-60s %12.3f %12.3f %+7.1f%% %+9.1f%%  %s%n", entry.getKey(), base,
+              now, 100 * (now - base) / base,
+              100 * (allocation(after) - allocation(before)) / Math.max(1, allocation(before)),
+              verdict);
+    }
+  }
+
+  /**
+   * Read a result file into results keyed by benchmark name and parameters.
+   */
+  private static Map<String, JsonObject> read(String file) throws IOException {
+    Map<String, JsonObject> results = new LinkedHashMap<>();
+    try (Reader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+      JsonArray array = JsonParser.parseReader(reader).getAsJsonArray();
+      for (JsonElement element : array) {
+        JsonObject result = element.getAsJsonObject();
+        String name = result.get("benchmark").getAsString();
+        name = name.substring(name.lastIndexOf('.', name.lastIndexOf('.') - 1) + 1);
+        Map<String, String> params = new TreeMap<>();
+        if (result.has("params")) {
+          for (Map.Entry<String, JsonElement> p : result.getAsJsonObject("params").entrySet()) {
+            params.put(p.getKey(), p.getValue().getAsString());
+          }
+        }
+        results.put(params.isEmpty() ? name : name + " " + params, result);
+      }
+    }
+    return results;
+  }
+
+  private static double score(JsonObject result) {
+    return result.getAsJsonObject("primaryMetric").get("score").getAsDouble();
+  }
+
+  private static double error(JsonObject result) {
+    JsonElement error = result.getAsJsonObject("primaryMetric").get("scoreError");
+    return error == null || !error.isJsonPrimitive() ? 0 : error.getAsDouble();
+  }
+
+  private static double allocation(JsonObject result) {
+    JsonObject secondary = result.getAsJsonObject("secondaryMetrics");
+    if (secondary != null) {
+      for (Map.Entry<String, JsonElement> metric : secondary.entrySet()) {
+        if (metric.getKey().endsWith(ALLOCATION)) {
+          return metric.getValue().getAsJsonObject().get("score").getAsDouble();
+        }
+      }
+    }
+    return 0;
+  }
+}
@@ -0,0 +1,64 @@
+package benchmarks;
+
+import images.ImageUtilities;
+import images.Raster;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times the conversions of {@link ImageUtilities} between rasters and
+ * BufferedImages, without any file access, against the per-pixel loops they replace.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms6g", "-Xmx6g"})
+public class ConversionBenchmark {
+  @Param({"0.3", "4", "24", "100"})
+  public double megapixels;
+
+  private Raster raster;
+  private BufferedImage image;
+
+  /**
+   * Create the test image in both forms.
+   */
+  @Setup
+  public void setUp() {
+    raster = SyntheticImages.create(megapixels);
+    image = ImageUtilities.convertRaster(raster);
+  }
+
+  @Benchmark
+  public Raster toRaster() {
+    return ImageUtilities.toRaster(image);
+  }
+
+  @Benchmark
+  public BufferedImage convertRaster() {
+    return ImageUtilities.convertRaster(raster);
+  }
+
+  @Benchmark
+  public Raster toRasterPerPixel() {
+    return PerPixelConversions.toRaster(image);
+  }
+
+  @Benchmark
+  public BufferedImage convertRasterPerPixel() {
+    return PerPixelConversions.convertRaster(raster);
+  }
+}
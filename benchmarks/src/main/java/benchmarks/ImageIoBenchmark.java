@@ -0,0 +1,94 @@
+package benchmarks;
+
+import images.ImageUtilities;
+import images.Raster;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times reading and writing image files through {@link ImageUtilities}. Decoding by
+ * ImageIO and copying the decoded image into a raster are also timed apart, the copy
+ * both in bulk and per pixel, so that the results show how much of a read the copy
+ * accounts for with the types of image each format decodes to.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms6g", "-Xmx6g"})
+public class ImageIoBenchmark {
+  @Param({"0.3", "4", "24", "100"})
+  public double megapixels;
+
+  @Param({"png", "jpg"})
+  public String format;
+
+  private Raster raster;
+  private File input;
+  private File output;
+  private BufferedImage decoded;
+
+  /**
+   * Write the test image to a temporary file.
+   *
+   * @throws IOException if the files cannot be created
+   */
+  @Setup
+  public void setUp() throws IOException {
+    raster = SyntheticImages.create(megapixels);
+    input = File.createTempFile("benchmark", "." + format);
+    output = File.createTempFile("benchmark", "." + format);
+    ImageUtilities.writeRaster(raster, input.getPath());
+    decoded = ImageIO.read(input);
+  }
+
+  /**
+   * Delete the temporary files.
+   */
+  @TearDown
+  public void tearDown() {
+    input.delete();
+    output.delete();
+  }
+
+  @Benchmark
+  public Raster read() {
+    return ImageUtilities.readRaster(input.getPath());
+  }
+
+  @Benchmark
+  public void write() {
+    ImageUtilities.writeRaster(raster, output.getPath());
+  }
+
+  @Benchmark
+  public BufferedImage decode() throws IOException {
+    return ImageIO.read(input);
+  }
+
+  @Benchmark
+  public Raster toRaster() {
+    return ImageUtilities.toRaster(decoded);
+  }
+
+  @Benchmark
+  public Raster toRasterPerPixel() {
+    return PerPixelConversions.toRaster(decoded);
+  }
+}
@@ -0,0 +1,85 @@
+package benchmarks;
+
+import images.ConcreteImageModel;
+import images.parallel.TileExecutor;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times every filter of an eager {@link ConcreteImageModel} on the shared executor.
+ * Each invocation applies the filter to the loaded image and undoes it, so the
+ * history never grows past the image and one result.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms6g", "-Xmx6g"})
+public class ModelBenchmark {
+  @Param({"0.3", "4", "24", "100"})
+  public double megapixels;
+
+  private ConcreteImageModel model;
+
+  /**
+   * Load the test image.
+   */
+  @Setup
+  public void setUp() {
+    model = new ConcreteImageModel(TileExecutor.common(), false);
+    model.loadRaster(SyntheticImages.create(megapixels));
+  }
+
+  @Benchmark
+  public void blur() {
+    model.applyBlur();
+    model.undoOneStep();
+  }
+
+  @Benchmark
+  public void sharpen() {
+    model.applySharpen();
+    model.undoOneStep();
+  }
+
+  @Benchmark
+  public void grayscale() {
+    model.applyGrayscale();
+    model.undoOneStep();
+  }
+
+  @Benchmark
+  public void sepia() {
+    model.applySepia();
+    model.undoOneStep();
+  }
+
+  @Benchmark
+  public void dither() {
+    model.applyDither();
+    model.undoOneStep();
+  }
+
+  @Benchmark
+  public void edgeDetection() {
+    model.edgeDetection();
+    model.undoOneStep();
+  }
+
+  @Benchmark
+  public void contrastEnhancement() {
+    model.grayscaleContractEnhancement();
+    model.undoOneStep();
+  }
+}
@@ -0,0 +1,51 @@
+package benchmarks;
+
+import images.ConcreteImageModel;
+import images.parallel.TileExecutor;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times the mosaic filter, whose cost grows with the number of seeds as well as the
+ * size of the image.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms6g", "-Xmx6g"})
+public class MosaicBenchmark {
+  @Param({"0.3", "4", "24", "100"})
+  public double megapixels;
+
+  @Param({"1000", "10000", "100000"})
+  public int seeds;
+
+  private ConcreteImageModel model;
+
+  /**
+   * Load the test image.
+   */
+  @Setup
+  public void setUp() {
+    model = new ConcreteImageModel(TileExecutor.common(), false);
+    model.loadRaster(SyntheticImages.create(megapixels));
+  }
+
+  @Benchmark
+  public void mosaic() {
+    model.applyMosaic(seeds);
+    model.undoOneStep();
+  }
+}
@@ -0,0 +1,48 @@
+package benchmarks;
+
+import images.Raster;
+import java.awt.image.BufferedImage;
+
+/**
+ * The per-pixel getRGB and setRGB loops that the bulk conversions of
+ * {@link images.ImageUtilities} replace, kept as baselines to time them against.
+ */
+final class PerPixelConversions {
+  private PerPixelConversions() {
+  }
+
+  /**
+   * Copy an image into a raster one getRGB call at a time.
+   *
+   * @param input the image
+   * @return the raster
+   */
+  static Raster toRaster(BufferedImage input) {
+    Raster result = new Raster(input.getWidth(), input.getHeight());
+    int[] pixels = result.getPixels();
+    int i = 0;
+    for (int y = 0; y < input.getHeight(); y++) {
+      for (int x = 0; x < input.getWidth(); x++) {
+        pixels[i++] = input.getRGB(x, y) & 0xFFFFFF;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Copy a raster into an image one setRGB call at a time.
+   *
+   * @param raster the raster
+   * @return the image
+   */
+  static BufferedImage convertRaster(Raster raster) {
+    BufferedImage output = new BufferedImage(raster.getWidth(), raster.getHeight(),
+            BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < raster.getHeight(); y++) {
+      for (int x = 0; x < raster.getWidth(); x++) {
+        output.setRGB(x, y, raster.getRGB(x, y));
+      }
+    }
+    return output;
+  }
+}
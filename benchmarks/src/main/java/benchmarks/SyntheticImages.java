@@ -0,0 +1,35 @@
+package benchmarks;
+
+import images.Raster;
+import java.util.Random;
+
+/**
+ * Test images of a given size: smooth gradients with some noise, so that filters,
+ * histograms and compression all see realistic data.
+ */
+final class SyntheticImages {
+  private SyntheticImages() {
+  }
+
+  /**
+   * Create a 4:3 image of about the given number of megapixels. The same size always
+   * gives the same pixels.
+   *
+   * @param megapixels the number of pixels, in millions
+   * @return the image
+   */
+  static Raster create(double megapixels) {
+    int width = (int) Math.round(Math.sqrt(megapixels * 1e6 * 4 / 3));
+    int height = (int) Math.round(megapixels * 1e6 / width);
+    Random random = new Random(42);
+    Raster raster = new Raster(width, height);
+    int[] pixels = raster.getPixels();
+    for (int y = 0, i = 0; y < height; y++) {
+      for (int x = 0; x < width; x++, i++) {
+        pixels[i] = Raster.pack(Math.min(255, x * 255 / width + random.nextInt(16)),
+                Math.min(255, y * 255 / height + random.nextInt(16)), (x ^ y) & 0xFF);
+      }
+    }
+    return raster;
+  }
+}
@@ -1,26 +1,71 @@
 import images.ConcreteImageModel;
-import images.ImageModel;
+import images.ImageUtilities;
+import images.RasterCache;
+import images.graph.ResultCache;
+import images.parallel.TileExecutor;
 import imageview.ImageGuiView;
 import imageview.ImageGuiViewImp;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
 import script.ImageController;
 import script.ImageJframeController;
+import script.ImageTextController;
+import script.ImageTextViewImp;
 
 /**
- * Driver class for gui-based image process program.
+ * Driver class for the image process program: the window, or a script run from the
+ * command line as {@code [-profile] script}, where {@code -profile} shows what each
+ * operation of the script cost.
  */
 public class Main {
+  private static final long CACHE_BYTES = 2L << 30;
+  private static final long RESULT_BYTES = Runtime.getRuntime().maxMemory() / 8;
+
   /**
    * The starting point for this example.
    *
-   * @param args Not used
+   * @param args none to open the window, or the options and the script to run
    */
   public static void main(String[] args) {
-    // Create the model
-    ImageModel model = new ConcreteImageModel();
+    // Reopening an image maps the pixels decoded last time
+    RasterCache rasterCache = RasterCache.inTemporaryDirectory(CACHE_BYTES);
+    ImageUtilities.setRasterCache(rasterCache);
+    // Create the model; filters run when the view or a save needs their result, and
+    // results computed before are looked up
+    ConcreteImageModel model = new ConcreteImageModel(TileExecutor.common(), true);
+    ResultCache resultCache = new ResultCache(RESULT_BYTES, rasterCache);
+    model.setResultCache(resultCache);
+    if (args.length > 0) {
+      runScript(model, args);
+      return;
+    }
     // Create the view
     ImageGuiView view = new ImageGuiViewImp("Best Image Processor");
-    // Create the controller with the model
-    ImageController controller = new ImageJframeController(model, view);
+    // Create the controller with the model; independent branches of a batch script
+    // run at once on models of their own
+    ImageController controller = new ImageJframeController(model, view, () -> {
+      ConcreteImageModel branchModel = new ConcreteImageModel(TileExecutor.common(), true);
+      branchModel.setResultCache(resultCache);
+      return branchModel;
+    });
     controller.go();
   }
+
+  private static void runScript(ConcreteImageModel model, String[] args) {
+    boolean profile = "-profile".equals(args[0]);
+    int first = profile ? 1 : 0;
+    if (args.length != first + 1) {
+      System.out.println("Usage: Main [-profile] script");
+      return;
+    }
+    try (Reader reader = new FileReader(args[first])) {
+      new ImageTextController(model, reader, new ImageTextViewImp(System.out), profile)
+              .go();
+    } catch (IOException e) {
+      System.out.println("Error: " + e.getMessage());
+    } finally {
+      model.close();
+    }
+  }
 }
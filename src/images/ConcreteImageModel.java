@@ -1,29 +1,119 @@
 package images;
 
+import images.convolution.ConvolutionEngine;
+import images.convolution.EdgeDetector;
+import images.convolution.Kernel;
+import images.convolution.Kernels;
+import images.graph.HistoryStore;
+import images.graph.Operation;
+import images.graph.OperationGraph;
+import images.graph.OperationNode;
+import images.graph.PreviewRenderer;
+import images.graph.ResultCache;
+import images.histogram.HistogramEqualizer;
+import images.mosaic.VoronoiMosaic;
+import images.parallel.TaskMonitor;
+import images.parallel.TileExecutor;
+import images.pointop.ColorMatrix;
+import images.pointop.PointOperation;
+import images.pointop.PointOperationEngine;
 import java.awt.image.BufferedImage;
 import java.lang.Math;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Stack;
-import javafx.util.Pair;
+import java.util.Map;
+import java.util.Random;
+import java.util.WeakHashMap;
 
 /**
  * This class represents a ConcreteImageModel. It defines all the operations mandated by
  * the ImageModel interface.
+ *
+ * <p>Every image in the history is a node of an operation graph. An eager model
+ * computes each node as soon as a filter is applied. A lazy model only records the
+ * filter, and computes pixels when {@link #getCurrentImage()} or
+ * {@link #saveImage(String)} needs them; a script that chains several filters before
+ * saving then allocates no intermediate images, and adjacent color transformations
+ * run as one pass.
+ *
+ * <p>With a {@link #setResultCache(ResultCache) result cache}, an image that has
+ * been computed before from the same pixels with the same filters and parameters is
+ * looked up instead of computed again. Only filters given with all of their
+ * parameters are cached; a mosaic is, because its random seed is part of it.
  */
 public class ConcreteImageModel implements ImageModel {
-  private static int[][][] originalImage;
-  private Stack<int[][][]> imageStack;
-  private int[][][] undoTemp;
+  private final ConvolutionEngine engine;
+  private final EdgeDetector edges;
+  private final VoronoiMosaic mosaic;
+  private final HistogramEqualizer equalizer;
+  private final PointOperationEngine pointOperations;
+  private final OperationGraph graph;
+  private final boolean lazy;
+  private final Random random;
+  private final HistoryStore history;
+  private final PreviewRenderer previews;
+  private final Map<Raster, BufferedImage> views;
+  private OperationNode originalImage;
 
   /**
-   * Constructs a ConcreteImageModel object.
+   * Constructs a ConcreteImageModel object that runs its filters on the shared
+   * {@link TileExecutor#common()}.
    */
   public ConcreteImageModel() {
-    imageStack = new Stack<>();
+    this(TileExecutor.common());
+  }
+
+  /**
+   * Constructs a ConcreteImageModel object that runs its filters on the given
+   * executor. Results do not depend on the executor's parallelism.
+   *
+   * @param executor the executor to split per-pixel work over
+   * @throws IllegalArgumentException if the executor is null
+   */
+  public ConcreteImageModel(TileExecutor executor) throws IllegalArgumentException {
+    this(executor, false);
+  }
+
+  /**
+   * Constructs a ConcreteImageModel object that runs its filters on the given
+   * executor, either as soon as they are applied or only when their result is needed.
+   * Both modes give the same images.
+   *
+   * @param executor the executor to split per-pixel work over
+   * @param lazy whether to defer filters until their result is read
+   * @throws IllegalArgumentException if the executor is null
+   */
+  public ConcreteImageModel(TileExecutor executor, boolean lazy)
+          throws IllegalArgumentException {
+    this(executor, lazy, Runtime.getRuntime().maxMemory() / 4);
+  }
+
+  /**
+   * Constructs a ConcreteImageModel object with a memory budget for its undo history.
+   * Steps beyond the budget are compressed to a temporary file and read back when
+   * they are revisited.
+   *
+   * @param executor the executor to split per-pixel work over
+   * @param lazy whether to defer filters until their result is read
+   * @param historyBudget the number of bytes of history images to keep in memory
+   * @throws IllegalArgumentException if the executor is null or the budget is negative
+   */
+  public ConcreteImageModel(TileExecutor executor, boolean lazy, long historyBudget)
+          throws IllegalArgumentException {
+    if (executor == null) {
+      throw new IllegalArgumentException("Invalid executor provided");
+    }
     originalImage = null;
+    engine = new ConvolutionEngine(executor);
+    edges = new EdgeDetector(executor);
+    mosaic = new VoronoiMosaic(executor);
+    equalizer = new HistogramEqualizer(executor);
+    pointOperations = new PointOperationEngine(executor);
+    graph = new OperationGraph(pointOperations);
+    history = new HistoryStore(graph, executor, historyBudget);
+    previews = new PreviewRenderer(executor);
+    views = new WeakHashMap<>();
+    this.lazy = lazy;
+    random = new Random();
   }
 
   /**
@@ -38,8 +128,19 @@ public class ConcreteImageModel implements ImageModel {
     if (filename == null || "".equals(filename)) {
       throw new IllegalArgumentException("Invalid filename provided for reading the image file");
     }
-    originalImage = ImageUtilities.readImage(filename);
-    imageStack.push(originalImage);
+    loadRaster(ImageUtilities.readRaster(filename));
+  }
+
+  /**
+   * Load an image that has already been decoded. The raster becomes the original
+   * image and must not be modified afterwards.
+   *
+   * @param raster the pixels of the image
+   * @throws IllegalArgumentException if the raster is null
+   */
+  public void loadRaster(Raster raster) throws IllegalArgumentException {
+    originalImage = OperationNode.source(raster);
+    history.push(originalImage);
   }
 
   /**
@@ -51,7 +152,7 @@ public class ConcreteImageModel implements ImageModel {
    */
   @Override
   public void saveImage(String filename) throws IllegalArgumentException {
-    if (imageStack.isEmpty()) {
+    if (history.isEmpty()) {
       throw new IllegalStateException("No image has been loaded for processing");
     }
 
@@ -59,7 +160,7 @@ public class ConcreteImageModel implements ImageModel {
       throw new IllegalArgumentException("Invalid filename provided");
     }
 
-    ImageUtilities.writeImage(imageStack.peek(), filename);
+    ImageUtilities.writeRaster(history.materialize(history.current()), filename);
   }
 
   /**
@@ -67,43 +168,33 @@ public class ConcreteImageModel implements ImageModel {
    */
   @Override
   public void applyBlur() {
-    if (imageStack.isEmpty()) {
+    if (history.isEmpty()) {
       throw new IllegalStateException("No image has been loaded for processing");
     }
 
-    double[][] blurMatrix = {
-            {1 / 16d, 1 / 8d, 1 / 16d},
-            {1 / 8d, 1 / 4d, 1 / 8d},
-            {1 / 16d, 1 / 8d, 1 / 16d}
-    };
-    int[][][] image = imageStack.peek();
-    int[][][] filteredImage = deepCopyImage(image);
-    int centerH = blurMatrix.length / 2;
-    int centerW = blurMatrix[centerH].length / 2;
-    for (int h = 0; h < image.length; h++) {
-      for (int w = 0; w < image[h].length; w++) {
-        int newR = 0;
-        int newG = 0;
-        int newB = 0;
-        for (int fh = 0; fh < blurMatrix.length; fh++) {
-          for (int fw = 0; fw < blurMatrix[fh].length; fw++) {
-            int shiftH = fh - centerH + h;
-            int shiftW = fw - centerW + w;
-            if (shiftH < 0 || shiftH >= image.length || shiftW < 0 || shiftW >= image[h].length) {
-              continue;
-            }
-            newR += (int) (image[shiftH][shiftW][0] * blurMatrix[fh][fw]);
-            newG += (int) (image[shiftH][shiftW][1] * blurMatrix[fh][fw]);
-            newB += (int) (image[shiftH][shiftW][2] * blurMatrix[fh][fw]);
-          }
-        }
-        filteredImage[h][w][0] = newR;
-        filteredImage[h][w][1] = newG;
-        filteredImage[h][w][2] = newB;
-      }
+    // The 3x3 blur is close to a Gaussian with a sigma of 1/sqrt(2)
+    push("blur", image -> engine.convolve(image, Kernels.BLUR),
+            (scale, width, height) -> image ->
+                    engine.convolve(image, Kernel.gaussian(Math.sqrt(0.5) * scale)));
+  }
+
+  /**
+   * Apply a Gaussian blur to the data in the image model. The kernel is separable, so
+   * the cost per pixel grows linearly with sigma.
+   *
+   * @param sigma the standard deviation of the Gaussian, in pixels
+   * @throws IllegalArgumentException if sigma is not positive
+   */
+  @Override
+  public void applyGaussianBlur(double sigma) throws IllegalArgumentException {
+    if (history.isEmpty()) {
+      throw new IllegalStateException("No image has been loaded for processing");
     }
 
-    imageStack.push(filteredImage);
+    Kernel kernel = Kernel.gaussian(sigma);
+    push("gaussian " + sigma, image -> engine.convolve(image, kernel),
+            (scale, width, height) -> image ->
+                    engine.convolve(image, Kernel.gaussian(sigma * scale)));
   }
 
   /**
@@ -111,45 +202,15 @@ public class ConcreteImageModel implements ImageModel {
    */
   @Override
   public void applySharpen() {
-    if (imageStack.isEmpty()) {
+    if (history.isEmpty()) {
       throw new IllegalStateException("No image has been loaded for processing");
     }
 
-    double[][] sharpenMatrix = {
-            {-1 / 8d, -1 / 8d, -1 / 8d, -1 / 8d, -1 / 8d},
-            {-1 / 8d, 1 / 4d, 1 / 4d, 1 / 4d, -1 / 8d},
-            {-1 / 8d, 1 / 4d, 1d, 1 / 4d, -1 / 8d},
-            {-1 / 8d, 1 / 4d, 1 / 4d, 1 / 4d, -1 / 8d},
-            {-1 / 8d, -1 / 8d, -1 / 8d, -1 / 8d, -1 / 8d}
-    };
-    int[][][] image = imageStack.peek();
-    int[][][] filteredImage = deepCopyImage(image);
-    int centerH = sharpenMatrix.length / 2;
-    int centerW = sharpenMatrix[centerH].length / 2;
-    for (int h = 0; h < image.length; h++) {
-      for (int w = 0; w < image[h].length; w++) {
-        int newR = 0;
-        int newG = 0;
-        int newB = 0;
-        for (int fh = 0; fh < sharpenMatrix.length; fh++) {
-          for (int fw = 0; fw < sharpenMatrix[fh].length; fw++) {
-            int shiftH = fh - centerH + h;
-            int shiftW = fw - centerW + w;
-            if (shiftH < 0 || shiftH >= image.length || shiftW < 0 || shiftW >= image[h].length) {
-              continue;
-            }
-            newR += (int) (image[shiftH][shiftW][0] * sharpenMatrix[fh][fw]);
-            newG += (int) (image[shiftH][shiftW][1] * sharpenMatrix[fh][fw]);
-            newB += (int) (image[shiftH][shiftW][2] * sharpenMatrix[fh][fw]);
-          }
-        }
-        filteredImage[h][w][0] = newR;
-        filteredImage[h][w][1] = newG;
-        filteredImage[h][w][2] = newB;
-      }
-    }
-
-    imageStack.push(filteredImage);
+    // Sharpening boosts detail a pixel or two wide, which a preview at half size or
+    // smaller does not have
+    push("sharpen", image -> engine.convolve(image, Kernels.SHARPEN),
+            (scale, width, height) -> scale < 0.5 ? image -> image
+                    : image -> engine.convolve(image, Kernels.SHARPEN));
   }
 
   /**
@@ -157,14 +218,11 @@ public class ConcreteImageModel implements ImageModel {
    */
   @Override
   public void applyGrayscale() {
-    if (imageStack.isEmpty()) {
+    if (history.isEmpty()) {
       throw new IllegalStateException("No image has been loaded for processing");
     }
 
-    int[][][] image = deepCopyImage(imageStack.peek());
-    grayscaleImage(image);
-
-    imageStack.push(image);
+    push(graph.point(ColorMatrix.GRAYSCALE, "grayscale"));
   }
 
   /**
@@ -172,32 +230,49 @@ public class ConcreteImageModel implements ImageModel {
    */
   @Override
   public void applySepia() {
-    if (imageStack.isEmpty()) {
+    if (history.isEmpty()) {
       throw new IllegalStateException("No image has been loaded for processing");
     }
 
-    int[][][] image = deepCopyImage(imageStack.peek());
-    for (int h = 0; h < image.length; h++) {
-      for (int w = 0; w < image[h].length; w++) {
-        int newR = (int) (0.393d * image[h][w][0]
-                + 0.769d * image[h][w][1]
-                + 0.189d * image[h][w][2]);
+    push(graph.point(ColorMatrix.SEPIA, "sepia"));
+  }
 
-        int newG = (int) (0.349d * image[h][w][0]
-                + 0.686d * image[h][w][1]
-                + 0.168d * image[h][w][2]);
+  /**
+   * Apply a custom color matrix to the data in the image model. Each output channel
+   * is the dot product of a matrix row with (r, g, b), plus the row's offset if it
+   * has a fourth column, truncated and clamped to 0-255.
+   *
+   * @param matrix a 3x3 or 3x4 matrix, one row per output channel
+   * @throws IllegalArgumentException if the matrix does not have that shape
+   */
+  @Override
+  public void applyColorMatrix(double[][] matrix) throws IllegalArgumentException {
+    if (history.isEmpty()) {
+      throw new IllegalStateException("No image has been loaded for processing");
+    }
 
-        int newB = (int) (0.272d * image[h][w][0]
-                + 0.534d * image[h][w][1]
-                + 0.131d * image[h][w][2]);
+    push(graph.point(new ColorMatrix(matrix), "matrix " + Arrays.deepToString(matrix)));
+  }
 
-        image[h][w][0] = newR > 255 ? 255 : newR;
-        image[h][w][1] = newG > 255 ? 255 : newG;
-        image[h][w][2] = newB > 255 ? 255 : newB;
-      }
+  /**
+   * Apply any point operation to the data in the image model. A chain of operations
+   * built with {@link PointOperation#andThen(PointOperation)} costs one pass over the
+   * image and one new raster, however long it is. In a lazy model, consecutive calls
+   * are fused the same way. Its results are not cached, since the operation has no
+   * key.
+   *
+   * @param op the operation to apply
+   * @throws IllegalArgumentException if the operation is null
+   */
+  public void applyPointOperation(PointOperation op) throws IllegalArgumentException {
+    if (history.isEmpty()) {
+      throw new IllegalStateException("No image has been loaded for processing");
+    }
+    if (op == null) {
+      throw new IllegalArgumentException("Invalid point operation provided");
     }
 
-    imageStack.add(image);
+    push(graph.point(op));
   }
 
   /**
@@ -205,84 +280,59 @@ public class ConcreteImageModel implements ImageModel {
    */
   @Override
   public void applyDither() {
-    if (imageStack.isEmpty()) {
+    if (history.isEmpty()) {
       throw new IllegalStateException("No image has been loaded for processing");
     }
 
-    int[][][] image = deepCopyImage(imageStack.peek());
+    push("dither", this::dither);
+  }
+
+  private Raster dither(Raster src) {
     // Greyscale the image
-    grayscaleImage(image);
+    Raster image = pointOperations.apply(src, ColorMatrix.GRAYSCALE);
+
+    // Error diffusion carries state from pixel to pixel, so it stays serial.
+    // After greyscaling all three channels are equal, so the error diffusion runs on a
+    // single plane of intensities. The plane is kept as plain ints because the
+    // diffused error may push values outside 0-255 until they are quantized.
+    int height = image.getHeight();
+    int width = image.getWidth();
+    int[] gray = new int[width * height];
+    for (int h = 0; h < height; h++) {
+      for (int w = 0; w < width; w++) {
+        gray[h * width + w] = Raster.red(image.getRGB(w, h));
+      }
+    }
 
     // new_color = 0 or 255, whichever is closer to old_color
-    for (int h = 0; h < image.length - 1; h++) {
-      for (int w = 1; w < image[h].length - 1; w++) {
-        float oldR = image[h][w][0];
-        float oldG = image[h][w][1];
-        float oldB = image[h][w][2];
-
-        double newRedDouble = Math.round(image[h][w][0] / 255.0) * 255.0;
-        double newGreenDouble = Math.round(image[h][w][1] / 255.0) * 255.0;
-        double newBlueDouble = Math.round(image[h][w][2] / 255.0) * 255.0;
-        image[h][w][0] = (int) newRedDouble;
-        image[h][w][1] = (int) newGreenDouble;
-        image[h][w][2] = (int) newBlueDouble;
-        int newR = image[h][w][0];
-        int newG = image[h][w][1];
-        int newB = image[h][w][2];
+    for (int h = 0; h < height - 1; h++) {
+      TaskMonitor.checkCancelled();
+      for (int w = 1; w < width - 1; w++) {
+        int i = h * width + w;
+        float oldVal = gray[i];
+        gray[i] = (int) (Math.round(gray[i] / 255.0) * 255.0);
 
         // calculate the error
-        float errR = oldR - newR;
-        float errG = oldG - newG;
-        float errB = oldB - newB;
+        float err = oldVal - gray[i];
 
         //  add (7/16 * error) to pixel on the right (r,c+1)
-        float r = image[h][w + 1][0];
-        float g = image[h][w + 1][1];
-        float b = image[h][w + 1][2];
-        r = (float) (r + errR * (7 / 16.0));
-        g = (float) (g + errG * (7 / 16.0));
-        b = (float) (b + errB * (7 / 16.0));
-        image[h][w + 1][0] = (int) r;
-        image[h][w + 1][1] = (int) g;
-        image[h][w + 1][2] = (int) b;
-
+        gray[i + 1] = (int) (float) (gray[i + 1] + err * (7 / 16.0));
         // add (3/16 * error) to pixel on the next-row-left (r+1,c-1)
-        r = image[h + 1][w - 1][0];
-        g = image[h + 1][w - 1][1];
-        b = image[h + 1][w - 1][2];
-        r = (float) (r + errR * (3 / 16.0));
-        g = (float) (g + errG * (3 / 16.0));
-        b = (float) (b + errB * (3 / 16.0));
-        image[h + 1][w - 1][0] = (int) r;
-        image[h + 1][w - 1][1] = (int) g;
-        image[h + 1][w - 1][2] = (int) b;
-
+        gray[i + width - 1] = (int) (float) (gray[i + width - 1] + err * (3 / 16.0));
         //add (5/16 * error) to pixel below in next row (r+1,c)
-        r = image[h + 1][w][0];
-        g = image[h + 1][w][1];
-        b = image[h + 1][w][2];
-        r = (float) (r + errR * (5 / 16.0));
-        g = (float) (g + errG * (5 / 16.0));
-        b = (float) (b + errB * (5 / 16.0));
-        image[h + 1][w][0] = (int) r;
-        image[h + 1][w][1] = (int) g;
-        image[h + 1][w][2] = (int) b;
-
+        gray[i + width] = (int) (float) (gray[i + width] + err * (5 / 16.0));
         //add (1/16 * error) to pixel on the next-row-right (r+1,c+1)
-        r = image[h + 1][w + 1][0];
-        g = image[h + 1][w + 1][1];
-        b = image[h + 1][w + 1][2];
-        r = (float) (r + errR * (1 / 16.0));
-        g = (float) (g + errG * (1 / 16.0));
-        b = (float) (b + errB * (1 / 16.0));
-        image[h + 1][w + 1][0] = (int) r;
-        image[h + 1][w + 1][1] = (int) g;
-        image[h + 1][w + 1][2] = (int) b;
-
+        gray[i + width + 1] = (int) (float) (gray[i + width + 1] + err * (1 / 16.0));
       }
     }
 
-    imageStack.push(image);
+    for (int h = 0; h < height; h++) {
+      for (int w = 0; w < width; w++) {
+        int v = gray[h * width + w];
+        image.setRGB(w, h, Raster.pack(v, v, v));
+      }
+    }
+    return image;
   }
 
   /**
@@ -293,284 +343,267 @@ public class ConcreteImageModel implements ImageModel {
    */
   @Override
   public void applyMosaic(int seeds) throws IllegalArgumentException {
-    if (imageStack.isEmpty()) {
-      throw new IllegalStateException("No image has been loaded for processing");
-    }
-    if (seeds <= 0 || seeds > originalImage.length * originalImage[0].length) {
-      throw new IllegalArgumentException(("seeds is not valid"));
-    }
-
-    HashMap<Pair<Integer, Integer>, ArrayList<Pair<Integer, Integer>>> seedToMinDistPixelDict =
-            new HashMap();
-
-    int[][][] image = imageStack.peek();
-    // Sample seed pixels
-    while (seedToMinDistPixelDict.size() < seeds) {
-      Pair<Integer, Integer> ranPixel = new Pair<>((int) (Math.random() * image.length),
-              (int) (Math.random() * image[0].length));
-      if (!seedToMinDistPixelDict.containsKey(ranPixel)) {
-        seedToMinDistPixelDict.put(ranPixel, new ArrayList<>());
-      }
-    }
-
-    for (int h = 0; h < image.length; h++) {
-      for (int w = 0; w < image[h].length; w++) {
-        Pair<Integer, Integer> curPixel = new Pair<>(h, w);
-        Pair<Integer, Integer> minDistSeed = null;
-        double minDist = distance(new Pair<>(0, 0), new Pair<>(image.length, image[0].length));
-
-        for (Pair<Integer, Integer> seed : seedToMinDistPixelDict.keySet()) {
-          double curDist = distance(curPixel, seed);
-          if (curDist < minDist) {
-            minDist = curDist;
-            minDistSeed = seed;
-          }
-        }
+    applyMosaic(seeds, random.nextLong());
+  }
 
-        seedToMinDistPixelDict.get(minDistSeed).add(curPixel);
-      }
+  /**
+   * Apply the mosaic effect with seeds drawn from a given random seed.
+   *
+   * @param seeds the number of seeds to use in the mosaic
+   * @param randomSeed the seed of the generator placing the mosaic seeds
+   * @throws IllegalArgumentException if the number of seeds is not positive
+   */
+  @Override
+  public void applyMosaic(int seeds, long randomSeed) throws IllegalArgumentException {
+    if (history.isEmpty()) {
+      throw new IllegalStateException("No image has been loaded for processing");
     }
 
-    int[][][] filteredImage = deepCopyImage(image);
-    for (Pair<Integer, Integer> seed : seedToMinDistPixelDict.keySet()) {
-      int[] aveColor = averageColor(seedToMinDistPixelDict.get(seed), image);
-      for (Pair<Integer, Integer> p : seedToMinDistPixelDict.get(seed)) {
-        filteredImage[p.getKey()][p.getValue()] = aveColor;
-      }
+    OperationNode current = history.current();
+    if (seeds <= 0 || seeds > (long) current.getWidth() * current.getHeight()) {
+      throw new IllegalArgumentException("seeds is not valid");
     }
 
-    imageStack.push(filteredImage);
+    // The seeds are drawn from a fixed generator so that running the step again after
+    // an undo gives the same mosaic.
+    push("mosaic " + seeds + " seed " + randomSeed,
+            image -> mosaic.apply(image, seeds, new Random(randomSeed)),
+            (scale, width, height) -> image ->
+                    mosaic.applyScaled(image, width, height, seeds, new Random(randomSeed)));
   }
 
   @Override
   public void edgeDetection() {
-    if (imageStack.isEmpty()) {
+    if (history.isEmpty()) {
       throw new IllegalStateException("No image has been loaded for processing");
     }
 
-    int[][][] image = imageStack.peek();
-    int[][][] filteredImage = deepCopyImage(imageStack.peek());
-
-    double[][] kx = { {1, 0, -1}, {2, 0, -2}, {1, 0, -1} };
-    double[][] ky = { {1, 2, 1}, {0, 0, 0}, {-1, -2, -1} };
-    int[][][] gxImage = applyKernel(kx, image);
-    int[][][] gyImage = applyKernel(ky, image);
+    push("edge", edges::detect);
+  }
 
-    int max = 0;
-    int min = 255;
-    for (int h = 0; h < image.length; h++) {
-      for (int w = 0; w < image[h].length; w++) {
-        int newRx = gxImage[h][w][0];
-        int newGx = gxImage[h][w][1];
-        int newBx = gxImage[h][w][2];
+  @Override
+  public void grayscaleContractEnhancement() {
+    if (history.isEmpty()) {
+      throw new IllegalStateException("No image has been loaded for processing");
+    }
 
-        int newRy = gyImage[h][w][0];
-        int newGy = gyImage[h][w][1];
-        int newBy = gyImage[h][w][2];
+    push("enhance", image -> {
+      Raster filteredImage = pointOperations.apply(image, ColorMatrix.GRAYSCALE);
+      equalizer.equalizeGray(filteredImage);
+      return filteredImage;
+    });
+  }
 
-        int r = (int) Math.sqrt(newRx * newRx + newRy * newRy);
-        int g = (int) Math.sqrt(newGx * newGx + newGy * newGy);
-        int b = (int) Math.sqrt(newBx * newBx + newBy * newBy);
+  @Override
+  public void applyChannelEqualization() {
+    if (history.isEmpty()) {
+      throw new IllegalStateException("No image has been loaded for processing");
+    }
 
-        max = Math.max(r, Math.max(g, Math.max(b, max)));
-        min = Math.min(r, Math.min(g, Math.min(b, min)));
+    push("equalize", equalizer::equalizeChannels);
+  }
 
-        filteredImage[h][w] = new int[] {r, g, b};
-      }
+  @Override
+  public void applyAdaptiveEqualization(int tiles, double clipLimit)
+          throws IllegalArgumentException {
+    if (history.isEmpty()) {
+      throw new IllegalStateException("No image has been loaded for processing");
     }
 
-    for (int h = 0; h < filteredImage.length; h++) {
-      for (int w = 0; w < filteredImage[0].length; w++) {
-        int r = filteredImage[h][w][0];
-        int g = filteredImage[h][w][1];
-        int b = filteredImage[h][w][2];
-
-        filteredImage[h][w][0] = ((r - min) * 255) / (max - min);
-        filteredImage[h][w][1] = ((g - min) * 255) / (max - min);
-        filteredImage[h][w][2] = ((b - min) * 255) / (max - min);
-      }
+    if (tiles <= 0) {
+      throw new IllegalArgumentException("The number of tiles must be positive");
+    }
+    if (!(clipLimit >= 1)) {
+      throw new IllegalArgumentException("The clip limit must be at least 1");
     }
 
-    // Greyscale the image
-    grayscaleImage(filteredImage);
-    imageStack.add(filteredImage);
+    push("clahe " + tiles + " " + clipLimit, image -> {
+      Raster filteredImage = pointOperations.apply(image, ColorMatrix.GRAYSCALE);
+      equalizer.equalizeAdaptive(filteredImage, tiles, clipLimit);
+      return filteredImage;
+    });
   }
 
   @Override
-  public void grayscaleContractEnhancement() {
-    if (imageStack.isEmpty()) {
-      throw new IllegalStateException("No image has been loaded for processing");
+  public BufferedImage getCurrentImage() {
+    if (history.isEmpty()) {
+      throw new IllegalArgumentException("No image has been loaded for processing");
     }
 
-    int[][][] filteredImage = deepCopyImage(imageStack.peek());
-    grayscaleImage(filteredImage);
+    return view(history.materialize(history.current()));
+  }
 
-    HashMap<Integer, ArrayList<int[]>> histogramMap = constructHistogramMap(filteredImage);
-    int accumulator = 0;
-    int totalPixels = filteredImage.length * filteredImage[0].length;
-    for (int intensity : histogramMap.keySet()) {
-      ArrayList<int[]> pixels = histogramMap.get(intensity);
-      accumulator += pixels.size();
-      int equalizedIntensity = 255 * accumulator / totalPixels;
-      for (int[] p : pixels) {
-        filteredImage[p[0]][p[1]] =
-                new int[] {equalizedIntensity, equalizedIntensity, equalizedIntensity};
-      }
+  /**
+   * Get the current image scaled down to fit in a box, for quick display. It is
+   * computed from a scaled down copy of the nearest image already computed, with the
+   * filters after it adapted to the scale: blurs shrink their sigma, and a mosaic
+   * keeps its cells where the full size mosaic has them. Nothing is computed at full
+   * size, so a lazy model can show the effect of a filter at once and compute the
+   * full image later. An image that fits in the box is computed at full size.
+   *
+   * @param maxWidth the width of the box
+   * @param maxHeight the height of the box
+   * @return the preview
+   * @throws IllegalArgumentException if no image has been loaded or the box is empty
+   */
+  @Override
+  public BufferedImage getPreviewImage(int maxWidth, int maxHeight)
+          throws IllegalArgumentException {
+    if (history.isEmpty()) {
+      throw new IllegalArgumentException("No image has been loaded for processing");
     }
 
-    imageStack.add(filteredImage);
+    return ImageUtilities.convertRaster(
+            previews.render(history.current(), maxWidth, maxHeight, history::materialize));
   }
 
-  @Override
-  public BufferedImage getCurrentImage() {
-    if (imageStack.isEmpty()) {
+  /**
+   * Get the pixels of the current image without copying them into a BufferedImage.
+   *
+   * @return the raster of the current image, which callers must not modify
+   * @throws IllegalArgumentException if no image has been loaded
+   */
+  public Raster getCurrentRaster() throws IllegalArgumentException {
+    if (history.isEmpty()) {
       throw new IllegalArgumentException("No image has been loaded for processing");
     }
 
-    return ImageUtilities.convertImage(imageStack.peek());
+    return history.materialize(history.current());
   }
 
   @Override
   public BufferedImage getOriginalImage() {
-    if (imageStack.isEmpty()) {
+    if (history.isEmpty()) {
       throw new IllegalArgumentException("No image has been loaded for processing");
     }
 
-    return ImageUtilities.convertImage(imageStack.firstElement());
+    return view(history.materialize(history.first()));
+  }
+
+  /**
+   * Get the image showing a raster of the history. The image shares the raster's
+   * pixels and is made once per raster, so showing a step again, such as the
+   * original image while comparing, allocates nothing. The views are held weakly by
+   * raster: a step whose pixels are dropped from memory drops its view too.
+   */
+  private BufferedImage view(Raster raster) {
+    BufferedImage image = views.get(raster);
+    if (image == null) {
+      image = ImageUtilities.wrapRaster(raster);
+      views.put(raster, image);
+    }
+    return image;
   }
 
   @Override
   public void undoOneStep() {
-    if (imageStack.isEmpty()) {
+    if (history.isEmpty()) {
       throw new IllegalStateException("No image has been loaded for processing");
     }
 
-    if (imageStack.size() > 1) {
-      undoTemp = imageStack.pop();
-    } else {
-      throw new IllegalStateException("Can't undo any more");
-    }
+    history.undo();
   }
 
   @Override
   public void redoOneStep() {
-    if (imageStack.isEmpty()) {
+    if (history.isEmpty()) {
       throw new IllegalStateException("No image has been loaded for processing");
     }
 
-    if (undoTemp != null) {
-      imageStack.push(undoTemp);
-      undoTemp = null;
-    } else {
-      throw new IllegalStateException("You can only redo one step");
-    }
+    history.redo();
+  }
+
+  @Override
+  public boolean canRedo() {
+    return history.canRedo();
   }
 
+  /**
+   * Go back to the last loaded image. The reset is a step of its own, so it can be
+   * undone.
+   */
   @Override
   public void resetToOrigin() {
     if (originalImage == null) {
       throw new IllegalStateException("No image has been loaded for processing");
     }
 
-    undoTemp = imageStack.peek();
-    imageStack = new Stack<>();
-    imageStack.push(originalImage);
+    history.push(originalImage);
   }
 
-  private double distance(Pair<Integer, Integer> p1, Pair<Integer, Integer> p2) {
-    return Math.sqrt((p1.getKey() - p2.getKey()) * (p1.getKey() - p2.getKey())
-            + (p1.getValue() - p2.getValue()) * (p1.getValue() - p2.getValue()));
+  /**
+   * Forget every image, as if nothing had been loaded. A model reused for many
+   * unrelated images calls this between them, so their history neither stays in
+   * memory nor spills to disk.
+   */
+  public void clearHistory() {
+    history.clear();
+    previews.clear();
+    views.clear();
+    originalImage = null;
   }
 
-  private int[] averageColor(ArrayList<Pair<Integer, Integer>> pixels, int[][][] image) {
-    int aveR = 0;
-    int aveG = 0;
-    int aveB = 0;
-    int size = pixels.size();
-    for (Pair<Integer, Integer> p : pixels) {
-      aveR += image[p.getKey()][p.getValue()][0];
-      aveG += image[p.getKey()][p.getValue()][1];
-      aveB += image[p.getKey()][p.getValue()][2];
-    }
-    return new int[] {aveR / size, aveG / size, aveB / size};
+  @Override
+  public void close() {
+    clearHistory();
+    history.close();
   }
 
-  private int[][][] deepCopyImage(int[][][] image) {
-    int[][][] copyImage = new int[image.length][image[0].length][image[0][0].length];
-    for (int h = 0; h < image.length; h++) {
-      for (int w = 0; w < image[h].length; w++) {
-        copyImage[h][w] = Arrays.copyOf(image[h][w], image[0][0].length);
-      }
-    }
-    return copyImage;
-  }
-
-  private int[][][] applyKernel(double[][] matrix, int[][][] image) {
-    int[][][] filteredImage = deepCopyImage(image);
-    int centerH = matrix.length / 2;
-    int centerW = matrix[centerH].length / 2;
-    for (int h = 0; h < image.length; h++) {
-      for (int w = 0; w < image[h].length; w++) {
-        int newR = 0;
-        int newG = 0;
-        int newB = 0;
-        for (int fh = 0; fh < matrix.length; fh++) {
-          for (int fw = 0; fw < matrix[fh].length; fw++) {
-            int shiftH = fh - centerH + h;
-            int shiftW = fw - centerW + w;
-            if (shiftH < 0 || shiftH >= image.length || shiftW < 0 || shiftW >= image[h].length) {
-              continue;
-            }
-            newR += (int) (image[shiftH][shiftW][0] * matrix[fh][fw]);
-            newG += (int) (image[shiftH][shiftW][1] * matrix[fh][fw]);
-            newB += (int) (image[shiftH][shiftW][2] * matrix[fh][fw]);
-          }
-        }
-        filteredImage[h][w][0] = newR;
-        filteredImage[h][w][1] = newG;
-        filteredImage[h][w][2] = newB;
-      }
-    }
+  /**
+   * Look up and store filtered images in a cache, which may be shared with other
+   * models, or stop caching.
+   *
+   * @param cache the cache, or null
+   */
+  public void setResultCache(ResultCache cache) {
+    graph.setResultCache(cache);
+  }
 
-    return filteredImage;
+  /**
+   * Append a cacheable operation to the history, which previews unchanged.
+   */
+  private void push(String key, Operation op) {
+    push(key, op, (scale, width, height) -> op);
   }
 
-  private void grayscaleImage(int[][][] image) {
-    for (int h = 0; h < image.length; h++) {
-      for (int w = 0; w < image[h].length; w++) {
-        int newVal = getIntensity(image[h][w]);
-        image[h][w][0] = newVal;
-        image[h][w][1] = newVal;
-        image[h][w][2] = newVal;
+  /**
+   * Append a cacheable operation to the history, with the form it takes in previews.
+   */
+  private void push(String key, Operation op, Preview preview) {
+    push(new Operation() {
+      @Override
+      public Raster apply(Raster input) {
+        return op.apply(input);
       }
-    }
-  }
 
-  // this method produces monochrome luminance
-  private int getIntensity(int[] color) {
-    if (color.length != 3) {
-      throw new IllegalArgumentException();
-    }
+      @Override
+      public String getKey() {
+        return key;
+      }
 
-    int r = color[0];
-    int g = color[1];
-    int b = color[2];
-    int newVal = (int) (0.2126d * r + 0.7152d * g + 0.0722d * b);
-    return newVal > 255 ? 255 : newVal;
+      @Override
+      public Operation preview(double scale, int width, int height) {
+        return preview.at(scale, width, height);
+      }
+    });
   }
 
-  private HashMap<Integer, ArrayList<int[]>> constructHistogramMap(int[][][] image) {
-    HashMap<Integer, ArrayList<int[]>> histogramMap = new HashMap<>();
-    for (int i = 0; i < 256; i++) {
-      histogramMap.put(i, new ArrayList<>());
-    }
+  /**
+   * Makes the preview form of an operation, as in
+   * {@link Operation#preview(double, int, int)}.
+   */
+  private interface Preview {
+    Operation at(double scale, int width, int height);
+  }
 
-    for (int h = 0; h < image.length; h++) {
-      for (int w = 0; w < image[h].length; w++) {
-        int intensity = image[h][w][0];
-        histogramMap.get(intensity).add(new int[] {h, w});
-      }
+  /**
+   * Append an operation to the history. An eager model computes it right away.
+   */
+  private void push(Operation op) {
+    OperationNode node = history.current().then(op);
+    history.push(node);
+    if (!lazy) {
+      history.materialize(node);
     }
-    return histogramMap;
   }
 }
@@ -0,0 +1,81 @@
+package images;
+
+/**
+ * What an image file holds, as read from its header: the size, the number of bands,
+ * the bits per band and the format. Getting it does not decode any pixels.
+ */
+public final class ImageInfo {
+  private final int width;
+  private final int height;
+  private final int bands;
+  private final int bitDepth;
+  private final String format;
+
+  /**
+   * Constructs the description of an image.
+   *
+   * @param width the width in pixels
+   * @param height the height in pixels
+   * @param bands the number of bands, including alpha
+   * @param bitDepth the number of bits per band
+   * @param format the name of the format, such as "png"
+   */
+  public ImageInfo(int width, int height, int bands, int bitDepth, String format) {
+    this.width = width;
+    this.height = height;
+    this.bands = bands;
+    this.bitDepth = bitDepth;
+    this.format = format;
+  }
+
+  /**
+   * Get the width of the image.
+   *
+   * @return the width in pixels
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Get the height of the image.
+   *
+   * @return the height in pixels
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Get the number of bands of the image, including alpha.
+   *
+   * @return the number of bands
+   */
+  public int getBands() {
+    return bands;
+  }
+
+  /**
+   * Get the number of bits per band.
+   *
+   * @return the bit depth
+   */
+  public int getBitDepth() {
+    return bitDepth;
+  }
+
+  /**
+   * Get the name of the format, in lower case.
+   *
+   * @return the format name
+   */
+  public String getFormat() {
+    return format;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%dx%d, %d bands of %d bits, %s", width, height, bands, bitDepth,
+            format);
+  }
+}
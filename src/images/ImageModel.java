@@ -30,6 +30,15 @@ public interface ImageModel {
    */
   void applyBlur();
 
+  /**
+   * Apply a Gaussian blur to the data in the image model. Larger sigmas give a
+   * stronger blur.
+   *
+   * @param sigma the standard deviation of the Gaussian, in pixels
+   * @throws IllegalArgumentException if sigma is not positive
+   */
+  void applyGaussianBlur(double sigma) throws IllegalArgumentException;
+
   /**
    * Apply the sharpen filter to the data in the image model.
    */
@@ -45,6 +54,16 @@ public interface ImageModel {
    */
   void applySepia();
 
+  /**
+   * Apply a custom color matrix to the data in the image model. Each output channel
+   * is the dot product of a matrix row with (r, g, b), plus the row's offset if it
+   * has a fourth column, clamped to 0-255.
+   *
+   * @param matrix a 3x3 or 3x4 matrix, one row per output channel
+   * @throws IllegalArgumentException if the matrix does not have that shape
+   */
+  void applyColorMatrix(double[][] matrix) throws IllegalArgumentException;
+
   /**
    * Apply the dithering effect to the data in the image model.
    */
@@ -58,6 +77,27 @@ public interface ImageModel {
    */
   void applyMosaic(int seeds) throws IllegalArgumentException;
 
+  /**
+   * Apply the mosaic effect with seeds drawn from a given random seed, so that the
+   * same image, number of seeds and random seed always give the same mosaic.
+   *
+   * @param seeds the number of seeds to use in the mosaic
+   * @param randomSeed the seed of the generator placing the mosaic seeds
+   * @throws IllegalArgumentException if the number of seeds is not positive
+   */
+  void applyMosaic(int seeds, long randomSeed) throws IllegalArgumentException;
+
+  /**
+   * Get the current image scaled down to fit in a box, computed quickly on a scaled
+   * down copy of the image so that it looks like the full size image scaled down.
+   *
+   * @param maxWidth the width of the box
+   * @param maxHeight the height of the box
+   * @return the preview
+   * @throws IllegalArgumentException if no image has been loaded or the box is empty
+   */
+  BufferedImage getPreviewImage(int maxWidth, int maxHeight) throws IllegalArgumentException;
+
   /**
    * Produces a grayscale image where edges (areas of high contrast) are highlighted. .
    */
@@ -69,17 +109,34 @@ public interface ImageModel {
   void grayscaleContractEnhancement();
 
   /**
-   * Get current image.
+   * Equalize the histogram of the red, green and blue channels independently. Colors
+   * are kept, but may shift.
+   */
+  void applyChannelEqualization();
+
+  /**
+   * Increase the contrast of an image locally with contrast-limited adaptive
+   * histogram equalization (CLAHE). The result is grayscale.
+   *
+   * @param tiles the number of tiles along each side of the image
+   * @param clipLimit how strongly contrast may be increased; 1 leaves the image flat,
+   *                  typical values are 2 to 4
+   * @throws IllegalArgumentException if tiles is not positive or clipLimit is below 1
+   */
+  void applyAdaptiveEqualization(int tiles, double clipLimit) throws IllegalArgumentException;
+
+  /**
+   * Get current image. The image may share its pixels with the model.
    *
-   * @return the current image.
+   * @return the current image, which callers must not modify.
    */
 
   BufferedImage getCurrentImage();
 
   /**
-   * Get previous image.
+   * Get previous image. The image may share its pixels with the model.
    *
-   * @return the original image.
+   * @return the original image, which callers must not modify.
    */
   BufferedImage getOriginalImage();
 
@@ -89,12 +146,25 @@ public interface ImageModel {
   void undoOneStep();
 
   /**
-   * Redo previous step.
+   * Redo previous step. Every undone step can be redone until a new step is applied.
    */
   void redoOneStep();
 
+  /**
+   * Whether there is an undone step to redo.
+   *
+   * @return true if {@link #redoOneStep()} would succeed
+   */
+  boolean canRedo();
+
   /**
    * Reset to original image.
    */
   void resetToOrigin();
+
+  /**
+   * Release what the model holds outside the heap, such as threads and temporary
+   * files. The model cannot be used afterwards.
+   */
+  void close();
 }
@@ -1,17 +1,65 @@
 package images;
 
-import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
 
 /**
  * Image utility class that has methods to read an image from file and write to
  * a file.
  */
 public class ImageUtilities {
+  private static final int PROBE_CACHE_SIZE = 1024;
+  private static final Map<String, ImageInfo> PROBE_CACHE =
+          new LinkedHashMap<String, ImageInfo>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ImageInfo> eldest) {
+              return size() > PROBE_CACHE_SIZE;
+            }
+          };
+  private static volatile RasterCache rasterCache;
+
+  /**
+   * Keep the pixels of every image read by {@link #readRaster(String)} in a raster
+   * cache, so that reading the same file again maps them instead of decoding it.
+   *
+   * @param cache the cache to use, or null to always decode
+   */
+  public static void setRasterCache(RasterCache cache) {
+    rasterCache = cache;
+  }
+
+  /**
+   * Get the raster cache used when reading images.
+   *
+   * @return the cache, or null if images are always decoded
+   */
+  public static RasterCache getRasterCache() {
+    return rasterCache;
+  }
 
   /**
    * Read an image from a file and convert it to a 3D array of integer values. The
@@ -27,72 +75,296 @@ public class ImageUtilities {
    *                                  image.
    */
   public static int[][][] readImage(String filename) throws IllegalArgumentException {
+    return readRaster(filename).toArray();
+  }
+
+  /**
+   * Read an image from a file into a packed RGB raster. Transparency is dropped.
+   * With a {@link #setRasterCache(RasterCache) raster cache}, an unchanged file
+   * read before is mapped from the cache instead of decoded.
+   *
+   * @param filename the name of the file to be read
+   * @return the raster holding the image
+   * @throws IllegalArgumentException if the filename provided does not contain an
+   *                                  image.
+   */
+  public static Raster readRaster(String filename) throws IllegalArgumentException {
     if (filename == null || "".equals(filename)) {
       throw new IllegalArgumentException("Invalid filename provided for reading the image file.");
     }
-    int[][][] result = null;
+    RasterCache cache = rasterCache;
+    if (cache != null) {
+      Raster cached = cache.get(new File(filename));
+      if (cached != null) {
+        return cached;
+      }
+    }
+    Raster result;
+    try (FileInputStream in = new FileInputStream(filename)) {
+      result = decode(in);
+    } catch (IOException ex) {
+      throw new IllegalArgumentException("Something went wrong reading the image file.");
+    }
+    if (cache != null) {
+      cache.put(new File(filename), result);
+    }
+    return result;
+  }
+
+  /**
+   * Decode the bytes of an image file, already read into memory, into a packed RGB
+   * raster. Transparency is dropped.
+   *
+   * @param data the contents of the file
+   * @return the raster holding the image
+   * @throws IllegalArgumentException if the data is null or not an image
+   */
+  public static Raster decodeRaster(byte[] data) throws IllegalArgumentException {
+    if (data == null) {
+      throw new IllegalArgumentException("Invalid image data provided");
+    }
     try {
-      BufferedImage input = ImageIO.read(new FileInputStream(filename));
+      return decode(new ByteArrayInputStream(data));
+    } catch (IOException ex) {
+      throw new IllegalArgumentException("Something went wrong reading the image file.");
+    }
+  }
+
+  private static Raster decode(InputStream in) throws IOException {
+    BufferedImage input = ImageIO.read(in);
+    if (input == null) {
+      throw new IllegalArgumentException("Something went wrong reading the image file.");
+    }
+    return toRaster(input);
+  }
+
+  /**
+   * Convert a BufferedImage to a packed RGB raster. Transparency is dropped. The
+   * common layouts decoders produce (packed ints, interleaved bytes in RGB or BGR
+   * order, 8-bit gray and indexed color) are copied straight from the data buffer;
+   * any other layout goes through {@link BufferedImage#getRGB(int, int, int, int,
+   * int[], int, int)} a row at a time.
+   *
+   * @param image the image to convert
+   * @return the raster holding the image
+   * @throws IllegalArgumentException if the image is null
+   */
+  public static Raster toRaster(BufferedImage image) throws IllegalArgumentException {
+    if (image == null) {
+      throw new IllegalArgumentException("Invalid image provided");
+    }
+    Raster result = new Raster(image.getWidth(), image.getHeight());
+    if (!copyPacked(image, result) && !copyInterleaved(image, result)) {
+      int width = result.getWidth();
+      int[] pixels = result.getPixels();
+      for (int y = 0; y < result.getHeight(); y++) {
+        image.getRGB(0, y, width, 1, pixels, y * width, width);
+      }
+      for (int i = 0; i < pixels.length; i++) {
+        pixels[i] &= 0xFFFFFF;
+      }
+    }
+    return result;
+  }
 
-      result = new int[input.getHeight()][input.getWidth()][3];
+  /**
+   * Copy an image stored as one int per pixel with 8-bit red, green and blue masks.
+   */
+  private static boolean copyPacked(BufferedImage image, Raster result) {
+    WritableRaster source = image.getRaster();
+    if (!(source.getDataBuffer() instanceof DataBufferInt)
+            || !(source.getSampleModel() instanceof SinglePixelPackedSampleModel)
+            || !(image.getColorModel() instanceof DirectColorModel)
+            || !image.getColorModel().getColorSpace().isCS_sRGB()
+            || image.getColorModel().isAlphaPremultiplied()) {
+      return false;
+    }
+    DirectColorModel model = (DirectColorModel) image.getColorModel();
+    int redShift = shiftOf(model.getRedMask());
+    int greenShift = shiftOf(model.getGreenMask());
+    int blueShift = shiftOf(model.getBlueMask());
+    if (redShift < 0 || greenShift < 0 || blueShift < 0) {
+      return false;
+    }
 
-      for (int i = 0; i < input.getHeight(); i++) {
-        for (int j = 0; j < input.getWidth(); j++) {
-          int color = input.getRGB(j, i);
-          Color c = new Color(color);
-          result[i][j][0] = c.getRed();
-          result[i][j][1] = c.getGreen();
-          result[i][j][2] = c.getBlue();
+    SinglePixelPackedSampleModel layout =
+            (SinglePixelPackedSampleModel) source.getSampleModel();
+    int[] data = ((DataBufferInt) source.getDataBuffer()).getData();
+    int stride = layout.getScanlineStride();
+    int start = source.getDataBuffer().getOffset()
+            - source.getSampleModelTranslateY() * stride - source.getSampleModelTranslateX();
+    int width = result.getWidth();
+    int[] pixels = result.getPixels();
+    boolean standard = redShift == 16 && greenShift == 8 && blueShift == 0;
+    for (int y = 0; y < result.getHeight(); y++) {
+      int i = start + y * stride;
+      int o = y * width;
+      if (standard) {
+        for (int x = 0; x < width; x++) {
+          pixels[o + x] = data[i + x] & 0xFFFFFF;
+        }
+      } else {
+        for (int x = 0; x < width; x++) {
+          int p = data[i + x];
+          pixels[o + x] = ((p >>> redShift) & 0xFF) << 16
+                  | ((p >>> greenShift) & 0xFF) << 8 | (p >>> blueShift) & 0xFF;
         }
       }
+    }
+    return true;
+  }
+
+  /**
+   * Copy an image stored as interleaved 8-bit samples: three or four sRGB bands in
+   * any order, or a single band read through a 256-entry table of its colors.
+   */
+  private static boolean copyInterleaved(BufferedImage image, Raster result) {
+    WritableRaster source = image.getRaster();
+    ColorModel model = image.getColorModel();
+    if (!(source.getDataBuffer() instanceof DataBufferByte)
+            || !(source.getSampleModel() instanceof PixelInterleavedSampleModel)
+            || source.getDataBuffer().getNumBanks() != 1
+            || model.isAlphaPremultiplied()) {
+      return false;
+    }
+    PixelInterleavedSampleModel layout =
+            (PixelInterleavedSampleModel) source.getSampleModel();
+    int bands = layout.getNumBands();
+    for (int size : layout.getSampleSize()) {
+      if (size != 8) {
+        return false;
+      }
+    }
+    int[] lut = null;
+    if (bands == 1) {
+      lut = new int[256];
+      int entries = model instanceof IndexColorModel
+              ? ((IndexColorModel) model).getMapSize() : lut.length;
+      for (int v = 0; v < entries; v++) {
+        // Decoders look colors up from data elements, which for gray images rounds
+        // differently from looking up a plain int.
+        lut[v] = model.getRGB(new byte[] {(byte) v}) & 0xFFFFFF;
+      }
+    } else if (!(model instanceof ComponentColorModel) || !model.getColorSpace().isCS_sRGB()
+            || bands < 3) {
+      return false;
+    }
+
+    byte[] data = ((DataBufferByte) source.getDataBuffer()).getData();
+    int pixelStride = layout.getPixelStride();
+    int stride = layout.getScanlineStride();
+    int[] offsets = layout.getBandOffsets();
+    int start = source.getDataBuffer().getOffset()
+            - source.getSampleModelTranslateY() * stride
+            - source.getSampleModelTranslateX() * pixelStride;
+    int width = result.getWidth();
+    int[] pixels = result.getPixels();
+    for (int y = 0; y < result.getHeight(); y++) {
+      int o = y * width;
+      int row = start + y * stride;
+      if (lut != null) {
+        int i = row + offsets[0];
+        for (int x = 0; x < width; x++, i += pixelStride) {
+          pixels[o + x] = lut[data[i] & 0xFF];
+        }
+      } else {
+        int r = row + offsets[0];
+        int g = row + offsets[1];
+        int b = row + offsets[2];
+        for (int x = 0, d = 0; x < width; x++, d += pixelStride) {
+          pixels[o + x] = (data[r + d] & 0xFF) << 16 | (data[g + d] & 0xFF) << 8
+                  | data[b + d] & 0xFF;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Get the shift of an 8-bit channel mask, or -1 if the mask is not 8 bits wide.
+   */
+  private static int shiftOf(int mask) {
+    int shift = Integer.numberOfTrailingZeros(mask);
+    return mask != 0 && (mask >>> shift) == 0xFF ? shift : -1;
+  }
+
+  /**
+   * Read the size, bands, bit depth and format of an image file from its header,
+   * without decoding the pixels. Results are cached by path, file size and
+   * modification time, so probing an unchanged file again does not open it.
+   *
+   * @param filename the name of the file containing the image
+   * @return the description of the image
+   * @throws IllegalArgumentException if the filename provided does not contain an
+   *                                  image.
+   */
+  public static ImageInfo probe(String filename) throws IllegalArgumentException {
+    if (filename == null || "".equals(filename)) {
+      throw new IllegalArgumentException("Invalid filename provided for probing the image file");
+    }
+    File file = new File(filename).getAbsoluteFile();
+    String key = file.getPath() + '|' + file.length() + '|' + file.lastModified();
+    synchronized (PROBE_CACHE) {
+      ImageInfo cached = PROBE_CACHE.get(key);
+      if (cached != null) {
+        return cached;
+      }
+    }
+
+    ImageInfo info;
+    try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+      Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+      if (readers == null || !readers.hasNext()) {
+        throw new IllegalArgumentException("Something went wrong reading the image file.");
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(in, true, true);
+        ImageTypeSpecifier type = reader.getRawImageType(0);
+        if (type == null) {
+          type = reader.getImageTypes(0).next();
+        }
+        info = new ImageInfo(reader.getWidth(0), reader.getHeight(0), type.getNumBands(),
+                type.getBitsPerBand(0), reader.getFormatName().toLowerCase());
+      } finally {
+        reader.dispose();
+      }
     } catch (IOException ex) {
       throw new IllegalArgumentException("Something went wrong reading the image file.");
     }
-    return result;
+
+    synchronized (PROBE_CACHE) {
+      PROBE_CACHE.put(key, info);
+    }
+    return info;
   }
 
   /**
-   * Return the width of an image in a file.
+   * Return the width of an image in a file. Only the header of the file is read.
    *
    * @param filename the name of the file containing the image.
    * @return the width of the image in the file
-   * @throws if the filename provided does not contain an image.
+   * @throws IllegalArgumentException if the filename provided does not contain an image.
    */
-  public static int getWidth(String filename) {
+  public static int getWidth(String filename) throws IllegalArgumentException {
     if (filename == null || "".equals(filename)) {
       throw new IllegalArgumentException("Invalid filename provided for getting the width of file");
     }
-    int width = 0;
-    try {
-      BufferedImage input = ImageIO.read(new FileInputStream(filename));
-      width = input.getWidth();
-    } catch (IOException ex) {
-      throw new IllegalArgumentException(
-              "Something went wrong getting the width from the image file");
-    }
-    return width;
+    return probe(filename).getWidth();
   }
 
   /**
-   * Return the height of an image in a file.
+   * Return the height of an image in a file. Only the header of the file is read.
    *
    * @param filename the name of the file containing the image.
    * @return the height of the image in the file
-   * @throws if the filename provided does not contain an image.
+   * @throws IllegalArgumentException if the filename provided does not contain an image.
    */
-  public static int getHeight(String filename) throws IOException {
+  public static int getHeight(String filename) throws IllegalArgumentException {
     if (filename == null || "".equals(filename)) {
       throw new IllegalArgumentException("Invalid filename provided for getting the width of file");
     }
-    int height = 0;
-    try {
-      BufferedImage input = ImageIO.read(new FileInputStream(filename));
-      height = input.getHeight();
-    } catch (IOException ex) {
-      throw new IllegalArgumentException(
-              "Something went wrong getting the height from the image file");
-    }
-    return height;
+    return probe(filename).getHeight();
   }
 
   /**
@@ -113,30 +385,30 @@ public class ImageUtilities {
     if (rgbData == null) {
       throw new IllegalArgumentException("Invalid image data provided");
     }
+    writeRaster(Raster.fromArray(rgbData), filename);
+  }
+
+  /**
+   * Write a packed RGB raster to a file. The format is taken from the extension of
+   * the filename.
+   *
+   * @param raster the raster to write
+   * @param filename the name of the file to write the image to
+   * @throws IllegalArgumentException if the raster or filename provided was invalid
+   * @throws IllegalArgumentException if something went wrong when writing go the filename
+   */
+  public static void writeRaster(Raster raster, String filename)
+          throws IllegalArgumentException {
+    if (raster == null) {
+      throw new IllegalArgumentException("Invalid image data provided");
+    }
     if (filename == null || "".equals(filename)) {
       throw new IllegalArgumentException("Invalid filename provided");
     }
-    try {
-      int height = rgbData.length;
-      int width = rgbData[0].length;
-
-      BufferedImage output = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-
-      for (int i = 0; i < height; i++) {
-        for (int j = 0; j < width; j++) {
-          int r = rgbData[i][j][0];
-          int g = rgbData[i][j][1];
-          int b = rgbData[i][j][2];
-
-          // color is stored in 1 integer, with the 4 bytes storing ARGB in that
-          // order. Each of r,g,b are stored in 8 bits (hence between 0 and 255).
-          // So we put them all in one integer by using bit-shifting << as below
-          int color = (r << 16) + (g << 8) + b;
-          output.setRGB(j, i, color);
-        }
-      }
-      String extension = filename.substring(filename.indexOf(".") + 1);
-      ImageIO.write(output, extension, new FileOutputStream(filename));
+    BufferedImage output = convertRaster(raster);
+    String extension = filename.substring(filename.lastIndexOf(".") + 1);
+    try (FileOutputStream out = new FileOutputStream(filename)) {
+      ImageIO.write(output, extension, out);
     } catch (IOException ex) {
       throw new IllegalArgumentException("Error occurred writing the data to the file");
     }
@@ -157,21 +429,58 @@ public class ImageUtilities {
     if (rgbData == null) {
       throw new IllegalArgumentException("Invalid image data provided");
     }
-    int height = rgbData.length;
-    int width = rgbData[0].length;
-    BufferedImage output = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    return convertRaster(Raster.fromArray(rgbData));
+  }
 
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        int r = rgbData[i][j][0];
-        int g = rgbData[i][j][1];
-        int b = rgbData[i][j][2];
+  /**
+   * Convert a packed RGB raster to a new BufferedImage of type
+   * {@link BufferedImage#TYPE_INT_RGB}.
+   *
+   * @param raster the raster to convert
+   * @return the image
+   * @throws IllegalArgumentException if the raster provided was invalid
+   */
+  public static BufferedImage convertRaster(Raster raster) throws IllegalArgumentException {
+    if (raster == null) {
+      throw new IllegalArgumentException("Invalid image data provided");
+    }
+    int height = raster.getHeight();
+    int width = raster.getWidth();
+    BufferedImage output = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
 
-        int color = (r << 16) + (g << 8) + b;
-        output.setRGB(j, i, color);
+    // A new TYPE_INT_RGB image stores its pixels exactly like a compact raster.
+    int[] data = ((DataBufferInt) output.getRaster().getDataBuffer()).getData();
+    if (raster.isCompact()) {
+      System.arraycopy(raster.getPixels(), 0, data, 0, data.length);
+    } else {
+      for (int y = 0; y < height; y++) {
+        System.arraycopy(raster.getPixels(), raster.index(0, y), data, y * width, width);
       }
     }
     return output;
   }
 
+  /**
+   * Get a BufferedImage that shows the pixels of a raster without copying them. The
+   * image reads the raster's own buffer, so it costs no allocation however large the
+   * raster is, and it must not be drawn into: that would change the raster too.
+   *
+   * @param raster the raster to show
+   * @return an image sharing the raster's pixel buffer
+   * @throws IllegalArgumentException if the raster provided was invalid
+   */
+  public static BufferedImage wrapRaster(Raster raster) throws IllegalArgumentException {
+    if (raster == null) {
+      throw new IllegalArgumentException("Invalid image data provided");
+    }
+    DirectColorModel model = new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+    DataBufferInt buffer = new DataBufferInt(raster.getPixels(), raster.getPixels().length,
+            raster.getOffset());
+    SinglePixelPackedSampleModel layout = new SinglePixelPackedSampleModel(
+            DataBuffer.TYPE_INT, raster.getWidth(), raster.getHeight(), raster.getStride(),
+            model.getMasks());
+    WritableRaster pixels = java.awt.image.Raster.createWritableRaster(layout, buffer, null);
+    return new BufferedImage(model, pixels, false, null);
+  }
+
 }
@@ -0,0 +1,273 @@
+package images;
+
+/**
+ * A raster of packed RGB pixels. Every pixel is one int in a single contiguous
+ * array: red in bits 16-23, green in bits 8-15 and blue in bits 0-7, the same
+ * layout as {@link java.awt.image.BufferedImage#TYPE_INT_RGB}. Rows start
+ * {@code stride} ints apart from {@code offset}, so a raster can also describe a
+ * window of a larger buffer.
+ */
+public final class Raster {
+  private final int width;
+  private final int height;
+  private final int offset;
+  private final int stride;
+  private final int[] pixels;
+
+  /**
+   * Constructs a black raster of the given size.
+   *
+   * @param width the width in pixels
+   * @param height the height in pixels
+   * @throws IllegalArgumentException if either dimension is not positive
+   */
+  public Raster(int width, int height) throws IllegalArgumentException {
+    this(width, height, allocate(width, height), 0, width);
+  }
+
+  /**
+   * Constructs a raster over an existing pixel buffer. The buffer is not copied.
+   *
+   * @param width the width in pixels
+   * @param height the height in pixels
+   * @param pixels the packed RGB pixels
+   * @param offset the index of the top-left pixel
+   * @param stride the distance between the starts of two consecutive rows
+   * @throws IllegalArgumentException if the buffer cannot hold the described raster
+   */
+  public Raster(int width, int height, int[] pixels, int offset, int stride)
+          throws IllegalArgumentException {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Invalid raster size " + width + "x" + height);
+    }
+    if (pixels == null || offset < 0 || stride < width
+            || offset + (long) (height - 1) * stride + width > pixels.length) {
+      throw new IllegalArgumentException("Invalid pixel buffer provided");
+    }
+    this.width = width;
+    this.height = height;
+    this.pixels = pixels;
+    this.offset = offset;
+    this.stride = stride;
+  }
+
+  /**
+   * Get the width of the raster.
+   *
+   * @return the width in pixels
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Get the height of the raster.
+   *
+   * @return the height in pixels
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Get the index of the top-left pixel in the pixel buffer.
+   *
+   * @return the offset of the first row
+   */
+  public int getOffset() {
+    return offset;
+  }
+
+  /**
+   * Get the distance between the starts of two consecutive rows.
+   *
+   * @return the stride in ints
+   */
+  public int getStride() {
+    return stride;
+  }
+
+  /**
+   * Get the backing pixel buffer. Filters read and write it directly, so the
+   * buffer is shared rather than copied.
+   *
+   * @return the packed RGB pixels
+   */
+  public int[] getPixels() {
+    return pixels;
+  }
+
+  /**
+   * Get the index of a pixel in the pixel buffer.
+   *
+   * @param x the column
+   * @param y the row
+   * @return the index of the pixel
+   */
+  public int index(int x, int y) {
+    return offset + y * stride + x;
+  }
+
+  /**
+   * Get a packed RGB pixel.
+   *
+   * @param x the column
+   * @param y the row
+   * @return the packed pixel
+   */
+  public int getRGB(int x, int y) {
+    return pixels[offset + y * stride + x];
+  }
+
+  /**
+   * Set a packed RGB pixel.
+   *
+   * @param x the column
+   * @param y the row
+   * @param rgb the packed pixel
+   */
+  public void setRGB(int x, int y, int rgb) {
+    pixels[offset + y * stride + x] = rgb;
+  }
+
+  /**
+   * Whether the rows of this raster are stored back to back from index 0.
+   *
+   * @return true if the pixel buffer holds exactly this raster
+   */
+  public boolean isCompact() {
+    return offset == 0 && stride == width && pixels.length == width * height;
+  }
+
+  /**
+   * Create a compact copy of this raster.
+   *
+   * @return the copy
+   */
+  public Raster copy() {
+    Raster copy = new Raster(width, height);
+    if (isCompact()) {
+      System.arraycopy(pixels, 0, copy.pixels, 0, pixels.length);
+    } else {
+      for (int y = 0; y < height; y++) {
+        System.arraycopy(pixels, index(0, y), copy.pixels, y * width, width);
+      }
+    }
+    return copy;
+  }
+
+  /**
+   * Create a black compact raster of the same size.
+   *
+   * @return the new raster
+   */
+  public Raster createCompatible() {
+    return new Raster(width, height);
+  }
+
+  /**
+   * Convert a 3D array of integer values into a raster. The first dimension is the
+   * height, the second the width and the third the red, green and blue channels.
+   * Channel values outside 0-255 are clamped.
+   *
+   * @param rgbData the 3D array of integer values
+   * @return the raster
+   * @throws IllegalArgumentException if the rgbData provided was invalid
+   */
+  public static Raster fromArray(int[][][] rgbData) throws IllegalArgumentException {
+    if (rgbData == null || rgbData.length == 0 || rgbData[0].length == 0) {
+      throw new IllegalArgumentException("Invalid image data provided");
+    }
+    Raster raster = new Raster(rgbData[0].length, rgbData.length);
+    int i = 0;
+    for (int h = 0; h < raster.height; h++) {
+      for (int w = 0; w < raster.width; w++) {
+        int[] color = rgbData[h][w];
+        raster.pixels[i++] = pack(color[0], color[1], color[2]);
+      }
+    }
+    return raster;
+  }
+
+  /**
+   * Convert this raster into a 3D array of integer values, laid out as described in
+   * {@link #fromArray(int[][][])}.
+   *
+   * @return the 3D array of integer values
+   */
+  public int[][][] toArray() {
+    int[][][] rgbData = new int[height][width][3];
+    for (int h = 0; h < height; h++) {
+      int i = index(0, h);
+      for (int w = 0; w < width; w++, i++) {
+        int rgb = pixels[i];
+        rgbData[h][w][0] = red(rgb);
+        rgbData[h][w][1] = green(rgb);
+        rgbData[h][w][2] = blue(rgb);
+      }
+    }
+    return rgbData;
+  }
+
+  /**
+   * Pack three channel values into one pixel, clamping each to 0-255.
+   *
+   * @param r the red value
+   * @param g the green value
+   * @param b the blue value
+   * @return the packed pixel
+   */
+  public static int pack(int r, int g, int b) {
+    return (clamp(r) << 16) | (clamp(g) << 8) | clamp(b);
+  }
+
+  /**
+   * Clamp a channel value to 0-255.
+   *
+   * @param value the channel value
+   * @return the clamped value
+   */
+  public static int clamp(int value) {
+    return value < 0 ? 0 : value > 255 ? 255 : value;
+  }
+
+  /**
+   * Get the red channel of a packed pixel.
+   *
+   * @param rgb the packed pixel
+   * @return the red value
+   */
+  public static int red(int rgb) {
+    return (rgb >> 16) & 0xFF;
+  }
+
+  /**
+   * Get the green channel of a packed pixel.
+   *
+   * @param rgb the packed pixel
+   * @return the green value
+   */
+  public static int green(int rgb) {
+    return (rgb >> 8) & 0xFF;
+  }
+
+  /**
+   * Get the blue channel of a packed pixel.
+   *
+   * @param rgb the packed pixel
+   * @return the blue value
+   */
+  public static int blue(int rgb) {
+    return rgb & 0xFF;
+  }
+
+  private static int[] allocate(int width, int height) {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Invalid raster size " + width + "x" + height);
+    }
+    if ((long) width * height > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Raster too large: " + width + "x" + height);
+    }
+    return new int[width * height];
+  }
+}
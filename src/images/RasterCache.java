@@ -0,0 +1,320 @@
+package images;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.CRC32;
+
+/**
+ * A directory of decoded images in a raw raster format, so that reopening a large
+ * image maps its pixels instead of decoding the PNG or JPEG again. Each entry is a
+ * 64-byte header followed by the packed RGB pixels as little-endian ints:
+ *
+ * <pre>
+ *   0  magic "RRAS"        16  source length      40  reserved
+ *   4  format version      24  source mtime
+ *   8  width               32  source CRC-32
+ *  12  height
+ * </pre>
+ *
+ * <p>An entry is used while its source has the recorded length and modification
+ * time. Entries can also be stored under a key instead of a source file, such as the
+ * content key of a filtered image; they have no source to check, and the source
+ * fields are zero, so a keyed entry with any other source fields is deleted. If only
+ * the time changed, the source is hashed and the entry kept when the contents are the
+ * same. The directory is kept under a size budget by deleting the
+ * least recently used entries; using an entry touches its modification time, so the
+ * order survives restarts and is shared by every process using the directory.
+ * Failures to read or write the cache are never errors: the image is just decoded.
+ */
+public final class RasterCache {
+  private static final int MAGIC = 0x52524153;
+  private static final int VERSION = 1;
+  private static final int HEADER = 64;
+  private static final String SUFFIX = ".raster";
+
+  private final File directory;
+  private final long maxBytes;
+
+  /**
+   * Constructs a cache in a directory, which is created if needed.
+   *
+   * @param directory the directory holding the entries
+   * @param maxBytes the total size of the entries to keep
+   * @throws IllegalArgumentException if the directory cannot be used or the size
+   *                                  is not positive
+   */
+  public RasterCache(File directory, long maxBytes) throws IllegalArgumentException {
+    if (directory == null || maxBytes <= 0) {
+      throw new IllegalArgumentException("Invalid raster cache provided");
+    }
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IllegalArgumentException("Cannot create the raster cache " + directory);
+    }
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Constructs a cache under the temporary directory, shared by every program that
+   * uses this default.
+   *
+   * @param maxBytes the total size of the entries to keep
+   * @return the cache
+   * @throws IllegalArgumentException if the directory cannot be used
+   */
+  public static RasterCache inTemporaryDirectory(long maxBytes)
+          throws IllegalArgumentException {
+    return new RasterCache(new File(System.getProperty("java.io.tmpdir"),
+            "image-processor-cache"), maxBytes);
+  }
+
+  /**
+   * Get the pixels cached for a source image.
+   *
+   * @param source the image file
+   * @return the pixels, or null if there is no entry or the source changed
+   */
+  public Raster get(File source) {
+    return read(entryFor("file " + source.getAbsolutePath()), source);
+  }
+
+  /**
+   * Get the pixels cached under a key.
+   *
+   * @param key the key the pixels were stored under
+   * @return the pixels, or null if there is no entry
+   */
+  public Raster get(String key) {
+    return read(entryFor("key " + key), null);
+  }
+
+  /**
+   * Read an entry, checking it against its source if it has one.
+   */
+  private Raster read(File entry, File source) {
+    if (!entry.isFile()) {
+      return null;
+    }
+    try (RandomAccessFile file = new RandomAccessFile(entry, "rw");
+         FileChannel channel = file.getChannel()) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+      channel.read(header, 0);
+      int width = header.getInt(8);
+      int height = header.getInt(12);
+      long pixels = (long) width * height;
+      if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || width <= 0
+              || height <= 0 || channel.size() != HEADER + 4 * pixels) {
+        delete(entry);
+        return null;
+      }
+      if (source == null && (header.getLong(16) != 0 || header.getLong(24) != 0
+              || header.getLong(32) != 0)) {
+        // a keyed entry has no source to check its fields against
+        delete(entry);
+        return null;
+      }
+      long length = source == null ? 0 : source.length();
+      long modified = source == null ? 0 : source.lastModified();
+      if (header.getLong(16) != length) {
+        delete(entry);
+        return null;
+      }
+      if (header.getLong(24) != modified) {
+        if (header.getLong(32) != checksum(source)) {
+          delete(entry);
+          return null;
+        }
+        header.putLong(24, modified);
+        header.position(24).limit(32);
+        channel.write(header, 24);
+      }
+
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, HEADER, 4 * pixels);
+      IntBuffer ints = mapped.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+      Raster result = new Raster(width, height);
+      ints.get(result.getPixels());
+      entry.setLastModified(System.currentTimeMillis());
+      return result;
+    } catch (IOException | IllegalArgumentException ex) {
+      return null;
+    }
+  }
+
+  /**
+   * Cache the decoded pixels of a source image, replacing any older entry, then
+   * evict entries until the directory fits its budget. Images larger than the whole
+   * budget are not cached.
+   *
+   * @param source the image file
+   * @param raster the decoded pixels
+   */
+  public void put(File source, Raster raster) {
+    if (!fits(raster)) {
+      return;
+    }
+    try {
+      write(entryFor("file " + source.getAbsolutePath()), raster, source.length(),
+              source.lastModified(), checksum(source));
+    } catch (IOException ex) {
+      // The image stays uncached.
+    }
+  }
+
+  /**
+   * Cache pixels under a key, replacing any older entry, then evict entries until
+   * the directory fits its budget. Images larger than the whole budget are not
+   * cached.
+   *
+   * @param key the key to look the pixels up by
+   * @param raster the pixels
+   */
+  public void put(String key, Raster raster) {
+    if (fits(raster)) {
+      write(entryFor("key " + key), raster, 0, 0, 0);
+    }
+  }
+
+  private boolean fits(Raster raster) {
+    long bytes = HEADER + 4L * raster.getWidth() * raster.getHeight();
+    return bytes <= maxBytes && bytes <= Integer.MAX_VALUE;
+  }
+
+  private void write(File entry, Raster raster, long length, long modified, long checksum) {
+    long bytes = HEADER + 4L * raster.getWidth() * raster.getHeight();
+    File temporary = null;
+    try {
+      temporary = File.createTempFile("entry", ".tmp", directory);
+      try (RandomAccessFile file = new RandomAccessFile(temporary, "rw");
+           FileChannel channel = file.getChannel()) {
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+        mapped.putInt(MAGIC).putInt(VERSION).putInt(raster.getWidth())
+                .putInt(raster.getHeight()).putLong(length).putLong(modified).putLong(checksum);
+        mapped.position(HEADER);
+        IntBuffer ints = mapped.asIntBuffer();
+        if (raster.isCompact()) {
+          ints.put(raster.getPixels());
+        } else {
+          for (int y = 0; y < raster.getHeight(); y++) {
+            ints.put(raster.getPixels(), raster.index(0, y), raster.getWidth());
+          }
+        }
+      }
+      // Readers in other processes only ever see a complete entry.
+      Files.move(temporary.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING,
+              StandardCopyOption.ATOMIC_MOVE);
+      temporary = null;
+      entry.setLastModified(System.currentTimeMillis());
+      evict(entry);
+    } catch (IOException | IllegalArgumentException ex) {
+      // The image stays uncached.
+    } finally {
+      if (temporary != null) {
+        delete(temporary);
+      }
+    }
+  }
+
+  /**
+   * Remove the entry of a source image, if there is one.
+   *
+   * @param source the image file
+   */
+  public void remove(File source) {
+    delete(entryFor("file " + source.getAbsolutePath()));
+  }
+
+  /**
+   * Get the total size of the entries in the directory.
+   *
+   * @return the size in bytes
+   */
+  public long getSize() {
+    long total = 0;
+    for (File entry : entries()) {
+      total += entry.length();
+    }
+    return total;
+  }
+
+  /**
+   * Delete the least recently used entries until the directory fits the budget,
+   * keeping the entry just written.
+   */
+  private synchronized void evict(File keep) {
+    File[] entries = entries();
+    long total = 0;
+    long[] used = new long[entries.length];
+    for (int i = 0; i < entries.length; i++) {
+      total += entries[i].length();
+      used[i] = entries[i].lastModified();
+    }
+    if (total <= maxBytes) {
+      return;
+    }
+    Integer[] order = new Integer[entries.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, Comparator.comparingLong(i -> used[i]));
+    for (int i = 0; i < order.length && total > maxBytes; i++) {
+      File entry = entries[order[i]];
+      if (!entry.equals(keep)) {
+        long length = entry.length();
+        if (entry.delete()) {
+          total -= length;
+        }
+      }
+    }
+  }
+
+  private File[] entries() {
+    File[] entries = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+    return entries == null ? new File[0] : entries;
+  }
+
+  /**
+   * Name an entry by a digest of what it is looked up by.
+   */
+  private File entryFor(String lookup) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      byte[] hash = digest.digest(lookup.getBytes(StandardCharsets.UTF_8));
+      StringBuilder name = new StringBuilder();
+      for (byte b : hash) {
+        name.append(String.format("%02x", b));
+      }
+      return new File(directory, name.append(SUFFIX).toString());
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException("SHA-1 is not available", ex);
+    }
+  }
+
+  private static long checksum(File source) throws IOException {
+    CRC32 crc = new CRC32();
+    try (RandomAccessFile file = new RandomAccessFile(source, "r");
+         FileChannel channel = file.getChannel()) {
+      crc.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+    return crc.getValue();
+  }
+
+  private static void delete(File file) {
+    if (!file.delete() && file.exists()) {
+      file.deleteOnExit();
+    }
+  }
+}
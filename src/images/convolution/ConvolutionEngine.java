@@ -0,0 +1,267 @@
+package images.convolution;
+
+import images.Raster;
+import images.parallel.TileExecutor;
+import java.util.Arrays;
+
+/**
+ * Convolves rasters with a {@link Kernel}. Sums are accumulated in fixed-point
+ * integers and rounded once per output value; taps outside the image are handled as
+ * the kernel's {@link EdgeMode} says.
+ *
+ * <p>Rows are processed tap by tap: for every tap the range of output columns whose
+ * source pixel lies inside the image is computed up front, so the inner loop over a
+ * row runs without any bounds checks and only the clipped ends of border rows get
+ * special treatment.
+ *
+ * <p>Separable kernels run as a horizontal pass into a ring of intermediate rows,
+ * kept with 8 extra fractional bits, followed by a vertical pass over that ring.
+ *
+ * <p>Output rows are split into bands on a {@link TileExecutor}. Each band fills its
+ * own ring, re-running the horizontal pass over the kernel's halo rows.
+ */
+public class ConvolutionEngine {
+  /** Extra fractional bits kept between the horizontal and the vertical pass. */
+  private static final int INTERMEDIATE_BITS = 8;
+
+  private final TileExecutor executor;
+
+  /**
+   * Constructs an engine that runs on the shared {@link TileExecutor#common()}.
+   */
+  public ConvolutionEngine() {
+    this(TileExecutor.common());
+  }
+
+  /**
+   * Constructs an engine that runs on the given executor.
+   *
+   * @param executor the executor to split rows over
+   * @throws IllegalArgumentException if the executor is null
+   */
+  public ConvolutionEngine(TileExecutor executor) throws IllegalArgumentException {
+    if (executor == null) {
+      throw new IllegalArgumentException("Invalid executor provided");
+    }
+    this.executor = executor;
+  }
+
+  /**
+   * Convolve a raster with a kernel. Results are clamped to 0-255.
+   *
+   * @param src the raster to read
+   * @param kernel the kernel to apply
+   * @return a new raster with the filtered image
+   * @throws IllegalArgumentException if either argument is null
+   */
+  public Raster convolve(Raster src, Kernel kernel) throws IllegalArgumentException {
+    checkArguments(src, kernel);
+    Raster dst = src.createCompatible();
+    RowSink sink = packInto(dst);
+    executor.forEachBand(src.getHeight(), kernel.getVerticalRadius(),
+            (y0, y1) -> convolveRows(src, kernel, sink, y0, y1));
+    return dst;
+  }
+
+  /**
+   * Convolve a raster with a kernel and keep the signed, unclamped results. This is
+   * what gradient filters need before combining several directions.
+   *
+   * @param src the raster to read
+   * @param kernel the kernel to apply
+   * @return three planes of {@code width * height} values: red, green and blue
+   * @throws IllegalArgumentException if either argument is null
+   */
+  public int[][] convolveSigned(Raster src, Kernel kernel) throws IllegalArgumentException {
+    checkArguments(src, kernel);
+    int[][] planes = new int[3][src.getWidth() * src.getHeight()];
+    RowSink sink = copyInto(planes, src.getWidth());
+    executor.forEachBand(src.getHeight(), kernel.getVerticalRadius(),
+            (y0, y1) -> convolveRows(src, kernel, sink, y0, y1));
+    return planes;
+  }
+
+  private void convolveRows(Raster src, Kernel kernel, RowSink sink, int y0, int y1) {
+    if (kernel.isSeparable()) {
+      convolveSeparable(src, kernel, sink, y0, y1);
+    } else {
+      convolveFull(src, kernel, sink, y0, y1);
+    }
+  }
+
+  private void convolveFull(Raster src, Kernel kernel, RowSink sink, int y0, int y1) {
+    int width = src.getWidth();
+    int height = src.getHeight();
+    boolean extend = kernel.getEdgeMode() == EdgeMode.EXTEND;
+    Kernel.Taps taps = kernel.taps();
+    int[] accR = new int[width];
+    int[] accG = new int[width];
+    int[] accB = new int[width];
+    for (int y = y0; y < y1; y++) {
+      Arrays.fill(accR, 0);
+      Arrays.fill(accG, 0);
+      Arrays.fill(accB, 0);
+      for (int t = 0; t < taps.count(); t++) {
+        int sy = y + taps.dy[t];
+        if (sy < 0 || sy >= height) {
+          if (!extend) {
+            continue;
+          }
+          sy = sy < 0 ? 0 : height - 1;
+        }
+        accumulate(src.getPixels(), src.index(0, sy), width, taps.dx[t], taps.weight[t],
+                extend, accR, accG, accB);
+      }
+      for (int x = 0; x < width; x++) {
+        accR[x] = (accR[x] + Kernel.HALF) >> Kernel.SHIFT;
+        accG[x] = (accG[x] + Kernel.HALF) >> Kernel.SHIFT;
+        accB[x] = (accB[x] + Kernel.HALF) >> Kernel.SHIFT;
+      }
+      sink.accept(y, accR, accG, accB);
+    }
+  }
+
+  private void convolveSeparable(Raster src, Kernel kernel, RowSink sink, int y0, int y1) {
+    int width = src.getWidth();
+    int height = src.getHeight();
+    boolean extend = kernel.getEdgeMode() == EdgeMode.EXTEND;
+    Kernel.Taps rowTaps = kernel.rowTaps();
+    Kernel.Taps columnTaps = kernel.columnTaps();
+
+    // horizontally filtered source rows, slot = row % ringSize; a kernel taller than
+    // the image never needs more rows than the image has
+    int ringSize = Math.min(kernel.getHeight(), height);
+    int[][] ringR = new int[ringSize][width];
+    int[][] ringG = new int[ringSize][width];
+    int[][] ringB = new int[ringSize][width];
+    int[] ringRow = new int[ringSize];
+    Arrays.fill(ringRow, -1);
+
+    long[] accR = new long[width];
+    long[] accG = new long[width];
+    long[] accB = new long[width];
+    int[] outR = new int[width];
+    int[] outG = new int[width];
+    int[] outB = new int[width];
+    int shift = Kernel.SHIFT + INTERMEDIATE_BITS;
+    long half = 1L << (shift - 1);
+    for (int y = y0; y < y1; y++) {
+      Arrays.fill(accR, 0);
+      Arrays.fill(accG, 0);
+      Arrays.fill(accB, 0);
+      for (int t = 0; t < columnTaps.count(); t++) {
+        int sy = y + columnTaps.dx[t];
+        if (sy < 0 || sy >= height) {
+          if (!extend) {
+            continue;
+          }
+          sy = sy < 0 ? 0 : height - 1;
+        }
+        int slot = sy % ringSize;
+        if (ringRow[slot] != sy) {
+          filterRow(src, sy, rowTaps, extend, ringR[slot], ringG[slot], ringB[slot]);
+          ringRow[slot] = sy;
+        }
+        long weight = columnTaps.weight[t];
+        int[] r = ringR[slot];
+        int[] g = ringG[slot];
+        int[] b = ringB[slot];
+        for (int x = 0; x < width; x++) {
+          accR[x] += r[x] * weight;
+          accG[x] += g[x] * weight;
+          accB[x] += b[x] * weight;
+        }
+      }
+      for (int x = 0; x < width; x++) {
+        outR[x] = (int) ((accR[x] + half) >> shift);
+        outG[x] = (int) ((accG[x] + half) >> shift);
+        outB[x] = (int) ((accB[x] + half) >> shift);
+      }
+      sink.accept(y, outR, outG, outB);
+    }
+  }
+
+  // Run the horizontal pass over source row sy, keeping INTERMEDIATE_BITS of fraction.
+  private void filterRow(Raster src, int sy, Kernel.Taps rowTaps, boolean extend,
+                         int[] r, int[] g, int[] b) {
+    int width = src.getWidth();
+    Arrays.fill(r, 0);
+    Arrays.fill(g, 0);
+    Arrays.fill(b, 0);
+    for (int t = 0; t < rowTaps.count(); t++) {
+      accumulate(src.getPixels(), src.index(0, sy), width, rowTaps.dx[t], rowTaps.weight[t],
+              extend, r, g, b);
+    }
+    int shift = Kernel.SHIFT - INTERMEDIATE_BITS;
+    int half = 1 << (shift - 1);
+    for (int x = 0; x < width; x++) {
+      r[x] = (r[x] + half) >> shift;
+      g[x] = (g[x] + half) >> shift;
+      b[x] = (b[x] + half) >> shift;
+    }
+  }
+
+  // Add one tap, shifted by dx, of the source row starting at rowStart.
+  private static void accumulate(int[] pixels, int rowStart, int width, int dx, int weight,
+                                 boolean extend, int[] accR, int[] accG, int[] accB) {
+    int xStart = Math.min(width, Math.max(0, -dx));
+    int xEnd = Math.max(xStart, Math.min(width, width - dx));
+    int base = rowStart + dx;
+    for (int x = xStart; x < xEnd; x++) {
+      int rgb = pixels[base + x];
+      accR[x] += ((rgb >> 16) & 0xFF) * weight;
+      accG[x] += ((rgb >> 8) & 0xFF) * weight;
+      accB[x] += (rgb & 0xFF) * weight;
+    }
+    if (extend) {
+      addEdge(pixels[rowStart], weight, 0, xStart, accR, accG, accB);
+      addEdge(pixels[rowStart + width - 1], weight, xEnd, width, accR, accG, accB);
+    }
+  }
+
+  private static void addEdge(int rgb, int weight, int from, int to,
+                              int[] accR, int[] accG, int[] accB) {
+    int r = ((rgb >> 16) & 0xFF) * weight;
+    int g = ((rgb >> 8) & 0xFF) * weight;
+    int b = (rgb & 0xFF) * weight;
+    for (int x = from; x < to; x++) {
+      accR[x] += r;
+      accG[x] += g;
+      accB[x] += b;
+    }
+  }
+
+  private static RowSink packInto(Raster dst) {
+    return (y, r, g, b) -> {
+      int[] out = dst.getPixels();
+      int o = dst.index(0, y);
+      for (int x = 0; x < r.length; x++) {
+        out[o + x] = Raster.pack(r[x], g[x], b[x]);
+      }
+    };
+  }
+
+  private static RowSink copyInto(int[][] planes, int width) {
+    return (y, r, g, b) -> {
+      System.arraycopy(r, 0, planes[0], y * width, width);
+      System.arraycopy(g, 0, planes[1], y * width, width);
+      System.arraycopy(b, 0, planes[2], y * width, width);
+    };
+  }
+
+  private void checkArguments(Raster src, Kernel kernel) {
+    if (src == null) {
+      throw new IllegalArgumentException("Invalid image data provided");
+    }
+    if (kernel == null) {
+      throw new IllegalArgumentException("Invalid kernel provided");
+    }
+  }
+
+  /**
+   * Receives finished output rows, one value per column and channel.
+   */
+  private interface RowSink {
+    void accept(int y, int[] r, int[] g, int[] b);
+  }
+}
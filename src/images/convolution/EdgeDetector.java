@@ -0,0 +1,130 @@
+package images.convolution;
+
+import images.Raster;
+import images.parallel.TileExecutor;
+import images.pointop.ColorMatrix;
+
+/**
+ * Sobel edge detection. The gradient magnitude of every channel is stretched to 0-255
+ * over the range found in the image and then greyscaled. Finding the range and
+ * stretching are separate steps, so an image processed in strips can collect the
+ * range over all strips first.
+ */
+public class EdgeDetector {
+  /** Number of rows the detector reads above and below each output row. */
+  public static final int HALO = 1;
+
+  private final ConvolutionEngine engine;
+  private final TileExecutor executor;
+
+  /**
+   * Constructs a detector that runs on the given executor.
+   *
+   * @param executor the executor to split rows over
+   * @throws IllegalArgumentException if the executor is null
+   */
+  public EdgeDetector(TileExecutor executor) throws IllegalArgumentException {
+    if (executor == null) {
+      throw new IllegalArgumentException("Invalid executor provided");
+    }
+    this.executor = executor;
+    engine = new ConvolutionEngine(executor);
+  }
+
+  /**
+   * Detect the edges of a raster.
+   *
+   * @param src the raster to read
+   * @return a new raster with the edges
+   */
+  public Raster detect(Raster src) {
+    int[][] magnitude = magnitude(src);
+    int[] range = range(magnitude, src.getWidth(), 0, src.getHeight());
+    return normalize(magnitude, src.getWidth(), 0, src.getHeight(), range[0], range[1]);
+  }
+
+  /**
+   * Compute the gradient magnitude of every channel.
+   *
+   * @param src the raster to read
+   * @return three planes of {@code width * height} magnitudes: red, green and blue
+   */
+  public int[][] magnitude(Raster src) {
+    int[][] gxImage = engine.convolveSigned(src, Kernels.SOBEL_X);
+    int[][] gyImage = engine.convolveSigned(src, Kernels.SOBEL_Y);
+
+    // The gradient magnitude overwrites the horizontal gradient.
+    int width = src.getWidth();
+    executor.forEachBand(src.getHeight(), 0, (y0, y1) -> {
+      for (int i = y0 * width; i < y1 * width; i++) {
+        for (int c = 0; c < 3; c++) {
+          int gx = gxImage[c][i];
+          int gy = gyImage[c][i];
+          gxImage[c][i] = (int) Math.sqrt(gx * gx + gy * gy);
+        }
+      }
+    });
+    return gxImage;
+  }
+
+  /**
+   * Find the smallest and largest magnitude in some rows. The minimum starts at 255
+   * and the maximum at 0, so that ranges of several strips combine by taking the
+   * smallest minimum and the largest maximum.
+   *
+   * @param magnitude the planes from {@link #magnitude(Raster)}
+   * @param width the width of the planes
+   * @param y0 the first row to look at
+   * @param y1 one past the last row to look at
+   * @return the minimum and the maximum
+   */
+  public int[] range(int[][] magnitude, int width, int y0, int y1) {
+    int max = 0;
+    int min = 255;
+    for (int[] band : executor.mapBands(y1 - y0, 0, (b0, b1) -> {
+      int bandMax = 0;
+      int bandMin = 255;
+      for (int i = (y0 + b0) * width; i < (y0 + b1) * width; i++) {
+        for (int c = 0; c < 3; c++) {
+          int m = magnitude[c][i];
+          bandMax = Math.max(m, bandMax);
+          bandMin = Math.min(m, bandMin);
+        }
+      }
+      return new int[] {bandMin, bandMax};
+    })) {
+      min = Math.min(band[0], min);
+      max = Math.max(band[1], max);
+    }
+    return new int[] {min, max};
+  }
+
+  /**
+   * Stretch the magnitudes of some rows to 0-255 and greyscale them.
+   *
+   * @param magnitude the planes from {@link #magnitude(Raster)}
+   * @param width the width of the planes
+   * @param y0 the first row to convert
+   * @param y1 one past the last row to convert
+   * @param min the smallest magnitude of the whole image
+   * @param max the largest magnitude of the whole image
+   * @return a new raster with the rows {@code [y0, y1)}
+   */
+  public Raster normalize(int[][] magnitude, int width, int y0, int y1, int min, int max) {
+    Raster filteredImage = new Raster(width, y1 - y0);
+    int range = Math.max(max - min, 1);
+    int[] pixels = filteredImage.getPixels();
+    int offset = y0 * width;
+    executor.forEachBand(y1 - y0, 0, (b0, b1) -> {
+      for (int i = b0 * width; i < b1 * width; i++) {
+        int m = offset + i;
+        // Greyscale the image
+        pixels[i] = ColorMatrix.GRAYSCALE.apply(
+                Raster.pack(((magnitude[0][m] - min) * 255) / range,
+                        ((magnitude[1][m] - min) * 255) / range,
+                        ((magnitude[2][m] - min) * 255) / range));
+      }
+    });
+    return filteredImage;
+  }
+}
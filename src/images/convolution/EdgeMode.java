@@ -0,0 +1,11 @@
+package images.convolution;
+
+/**
+ * How a convolution treats taps that fall outside the image.
+ */
+public enum EdgeMode {
+  /** Pixels outside the image are black, so borders darken for smoothing kernels. */
+  ZERO,
+  /** Pixels outside the image repeat the nearest edge pixel. */
+  EXTEND
+}
@@ -0,0 +1,329 @@
+package images.convolution;
+
+/**
+ * An immutable convolution kernel. The weights are given as a matrix whose center
+ * tap is at ({@code width / 2}, {@code height / 2}). Besides the floating point
+ * weights the kernel keeps a fixed-point copy of every non-zero tap, which is what
+ * the {@link ConvolutionEngine} accumulates with.
+ *
+ * <p>Kernels whose matrix is the outer product of a column and a row vector are
+ * detected as separable. The engine runs those as a horizontal and a vertical pass,
+ * which costs {@code width + height} taps per pixel instead of {@code width * height}.
+ */
+public final class Kernel {
+  /** Number of fractional bits in the fixed-point weights. */
+  static final int SHIFT = 16;
+  /** Half of one unit in fixed-point, used for rounding. */
+  static final int HALF = 1 << (SHIFT - 1);
+  /** The largest standard deviation of a {@link #gaussian(double) Gaussian} kernel. */
+  public static final double MAX_SIGMA = 1000;
+  /** Relative tolerance when deciding whether a matrix is an outer product. */
+  private static final double RANK_ONE_TOLERANCE = 1e-9;
+
+  private final int width;
+  private final int height;
+  private final EdgeMode edgeMode;
+  private final double[][] weights;
+  private final double[] rowWeights;
+  private final double[] columnWeights;
+  private final Taps taps;
+  private final Taps rowTaps;
+  private final Taps columnTaps;
+
+  /**
+   * Constructs a kernel from a matrix of weights. Taps outside the image count as
+   * zero.
+   *
+   * @param matrix the weights, indexed as {@code matrix[row][column]}
+   * @throws IllegalArgumentException if the matrix is empty or not rectangular, or if
+   *                                  its weights are too large for fixed-point
+   *                                  accumulation
+   */
+  public Kernel(double[][] matrix) throws IllegalArgumentException {
+    this(matrix, EdgeMode.ZERO);
+  }
+
+  /**
+   * Constructs a kernel from a matrix of weights.
+   *
+   * @param matrix the weights, indexed as {@code matrix[row][column]}
+   * @param edgeMode how taps outside the image are treated
+   * @throws IllegalArgumentException if the matrix is empty or not rectangular, or if
+   *                                  its weights are too large for fixed-point
+   *                                  accumulation
+   */
+  public Kernel(double[][] matrix, EdgeMode edgeMode) throws IllegalArgumentException {
+    if (matrix == null || matrix.length == 0 || matrix[0] == null || matrix[0].length == 0) {
+      throw new IllegalArgumentException("Invalid kernel matrix provided");
+    }
+    if (edgeMode == null) {
+      throw new IllegalArgumentException("Invalid edge mode provided");
+    }
+    this.edgeMode = edgeMode;
+    height = matrix.length;
+    width = matrix[0].length;
+    weights = new double[height][];
+    for (int y = 0; y < height; y++) {
+      if (matrix[y] == null || matrix[y].length != width) {
+        throw new IllegalArgumentException("Kernel matrix must be rectangular");
+      }
+      weights[y] = matrix[y].clone();
+    }
+    taps = new Taps(weights, getCenterX(), getCenterY());
+
+    double[][] factors = factorize(weights);
+    if (factors != null) {
+      columnWeights = factors[0];
+      rowWeights = factors[1];
+      columnTaps = new Taps(columnWeights, getCenterY());
+      rowTaps = new Taps(rowWeights, getCenterX());
+    } else {
+      columnWeights = null;
+      rowWeights = null;
+      columnTaps = null;
+      rowTaps = null;
+    }
+  }
+
+  private Kernel(double[] column, double[] row, EdgeMode edgeMode) {
+    this.edgeMode = edgeMode;
+    height = column.length;
+    width = row.length;
+    weights = null;
+    columnWeights = column.clone();
+    rowWeights = row.clone();
+    taps = null;
+    columnTaps = new Taps(columnWeights, getCenterY());
+    rowTaps = new Taps(rowWeights, getCenterX());
+  }
+
+  /**
+   * Create a separable kernel from its column and row vectors. The matrix of the
+   * kernel is {@code column[y] * row[x]}; it is never built.
+   *
+   * @param column the vertical weights
+   * @param row the horizontal weights
+   * @param edgeMode how taps outside the image are treated
+   * @return the kernel
+   * @throws IllegalArgumentException if a vector is empty or its weights are too large
+   */
+  public static Kernel separable(double[] column, double[] row, EdgeMode edgeMode)
+          throws IllegalArgumentException {
+    if (column == null || row == null || column.length == 0 || row.length == 0) {
+      throw new IllegalArgumentException("Invalid kernel vectors provided");
+    }
+    if (edgeMode == null) {
+      throw new IllegalArgumentException("Invalid edge mode provided");
+    }
+    return new Kernel(column, row, edgeMode);
+  }
+
+  /**
+   * Create a normalized Gaussian kernel. The kernel reaches three standard deviations
+   * to each side and repeats the edge pixels, so it does not darken the borders. The
+   * weights are rounded to fixed-point with the rounding error given to the center
+   * tap, so they sum to exactly one and a flat image stays flat however wide the
+   * kernel is.
+   *
+   * @param sigma the standard deviation in pixels, at most {@link #MAX_SIGMA}
+   * @return the kernel
+   * @throws IllegalArgumentException if sigma is not a positive number or is larger
+   *                                  than {@link #MAX_SIGMA}
+   */
+  public static Kernel gaussian(double sigma) throws IllegalArgumentException {
+    if (!(sigma > 0) || Double.isInfinite(sigma)) {
+      throw new IllegalArgumentException("Sigma must be positive");
+    }
+    if (sigma > MAX_SIGMA) {
+      throw new IllegalArgumentException("Sigma must be at most " + MAX_SIGMA);
+    }
+    int radius = Math.max(1, (int) Math.ceil(3 * sigma));
+    double[] weights = new double[2 * radius + 1];
+    double sum = 0;
+    for (int i = -radius; i <= radius; i++) {
+      weights[i + radius] = Math.exp(-((double) i * i) / (2 * sigma * sigma));
+      sum += weights[i + radius];
+    }
+    int fixedSum = 0;
+    for (int i = 0; i < weights.length; i++) {
+      weights[i] = toFixed(weights[i] / sum);
+      fixedSum += (int) weights[i];
+    }
+    weights[radius] += (1 << SHIFT) - fixedSum;
+    for (int i = 0; i < weights.length; i++) {
+      weights[i] /= 1 << SHIFT;
+    }
+    return new Kernel(weights, weights, EdgeMode.EXTEND);
+  }
+
+  /**
+   * Get the number of columns of the kernel.
+   *
+   * @return the width of the kernel
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Get the number of rows of the kernel.
+   *
+   * @return the height of the kernel
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Get the column of the center tap.
+   *
+   * @return the horizontal center
+   */
+  public int getCenterX() {
+    return width / 2;
+  }
+
+  /**
+   * Get the row of the center tap.
+   *
+   * @return the vertical center
+   */
+  public int getCenterY() {
+    return height / 2;
+  }
+
+  /**
+   * Get one weight of the kernel.
+   *
+   * @param x the column of the weight
+   * @param y the row of the weight
+   * @return the weight
+   */
+  public double getWeight(int x, int y) {
+    return weights != null ? weights[y][x] : columnWeights[y] * rowWeights[x];
+  }
+
+  /**
+   * Get how taps outside the image are treated.
+   *
+   * @return the edge mode
+   */
+  public EdgeMode getEdgeMode() {
+    return edgeMode;
+  }
+
+  /**
+   * Whether the kernel is the outer product of a column and a row vector.
+   *
+   * @return true if the kernel can run as two one-dimensional passes
+   */
+  public boolean isSeparable() {
+    return rowWeights != null;
+  }
+
+  /**
+   * Get the number of rows above or below an output row that the kernel reads.
+   *
+   * @return the vertical reach of the kernel
+   */
+  public int getVerticalRadius() {
+    return Math.max(getCenterY(), height - 1 - getCenterY());
+  }
+
+  Taps taps() {
+    return taps;
+  }
+
+  Taps rowTaps() {
+    return rowTaps;
+  }
+
+  Taps columnTaps() {
+    return columnTaps;
+  }
+
+  static int toFixed(double weight) {
+    return (int) Math.round(weight * (1 << SHIFT));
+  }
+
+  // Split a rank-1 matrix into {column, row} vectors, or return null if it is not one.
+  private static double[][] factorize(double[][] matrix) {
+    int pivotX = 0;
+    int pivotY = 0;
+    double max = 0;
+    for (int y = 0; y < matrix.length; y++) {
+      for (int x = 0; x < matrix[y].length; x++) {
+        if (Math.abs(matrix[y][x]) > max) {
+          max = Math.abs(matrix[y][x]);
+          pivotX = x;
+          pivotY = y;
+        }
+      }
+    }
+    if (max == 0) {
+      return null;
+    }
+    double[] row = matrix[pivotY].clone();
+    double[] column = new double[matrix.length];
+    for (int y = 0; y < matrix.length; y++) {
+      column[y] = matrix[y][pivotX] / matrix[pivotY][pivotX];
+      for (int x = 0; x < row.length; x++) {
+        if (Math.abs(matrix[y][x] - column[y] * row[x]) > RANK_ONE_TOLERANCE * max) {
+          return null;
+        }
+      }
+    }
+    return new double[][] {column, row};
+  }
+
+  /**
+   * The non-zero taps of a kernel or of one of its vectors, as offsets from the
+   * center and fixed-point weights. For a vector the offset along the vector is kept
+   * in {@code dx}.
+   */
+  static final class Taps {
+    final int[] dx;
+    final int[] dy;
+    final int[] weight;
+
+    Taps(double[][] matrix, int centerX, int centerY) {
+      int count = 0;
+      double absSum = 0;
+      for (double[] row : matrix) {
+        for (double w : row) {
+          absSum += Math.abs(w);
+          if (toFixed(w) != 0) {
+            count++;
+          }
+        }
+      }
+      // every tap adds at most 255 * |weight| in fixed-point; keep the sum within an int
+      if (absSum * 255 * (1 << SHIFT) >= Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("Kernel weights are too large");
+      }
+      dx = new int[count];
+      dy = new int[count];
+      weight = new int[count];
+      int t = 0;
+      for (int y = 0; y < matrix.length; y++) {
+        for (int x = 0; x < matrix[y].length; x++) {
+          int fixed = toFixed(matrix[y][x]);
+          if (fixed != 0) {
+            dx[t] = x - centerX;
+            dy[t] = y - centerY;
+            weight[t] = fixed;
+            t++;
+          }
+        }
+      }
+    }
+
+    Taps(double[] vector, int center) {
+      this(new double[][] {vector}, center, 0);
+    }
+
+    int count() {
+      return weight.length;
+    }
+  }
+}
@@ -0,0 +1,32 @@
+package images.convolution;
+
+/**
+ * The fixed kernels of the image model's filters.
+ */
+public final class Kernels {
+  /** 3x3 blur. */
+  public static final Kernel BLUR = new Kernel(new double[][] {
+          {1 / 16d, 1 / 8d, 1 / 16d},
+          {1 / 8d, 1 / 4d, 1 / 8d},
+          {1 / 16d, 1 / 8d, 1 / 16d}
+  });
+  /** 5x5 sharpen. */
+  public static final Kernel SHARPEN = new Kernel(new double[][] {
+          {-1 / 8d, -1 / 8d, -1 / 8d, -1 / 8d, -1 / 8d},
+          {-1 / 8d, 1 / 4d, 1 / 4d, 1 / 4d, -1 / 8d},
+          {-1 / 8d, 1 / 4d, 1d, 1 / 4d, -1 / 8d},
+          {-1 / 8d, 1 / 4d, 1 / 4d, 1 / 4d, -1 / 8d},
+          {-1 / 8d, -1 / 8d, -1 / 8d, -1 / 8d, -1 / 8d}
+  });
+  /** Horizontal Sobel gradient. */
+  public static final Kernel SOBEL_X = new Kernel(new double[][] {
+          {1, 0, -1}, {2, 0, -2}, {1, 0, -1}
+  });
+  /** Vertical Sobel gradient. */
+  public static final Kernel SOBEL_Y = new Kernel(new double[][] {
+          {1, 2, 1}, {0, 0, 0}, {-1, -2, -1}
+  });
+
+  private Kernels() {
+  }
+}
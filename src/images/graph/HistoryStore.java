@@ -0,0 +1,657 @@
+package images.graph;
+
+import images.Raster;
+import images.parallel.TileExecutor;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The undo history of an image model, kept within a memory budget. Every step is an
+ * {@link OperationNode}, so a step whose pixels are not in memory can always be
+ * recomputed from its recipe. When the pixels held by the history exceed the budget,
+ * the least recently viewed steps are moved out of memory: their pixels are
+ * delta-coded, compressed and appended to a spill file in the temp directory by a
+ * background thread. Coming back to a spilled step reads it from the file instead of
+ * recomputing it, and after every undo or redo the step one further in the same
+ * direction is read ahead on that thread, so stepping through the history rarely
+ * waits for the file.
+ *
+ * <p>Undo and redo move a cursor through the steps, so any number of undone steps
+ * can be redone until a new step is pushed. The space of a spilled step that is
+ * dropped from the history is reused by later spills, and given back when it is at
+ * the end of the file. A history no longer needed is {@link #close() closed}.
+ */
+public class HistoryStore {
+  private static final int CHUNK_ROWS = 16;
+
+  private final OperationGraph graph;
+  private final TileExecutor executor;
+  private final long memoryBudget;
+  private final ExecutorService spiller;
+  private final List<OperationNode> steps;
+  private final LinkedHashMap<OperationNode, Long> resident;
+  private final Map<OperationNode, Spill> spills;
+  private final AtomicLong prefetchedBytes;
+  private int cursor;
+  private int direction;
+  private long residentBytes;
+  private SpillFile spillFile;
+  private volatile Spill readAhead;
+
+  /**
+   * Constructs an empty history.
+   *
+   * @param graph the graph to compute steps with
+   * @param executor the executor to compress and restore spilled steps on
+   * @param memoryBudget the number of bytes of pixels to keep in memory
+   * @throws IllegalArgumentException if the graph or executor is null, or the budget
+   *                                  is negative
+   */
+  public HistoryStore(OperationGraph graph, TileExecutor executor, long memoryBudget)
+          throws IllegalArgumentException {
+    if (graph == null || executor == null) {
+      throw new IllegalArgumentException("Invalid history arguments");
+    }
+    if (memoryBudget < 0) {
+      throw new IllegalArgumentException("The memory budget cannot be negative");
+    }
+    this.graph = graph;
+    this.executor = executor;
+    this.memoryBudget = memoryBudget;
+    spiller = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r, "history-spill");
+      thread.setDaemon(true);
+      return thread;
+    });
+    steps = new ArrayList<>();
+    resident = new LinkedHashMap<>(16, 0.75f, true);
+    spills = new HashMap<>();
+    prefetchedBytes = new AtomicLong();
+    cursor = -1;
+  }
+
+  /**
+   * Whether the history has no steps.
+   *
+   * @return true if nothing has been pushed yet
+   */
+  public boolean isEmpty() {
+    return steps.isEmpty();
+  }
+
+  /**
+   * Add a step after the current one. Steps that were undone are dropped.
+   *
+   * @param node the new current step
+   * @throws IllegalArgumentException if the node is null
+   */
+  public void push(OperationNode node) throws IllegalArgumentException {
+    if (node == null) {
+      throw new IllegalArgumentException("Invalid operation node provided");
+    }
+    while (steps.size() > cursor + 1) {
+      forget(steps.remove(steps.size() - 1));
+    }
+    steps.add(node);
+    cursor++;
+    direction = 0;
+    if (node.isMaterialized()) {
+      track(node);
+    }
+    trim();
+  }
+
+  /**
+   * Drop every step. The spill file is deleted once the background thread has
+   * finished with it.
+   */
+  public void clear() {
+    steps.clear();
+    resident.clear();
+    spills.clear();
+    cursor = -1;
+    direction = 0;
+    residentBytes = 0;
+    if (readAhead != null) {
+      spiller.execute(readAhead::discard);
+      readAhead = null;
+    }
+    if (spillFile != null) {
+      spiller.execute(spillFile::delete);
+      spillFile = null;
+    }
+  }
+
+  /**
+   * Drop every step and stop the background thread once it has deleted the spill
+   * file. The history cannot be used afterwards.
+   */
+  public void close() {
+    clear();
+    spiller.shutdown();
+  }
+
+  /**
+   * Get the current step.
+   *
+   * @return the current step
+   * @throws IllegalStateException if the history is empty
+   */
+  public OperationNode current() throws IllegalStateException {
+    if (steps.isEmpty()) {
+      throw new IllegalStateException("No image has been loaded for processing");
+    }
+    return steps.get(cursor);
+  }
+
+  /**
+   * Get the first step.
+   *
+   * @return the first step
+   * @throws IllegalStateException if the history is empty
+   */
+  public OperationNode first() throws IllegalStateException {
+    if (steps.isEmpty()) {
+      throw new IllegalStateException("No image has been loaded for processing");
+    }
+    return steps.get(0);
+  }
+
+  /**
+   * Whether there is a step before the current one.
+   *
+   * @return true if undo is possible
+   */
+  public boolean canUndo() {
+    return cursor > 0;
+  }
+
+  /**
+   * Whether there is an undone step after the current one.
+   *
+   * @return true if redo is possible
+   */
+  public boolean canRedo() {
+    return cursor < steps.size() - 1;
+  }
+
+  /**
+   * Move back one step.
+   *
+   * @return the new current step
+   * @throws IllegalStateException if there is nothing to undo
+   */
+  public OperationNode undo() throws IllegalStateException {
+    if (!canUndo()) {
+      throw new IllegalStateException("Can't undo any more");
+    }
+    direction = -1;
+    return steps.get(--cursor);
+  }
+
+  /**
+   * Move forward one undone step.
+   *
+   * @return the new current step
+   * @throws IllegalStateException if there is nothing to redo
+   */
+  public OperationNode redo() throws IllegalStateException {
+    if (!canRedo()) {
+      throw new IllegalStateException("Can't redo any more");
+    }
+    direction = 1;
+    return steps.get(++cursor);
+  }
+
+  /**
+   * Get the pixels of a step, restoring them from the spill file or recomputing them
+   * as needed. The step stays in memory until it is the least recently used one
+   * over the budget.
+   *
+   * @param node the step
+   * @return the raster of the step, which callers must not modify
+   * @throws IllegalArgumentException if the node is null
+   */
+  public Raster materialize(OperationNode node) throws IllegalArgumentException {
+    if (node == null) {
+      throw new IllegalArgumentException("Invalid operation node provided");
+    }
+    for (OperationNode n = node; !n.isMaterialized(); n = n.getParent()) {
+      Spill spill = spills.get(n);
+      if (spill != null) {
+        n.setRaster(spill.restore());
+        if (spill == readAhead) {
+          readAhead = null;
+          // a read ahead still running gives up its raster once done, as tasks run in order
+          spiller.execute(spill::discard);
+        }
+        track(n);
+        break;
+      }
+    }
+    Raster raster = graph.materialize(node);
+    track(node);
+    trim();
+    if (direction != 0 && node == steps.get(cursor)) {
+      readAhead(cursor + direction);
+    }
+    return raster;
+  }
+
+  /**
+   * Get the number of bytes of pixels the history holds in memory.
+   *
+   * @return the resident size in bytes
+   */
+  public long getResidentBytes() {
+    return residentBytes;
+  }
+
+  /**
+   * Get the number of bytes of pixels read ahead from the spill file and not yet
+   * used. At most one step is read ahead at a time.
+   *
+   * @return the read-ahead size in bytes
+   */
+  public long getPrefetchedBytes() {
+    return prefetchedBytes.get();
+  }
+
+  /**
+   * Get the size of the spill file, once every spill already started is written.
+   *
+   * @return the number of bytes in the spill file, 0 if there is none
+   */
+  public long getSpilledBytes() {
+    SpillFile file = spillFile;
+    try {
+      return spiller.submit(() -> file == null ? 0L : file.end).get();
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Error occurred reading the spill file size", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted reading the spill file size", e);
+    }
+  }
+
+  private void track(OperationNode node) {
+    if (resident.get(node) == null) {
+      long bytes = 4L * node.getWidth() * node.getHeight();
+      resident.put(node, bytes);
+      residentBytes += bytes;
+    }
+  }
+
+  private void forget(OperationNode node) {
+    if (steps.contains(node)) {
+      return;
+    }
+    Long bytes = resident.remove(node);
+    if (bytes != null) {
+      residentBytes -= bytes;
+    }
+    Spill spill = spills.remove(node);
+    if (spill != null) {
+      if (spill == readAhead) {
+        spiller.execute(spill::discard);
+        readAhead = null;
+      }
+      // after the spill is written, since the tasks run in order
+      spiller.execute(spill::release);
+    }
+  }
+
+  /**
+   * Move the least recently used steps out of memory until the budget is met. The
+   * current step always stays.
+   */
+  private void trim() {
+    OperationNode current = steps.get(cursor);
+    Iterator<Map.Entry<OperationNode, Long>> it = resident.entrySet().iterator();
+    while (residentBytes > memoryBudget && it.hasNext()) {
+      Map.Entry<OperationNode, Long> entry = it.next();
+      OperationNode node = entry.getKey();
+      if (node == current) {
+        continue;
+      }
+      if (steps.contains(node) && !spills.containsKey(node)) {
+        spills.put(node, spill(node.getRaster()));
+      }
+      node.setRaster(null);
+      residentBytes -= entry.getValue();
+      it.remove();
+    }
+  }
+
+  private void readAhead(int index) {
+    if (index < 0 || index >= steps.size()) {
+      return;
+    }
+    OperationNode node = steps.get(index);
+    Spill spill = spills.get(node);
+    if (node.isMaterialized() || spill == null || spill == readAhead) {
+      return;
+    }
+    Spill previous = readAhead;
+    readAhead = spill;
+    if (previous != null) {
+      // after its read ahead, since the tasks run in order
+      spiller.execute(previous::discard);
+    }
+    spiller.execute(spill::prefetch);
+  }
+
+  private Spill spill(Raster raster) {
+    if (spillFile == null) {
+      spillFile = new SpillFile();
+    }
+    Spill spill = new Spill(spillFile, raster);
+    spiller.execute(spill::write);
+    return spill;
+  }
+
+  /**
+   * The file that spilled steps are written to, each into one run of bytes. Runs
+   * given back are kept by position, merged with free neighbours, and handed out
+   * again first fit; the file is cut short when its last run is free. Only the
+   * background thread writes to it.
+   */
+  private static final class SpillFile {
+    private final TreeMap<Long, Long> free = new TreeMap<>();
+    private Path path;
+    private FileChannel channel;
+    private long end;
+
+    private FileChannel open() throws IOException {
+      if (channel == null) {
+        path = Files.createTempFile(Files.createTempDirectory("image-history"),
+                "history", ".spill");
+        path.toFile().deleteOnExit();
+        path.getParent().toFile().deleteOnExit();
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      }
+      return channel;
+    }
+
+    private long allocate(long length) {
+      for (Map.Entry<Long, Long> run : free.entrySet()) {
+        if (run.getValue() >= length) {
+          long position = run.getKey();
+          free.remove(position);
+          if (run.getValue() > length) {
+            free.put(position + length, run.getValue() - length);
+          }
+          return position;
+        }
+      }
+      end += length;
+      return end - length;
+    }
+
+    private void release(long position, long length) {
+      Map.Entry<Long, Long> before = free.floorEntry(position);
+      if (before != null && before.getKey() + before.getValue() == position) {
+        free.remove(before.getKey());
+        position = before.getKey();
+        length += before.getValue();
+      }
+      Long after = free.remove(position + length);
+      if (after != null) {
+        length += after;
+      }
+      if (position + length == end) {
+        end = position;
+        try {
+          channel.truncate(end);
+        } catch (IOException e) {
+          // The file keeps its length until it is deleted.
+        }
+      } else {
+        free.put(position, length);
+      }
+    }
+
+    private void delete() {
+      if (channel == null) {
+        return;
+      }
+      try {
+        channel.close();
+        Files.deleteIfExists(path);
+        Files.deleteIfExists(path.getParent());
+      } catch (IOException e) {
+        // Deleted on exit instead.
+      }
+    }
+
+  }
+
+  /**
+   * One spilled step. Until the background write has finished, the pixels stay
+   * reachable here and are restored from memory. A raster read ahead is handed over
+   * exactly once, either to the step being restored or to a discard queued behind the
+   * read ahead, so none is left behind when the history moves on.
+   */
+  private final class Spill {
+    private final SpillFile file;
+    private final int width;
+    private final int height;
+    private volatile Raster pending;
+    private final AtomicReference<Raster> prefetched = new AtomicReference<>();
+    private long[] positions;
+    private int[] lengths;
+    private long extent;
+
+    private Spill(SpillFile file, Raster raster) {
+      this.file = file;
+      this.width = raster.getWidth();
+      this.height = raster.getHeight();
+      this.pending = raster;
+    }
+
+    /**
+     * Compress the raster in chunks of rows and append them to the file. If the
+     * write fails, the raster simply stays in memory.
+     */
+    private void write() {
+      Raster raster = pending;
+      int chunks = (height + CHUNK_ROWS - 1) / CHUNK_ROWS;
+      byte[][] data = new byte[chunks][];
+      executor.forEachBand(chunks, 0, (c0, c1) -> {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        for (int c = c0; c < c1; c++) {
+          data[c] = compress(raster, c, deflater);
+          deflater.reset();
+        }
+        deflater.end();
+      });
+      long extent = 0;
+      for (byte[] chunk : data) {
+        extent += chunk.length;
+      }
+      long start = -1;
+      try {
+        FileChannel channel = file.open();
+        start = file.allocate(extent);
+        long[] positions = new long[chunks];
+        int[] lengths = new int[chunks];
+        long position = start;
+        for (int c = 0; c < chunks; c++) {
+          positions[c] = position;
+          lengths[c] = data[c].length;
+          ByteBuffer buffer = ByteBuffer.wrap(data[c]);
+          while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+          }
+        }
+        this.positions = positions;
+        this.lengths = lengths;
+        this.extent = extent;
+        pending = null;
+      } catch (IOException e) {
+        // Keep the pending raster, and give back its run if it got one.
+        if (start >= 0) {
+          file.release(start, extent);
+        }
+      }
+    }
+
+    /**
+     * Give the run of the file holding this step back, once it is dropped from the
+     * history.
+     */
+    private void release() {
+      if (positions == null) {
+        return;
+      }
+      file.release(positions[0], extent);
+      positions = null;
+    }
+
+    private void prefetch() {
+      if (pending != null || prefetched.get() != null) {
+        return;
+      }
+      try {
+        Raster raster = read();
+        if (readAhead == this && prefetched.compareAndSet(null, raster)) {
+          prefetchedBytes.addAndGet(4L * width * height);
+        }
+      } catch (RuntimeException e) {
+        // Reading again when the step is needed reports the error.
+      }
+    }
+
+    private void discard() {
+      take();
+    }
+
+    private Raster take() {
+      Raster raster = prefetched.getAndSet(null);
+      if (raster != null) {
+        prefetchedBytes.addAndGet(-4L * width * height);
+      }
+      return raster;
+    }
+
+    private Raster restore() {
+      Raster raster = pending;
+      if (raster == null) {
+        raster = take();
+      }
+      return raster != null ? raster : read();
+    }
+
+    private Raster read() {
+      Raster restored = new Raster(width, height);
+      int chunks = positions.length;
+      executor.forEachBand(chunks, 0, (c0, c1) -> {
+        Inflater inflater = new Inflater();
+        byte[] row = new byte[3 * width];
+        try {
+          for (int c = c0; c < c1; c++) {
+            ByteBuffer buffer = ByteBuffer.allocate(lengths[c]);
+            while (buffer.hasRemaining()) {
+              if (file.channel.read(buffer, positions[c] + buffer.position()) < 0) {
+                throw new IOException("Spill file is truncated");
+              }
+            }
+            inflater.setInput(buffer.array());
+            decompress(restored, c, inflater, row);
+            inflater.reset();
+          }
+        } catch (IOException e) {
+          throw new UncheckedIOException("Error occurred restoring a history step", e);
+        } catch (DataFormatException e) {
+          throw new IllegalStateException("Error occurred restoring a history step", e);
+        } finally {
+          inflater.end();
+        }
+      });
+      return restored;
+    }
+  }
+
+  /**
+   * Compress one chunk of rows. Each channel byte is stored as the difference from the
+   * same channel of the pixel to its left, which turns smooth areas into runs of
+   * small values.
+   */
+  private static byte[] compress(Raster raster, int chunk, Deflater deflater) {
+    int width = raster.getWidth();
+    int y0 = chunk * CHUNK_ROWS;
+    int y1 = Math.min(raster.getHeight(), y0 + CHUNK_ROWS);
+    byte[] bytes = new byte[3 * width * (y1 - y0)];
+    int[] pixels = raster.getPixels();
+    int b = 0;
+    for (int y = y0; y < y1; y++) {
+      int prev = 0;
+      for (int i = raster.index(0, y), end = i + width; i < end; i++) {
+        int rgb = pixels[i];
+        bytes[b++] = (byte) ((rgb >> 16) - (prev >> 16));
+        bytes[b++] = (byte) ((rgb >> 8) - (prev >> 8));
+        bytes[b++] = (byte) (rgb - prev);
+        prev = rgb;
+      }
+    }
+    deflater.setInput(bytes);
+    deflater.finish();
+    byte[] out = new byte[bytes.length / 2 + 64];
+    int length = 0;
+    while (!deflater.finished()) {
+      if (length == out.length) {
+        out = Arrays.copyOf(out, out.length * 2);
+      }
+      length += deflater.deflate(out, length, out.length - length);
+    }
+    return Arrays.copyOf(out, length);
+  }
+
+  private static void decompress(Raster raster, int chunk, Inflater inflater, byte[] row)
+          throws DataFormatException {
+    int width = raster.getWidth();
+    int y0 = chunk * CHUNK_ROWS;
+    int y1 = Math.min(raster.getHeight(), y0 + CHUNK_ROWS);
+    int[] pixels = raster.getPixels();
+    for (int y = y0; y < y1; y++) {
+      int filled = 0;
+      while (filled < row.length) {
+        int n = inflater.inflate(row, filled, row.length - filled);
+        if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+          throw new DataFormatException("Spilled step is truncated");
+        }
+        filled += n;
+      }
+      int r = 0;
+      int g = 0;
+      int bl = 0;
+      for (int x = 0, b = 0, i = raster.index(0, y); x < width; x++, i++) {
+        r = (r + row[b++]) & 0xFF;
+        g = (g + row[b++]) & 0xFF;
+        bl = (bl + row[b++]) & 0xFF;
+        pixels[i] = (r << 16) | (g << 8) | bl;
+      }
+    }
+  }
+}
@@ -0,0 +1,56 @@
+package images.graph;
+
+import images.Raster;
+import images.pointop.PointOperation;
+
+/**
+ * One step of an operation graph. An operation reads one raster and returns a new
+ * raster of the same size. It must not modify its input and must give the same
+ * result every time it runs, since a lazy model may run it again after an undo.
+ */
+public interface Operation {
+
+  /**
+   * Run the operation.
+   *
+   * @param input the raster to read
+   * @return a new raster with the result
+   */
+  Raster apply(Raster input);
+
+  /**
+   * Get the per-pixel function of this operation, if it has one. Adjacent operations
+   * that have one are fused into a single pass.
+   *
+   * @return the point operation, or null if the operation is not a point operation
+   */
+  default PointOperation asPointOperation() {
+    return null;
+  }
+
+  /**
+   * Get a description of this operation and all of its parameters, such as
+   * "gaussian 2.0". Two operations with the same key must give the same result, so
+   * that a {@link ResultCache} can reuse it.
+   *
+   * @return the key, or null if results of the operation must not be cached
+   */
+  default String getKey() {
+    return null;
+  }
+
+  /**
+   * Get the operation to run on a scaled down copy of the input, so that the result
+   * looks like this operation's full size result scaled down the same way. Filters
+   * whose effect is measured in pixels, such as blurs and mosaics, scale their
+   * parameters; others run unchanged.
+   *
+   * @param scale the size of the copy relative to the input, at most 1
+   * @param width the width of the full size input
+   * @param height the height of the full size input
+   * @return the operation for the copy
+   */
+  default Operation preview(double scale, int width, int height) {
+    return this;
+  }
+}
@@ -0,0 +1,175 @@
+package images.graph;
+
+import images.Raster;
+import images.pointop.PointOperation;
+import images.pointop.PointOperationEngine;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Computes the pixels of {@link OperationNode}s. Materializing a node runs the
+ * operations between it and its nearest materialized ancestor; only the requested
+ * node keeps its result, so intermediate images are dropped as soon as the next step
+ * has read them. Runs of point operations are fused into one pass first.
+ *
+ * <p>Operations are never reordered: none of the filters commute with each other
+ * bit for bit, because each one truncates and clamps its output.
+ *
+ * <p>With a {@link ResultCache}, every node on the way is looked up by its
+ * {@link OperationNode#getKey() key} before anything is computed, and the result of
+ * the requested node is stored for the next model, script or run that asks for the
+ * same image.
+ */
+public class OperationGraph {
+  private final PointOperationEngine pointOperations;
+  private volatile ResultCache cache;
+
+  /**
+   * Constructs a graph that runs point operations on the given engine.
+   *
+   * @param pointOperations the engine for point operations
+   * @throws IllegalArgumentException if the engine is null
+   */
+  public OperationGraph(PointOperationEngine pointOperations) throws IllegalArgumentException {
+    if (pointOperations == null) {
+      throw new IllegalArgumentException("Invalid point operation engine provided");
+    }
+    this.pointOperations = pointOperations;
+  }
+
+  /**
+   * Wrap a point operation as a graph operation, so that it can be fused with its
+   * neighbours.
+   *
+   * @param op the point operation
+   * @return the graph operation
+   * @throws IllegalArgumentException if the operation is null
+   */
+  public Operation point(PointOperation op) throws IllegalArgumentException {
+    return point(op, null);
+  }
+
+  /**
+   * Wrap a point operation as a graph operation whose results can be cached.
+   *
+   * @param op the point operation
+   * @param key the {@link Operation#getKey() key} of the operation, or null
+   * @return the graph operation
+   * @throws IllegalArgumentException if the operation is null
+   */
+  public Operation point(PointOperation op, String key) throws IllegalArgumentException {
+    if (op == null) {
+      throw new IllegalArgumentException("Invalid point operation provided");
+    }
+    return new Operation() {
+      @Override
+      public Raster apply(Raster input) {
+        return pointOperations.apply(input, op);
+      }
+
+      @Override
+      public PointOperation asPointOperation() {
+        return op;
+      }
+
+      @Override
+      public String getKey() {
+        return key;
+      }
+    };
+  }
+
+  /**
+   * Look up and store results in a cache, or stop caching.
+   *
+   * @param cache the cache, or null
+   */
+  public void setResultCache(ResultCache cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * Get the cache results are looked up in.
+   *
+   * @return the cache, or null if results are not cached
+   */
+  public ResultCache getResultCache() {
+    return cache;
+  }
+
+  /**
+   * Compute the pixels of a node, unless it already holds them.
+   *
+   * @param node the node
+   * @return the raster of the node, which callers must not modify
+   * @throws IllegalArgumentException if the node is null
+   */
+  public Raster materialize(OperationNode node) throws IllegalArgumentException {
+    if (node == null) {
+      throw new IllegalArgumentException("Invalid operation node provided");
+    }
+    ResultCache cache = this.cache;
+    List<Operation> pending = new ArrayList<>();
+    OperationNode start = node;
+    Raster raster = null;
+    while (!start.isMaterialized()) {
+      raster = cache == null ? null : cache.get(start.getKey());
+      if (raster != null) {
+        break;
+      }
+      pending.add(start.getOperation());
+      start = start.getParent();
+    }
+    if (raster == null) {
+      raster = start.getRaster();
+    }
+    Collections.reverse(pending);
+
+    for (Operation op : plan(pending)) {
+      raster = op.apply(raster);
+    }
+    if (cache != null && !pending.isEmpty()) {
+      cache.put(node.getKey(), raster);
+    }
+    node.setRaster(raster);
+    return raster;
+  }
+
+  /**
+   * Rewrite a sequence of operations into an equivalent, cheaper one: every run of
+   * adjacent point operations becomes a single point operation.
+   *
+   * @param ops the operations in the order they apply
+   * @return the operations to run
+   */
+  List<Operation> plan(List<Operation> ops) {
+    List<Operation> plan = new ArrayList<>();
+    PointOperation run = null;
+    int runLength = 0;
+    Operation first = null;
+    for (Operation op : ops) {
+      PointOperation pointOp = op.asPointOperation();
+      if (pointOp != null) {
+        run = run == null ? pointOp : run.andThen(pointOp);
+        first = runLength == 0 ? op : first;
+        runLength++;
+        continue;
+      }
+      flush(plan, run, runLength, first);
+      run = null;
+      runLength = 0;
+      plan.add(op);
+    }
+    flush(plan, run, runLength, first);
+    return plan;
+  }
+
+  private void flush(List<Operation> plan, PointOperation run, int runLength, Operation first) {
+    if (runLength == 1) {
+      plan.add(first);
+    } else if (runLength > 1) {
+      plan.add(point(run));
+    }
+  }
+}
@@ -0,0 +1,178 @@
+package images.graph;
+
+import images.Raster;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A node of an operation graph: an image described as an operation applied to its
+ * parent's image. Source nodes hold pixels from the start; other nodes hold pixels
+ * only once an {@link OperationGraph} has materialized them.
+ */
+public final class OperationNode {
+  private final OperationNode parent;
+  private final Operation operation;
+  private final int width;
+  private final int height;
+  private Raster raster;
+  private String key;
+  private boolean keyed;
+
+  private OperationNode(OperationNode parent, Operation operation, int width, int height,
+          Raster raster) {
+    this.parent = parent;
+    this.operation = operation;
+    this.width = width;
+    this.height = height;
+    this.raster = raster;
+  }
+
+  /**
+   * Create a node that holds an image.
+   *
+   * @param raster the image
+   * @return the node
+   * @throws IllegalArgumentException if the raster is null
+   */
+  public static OperationNode source(Raster raster) throws IllegalArgumentException {
+    if (raster == null) {
+      throw new IllegalArgumentException("Invalid image data provided");
+    }
+    return new OperationNode(null, null, raster.getWidth(), raster.getHeight(), raster);
+  }
+
+  /**
+   * Create a node for this image with one more operation applied. Nothing is
+   * computed until the new node is materialized.
+   *
+   * @param op the operation
+   * @return the new node
+   * @throws IllegalArgumentException if the operation is null
+   */
+  public OperationNode then(Operation op) throws IllegalArgumentException {
+    if (op == null) {
+      throw new IllegalArgumentException("Invalid operation provided");
+    }
+    return new OperationNode(this, op, width, height, null);
+  }
+
+  /**
+   * Get the node this one applies its operation to.
+   *
+   * @return the parent, or null for a source node
+   */
+  public OperationNode getParent() {
+    return parent;
+  }
+
+  /**
+   * Get the operation of this node.
+   *
+   * @return the operation, or null for a source node
+   */
+  public Operation getOperation() {
+    return operation;
+  }
+
+  /**
+   * Get the width of the image. It is known without computing any pixels.
+   *
+   * @return the width in pixels
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Get the height of the image. It is known without computing any pixels.
+   *
+   * @return the height in pixels
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Whether the pixels of this node have been computed.
+   *
+   * @return true if the node holds its raster
+   */
+  public boolean isMaterialized() {
+    return raster != null;
+  }
+
+  /**
+   * Get a digest naming the image of this node by its content: for a source node, a
+   * hash of its pixels; for any other node, a hash of its parent's key and the
+   * {@link Operation#getKey() key} of its operation. Nodes with the same key hold the
+   * same image, whichever model or run created them. The key is computed once, on
+   * first use; a source spilled out of memory has no key until its pixels are back.
+   *
+   * @return the key, or null if the operation of this node or of an ancestor is not
+   *         cacheable, or the pixels of its source are not in memory
+   */
+  public String getKey() {
+    if (!keyed) {
+      if (parent == null) {
+        if (raster != null) {
+          key = digestPixels(raster);
+          keyed = true;
+        }
+      } else {
+        String opKey = operation.getKey();
+        String parentKey = opKey == null ? null : parent.getKey();
+        if (parentKey != null) {
+          MessageDigest digest = sha1();
+          digest.update(parentKey.getBytes(StandardCharsets.UTF_8));
+          digest.update((byte) '\n');
+          key = hex(digest.digest(opKey.getBytes(StandardCharsets.UTF_8)));
+        }
+        // a null key is final unless it only waits for a spilled source
+        keyed = opKey == null || parent.keyed;
+      }
+    }
+    return key;
+  }
+
+  private static String digestPixels(Raster raster) {
+    MessageDigest digest = sha1();
+    int width = raster.getWidth();
+    ByteBuffer row = ByteBuffer.allocate(4 * Math.max(width, 2)).order(ByteOrder.LITTLE_ENDIAN);
+    row.putInt(width).putInt(raster.getHeight()).flip();
+    digest.update(row);
+    for (int y = 0; y < raster.getHeight(); y++) {
+      row.clear();
+      row.asIntBuffer().put(raster.getPixels(), raster.index(0, y), width);
+      row.limit(4 * width);
+      digest.update(row);
+    }
+    return hex(digest.digest());
+  }
+
+  private static MessageDigest sha1() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException("SHA-1 is not available", ex);
+    }
+  }
+
+  private static String hex(byte[] hash) {
+    StringBuilder name = new StringBuilder();
+    for (byte b : hash) {
+      name.append(String.format("%02x", b));
+    }
+    return name.toString();
+  }
+
+  Raster getRaster() {
+    return raster;
+  }
+
+  void setRaster(Raster raster) {
+    this.raster = raster;
+  }
+}
@@ -0,0 +1,153 @@
+package images.graph;
+
+import images.Raster;
+import images.parallel.TileExecutor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.Function;
+
+/**
+ * Computes small versions of the images of {@link OperationNode}s for quick display.
+ * The nearest image that is already computed at full size is scaled down to fit a
+ * box, and the operations after it run on that copy in their
+ * {@link Operation#preview(double, int, int) preview} form. Previews are remembered
+ * per node while the node is in use, so a preview after one more filter only runs
+ * that filter on the small copy.
+ */
+public class PreviewRenderer {
+  private final TileExecutor executor;
+  private final Map<OperationNode, Raster> previews;
+
+  /**
+   * Constructs a renderer that scales images down on the given executor.
+   *
+   * @param executor the executor to split rows over
+   * @throws IllegalArgumentException if the executor is null
+   */
+  public PreviewRenderer(TileExecutor executor) throws IllegalArgumentException {
+    if (executor == null) {
+      throw new IllegalArgumentException("Invalid executor provided");
+    }
+    this.executor = executor;
+    previews = new WeakHashMap<>();
+  }
+
+  /**
+   * Get the preview of a node, as large as fits in a box without changing its aspect
+   * ratio. An image that fits in the box already is computed at full size.
+   *
+   * @param node the node
+   * @param maxWidth the width of the box
+   * @param maxHeight the height of the box
+   * @param materialize computes the full size image of a node, used for an image
+   *                    that is not in memory and has no preview
+   * @return the preview, which callers must not modify
+   * @throws IllegalArgumentException if the node is null or the box is empty
+   */
+  public Raster render(OperationNode node, int maxWidth, int maxHeight,
+                       Function<OperationNode, Raster> materialize)
+          throws IllegalArgumentException {
+    if (node == null || materialize == null) {
+      throw new IllegalArgumentException("Invalid operation node provided");
+    }
+    if (maxWidth <= 0 || maxHeight <= 0) {
+      throw new IllegalArgumentException("The preview must be at least one pixel");
+    }
+    int width = node.getWidth();
+    int height = node.getHeight();
+    double scale = Math.min(1, Math.min((double) maxWidth / width, (double) maxHeight / height));
+    if (scale == 1) {
+      return materialize.apply(node);
+    }
+    int previewWidth = Math.max(1, (int) Math.round(width * scale));
+    int previewHeight = Math.max(1, (int) Math.round(height * scale));
+
+    List<OperationNode> pending = new ArrayList<>();
+    OperationNode start = node;
+    Raster raster;
+    while (true) {
+      raster = previews.get(start);
+      if (raster != null && raster.getWidth() == previewWidth
+              && raster.getHeight() == previewHeight) {
+        break;
+      }
+      if (start.isMaterialized() || start.getParent() == null) {
+        raster = downsample(materialize.apply(start), previewWidth, previewHeight);
+        previews.put(start, raster);
+        break;
+      }
+      pending.add(start);
+      start = start.getParent();
+    }
+    Collections.reverse(pending);
+
+    for (OperationNode n : pending) {
+      raster = n.getOperation().preview(scale, width, height).apply(raster);
+      previews.put(n, raster);
+    }
+    return raster;
+  }
+
+  /**
+   * Forget every preview, such as when the model is cleared.
+   */
+  public void clear() {
+    previews.clear();
+  }
+
+  /**
+   * Scale an image down by averaging the pixels that fall in each pixel of the
+   * result.
+   *
+   * @param src the image
+   * @param width the width of the result, at most that of the image
+   * @param height the height of the result, at most that of the image
+   * @return the scaled down image
+   */
+  Raster downsample(Raster src, int width, int height) {
+    int srcWidth = src.getWidth();
+    int srcHeight = src.getHeight();
+    int[] x0 = new int[width + 1];
+    for (int x = 0; x <= width; x++) {
+      x0[x] = (int) ((long) x * srcWidth / width);
+    }
+    Raster dst = new Raster(width, height);
+    int[] in = src.getPixels();
+    int[] out = dst.getPixels();
+    executor.forEachBand(height, 0, (y0, y1) -> {
+      long[] sums = new long[3 * width];
+      for (int y = y0; y < y1; y++) {
+        int top = (int) ((long) y * srcHeight / height);
+        int bottom = (int) ((long) (y + 1) * srcHeight / height);
+        Arrays.fill(sums, 0);
+        for (int sy = top; sy < bottom; sy++) {
+          int row = src.index(0, sy);
+          for (int x = 0; x < width; x++) {
+            long r = 0;
+            long g = 0;
+            long b = 0;
+            for (int sx = x0[x]; sx < x0[x + 1]; sx++) {
+              int rgb = in[row + sx];
+              r += Raster.red(rgb);
+              g += Raster.green(rgb);
+              b += Raster.blue(rgb);
+            }
+            sums[3 * x] += r;
+            sums[3 * x + 1] += g;
+            sums[3 * x + 2] += b;
+          }
+        }
+        for (int x = 0; x < width; x++) {
+          long count = (long) (bottom - top) * (x0[x + 1] - x0[x]);
+          out[y * width + x] = Raster.pack((int) (sums[3 * x] / count),
+                  (int) (sums[3 * x + 1] / count), (int) (sums[3 * x + 2] / count));
+        }
+      }
+    });
+    return dst;
+  }
+}
@@ -0,0 +1,162 @@
+package images.graph;
+
+import images.Raster;
+import images.RasterCache;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Filtered images by {@link OperationNode#getKey() content key}, so that running the
+ * same filters over the same pixels again costs a lookup. Results are kept in memory
+ * under a byte budget, dropping the least recently used first, and optionally also
+ * in a {@link RasterCache} directory, which keeps them across runs and between
+ * processes under a budget of its own. A result found on disk is brought back into
+ * memory. The cache is safe to share between models on different threads.
+ */
+public class ResultCache {
+  private final long memoryBudget;
+  private final RasterCache disk;
+  private final LinkedHashMap<String, Raster> memory;
+  private long memoryBytes;
+  private long memoryHits;
+  private long diskHits;
+  private long misses;
+
+  /**
+   * Constructs a cache that only keeps results in memory.
+   *
+   * @param memoryBudget the number of bytes of pixels to keep in memory
+   * @throws IllegalArgumentException if the budget is negative
+   */
+  public ResultCache(long memoryBudget) throws IllegalArgumentException {
+    this(memoryBudget, null);
+  }
+
+  /**
+   * Constructs a cache that keeps results in memory and on disk.
+   *
+   * @param memoryBudget the number of bytes of pixels to keep in memory
+   * @param disk the directory to also keep results in, or null
+   * @throws IllegalArgumentException if the budget is negative
+   */
+  public ResultCache(long memoryBudget, RasterCache disk) throws IllegalArgumentException {
+    if (memoryBudget < 0) {
+      throw new IllegalArgumentException("The memory budget must not be negative");
+    }
+    this.memoryBudget = memoryBudget;
+    this.disk = disk;
+    memory = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  /**
+   * Get the result stored under a key.
+   *
+   * @param key the content key of the result
+   * @return the pixels, which callers must not modify, or null if the key is null or
+   *         not cached
+   */
+  public Raster get(String key) {
+    if (key == null) {
+      return null;
+    }
+    synchronized (this) {
+      Raster raster = memory.get(key);
+      if (raster != null) {
+        memoryHits++;
+        return raster;
+      }
+    }
+    Raster raster = disk == null ? null : disk.get(key);
+    synchronized (this) {
+      if (raster == null) {
+        misses++;
+      } else {
+        diskHits++;
+        remember(key, raster);
+      }
+    }
+    return raster;
+  }
+
+  /**
+   * Store a result. The raster must not be modified afterwards.
+   *
+   * @param key the content key of the result, or null to store nothing
+   * @param raster the pixels
+   */
+  public void put(String key, Raster raster) {
+    if (key == null || raster == null) {
+      return;
+    }
+    synchronized (this) {
+      remember(key, raster);
+    }
+    if (disk != null) {
+      disk.put(key, raster);
+    }
+  }
+
+  /**
+   * Drop every result held in memory. Results on disk stay.
+   */
+  public synchronized void clear() {
+    memory.clear();
+    memoryBytes = 0;
+  }
+
+  /**
+   * Get the number of bytes of pixels held in memory.
+   *
+   * @return the size in bytes
+   */
+  public synchronized long getMemoryBytes() {
+    return memoryBytes;
+  }
+
+  /**
+   * Get the number of lookups answered from memory.
+   *
+   * @return the number of memory hits
+   */
+  public synchronized long getMemoryHits() {
+    return memoryHits;
+  }
+
+  /**
+   * Get the number of lookups answered from disk.
+   *
+   * @return the number of disk hits
+   */
+  public synchronized long getDiskHits() {
+    return diskHits;
+  }
+
+  /**
+   * Get the number of lookups of a key that was not cached.
+   *
+   * @return the number of misses
+   */
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  private void remember(String key, Raster raster) {
+    long bytes = bytes(raster);
+    if (bytes > memoryBudget) {
+      return;
+    }
+    Raster old = memory.put(key, raster);
+    memoryBytes += bytes - (old == null ? 0 : bytes(old));
+    Iterator<Map.Entry<String, Raster>> eldest = memory.entrySet().iterator();
+    while (memoryBytes > memoryBudget) {
+      Raster dropped = eldest.next().getValue();
+      eldest.remove();
+      memoryBytes -= bytes(dropped);
+    }
+  }
+
+  private static long bytes(Raster raster) {
+    return 4L * raster.getWidth() * raster.getHeight();
+  }
+}
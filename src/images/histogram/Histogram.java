@@ -0,0 +1,87 @@
+package images.histogram;
+
+import images.Raster;
+
+/**
+ * Histogram primitives over 8-bit channel values: counting, clipping and turning a
+ * histogram into an equalizing lookup table. Histograms are plain {@code int[256]}
+ * arrays indexed by channel value.
+ */
+public final class Histogram {
+  /** Number of distinct 8-bit values. */
+  public static final int LEVELS = 256;
+  /** Shift that selects the red channel of a packed pixel. */
+  public static final int RED = 16;
+  /** Shift that selects the green channel of a packed pixel. */
+  public static final int GREEN = 8;
+  /** Shift that selects the blue channel of a packed pixel. */
+  public static final int BLUE = 0;
+
+  private Histogram() {
+  }
+
+  /**
+   * Count one channel over a rectangle of a raster, adding to an existing histogram.
+   *
+   * @param raster the raster to read
+   * @param shift the channel to count: {@link #RED}, {@link #GREEN} or {@link #BLUE}
+   * @param x0 the first column
+   * @param y0 the first row
+   * @param x1 one past the last column
+   * @param y1 one past the last row
+   * @param histogram the histogram to add to
+   */
+  public static void accumulate(Raster raster, int shift, int x0, int y0, int x1, int y1,
+                                int[] histogram) {
+    int[] pixels = raster.getPixels();
+    for (int y = y0; y < y1; y++) {
+      int i = raster.index(0, y);
+      for (int x = x0; x < x1; x++) {
+        histogram[(pixels[i + x] >> shift) & 0xFF]++;
+      }
+    }
+  }
+
+  /**
+   * Build the lookup table that equalizes a histogram: every value maps to 255 times
+   * the fraction of samples at or below it.
+   *
+   * @param histogram the histogram
+   * @return the lookup table, one output value per input value
+   */
+  public static int[] equalizationTable(int[] histogram) {
+    long total = 0;
+    for (int count : histogram) {
+      total += count;
+    }
+    int[] table = new int[LEVELS];
+    long cumulative = 0;
+    for (int v = 0; v < LEVELS; v++) {
+      cumulative += histogram[v];
+      table[v] = total == 0 ? v : (int) (255 * cumulative / total);
+    }
+    return table;
+  }
+
+  /**
+   * Clip every bin of a histogram to a limit and spread the clipped samples evenly
+   * over all bins, as contrast-limited equalization does. The total is unchanged.
+   *
+   * @param histogram the histogram, modified in place
+   * @param limit the largest count a bin may keep
+   */
+  public static void clip(int[] histogram, int limit) {
+    long excess = 0;
+    for (int v = 0; v < LEVELS; v++) {
+      if (histogram[v] > limit) {
+        excess += histogram[v] - limit;
+        histogram[v] = limit;
+      }
+    }
+    int share = (int) (excess / LEVELS);
+    int remainder = (int) (excess % LEVELS);
+    for (int v = 0; v < LEVELS; v++) {
+      histogram[v] += share + (v < remainder ? 1 : 0);
+    }
+  }
+}
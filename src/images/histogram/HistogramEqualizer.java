@@ -0,0 +1,171 @@
+package images.histogram;
+
+import images.Raster;
+import images.parallel.TileExecutor;
+
+/**
+ * Histogram equalization built on {@link Histogram}: one counting pass into
+ * {@code int[256]} histograms followed by a lookup-table remap. Counting runs per
+ * band of rows and the band histograms are summed, remapping runs per band as well.
+ */
+public class HistogramEqualizer {
+  private final TileExecutor executor;
+
+  /**
+   * Constructs an equalizer that runs on the given executor.
+   *
+   * @param executor the executor to split rows over
+   * @throws IllegalArgumentException if the executor is null
+   */
+  public HistogramEqualizer(TileExecutor executor) throws IllegalArgumentException {
+    if (executor == null) {
+      throw new IllegalArgumentException("Invalid executor provided");
+    }
+    this.executor = executor;
+  }
+
+  /**
+   * Equalize a grayscale raster in place. Only the red channel is counted; all three
+   * channels are set to the equalized value.
+   *
+   * @param gray the grayscale raster
+   */
+  public void equalizeGray(Raster gray) {
+    int[] table = Histogram.equalizationTable(histogram(gray, Histogram.RED));
+    int[] grayTable = new int[Histogram.LEVELS];
+    for (int v = 0; v < Histogram.LEVELS; v++) {
+      grayTable[v] = (table[v] << 16) | (table[v] << 8) | table[v];
+    }
+    int[] pixels = gray.getPixels();
+    executor.forEachBand(gray.getHeight(), 0, (y0, y1) -> {
+      for (int y = y0; y < y1; y++) {
+        int i = gray.index(0, y);
+        for (int x = 0; x < gray.getWidth(); x++) {
+          pixels[i + x] = grayTable[(pixels[i + x] >> 16) & 0xFF];
+        }
+      }
+    });
+  }
+
+  /**
+   * Equalize the red, green and blue channels of a raster independently.
+   *
+   * @param src the raster to read
+   * @return a new raster with the equalized image
+   */
+  public Raster equalizeChannels(Raster src) {
+    int[] red = Histogram.equalizationTable(histogram(src, Histogram.RED));
+    int[] green = Histogram.equalizationTable(histogram(src, Histogram.GREEN));
+    int[] blue = Histogram.equalizationTable(histogram(src, Histogram.BLUE));
+    Raster dst = src.createCompatible();
+    int[] in = src.getPixels();
+    int[] out = dst.getPixels();
+    executor.forEachBand(src.getHeight(), 0, (y0, y1) -> {
+      for (int y = y0; y < y1; y++) {
+        int i = src.index(0, y);
+        int o = dst.index(0, y);
+        for (int x = 0; x < src.getWidth(); x++) {
+          int rgb = in[i + x];
+          out[o + x] = (red[Raster.red(rgb)] << 16) | (green[Raster.green(rgb)] << 8)
+                  | blue[Raster.blue(rgb)];
+        }
+      }
+    });
+    return dst;
+  }
+
+  /**
+   * Apply contrast-limited adaptive histogram equalization (CLAHE) to a grayscale
+   * raster in place. The image is split into a grid of tiles, each tile gets its own
+   * clipped equalization table, and every pixel blends the tables of the four
+   * nearest tile centers so that no seams show between tiles.
+   *
+   * @param gray the grayscale raster
+   * @param tiles the number of tiles along each side
+   * @param clipLimit how many times the average bin count a bin may hold before it is
+   *                  clipped; 1 gives no enhancement, larger values give more
+   * @throws IllegalArgumentException if tiles is not positive or clipLimit is below 1
+   */
+  public void equalizeAdaptive(Raster gray, int tiles, double clipLimit)
+          throws IllegalArgumentException {
+    if (tiles <= 0) {
+      throw new IllegalArgumentException("The number of tiles must be positive");
+    }
+    if (!(clipLimit >= 1)) {
+      throw new IllegalArgumentException("The clip limit must be at least 1");
+    }
+    int width = gray.getWidth();
+    int height = gray.getHeight();
+    int tilesX = Math.min(tiles, width);
+    int tilesY = Math.min(tiles, height);
+    int tileWidth = (width + tilesX - 1) / tilesX;
+    int tileHeight = (height + tilesY - 1) / tilesY;
+    tilesX = (width + tileWidth - 1) / tileWidth;
+    tilesY = (height + tileHeight - 1) / tileHeight;
+
+    int[][] tables = new int[tilesX * tilesY][];
+    for (int ty = 0; ty < tilesY; ty++) {
+      for (int tx = 0; tx < tilesX; tx++) {
+        int x0 = tx * tileWidth;
+        int y0 = ty * tileHeight;
+        int x1 = Math.min(width, x0 + tileWidth);
+        int y1 = Math.min(height, y0 + tileHeight);
+        int[] histogram = new int[Histogram.LEVELS];
+        Histogram.accumulate(gray, Histogram.RED, x0, y0, x1, y1, histogram);
+        int pixels = (x1 - x0) * (y1 - y0);
+        Histogram.clip(histogram,
+                Math.max(1, (int) (clipLimit * pixels / Histogram.LEVELS)));
+        tables[ty * tilesX + tx] = Histogram.equalizationTable(histogram);
+      }
+    }
+
+    int columns = tilesX;
+    int rows = tilesY;
+    int[] pixels = gray.getPixels();
+    executor.forEachBand(height, 0, (y0, y1) -> {
+      for (int y = y0; y < y1; y++) {
+        double fy = (y + 0.5) / tileHeight - 0.5;
+        int ty0 = Math.max(0, (int) Math.floor(fy));
+        int ty1 = Math.min(rows - 1, (int) Math.floor(fy) + 1);
+        double ay = fy < 0 ? 0 : fy - Math.floor(fy);
+        int i = gray.index(0, y);
+        for (int x = 0; x < width; x++) {
+          double fx = (x + 0.5) / tileWidth - 0.5;
+          int tx0 = Math.max(0, (int) Math.floor(fx));
+          int tx1 = Math.min(columns - 1, (int) Math.floor(fx) + 1);
+          // past the outer tile centers the nearest table is used on its own
+          double ax = fx < 0 ? 0 : fx - Math.floor(fx);
+          int v = (pixels[i + x] >> 16) & 0xFF;
+          double top = (1 - ax) * tables[ty0 * columns + tx0][v]
+                  + ax * tables[ty0 * columns + tx1][v];
+          double bottom = (1 - ax) * tables[ty1 * columns + tx0][v]
+                  + ax * tables[ty1 * columns + tx1][v];
+          int out = (int) Math.round((1 - ay) * top + ay * bottom);
+          pixels[i + x] = (out << 16) | (out << 8) | out;
+        }
+      }
+    });
+  }
+
+  /**
+   * Count the values of one channel of a raster.
+   *
+   * @param raster the raster to read
+   * @param shift the channel, one of {@link Histogram#RED}, {@link Histogram#GREEN} and
+   *              {@link Histogram#BLUE}
+   * @return the number of pixels at every level
+   */
+  public int[] histogram(Raster raster, int shift) {
+    int[] histogram = new int[Histogram.LEVELS];
+    for (int[] band : executor.mapBands(raster.getHeight(), 0, (y0, y1) -> {
+      int[] bandHistogram = new int[Histogram.LEVELS];
+      Histogram.accumulate(raster, shift, 0, y0, raster.getWidth(), y1, bandHistogram);
+      return bandHistogram;
+    })) {
+      for (int v = 0; v < Histogram.LEVELS; v++) {
+        histogram[v] += band[v];
+      }
+    }
+    return histogram;
+  }
+}
@@ -0,0 +1,123 @@
+package images.metrics;
+
+/**
+ * A histogram of non-negative values in logarithmic buckets: values below 16 are
+ * counted exactly, and every power of two above is split into 8 buckets, so any
+ * percentile is off by at most an eighth of its value. Recording takes constant time
+ * and the histogram never grows, whatever the range of values.
+ */
+public final class Distribution {
+  private static final int EXACT = 16;
+  private static final int SUB_BUCKETS = 8;
+  private static final int BUCKETS = EXACT + (63 - 4) * SUB_BUCKETS;
+
+  private final long[] counts = new long[BUCKETS];
+  private long count;
+  private long sum;
+  private long min = Long.MAX_VALUE;
+  private long max;
+
+  /**
+   * Add a value. Negative values are counted as zero.
+   *
+   * @param value the value
+   */
+  public synchronized void record(long value) {
+    value = Math.max(0, value);
+    counts[bucket(value)]++;
+    count++;
+    sum += value;
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+  }
+
+  /**
+   * Get the number of values recorded.
+   *
+   * @return the count
+   */
+  public synchronized long getCount() {
+    return count;
+  }
+
+  /**
+   * Get the sum of the values recorded.
+   *
+   * @return the sum
+   */
+  public synchronized long getSum() {
+    return sum;
+  }
+
+  /**
+   * Get the smallest value recorded.
+   *
+   * @return the minimum, or 0 if nothing was recorded
+   */
+  public synchronized long getMin() {
+    return count == 0 ? 0 : min;
+  }
+
+  /**
+   * Get the largest value recorded.
+   *
+   * @return the maximum, or 0 if nothing was recorded
+   */
+  public synchronized long getMax() {
+    return max;
+  }
+
+  /**
+   * Get the mean of the values recorded.
+   *
+   * @return the mean, or 0 if nothing was recorded
+   */
+  public synchronized double getMean() {
+    return count == 0 ? 0 : (double) sum / count;
+  }
+
+  /**
+   * Get the value below which a given fraction of the values fall.
+   *
+   * @param fraction the fraction, such as 0.95 for the 95th percentile
+   * @return the percentile, within an eighth of the true value, and never beyond
+   *         the range recorded; 0 if nothing was recorded
+   * @throws IllegalArgumentException if the fraction is not between 0 and 1
+   */
+  public synchronized long getPercentile(double fraction) throws IllegalArgumentException {
+    if (!(fraction >= 0 && fraction <= 1)) {
+      throw new IllegalArgumentException("The fraction must be between 0 and 1");
+    }
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(fraction * count));
+    long seen = 0;
+    for (int b = 0; b < BUCKETS; b++) {
+      seen += counts[b];
+      if (seen >= rank) {
+        return Math.max(min, Math.min(max, middle(b)));
+      }
+    }
+    return max;
+  }
+
+  private static int bucket(long value) {
+    if (value < EXACT) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int sub = (int) (value >>> (exponent - 3)) & (SUB_BUCKETS - 1);
+    return EXACT + (exponent - 4) * SUB_BUCKETS + sub;
+  }
+
+  private static long middle(int bucket) {
+    if (bucket < EXACT) {
+      return bucket;
+    }
+    int exponent = (bucket - EXACT) / SUB_BUCKETS + 4;
+    long sub = (bucket - EXACT) % SUB_BUCKETS;
+    long low = (SUB_BUCKETS + sub) << (exponent - 3);
+    return low + (1L << (exponent - 4));
+  }
+}
@@ -0,0 +1,273 @@
+package images.metrics;
+
+import images.ImageInfo;
+import images.ImageModel;
+import images.ImageUtilities;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * An image model that measures every call it passes on to another model: wall time,
+ * CPU time, allocated bytes and the pixels of the image, recorded into a
+ * {@link MetricsRegistry} under the name of the operation, such as "blur".
+ *
+ * <p>Filters split their work over executor threads, so CPU time and allocation are
+ * summed over every thread of the JVM; work running elsewhere at the same time is
+ * counted too. A lazy model only records filters, and their cost shows under the call
+ * that computes them, such as "save". While disabled, calls go straight to the model.
+ */
+public class InstrumentedImageModel implements ImageModel {
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+  private static final com.sun.management.ThreadMXBean EXTENDED =
+          THREADS instanceof com.sun.management.ThreadMXBean
+                  ? (com.sun.management.ThreadMXBean) THREADS : null;
+
+  private final ImageModel model;
+  private final MetricsRegistry registry;
+  private volatile boolean enabled;
+  private long pixels;
+
+  /**
+   * Constructs an enabled instrumented model.
+   *
+   * @param model the model doing the work
+   * @param registry the registry to record into
+   * @throws IllegalArgumentException if the model or registry is null
+   */
+  public InstrumentedImageModel(ImageModel model, MetricsRegistry registry)
+          throws IllegalArgumentException {
+    if (model == null || registry == null) {
+      throw new IllegalArgumentException("Invalid instrumentation arguments");
+    }
+    this.model = model;
+    this.registry = registry;
+    enabled = true;
+  }
+
+  /**
+   * Start or stop measuring calls.
+   *
+   * @param enabled whether to measure
+   */
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Get the registry the calls are recorded into.
+   *
+   * @return the registry
+   */
+  public MetricsRegistry getRegistry() {
+    return registry;
+  }
+
+  @Override
+  public void loadImage(String filename) throws IllegalArgumentException {
+    measure("load", () -> model.loadImage(filename));
+    try {
+      ImageInfo info = ImageUtilities.probe(filename);
+      pixels = (long) info.getWidth() * info.getHeight();
+    } catch (IllegalArgumentException e) {
+      pixels = 0;
+    }
+  }
+
+  @Override
+  public void saveImage(String filename) throws IllegalArgumentException {
+    measure("save", () -> model.saveImage(filename));
+  }
+
+  @Override
+  public void applyBlur() {
+    measure("blur", model::applyBlur);
+  }
+
+  @Override
+  public void applyGaussianBlur(double sigma) throws IllegalArgumentException {
+    measure("gaussian", () -> model.applyGaussianBlur(sigma));
+  }
+
+  @Override
+  public void applySharpen() {
+    measure("sharpen", model::applySharpen);
+  }
+
+  @Override
+  public void applyGrayscale() {
+    measure("grayscale", model::applyGrayscale);
+  }
+
+  @Override
+  public void applySepia() {
+    measure("sepia", model::applySepia);
+  }
+
+  @Override
+  public void applyColorMatrix(double[][] matrix) throws IllegalArgumentException {
+    measure("matrix", () -> model.applyColorMatrix(matrix));
+  }
+
+  @Override
+  public void applyDither() {
+    measure("dither", model::applyDither);
+  }
+
+  @Override
+  public void applyMosaic(int seeds) throws IllegalArgumentException {
+    measure("mosaic", () -> model.applyMosaic(seeds));
+  }
+
+  @Override
+  public void applyMosaic(int seeds, long randomSeed) throws IllegalArgumentException {
+    measure("mosaic", () -> model.applyMosaic(seeds, randomSeed));
+  }
+
+  @Override
+  public void edgeDetection() {
+    measure("edge", model::edgeDetection);
+  }
+
+  @Override
+  public void grayscaleContractEnhancement() {
+    measure("enhance", model::grayscaleContractEnhancement);
+  }
+
+  @Override
+  public void applyChannelEqualization() {
+    measure("equalize", model::applyChannelEqualization);
+  }
+
+  @Override
+  public void applyAdaptiveEqualization(int tiles, double clipLimit)
+          throws IllegalArgumentException {
+    measure("clahe", () -> model.applyAdaptiveEqualization(tiles, clipLimit));
+  }
+
+  @Override
+  public BufferedImage getCurrentImage() {
+    return measure("current", model::getCurrentImage);
+  }
+
+  @Override
+  public BufferedImage getPreviewImage(int maxWidth, int maxHeight)
+          throws IllegalArgumentException {
+    return measure("preview", () -> model.getPreviewImage(maxWidth, maxHeight));
+  }
+
+  @Override
+  public BufferedImage getOriginalImage() {
+    return measure("original", model::getOriginalImage);
+  }
+
+  @Override
+  public void undoOneStep() {
+    measure("undo", model::undoOneStep);
+  }
+
+  @Override
+  public void redoOneStep() {
+    measure("redo", model::redoOneStep);
+  }
+
+  @Override
+  public boolean canRedo() {
+    return model.canRedo();
+  }
+
+  @Override
+  public void resetToOrigin() {
+    measure("reset", model::resetToOrigin);
+  }
+
+  @Override
+  public void close() {
+    model.close();
+  }
+
+  private void measure(String operation, Runnable call) {
+    if (!enabled) {
+      call.run();
+      return;
+    }
+    measure(operation, () -> {
+      call.run();
+      return null;
+    });
+  }
+
+  /**
+   * Make a call, and record it if it returns normally.
+   */
+  private <T> T measure(String operation, Supplier<T> call) {
+    if (!enabled) {
+      return call.get();
+    }
+    Snapshot before = Snapshot.take();
+    long start = System.nanoTime();
+    T result = call.get();
+    long wall = System.nanoTime() - start;
+    Snapshot after = Snapshot.take();
+    registry.record(operation, wall, after.cpuSince(before), after.allocatedSince(before),
+            pixels);
+    return result;
+  }
+
+  /**
+   * The CPU time and allocated bytes of every live thread.
+   */
+  private static final class Snapshot {
+    private final Map<Long, long[]> threads = new HashMap<>();
+    private final boolean cpu;
+    private final boolean allocation;
+
+    private Snapshot(boolean cpu, boolean allocation) {
+      this.cpu = cpu;
+      this.allocation = allocation;
+    }
+
+    private static Snapshot take() {
+      boolean cpu = THREADS.isThreadCpuTimeSupported() && THREADS.isThreadCpuTimeEnabled();
+      boolean allocation = EXTENDED != null && EXTENDED.isThreadAllocatedMemorySupported()
+              && EXTENDED.isThreadAllocatedMemoryEnabled();
+      Snapshot snapshot = new Snapshot(cpu, allocation);
+      long[] ids = THREADS.getAllThreadIds();
+      long[] times = cpu && EXTENDED != null ? EXTENDED.getThreadCpuTime(ids) : null;
+      long[] bytes = allocation ? EXTENDED.getThreadAllocatedBytes(ids) : null;
+      for (int i = 0; i < ids.length; i++) {
+        long time = times != null ? times[i] : cpu ? THREADS.getThreadCpuTime(ids[i]) : -1;
+        snapshot.threads.put(ids[i], new long[] {time, bytes != null ? bytes[i] : -1});
+      }
+      return snapshot;
+    }
+
+    private long cpuSince(Snapshot before) {
+      return cpu ? since(before, 0) : -1;
+    }
+
+    private long allocatedSince(Snapshot before) {
+      return allocation ? since(before, 1) : -1;
+    }
+
+    /**
+     * Sum the growth of one counter over the threads alive now. Threads that started
+     * in between count from zero; threads that ended in between are lost.
+     */
+    private long since(Snapshot before, int counter) {
+      long total = 0;
+      for (Map.Entry<Long, long[]> thread : threads.entrySet()) {
+        long now = thread.getValue()[counter];
+        if (now < 0) {
+          continue;
+        }
+        long[] then = before.threads.get(thread.getKey());
+        total += now - (then == null || then[counter] < 0 ? 0 : then[counter]);
+      }
+      return total;
+    }
+  }
+}
@@ -0,0 +1,118 @@
+package images.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The statistics of every operation recorded by an {@link InstrumentedImageModel},
+ * by operation name. A registry may have a parent that receives every record too, so
+ * a script can have its own summary while the process-wide registry keeps the
+ * totals.
+ */
+public final class MetricsRegistry {
+  private static final MetricsRegistry GLOBAL = new MetricsRegistry();
+
+  private final MetricsRegistry parent;
+  private final Map<String, OperationStats> operations = new LinkedHashMap<>();
+
+  /**
+   * Constructs an empty registry with no parent.
+   */
+  public MetricsRegistry() {
+    this(null);
+  }
+
+  /**
+   * Constructs an empty registry that also records into a parent.
+   *
+   * @param parent the registry to record into as well, or null
+   */
+  public MetricsRegistry(MetricsRegistry parent) {
+    this.parent = parent;
+  }
+
+  /**
+   * Get the registry shared by the whole process.
+   *
+   * @return the global registry
+   */
+  public static MetricsRegistry global() {
+    return GLOBAL;
+  }
+
+  /**
+   * Record one call of an operation.
+   *
+   * @param operation the name of the operation
+   * @param wallNanos the wall time of the call
+   * @param cpuNanos the CPU time of the call, or -1 if unknown
+   * @param allocatedBytes the bytes allocated by the call, or -1 if unknown
+   * @param pixels the number of pixels of the image the call worked on
+   */
+  public void record(String operation, long wallNanos, long cpuNanos, long allocatedBytes,
+                     long pixels) {
+    OperationStats stats;
+    synchronized (operations) {
+      stats = operations.computeIfAbsent(operation, OperationStats::new);
+    }
+    stats.record(wallNanos, cpuNanos, allocatedBytes, pixels);
+    if (parent != null) {
+      parent.record(operation, wallNanos, cpuNanos, allocatedBytes, pixels);
+    }
+  }
+
+  /**
+   * Get the statistics of one operation.
+   *
+   * @param operation the name of the operation
+   * @return the statistics, or null if the operation was never recorded
+   */
+  public OperationStats get(String operation) {
+    synchronized (operations) {
+      return operations.get(operation);
+    }
+  }
+
+  /**
+   * Get the statistics of every operation, in the order they were first recorded.
+   *
+   * @return the statistics
+   */
+  public List<OperationStats> getOperations() {
+    synchronized (operations) {
+      return new ArrayList<>(operations.values());
+    }
+  }
+
+  /**
+   * Forget everything recorded. The parent is not affected.
+   */
+  public void clear() {
+    synchronized (operations) {
+      operations.clear();
+    }
+  }
+
+  /**
+   * Describe every operation in a table: number of calls, median, 95th percentile
+   * and total wall time, total CPU time, allocated bytes and pixel throughput.
+   *
+   * @return the table, one line per operation
+   */
+  public String summary() {
+    List<String> lines = new ArrayList<>();
+    lines.add(String.format("%-10s %5s %9s %9s %9s %9s %10s %8s", "operation", "calls",
+            "p50 ms", "p95 ms", "wall ms", "cpu ms", "alloc MB", "MP/s"));
+    for (OperationStats stats : getOperations()) {
+      Distribution wall = stats.getWallNanos();
+      lines.add(String.format("%-10s %5d %9.1f %9.1f %9.1f %9.1f %10.1f %8.1f",
+              stats.getName(), stats.getCount(), wall.getPercentile(0.5) / 1e6,
+              wall.getPercentile(0.95) / 1e6, wall.getSum() / 1e6,
+              stats.getCpuNanos().getSum() / 1e6, stats.getAllocatedBytes().getSum() / 1e6,
+              stats.getMegapixelsPerSecond()));
+    }
+    return String.join(System.lineSeparator(), lines);
+  }
+}
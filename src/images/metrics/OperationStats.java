@@ -0,0 +1,94 @@
+package images.metrics;
+
+/**
+ * What every call of one operation cost: distributions of wall time, CPU time and
+ * allocated bytes per call, and the number of pixels processed.
+ */
+public final class OperationStats {
+  private final String name;
+  private final Distribution wallNanos = new Distribution();
+  private final Distribution cpuNanos = new Distribution();
+  private final Distribution allocatedBytes = new Distribution();
+  private final Distribution pixels = new Distribution();
+
+  OperationStats(String name) {
+    this.name = name;
+  }
+
+  void record(long wall, long cpu, long allocated, long pixelCount) {
+    wallNanos.record(wall);
+    if (cpu >= 0) {
+      cpuNanos.record(cpu);
+    }
+    if (allocated >= 0) {
+      allocatedBytes.record(allocated);
+    }
+    pixels.record(pixelCount);
+  }
+
+  /**
+   * Get the name of the operation.
+   *
+   * @return the name, such as "blur"
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Get the number of calls.
+   *
+   * @return the count
+   */
+  public long getCount() {
+    return wallNanos.getCount();
+  }
+
+  /**
+   * Get the wall time of each call.
+   *
+   * @return the distribution in nanoseconds
+   */
+  public Distribution getWallNanos() {
+    return wallNanos;
+  }
+
+  /**
+   * Get the CPU time of each call, over all threads. Empty if the JVM cannot measure
+   * thread CPU time.
+   *
+   * @return the distribution in nanoseconds
+   */
+  public Distribution getCpuNanos() {
+    return cpuNanos;
+  }
+
+  /**
+   * Get the bytes allocated by each call, over all threads. Empty if the JVM cannot
+   * measure thread allocation.
+   *
+   * @return the distribution in bytes
+   */
+  public Distribution getAllocatedBytes() {
+    return allocatedBytes;
+  }
+
+  /**
+   * Get the number of pixels of the image each call worked on.
+   *
+   * @return the distribution in pixels
+   */
+  public Distribution getPixels() {
+    return pixels;
+  }
+
+  /**
+   * Get the pixels processed per second of wall time, over all calls.
+   *
+   * @return the throughput in megapixels per second, or 0 if no time was recorded
+   */
+  public double getMegapixelsPerSecond() {
+    long nanos = wallNanos.getSum();
+    return nanos == 0 ? 0 : pixels.getSum() / 1e6 / (nanos / 1e9);
+  }
+}
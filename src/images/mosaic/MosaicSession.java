@@ -0,0 +1,258 @@
+package images.mosaic;
+
+import images.Raster;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A mosaic of a scaled down copy of an image whose number of seeds can be changed
+ * over and over, such as while a slider is dragged. The seeds are those
+ * {@link VoronoiMosaic#applyScaled} uses, so every count gives exactly the image it
+ * gives; but going from one count to another only relabels the pixels of the cells
+ * the added or removed seeds touch, instead of the whole image.
+ *
+ * <p>Cells are named by the pixel of the copy their seed is in. Each cell keeps a
+ * bound on the squared distance from its seed to its farthest pixel: a new seed can
+ * only take pixels from cells whose seeds are within twice that distance, and only
+ * the pixels within that distance of those seeds are looked at. A removed cell hands
+ * each of its pixels to the nearest remaining seed. Color sums are kept per cell as
+ * pixels move, so painting the result is one pass over the copy.
+ */
+public final class MosaicSession {
+  private final int width;
+  private final int height;
+  private final int fullWidth;
+  private final int fullHeight;
+  private final int[] pixels;
+  private final SeedSampler sampler;
+  private int[] draws;
+  private int drawn;
+  private int seeds;
+
+  private final int[] multiplicity;
+  private final int[] labels;
+  private final int[] radius;
+  private final long[] sums;
+  private final int[] counts;
+  private final int[] cells;
+  private final int[] cellPosition;
+  private int cellCount;
+
+  /**
+   * Constructs a session with no seeds.
+   *
+   * @param proxy the scaled down copy, which is not modified
+   * @param fullWidth the width of the full size image
+   * @param fullHeight the height of the full size image
+   * @param randomSeed the seed of the generator placing the mosaic seeds, as given to
+   *                   the mosaic of the full size image
+   * @throws IllegalArgumentException if the copy is null or larger than the image
+   */
+  public MosaicSession(Raster proxy, int fullWidth, int fullHeight, long randomSeed)
+          throws IllegalArgumentException {
+    if (proxy == null || proxy.getWidth() > fullWidth || proxy.getHeight() > fullHeight) {
+      throw new IllegalArgumentException("Invalid image data provided");
+    }
+    width = proxy.getWidth();
+    height = proxy.getHeight();
+    this.fullWidth = fullWidth;
+    this.fullHeight = fullHeight;
+    int size = width * height;
+    pixels = new int[size];
+    for (int y = 0; y < height; y++) {
+      System.arraycopy(proxy.getPixels(), proxy.index(0, y), pixels, y * width, width);
+    }
+    sampler = new SeedSampler(fullWidth, fullHeight, new Random(randomSeed));
+    draws = new int[16];
+
+    multiplicity = new int[size];
+    labels = new int[size];
+    radius = new int[size];
+    sums = new long[3 * size];
+    counts = new int[size];
+    cells = new int[size];
+    cellPosition = new int[size];
+  }
+
+  /**
+   * Get the number of seeds of the mosaic as it is now.
+   *
+   * @return the number of seeds at full size
+   */
+  public int getSeeds() {
+    return seeds;
+  }
+
+  /**
+   * Add or remove seeds until the mosaic has a number of them, one seed at a time.
+   *
+   * @param target the number of seeds at full size
+   * @param stop asked before every seed whether to stop early, such as when a newer
+   *             count has been asked for
+   * @return true if the mosaic has the target number of seeds, false if it stopped
+   * @throws IllegalArgumentException if the number of seeds is not positive or is
+   *                                  larger than the number of pixels at full size
+   */
+  public boolean setSeeds(int target, BooleanSupplier stop) throws IllegalArgumentException {
+    if (target <= 0 || target > (long) fullWidth * fullHeight) {
+      throw new IllegalArgumentException("seeds is not valid");
+    }
+    while (seeds != target) {
+      if (stop.getAsBoolean()) {
+        return false;
+      }
+      if (seeds < target) {
+        if (seeds == drawn) {
+          if (drawn == draws.length) {
+            draws = Arrays.copyOf(draws, 2 * drawn);
+          }
+          draws[drawn++] = VoronoiMosaic.scaleSeed(sampler.next(), fullWidth, fullHeight,
+                  width, height);
+        }
+        add(draws[seeds++]);
+      } else {
+        remove(draws[--seeds]);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Paint every cell with the average color of its pixels.
+   *
+   * @return a new raster the size of the copy
+   * @throws IllegalStateException if the mosaic has no seeds yet
+   */
+  public Raster render() throws IllegalStateException {
+    if (cellCount == 0) {
+      throw new IllegalStateException("The mosaic has no seeds");
+    }
+    int[] colors = new int[width * height];
+    for (int i = 0; i < cellCount; i++) {
+      int c = cells[i];
+      colors[c] = Raster.pack((int) (sums[3 * c] / counts[c]),
+              (int) (sums[3 * c + 1] / counts[c]), (int) (sums[3 * c + 2] / counts[c]));
+    }
+    Raster dst = new Raster(width, height);
+    int[] out = dst.getPixels();
+    for (int i = 0; i < out.length; i++) {
+      out[i] = colors[labels[i]];
+    }
+    return dst;
+  }
+
+  private void add(int seed) {
+    if (multiplicity[seed]++ > 0) {
+      return;
+    }
+    if (cellCount == 0) {
+      for (int p = 0; p < labels.length; p++) {
+        labels[p] = seed;
+        include(seed, p);
+        radius[seed] = Math.max(radius[seed], distance(p, seed));
+      }
+      insert(seed);
+      return;
+    }
+
+    int sx = seed % width;
+    int sy = seed / width;
+    for (int i = 0; i < cellCount; i++) {
+      int c = cells[i];
+      // a pixel of c closer to the new seed is within radius of both seeds
+      if (distance(seed, c) > 4L * radius[c]) {
+        continue;
+      }
+      int reach = (int) Math.ceil(Math.sqrt(radius[c]));
+      int cx = c % width;
+      int cy = c / width;
+      int farthest = 0;
+      for (int y = Math.max(0, cy - reach); y <= Math.min(height - 1, cy + reach); y++) {
+        for (int x = Math.max(0, cx - reach); x <= Math.min(width - 1, cx + reach); x++) {
+          int p = y * width + x;
+          if (labels[p] != c) {
+            continue;
+          }
+          long toSeed = square(x - sx) + square(y - sy);
+          long toCell = square(x - cx) + square(y - cy);
+          if (toSeed < toCell || (toSeed == toCell && seed < c)) {
+            move(p, c, seed);
+            radius[seed] = (int) Math.max(radius[seed], toSeed);
+          } else {
+            farthest = (int) Math.max(farthest, toCell);
+          }
+        }
+      }
+      radius[c] = farthest;
+    }
+    insert(seed);
+  }
+
+  private void remove(int seed) {
+    if (--multiplicity[seed] > 0) {
+      return;
+    }
+    int position = cellPosition[seed];
+    cells[position] = cells[--cellCount];
+    cellPosition[cells[position]] = position;
+
+    // the remaining seeds in pixel order, so ties go to the lowest pixel as in a full
+    // labeling
+    int[] remaining = Arrays.copyOf(cells, cellCount);
+    Arrays.sort(remaining);
+    int[] seedX = new int[cellCount];
+    int[] seedY = new int[cellCount];
+    for (int i = 0; i < cellCount; i++) {
+      seedX[i] = remaining[i] % width;
+      seedY[i] = remaining[i] / width;
+    }
+    SeedGrid grid = new SeedGrid(width, height, seedX, seedY);
+
+    int reach = (int) Math.ceil(Math.sqrt(radius[seed]));
+    int cx = seed % width;
+    int cy = seed / width;
+    for (int y = Math.max(0, cy - reach); y <= Math.min(height - 1, cy + reach); y++) {
+      for (int x = Math.max(0, cx - reach); x <= Math.min(width - 1, cx + reach); x++) {
+        int p = y * width + x;
+        if (labels[p] == seed) {
+          int c = remaining[grid.nearest(x, y)];
+          move(p, seed, c);
+          radius[c] = Math.max(radius[c], distance(p, c));
+        }
+      }
+    }
+    radius[seed] = 0;
+  }
+
+  private void insert(int cell) {
+    cellPosition[cell] = cellCount;
+    cells[cellCount++] = cell;
+  }
+
+  private void move(int p, int from, int to) {
+    labels[p] = to;
+    int rgb = pixels[p];
+    sums[3 * from] -= Raster.red(rgb);
+    sums[3 * from + 1] -= Raster.green(rgb);
+    sums[3 * from + 2] -= Raster.blue(rgb);
+    counts[from]--;
+    include(to, p);
+  }
+
+  private void include(int cell, int p) {
+    int rgb = pixels[p];
+    sums[3 * cell] += Raster.red(rgb);
+    sums[3 * cell + 1] += Raster.green(rgb);
+    sums[3 * cell + 2] += Raster.blue(rgb);
+    counts[cell]++;
+  }
+
+  private int distance(int p, int q) {
+    return (int) (square(p % width - q % width) + square(p / width - q / width));
+  }
+
+  private static long square(long v) {
+    return v * v;
+  }
+}
@@ -0,0 +1,98 @@
+package images.mosaic;
+
+/**
+ * A uniform grid of buckets over the seeds of a mosaic, used to find the seed nearest
+ * to a pixel without looking at every seed. Cells are square and sized so that each
+ * holds about two seeds; the seeds of every cell are stored back to back in one
+ * array, so the structure is a handful of primitive arrays.
+ */
+final class SeedGrid {
+  private final int[] seedX;
+  private final int[] seedY;
+  private final int cellSize;
+  private final int columns;
+  private final int rows;
+  private final int[] cellStart;
+  private final int[] cellSeeds;
+
+  /**
+   * Constructs a grid over the given seeds.
+   *
+   * @param width the width of the image
+   * @param height the height of the image
+   * @param seedX the column of every seed
+   * @param seedY the row of every seed
+   */
+  SeedGrid(int width, int height, int[] seedX, int[] seedY) {
+    this.seedX = seedX;
+    this.seedY = seedY;
+    double area = (double) width * height;
+    cellSize = Math.max(1, (int) Math.ceil(Math.sqrt(2 * area / seedX.length)));
+    columns = (width + cellSize - 1) / cellSize;
+    rows = (height + cellSize - 1) / cellSize;
+
+    cellStart = new int[columns * rows + 1];
+    for (int s = 0; s < seedX.length; s++) {
+      cellStart[cellOf(seedX[s], seedY[s]) + 1]++;
+    }
+    for (int c = 0; c < columns * rows; c++) {
+      cellStart[c + 1] += cellStart[c];
+    }
+    int[] fill = new int[columns * rows];
+    cellSeeds = new int[seedX.length];
+    for (int s = 0; s < seedX.length; s++) {
+      int cell = cellOf(seedX[s], seedY[s]);
+      cellSeeds[cellStart[cell] + fill[cell]++] = s;
+    }
+  }
+
+  /**
+   * Find the seed nearest to a pixel. Ties go to the seed with the lowest index, so
+   * the answer does not depend on the search order.
+   *
+   * @param x the column of the pixel
+   * @param y the row of the pixel
+   * @return the index of the nearest seed
+   */
+  int nearest(int x, int y) {
+    int cx = x / cellSize;
+    int cy = y / cellSize;
+    int best = -1;
+    long bestDist = Long.MAX_VALUE;
+    int maxRing = Math.max(columns, rows);
+    for (int ring = 0; ring <= maxRing; ring++) {
+      int top = cy - ring;
+      int bottom = cy + ring;
+      for (int gy = Math.max(0, top); gy <= Math.min(rows - 1, bottom); gy++) {
+        boolean edgeRow = gy == top || gy == bottom;
+        int step = edgeRow ? 1 : 2 * ring;
+        for (int gx = cx - ring; gx <= cx + ring; gx += Math.max(step, 1)) {
+          if (gx < 0 || gx >= columns) {
+            continue;
+          }
+          int cell = gy * columns + gx;
+          for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+            int s = cellSeeds[i];
+            long dx = seedX[s] - x;
+            long dy = seedY[s] - y;
+            long dist = dx * dx + dy * dy;
+            if (dist < bestDist || (dist == bestDist && s < best)) {
+              bestDist = dist;
+              best = s;
+            }
+          }
+        }
+      }
+      // every seed outside the rings searched so far is more than ring * cellSize away
+      long reach = (long) ring * cellSize;
+      if (best >= 0 && bestDist <= reach * reach) {
+        break;
+      }
+    }
+    return best;
+  }
+
+  private int cellOf(int x, int y) {
+    return (y / cellSize) * columns + x / cellSize;
+  }
+}
@@ -0,0 +1,50 @@
+package images.mosaic;
+
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Draws distinct pixels of an image uniformly at random, one at a time. Each draw
+ * depends only on the draws before it, so the first n seeds are the same however many
+ * are drawn in the end; a mosaic can gain or lose seeds without the others moving.
+ * A draw that hits a pixel already drawn is drawn again, which stays cheap until
+ * nearly every pixel is a seed.
+ */
+final class SeedSampler {
+  private final int total;
+  private final Random random;
+  private final BitSet chosen;
+  private int drawn;
+
+  /**
+   * Constructs a sampler over the pixels of an image.
+   *
+   * @param width the width of the image
+   * @param height the height of the image
+   * @param random the source of randomness
+   */
+  SeedSampler(int width, int height, Random random) {
+    total = width * height;
+    this.random = random;
+    chosen = new BitSet(total);
+  }
+
+  /**
+   * Draw the next seed.
+   *
+   * @return the seed as a pixel index {@code y * width + x}
+   * @throws IllegalStateException if every pixel has been drawn
+   */
+  int next() throws IllegalStateException {
+    if (drawn == total) {
+      throw new IllegalStateException("Every pixel is already a seed");
+    }
+    int pixel = random.nextInt(total);
+    while (chosen.get(pixel)) {
+      pixel = random.nextInt(total);
+    }
+    chosen.set(pixel);
+    drawn++;
+    return pixel;
+  }
+}
@@ -0,0 +1,184 @@
+package images.mosaic;
+
+import images.Raster;
+import images.parallel.TileExecutor;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Breaks an image into Voronoi cells around randomly sampled seed pixels and paints
+ * every cell with its average color.
+ *
+ * <p>Pixels are assigned to their nearest seed through a {@link SeedGrid}, which
+ * looks at a few neighbouring buckets instead of every seed, so labeling costs about
+ * the same per pixel however many seeds there are. Cell membership is kept as one
+ * int label per pixel rather than lists of coordinates.
+ */
+public class VoronoiMosaic {
+  private final TileExecutor executor;
+
+  /**
+   * Constructs a mosaic filter that labels pixels on the given executor.
+   *
+   * @param executor the executor to split rows over
+   * @throws IllegalArgumentException if the executor is null
+   */
+  public VoronoiMosaic(TileExecutor executor) throws IllegalArgumentException {
+    if (executor == null) {
+      throw new IllegalArgumentException("Invalid executor provided");
+    }
+    this.executor = executor;
+  }
+
+  /**
+   * Apply the mosaic effect to a raster.
+   *
+   * @param src the raster to read
+   * @param seeds the number of cells
+   * @param random the source of the seed positions
+   * @return a new raster with the mosaic
+   * @throws IllegalArgumentException if the number of seeds is not positive or is
+   *                                  larger than the number of pixels
+   */
+  public Raster apply(Raster src, int seeds, Random random) throws IllegalArgumentException {
+    if (src == null || random == null) {
+      throw new IllegalArgumentException("Invalid image data provided");
+    }
+    return paint(src, sampleSeeds(src.getWidth(), src.getHeight(), seeds, random));
+  }
+
+  /**
+   * Apply to a scaled down copy of an image the mosaic that {@link #apply} gives the
+   * full size image, scaled down. The seeds are drawn for the full size image with
+   * the same random numbers and moved to the pixel of the copy they fall in, so the
+   * cells keep their places and density; seeds that fall in the same pixel become
+   * one cell.
+   *
+   * @param proxy the scaled down copy
+   * @param width the width of the full size image
+   * @param height the height of the full size image
+   * @param seeds the number of cells at full size
+   * @param random the source of the seed positions
+   * @return a new raster the size of the copy with the mosaic
+   * @throws IllegalArgumentException if the number of seeds is not positive or is
+   *                                  larger than the number of pixels at full size
+   */
+  public Raster applyScaled(Raster proxy, int width, int height, int seeds, Random random)
+          throws IllegalArgumentException {
+    if (proxy == null || random == null) {
+      throw new IllegalArgumentException("Invalid image data provided");
+    }
+    int proxyWidth = proxy.getWidth();
+    int proxyHeight = proxy.getHeight();
+    BitSet moved = new BitSet(proxyWidth * proxyHeight);
+    for (int seed : sampleSeeds(width, height, seeds, random)) {
+      moved.set(scaleSeed(seed, width, height, proxyWidth, proxyHeight));
+    }
+    return paint(proxy, moved.stream().toArray());
+  }
+
+  /**
+   * Move a seed of a full size image to the pixel of a scaled down copy it falls in.
+   */
+  static int scaleSeed(int seed, int width, int height, int proxyWidth, int proxyHeight) {
+    int x = (int) ((long) (seed % width) * proxyWidth / width);
+    int y = (int) ((long) (seed / width) * proxyHeight / height);
+    return y * proxyWidth + x;
+  }
+
+  /**
+   * Paint every Voronoi cell of the seeds with the average color of its pixels.
+   */
+  private Raster paint(Raster src, int[] seedPixels) {
+    int width = src.getWidth();
+    int height = src.getHeight();
+    int seeds = seedPixels.length;
+    int[] labels = label(width, height, seedPixels);
+
+    long[] sums = new long[seeds * 3];
+    int[] counts = new int[seeds];
+    int[] pixels = src.getPixels();
+    for (int y = 0; y < height; y++) {
+      int i = src.index(0, y);
+      for (int x = 0; x < width; x++) {
+        int s = labels[y * width + x];
+        int rgb = pixels[i + x];
+        sums[3 * s] += Raster.red(rgb);
+        sums[3 * s + 1] += Raster.green(rgb);
+        sums[3 * s + 2] += Raster.blue(rgb);
+        counts[s]++;
+      }
+    }
+    int[] colors = new int[seeds];
+    for (int s = 0; s < seeds; s++) {
+      // every seed labels at least its own pixel
+      colors[s] = Raster.pack((int) (sums[3 * s] / counts[s]),
+              (int) (sums[3 * s + 1] / counts[s]), (int) (sums[3 * s + 2] / counts[s]));
+    }
+
+    Raster dst = src.createCompatible();
+    int[] out = dst.getPixels();
+    executor.forEachBand(height, 0, (y0, y1) -> {
+      for (int i = y0 * width; i < y1 * width; i++) {
+        out[i] = colors[labels[i]];
+      }
+    });
+    return dst;
+  }
+
+  /**
+   * Pick distinct seed pixels uniformly at random. The seeds are the first ones a
+   * {@link SeedSampler} draws, so asking for more seeds with the same random numbers
+   * keeps every seed of a smaller count where it was.
+   *
+   * @param width the width of the image
+   * @param height the height of the image
+   * @param seeds the number of seeds
+   * @param random the source of randomness
+   * @return the seeds as pixel indices {@code y * width + x}, in increasing order
+   * @throws IllegalArgumentException if the number of seeds is not positive or is
+   *                                  larger than the number of pixels
+   */
+  public static int[] sampleSeeds(int width, int height, int seeds, Random random)
+          throws IllegalArgumentException {
+    if (seeds <= 0 || seeds > (long) width * height) {
+      throw new IllegalArgumentException("seeds is not valid");
+    }
+    SeedSampler sampler = new SeedSampler(width, height, random);
+    int[] seedPixels = new int[seeds];
+    for (int s = 0; s < seeds; s++) {
+      seedPixels[s] = sampler.next();
+    }
+    Arrays.sort(seedPixels);
+    return seedPixels;
+  }
+
+  /**
+   * Assign every pixel to its nearest seed by Euclidean distance. Ties go to the
+   * seed that comes first.
+   *
+   * @param width the width of the image
+   * @param height the height of the image
+   * @param seedPixels the seeds as pixel indices {@code y * width + x}
+   * @return the index into seedPixels of the nearest seed, for every pixel
+   */
+  public int[] label(int width, int height, int[] seedPixels) {
+    int[] seedX = new int[seedPixels.length];
+    int[] seedY = new int[seedPixels.length];
+    for (int s = 0; s < seedPixels.length; s++) {
+      seedX[s] = seedPixels[s] % width;
+      seedY[s] = seedPixels[s] / width;
+    }
+    SeedGrid grid = new SeedGrid(width, height, seedX, seedY);
+    int[] labels = new int[width * height];
+    executor.forEachBand(height, 0, (y0, y1) -> {
+      for (int y = y0; y < y1; y++) {
+        for (int x = 0; x < width; x++) {
+          labels[y * width + x] = grid.nearest(x, y);
+        }
+      }
+    });
+    return labels;
+  }
+}
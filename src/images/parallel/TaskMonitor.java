@@ -0,0 +1,131 @@
+package images.parallel;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Watches a long task, such as applying a filter, from another thread. While a task
+ * runs under a monitor, every pass a {@link TileExecutor} makes over an image reports
+ * how many of its rows are done, and a {@link #cancel() cancelled} monitor stops the
+ * pass before its next band of rows by throwing a {@link CancellationException} out
+ * of the task. Bands already running finish first, so the image is never left half
+ * written by a band.
+ */
+public final class TaskMonitor {
+  private static final ThreadLocal<TaskMonitor> CURRENT = new ThreadLocal<>();
+
+  private final Listener listener;
+  private final AtomicInteger passes = new AtomicInteger();
+  private final AtomicLong rowsDone = new AtomicLong();
+  private volatile int passRows;
+  private volatile boolean cancelled;
+
+  /**
+   * Constructs a monitor.
+   *
+   * @param listener told about the progress of each pass, on whichever thread did
+   *                 the work; it must return quickly
+   * @throws IllegalArgumentException if the listener is null
+   */
+  public TaskMonitor(Listener listener) throws IllegalArgumentException {
+    if (listener == null) {
+      throw new IllegalArgumentException("Invalid progress listener provided");
+    }
+    this.listener = listener;
+  }
+
+  /**
+   * Run a task on the calling thread under this monitor.
+   *
+   * @param task the task
+   * @param <T> the type of the result
+   * @return the result of the task
+   * @throws CancellationException if the monitor was cancelled while the task ran
+   */
+  public <T> T call(Supplier<T> task) throws CancellationException {
+    TaskMonitor outer = CURRENT.get();
+    CURRENT.set(this);
+    try {
+      return task.get();
+    } finally {
+      CURRENT.set(outer);
+    }
+  }
+
+  /**
+   * Ask the task to stop. It stops at its next check, and the monitor stays
+   * cancelled.
+   */
+  public void cancel() {
+    cancelled = true;
+  }
+
+  /**
+   * Whether the task was asked to stop.
+   *
+   * @return true once {@link #cancel()} has been called
+   */
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  /**
+   * Get the monitor of the task running on the calling thread.
+   *
+   * @return the monitor, or null if the thread is not running a monitored task
+   */
+  public static TaskMonitor current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Stop the task running on the calling thread if its monitor was cancelled. Work
+   * that does not go through a {@link TileExecutor} calls this now and then.
+   *
+   * @throws CancellationException if the monitor of the calling thread was cancelled
+   */
+  public static void checkCancelled() throws CancellationException {
+    TaskMonitor monitor = CURRENT.get();
+    if (monitor != null) {
+      monitor.check();
+    }
+  }
+
+  void check() throws CancellationException {
+    if (cancelled) {
+      throw new CancellationException("Cancelled");
+    }
+  }
+
+  /**
+   * Start a new pass over the rows of an image.
+   */
+  void startPass(int rows) {
+    rowsDone.set(0);
+    passRows = rows;
+    listener.progress(passes.incrementAndGet(), 0);
+  }
+
+  /**
+   * Count rows of the current pass as done.
+   */
+  void advance(int rows) {
+    long done = rowsDone.addAndGet(rows);
+    listener.progress(passes.get(), Math.min(1, (double) done / passRows));
+  }
+
+  /**
+   * Told about the progress of a monitored task.
+   */
+  public interface Listener {
+    /**
+     * Report the progress of a pass over an image. A filter may make several passes.
+     *
+     * @param pass the number of the pass, starting at 1
+     * @param fraction the fraction of the rows of the pass that are done
+     */
+    void progress(int pass, double fraction);
+  }
+}
@@ -0,0 +1,230 @@
+package images.parallel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs per-pixel work in parallel by splitting an image into horizontal bands of
+ * rows. Every band writes only its own rows of the output and reads whatever source
+ * rows it needs, so the result does not depend on how many bands there are: a
+ * parallel run is bit-identical to a serial one.
+ *
+ * <p>Filters that read neighbouring rows pass their halo, the number of rows they
+ * read above and below an output row. Bands are kept several halos tall so that the
+ * rows each band has to read twice stay a small fraction of its work.
+ *
+ * <p>Work run under a {@link TaskMonitor} reports its progress after every band and
+ * stops before the next band once the monitor is cancelled. It is cut into more
+ * bands, so that progress moves smoothly and a cancel is noticed soon even on a
+ * single thread.
+ */
+public class TileExecutor {
+  /** Bands per worker, so that uneven bands still keep every worker busy. */
+  private static final int BANDS_PER_WORKER = 4;
+  /** Smallest band height worth a task of its own. */
+  private static final int MIN_BAND_HEIGHT = 16;
+  /** Smallest band height, in halos. */
+  private static final int MIN_BAND_HALOS = 4;
+  /** Fewest bands of monitored work. */
+  private static final int MONITORED_BANDS = 64;
+
+  private static final TileExecutor SERIAL = new TileExecutor(null, 1);
+  private static final TileExecutor COMMON =
+          new TileExecutor(ForkJoinPool.commonPool(), Runtime.getRuntime().availableProcessors());
+
+  private final ExecutorService executor;
+  private final int parallelism;
+
+  /**
+   * Constructs an executor with its own pool of worker threads.
+   *
+   * @param parallelism the number of worker threads; 1 runs everything on the caller
+   * @throws IllegalArgumentException if parallelism is not positive
+   */
+  public TileExecutor(int parallelism) throws IllegalArgumentException {
+    this(parallelism == 1 ? null : new ForkJoinPool(checkParallelism(parallelism)),
+            parallelism);
+  }
+
+  /**
+   * Constructs an executor that runs bands on an existing executor service. The
+   * service is not shut down by this class.
+   *
+   * @param executor the executor service to run bands on
+   * @param parallelism the number of bands to keep in flight per worker round
+   * @throws IllegalArgumentException if the executor is null or parallelism is not
+   *                                  positive
+   */
+  public TileExecutor(ExecutorService executor, int parallelism)
+          throws IllegalArgumentException {
+    checkParallelism(parallelism);
+    if (executor == null && parallelism != 1) {
+      throw new IllegalArgumentException("Invalid executor provided");
+    }
+    this.executor = executor;
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Get an executor that runs every band on the calling thread.
+   *
+   * @return the serial executor
+   */
+  public static TileExecutor serial() {
+    return SERIAL;
+  }
+
+  /**
+   * Get an executor backed by the common fork/join pool, using one worker per
+   * available processor.
+   *
+   * @return the shared executor
+   */
+  public static TileExecutor common() {
+    return COMMON;
+  }
+
+  /**
+   * Get the number of workers bands are spread over.
+   *
+   * @return the parallelism level
+   */
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  /**
+   * Run a task over every band of rows in {@code [0, height)}. Returns once all bands
+   * are done.
+   *
+   * @param height the number of rows
+   * @param halo the number of rows the task reads above and below each output row
+   * @param task the work for one band
+   * @throws IllegalArgumentException if height is not positive or halo is negative
+   */
+  public void forEachBand(int height, int halo, BandTask task) throws IllegalArgumentException {
+    mapBands(height, halo, (y0, y1) -> {
+      task.run(y0, y1);
+      return null;
+    });
+  }
+
+  /**
+   * Compute a value for every band of rows in {@code [0, height)}, for reductions
+   * such as a global minimum. The results are in band order, so combining them in
+   * order gives the same answer however the image was split.
+   *
+   * @param height the number of rows
+   * @param halo the number of rows the task reads above and below each output row
+   * @param task the work for one band
+   * @param <T> the type of the per-band result
+   * @return the result of every band, top to bottom
+   * @throws IllegalArgumentException if height is not positive or halo is negative
+   */
+  public <T> List<T> mapBands(int height, int halo, BandFunction<T> task)
+          throws IllegalArgumentException {
+    if (height <= 0 || halo < 0) {
+      throw new IllegalArgumentException("Invalid band layout");
+    }
+    TaskMonitor monitor = TaskMonitor.current();
+    BandFunction<T> work = monitor == null ? task : monitored(monitor, height, task);
+    int bandHeight = bandHeight(height, halo, monitor != null);
+    List<T> results = new ArrayList<>();
+    if (executor == null || bandHeight >= height) {
+      for (int y0 = 0; y0 < height; y0 += bandHeight) {
+        results.add(work.apply(y0, Math.min(height, y0 + bandHeight)));
+      }
+      return results;
+    }
+
+    List<Callable<T>> bands = new ArrayList<>();
+    for (int y0 = 0; y0 < height; y0 += bandHeight) {
+      int start = y0;
+      int end = Math.min(height, y0 + bandHeight);
+      bands.add(() -> work.apply(start, end));
+    }
+    try {
+      for (Future<T> future : executor.invokeAll(bands)) {
+        results.add(future.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while processing the image", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw new IllegalStateException("Error occurred processing the image", e.getCause());
+    }
+    return results;
+  }
+
+  /**
+   * Start a pass of a monitored task, and wrap its work so that each band checks
+   * for a cancel before it starts and reports its rows when it is done.
+   */
+  private static <T> BandFunction<T> monitored(TaskMonitor monitor, int height,
+                                               BandFunction<T> task) {
+    monitor.check();
+    monitor.startPass(height);
+    return (y0, y1) -> {
+      monitor.check();
+      T result = task.apply(y0, y1);
+      monitor.advance(y1 - y0);
+      return result;
+    };
+  }
+
+  private int bandHeight(int height, int halo, boolean monitored) {
+    int bands = parallelism * BANDS_PER_WORKER;
+    if (monitored) {
+      bands = Math.max(bands, MONITORED_BANDS);
+    }
+    int bandHeight = (height + bands - 1) / bands;
+    return Math.max(bandHeight, Math.max(MIN_BAND_HEIGHT, MIN_BAND_HALOS * halo));
+  }
+
+  private static int checkParallelism(int parallelism) {
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("Parallelism must be positive");
+    }
+    return parallelism;
+  }
+
+  /**
+   * The work for one band of rows.
+   */
+  public interface BandTask {
+    /**
+     * Process the rows {@code [y0, y1)}.
+     *
+     * @param y0 the first row of the band
+     * @param y1 one past the last row of the band
+     */
+    void run(int y0, int y1);
+  }
+
+  /**
+   * The work for one band of rows, producing a result.
+   *
+   * @param <T> the type of the result
+   */
+  public interface BandFunction<T> {
+    /**
+     * Process the rows {@code [y0, y1)}.
+     *
+     * @param y0 the first row of the band
+     * @param y1 one past the last row of the band
+     * @return the result for the band
+     */
+    T apply(int y0, int y1);
+  }
+}
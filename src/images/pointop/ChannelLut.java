@@ -0,0 +1,70 @@
+package images.pointop;
+
+/**
+ * A point operation that maps each channel through its own 256-entry lookup table.
+ */
+public final class ChannelLut implements PointOperation {
+  private final int[] red;
+  private final int[] green;
+  private final int[] blue;
+
+  /**
+   * Constructs a lookup table operation. Table entries are clamped to 0-255.
+   *
+   * @param red the table for the red channel
+   * @param green the table for the green channel
+   * @param blue the table for the blue channel
+   * @throws IllegalArgumentException if a table does not have 256 entries
+   */
+  public ChannelLut(int[] red, int[] green, int[] blue) throws IllegalArgumentException {
+    this.red = shifted(red, 16);
+    this.green = shifted(green, 8);
+    this.blue = shifted(blue, 0);
+  }
+
+  /**
+   * Create an operation that maps all three channels through the same table.
+   *
+   * @param table the table
+   * @return the operation
+   * @throws IllegalArgumentException if the table does not have 256 entries
+   */
+  public static ChannelLut of(int[] table) throws IllegalArgumentException {
+    return new ChannelLut(table, table, table);
+  }
+
+  @Override
+  public int apply(int rgb) {
+    return red[(rgb >> 16) & 0xFF] | green[(rgb >> 8) & 0xFF] | blue[rgb & 0xFF];
+  }
+
+  /**
+   * Compose this table with another one into a single table.
+   *
+   * @param next the table to apply after this one
+   * @return the combined table
+   */
+  public ChannelLut then(ChannelLut next) {
+    int[] r = new int[256];
+    int[] g = new int[256];
+    int[] b = new int[256];
+    for (int v = 0; v < 256; v++) {
+      r[v] = next.red[red[v] >> 16] >> 16;
+      g[v] = next.green[green[v] >> 8] >> 8;
+      b[v] = next.blue[blue[v]];
+    }
+    return new ChannelLut(r, g, b);
+  }
+
+  // store entries pre-shifted into place so apply() only has to OR them together
+  private static int[] shifted(int[] table, int shift) {
+    if (table == null || table.length != 256) {
+      throw new IllegalArgumentException("A lookup table needs 256 entries");
+    }
+    int[] result = new int[256];
+    for (int v = 0; v < 256; v++) {
+      result[v] = (table[v] < 0 ? 0 : table[v] > 255 ? 255 : table[v]) << shift;
+    }
+    return result;
+  }
+}
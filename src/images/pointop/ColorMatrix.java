@@ -0,0 +1,80 @@
+package images.pointop;
+
+import java.util.Arrays;
+
+/**
+ * A point operation that multiplies every pixel, as a column vector (r, g, b, 1), by
+ * a 3x4 matrix. Each output channel is truncated to an int and clamped to 0-255.
+ */
+public final class ColorMatrix implements PointOperation {
+  /** Monochrome luminance, the same on all three channels. */
+  public static final ColorMatrix GRAYSCALE = new ColorMatrix(new double[][] {
+          {0.2126d, 0.7152d, 0.0722d},
+          {0.2126d, 0.7152d, 0.0722d},
+          {0.2126d, 0.7152d, 0.0722d}
+  });
+  /** The classic sepia tone. */
+  public static final ColorMatrix SEPIA = new ColorMatrix(new double[][] {
+          {0.393d, 0.769d, 0.189d},
+          {0.349d, 0.686d, 0.168d},
+          {0.272d, 0.534d, 0.131d}
+  });
+
+  private final double[][] matrix;
+  private final boolean monochrome;
+
+  /**
+   * Constructs a color matrix. A 3x3 matrix has no offsets; in a 3x4 matrix the last
+   * column is added to each output channel.
+   *
+   * @param matrix the matrix, one row per output channel
+   * @throws IllegalArgumentException if the matrix is not 3x3 or 3x4
+   */
+  public ColorMatrix(double[][] matrix) throws IllegalArgumentException {
+    if (matrix == null || matrix.length != 3) {
+      throw new IllegalArgumentException("A color matrix needs 3 rows");
+    }
+    this.matrix = new double[3][4];
+    for (int row = 0; row < 3; row++) {
+      if (matrix[row] == null || (matrix[row].length != 3 && matrix[row].length != 4)) {
+        throw new IllegalArgumentException("A color matrix needs 3 or 4 columns");
+      }
+      for (int col = 0; col < matrix[row].length; col++) {
+        if (Double.isNaN(matrix[row][col]) || Double.isInfinite(matrix[row][col])) {
+          throw new IllegalArgumentException("Invalid color matrix value");
+        }
+        this.matrix[row][col] = matrix[row][col];
+      }
+    }
+    monochrome = Arrays.equals(this.matrix[0], this.matrix[1])
+            && Arrays.equals(this.matrix[0], this.matrix[2]);
+  }
+
+  /**
+   * Get a copy of the matrix.
+   *
+   * @return the 3x4 matrix
+   */
+  public double[][] getMatrix() {
+    return new double[][] {matrix[0].clone(), matrix[1].clone(), matrix[2].clone()};
+  }
+
+  @Override
+  public int apply(int rgb) {
+    int r = (rgb >> 16) & 0xFF;
+    int g = (rgb >> 8) & 0xFF;
+    int b = rgb & 0xFF;
+    int newR = channel(matrix[0], r, g, b);
+    if (monochrome) {
+      return (newR << 16) | (newR << 8) | newR;
+    }
+    int newG = channel(matrix[1], r, g, b);
+    int newB = channel(matrix[2], r, g, b);
+    return (newR << 16) | (newG << 8) | newB;
+  }
+
+  private static int channel(double[] row, int r, int g, int b) {
+    int result = (int) (row[0] * r + row[1] * g + row[2] * b + row[3]);
+    return result < 0 ? 0 : result > 255 ? 255 : result;
+  }
+}
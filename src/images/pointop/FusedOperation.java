@@ -0,0 +1,49 @@
+package images.pointop;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A chain of point operations applied to each pixel in turn. Adjacent lookup tables
+ * are merged into one table when the chain is built, since composing tables is
+ * exact; other operations keep their own rounding and clamping, so the chain gives
+ * bit-for-bit the same result as running the operations separately.
+ */
+final class FusedOperation implements PointOperation {
+  private final PointOperation[] stages;
+
+  FusedOperation(PointOperation first, PointOperation second) {
+    List<PointOperation> list = new ArrayList<>();
+    append(list, first);
+    append(list, second);
+    stages = list.toArray(new PointOperation[0]);
+  }
+
+  @Override
+  public int apply(int rgb) {
+    for (PointOperation stage : stages) {
+      rgb = stage.apply(rgb);
+    }
+    return rgb;
+  }
+
+  @Override
+  public PointOperation andThen(PointOperation next) {
+    return new FusedOperation(this, next);
+  }
+
+  private static void append(List<PointOperation> list, PointOperation op) {
+    if (op instanceof FusedOperation) {
+      for (PointOperation stage : ((FusedOperation) op).stages) {
+        append(list, stage);
+      }
+      return;
+    }
+    int last = list.size() - 1;
+    if (last >= 0 && list.get(last) instanceof ChannelLut && op instanceof ChannelLut) {
+      list.set(last, ((ChannelLut) list.get(last)).then((ChannelLut) op));
+    } else {
+      list.add(op);
+    }
+  }
+}
@@ -0,0 +1,32 @@
+package images.pointop;
+
+/**
+ * An operation that computes every output pixel from the input pixel at the same
+ * position only, such as a color matrix or a per-channel lookup table. Point
+ * operations compose: a chain of them runs as one operator, in one pass over the
+ * image.
+ */
+public interface PointOperation {
+
+  /**
+   * Transform one packed RGB pixel.
+   *
+   * @param rgb the input pixel
+   * @return the output pixel
+   */
+  int apply(int rgb);
+
+  /**
+   * Compose this operation with the next one. The result gives exactly the same
+   * pixels as applying the two operations one after the other.
+   *
+   * @param next the operation to apply to the output of this one
+   * @return the combined operation
+   */
+  default PointOperation andThen(PointOperation next) {
+    if (next == null) {
+      throw new IllegalArgumentException("Invalid point operation provided");
+    }
+    return new FusedOperation(this, next);
+  }
+}
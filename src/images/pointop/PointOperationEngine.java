@@ -0,0 +1,64 @@
+package images.pointop;
+
+import images.Raster;
+import images.parallel.TileExecutor;
+
+/**
+ * Runs point operations over rasters, one band of rows per task. However many
+ * operations were fused into the operator, the image is read and written once.
+ */
+public class PointOperationEngine {
+  private final TileExecutor executor;
+
+  /**
+   * Constructs an engine that runs on the given executor.
+   *
+   * @param executor the executor to split rows over
+   * @throws IllegalArgumentException if the executor is null
+   */
+  public PointOperationEngine(TileExecutor executor) throws IllegalArgumentException {
+    if (executor == null) {
+      throw new IllegalArgumentException("Invalid executor provided");
+    }
+    this.executor = executor;
+  }
+
+  /**
+   * Apply a point operation to a raster.
+   *
+   * @param src the raster to read
+   * @param op the operation
+   * @return a new raster with the result
+   */
+  public Raster apply(Raster src, PointOperation op) {
+    Raster dst = src.createCompatible();
+    apply(src, dst, op);
+    return dst;
+  }
+
+  /**
+   * Apply a point operation from one raster into another of the same size. The two
+   * may be the same raster.
+   *
+   * @param src the raster to read
+   * @param dst the raster to write
+   * @param op the operation
+   */
+  public void apply(Raster src, Raster dst, PointOperation op) {
+    if (src == null || dst == null || op == null) {
+      throw new IllegalArgumentException("Invalid point operation arguments");
+    }
+    int width = src.getWidth();
+    int[] in = src.getPixels();
+    int[] out = dst.getPixels();
+    executor.forEachBand(src.getHeight(), 0, (y0, y1) -> {
+      for (int y = y0; y < y1; y++) {
+        int i = src.index(0, y);
+        int o = dst.index(0, y);
+        for (int x = 0; x < width; x++) {
+          out[o + x] = op.apply(in[i + x]);
+        }
+      }
+    });
+  }
+}
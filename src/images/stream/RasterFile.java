@@ -0,0 +1,87 @@
+package images.stream;
+
+import images.Raster;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A temporary file holding the packed pixels of an image, one int per pixel in row
+ * order, so that any range of rows can be read or written without touching the rest.
+ * The file is deleted when it is closed.
+ */
+final class RasterFile implements Closeable {
+  private final int width;
+  private final int height;
+  private final Path path;
+  private final FileChannel channel;
+
+  private RasterFile(int width, int height, Path path, FileChannel channel) {
+    this.width = width;
+    this.height = height;
+    this.path = path;
+    this.channel = channel;
+  }
+
+  /**
+   * Create an empty file for an image of the given size.
+   */
+  static RasterFile create(int width, int height) throws IOException {
+    Path path = Files.createTempFile("strips", ".raw");
+    path.toFile().deleteOnExit();
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+    return new RasterFile(width, height, path, channel);
+  }
+
+  int getWidth() {
+    return width;
+  }
+
+  int getHeight() {
+    return height;
+  }
+
+  /**
+   * Read the rows {@code [y0, y1)} into a new compact raster.
+   */
+  Raster read(int y0, int y1) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(4 * width * (y1 - y0));
+    long position = 4L * width * y0;
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Strip file is truncated");
+      }
+    }
+    buffer.flip();
+    Raster raster = new Raster(width, y1 - y0);
+    buffer.asIntBuffer().get(raster.getPixels());
+    return raster;
+  }
+
+  /**
+   * Write a raster as the rows starting at {@code y0}.
+   */
+  void write(int y0, Raster rows) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(4 * width * rows.getHeight());
+    IntBuffer ints = buffer.asIntBuffer();
+    for (int y = 0; y < rows.getHeight(); y++) {
+      ints.put(rows.getPixels(), rows.index(0, y), width);
+    }
+    long position = 4L * width * y0;
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+    Files.deleteIfExists(path);
+  }
+}
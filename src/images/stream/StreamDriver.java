@@ -0,0 +1,75 @@
+package images.stream;
+
+import images.parallel.TileExecutor;
+import images.pointop.ColorMatrix;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Filters an image file in strips from the command line:
+ * {@code [-strip rows] input output command...}. Each command is one argument, with
+ * its parameters separated by spaces: blur, "gaussian sigma", sharpen, grayscale,
+ * sepia, "matrix m00 ... m22 [with 3 offsets]", edge, enhance and equalize.
+ */
+public class StreamDriver {
+
+  /**
+   * Run the filters.
+   *
+   * @param args the strip height, the input and output files and the commands
+   */
+  public static void main(String[] args) {
+    int first = 0;
+    int stripRows = StreamingProcessor.DEFAULT_STRIP_ROWS;
+    if (args.length > 1 && "-strip".equals(args[0])) {
+      stripRows = Integer.parseInt(args[1]);
+      first = 2;
+    }
+    if (args.length < first + 2) {
+      System.out.println("Usage: StreamDriver [-strip rows] input output command...");
+      return;
+    }
+
+    StripFilters factory = new StripFilters(TileExecutor.common());
+    List<StripFilter> filters = new ArrayList<>();
+    for (int i = first + 2; i < args.length; i++) {
+      filters.add(parse(factory, args[i].trim().split(" +")));
+    }
+    long start = System.nanoTime();
+    new StreamingProcessor(stripRows).process(args[first], args[first + 1], filters);
+    System.out.printf("Done in %.1f s%n", (System.nanoTime() - start) / 1e9);
+  }
+
+  private static StripFilter parse(StripFilters factory, String[] command) {
+    switch (command[0]) {
+      case "blur":
+        return factory.blur();
+      case "gaussian":
+        return factory.gaussian(Double.parseDouble(command[1]));
+      case "sharpen":
+        return factory.sharpen();
+      case "grayscale":
+        return factory.grayscale();
+      case "sepia":
+        return factory.sepia();
+      case "matrix":
+        int columns = command.length - 1 == 12 ? 4 : 3;
+        if (command.length - 1 != 3 * columns) {
+          throw new IllegalArgumentException("matrix needs 9 or 12 numbers");
+        }
+        double[][] matrix = new double[3][columns];
+        for (int i = 0; i < 3 * columns; i++) {
+          matrix[i / columns][i % columns] = Double.parseDouble(command[i + 1]);
+        }
+        return factory.point(new ColorMatrix(matrix));
+      case "edge":
+        return factory.edgeDetection();
+      case "enhance":
+        return factory.contrastEnhancement();
+      case "equalize":
+        return factory.channelEqualization();
+      default:
+        throw new IllegalArgumentException("Invalid Command: " + command[0]);
+    }
+  }
+}
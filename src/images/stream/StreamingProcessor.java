@@ -0,0 +1,270 @@
+package images.stream;
+
+import images.ImageUtilities;
+import images.Raster;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DirectColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Runs a chain of filters over an image file in strips of rows, for images that do not
+ * fit in memory. The source is decoded into a raw strip file. Readers that write rows
+ * top to bottom, such as those for PNG and JPEG, decode once into a destination image
+ * that only keeps one strip in memory; other images are decoded strip by strip with
+ * {@link ImageReadParam#setSourceRegion(Rectangle)}. Filters then run in groups: all
+ * the filters up to the next global one run back to back on each strip, which is read
+ * with the sum of their halos, and the group's output goes to a new strip file. A
+ * global filter starts a group with a pass that only measures. The last strip file is
+ * handed to the ImageIO writer as a tiled image.
+ *
+ * <p>Memory grows with the strip size and the width of the image, not with its height.
+ * Two limits remain outside this class: region reads of formats without random access,
+ * such as interlaced PNGs, decode the rows above a region again for every strip, and
+ * the JPEG writer pulls the whole image at once. PNG output is written strip by strip.
+ * Filters that need the whole image at once, such as the mosaic, dithering and
+ * adaptive equalization, have no strip version.
+ */
+public class StreamingProcessor {
+  /** Strip height used when none is given. */
+  public static final int DEFAULT_STRIP_ROWS = 256;
+
+  private final int stripRows;
+
+  /**
+   * Constructs a processor with strips of the given height.
+   *
+   * @param stripRows the number of rows filtered at a time
+   * @throws IllegalArgumentException if stripRows is not positive
+   */
+  public StreamingProcessor(int stripRows) throws IllegalArgumentException {
+    if (stripRows <= 0) {
+      throw new IllegalArgumentException("The strip height must be positive");
+    }
+    this.stripRows = stripRows;
+  }
+
+  /**
+   * Filter an image file into another file. The output format is taken from the
+   * extension of its name.
+   *
+   * @param input the name of the image file to read
+   * @param output the name of the image file to write
+   * @param filters the filters to apply, in order
+   * @throws IllegalArgumentException if a file cannot be read or written, or if an
+   *                                  argument is invalid
+   */
+  public void process(String input, String output, List<StripFilter> filters)
+          throws IllegalArgumentException {
+    if (input == null || "".equals(input) || output == null || "".equals(output)) {
+      throw new IllegalArgumentException("Invalid filename provided");
+    }
+    if (filters == null || filters.contains(null)) {
+      throw new IllegalArgumentException("Invalid filters provided");
+    }
+    List<RasterFile> files = new ArrayList<>();
+    try {
+      RasterFile current = decode(input);
+      files.add(current);
+      for (int start = 0; start < filters.size(); ) {
+        int end = start + 1;
+        while (end < filters.size() && !filters.get(end).isGlobal()) {
+          end++;
+        }
+        List<StripFilter> group = filters.subList(start, end);
+        if (group.get(0).isGlobal()) {
+          measure(current, group.get(0));
+        }
+        RasterFile next = RasterFile.create(current.getWidth(), current.getHeight());
+        files.add(next);
+        filter(current, group, next);
+        current.close();
+        files.remove(current);
+        current = next;
+        start = end;
+      }
+      encode(current, output);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Error occurred streaming the image: "
+              + e.getMessage());
+    } finally {
+      for (RasterFile file : files) {
+        try {
+          file.close();
+        } catch (IOException e) {
+          // The file is also deleted on exit.
+        }
+      }
+    }
+  }
+
+  private RasterFile decode(String input) throws IOException {
+    try (ImageInputStream in = ImageIO.createImageInputStream(new File(input))) {
+      Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+      if (readers == null || !readers.hasNext()) {
+        throw new IllegalArgumentException("Something went wrong reading the image file.");
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(in, false, true);
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+        RasterFile file = RasterFile.create(width, height);
+
+        // One sequential decode into a strip-sized window when the reader allows it.
+        BufferedImage destination = stripDestination(reader.getRawImageType(0), file);
+        if (destination != null) {
+          ImageReadParam param = reader.getDefaultReadParam();
+          param.setDestination(destination);
+          try {
+            reader.read(0, param);
+            ((StripSink) destination.getRaster().getDataBuffer()).flush();
+            return file;
+          } catch (StripSink.OutOfOrderException e) {
+            // Decode region by region instead.
+          } catch (IOException e) {
+            // Some readers wrap what the destination throws.
+            if (!(e.getCause() instanceof StripSink.OutOfOrderException)) {
+              throw e.getCause() instanceof UncheckedIOException
+                      ? ((UncheckedIOException) e.getCause()).getCause() : e;
+            }
+          }
+        }
+
+        ImageReadParam param = reader.getDefaultReadParam();
+        for (int y0 = 0; y0 < height; y0 += stripRows) {
+          param.setSourceRegion(new Rectangle(0, y0, width, Math.min(stripRows, height - y0)));
+          file.write(y0, ImageUtilities.toRaster(reader.read(0, param)));
+        }
+        return file;
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      } finally {
+        reader.dispose();
+      }
+    }
+  }
+
+  /**
+   * Create a destination image whose pixels go to a strip sink, for 8-bit sRGB images
+   * with or without alpha and for 8-bit gray and indexed images.
+   *
+   * @return the destination, or null if the image has another layout
+   */
+  private BufferedImage stripDestination(ImageTypeSpecifier type, RasterFile file) {
+    if (type == null || type.getColorModel().isAlphaPremultiplied()) {
+      return null;
+    }
+    for (int size : type.getSampleModel().getSampleSize()) {
+      if (size != 8) {
+        return null;
+      }
+    }
+    int width = file.getWidth();
+    int height = file.getHeight();
+    ColorModel model = type.getColorModel();
+    int bands = type.getNumBands();
+    ColorModel destinationModel;
+    SampleModel layout;
+    StripSink sink;
+    if (bands == 1 && (model instanceof IndexColorModel
+            || model.getColorSpace().getType() == ColorSpace.TYPE_GRAY)) {
+      int[] lut = new int[256];
+      int entries = model instanceof IndexColorModel
+              ? ((IndexColorModel) model).getMapSize() : lut.length;
+      for (int v = 0; v < entries; v++) {
+        lut[v] = model.getRGB(new byte[] {(byte) v}) & 0xFFFFFF;
+      }
+      destinationModel = model;
+      layout = new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE, width, height, 1, width,
+              new int[] {0});
+      sink = new StripSink(file, stripRows, DataBuffer.TYPE_BYTE, lut);
+    } else if ((bands == 3 || bands == 4) && model.getColorSpace().isCS_sRGB()) {
+      int[] masks = bands == 3 ? new int[] {0xFF0000, 0xFF00, 0xFF}
+              : new int[] {0xFF0000, 0xFF00, 0xFF, 0xFF000000};
+      destinationModel = bands == 3 ? new DirectColorModel(24, masks[0], masks[1], masks[2])
+              : new DirectColorModel(32, masks[0], masks[1], masks[2], masks[3]);
+      layout = new SinglePixelPackedSampleModel(DataBuffer.TYPE_INT, width, height, masks);
+      sink = new StripSink(file, stripRows, DataBuffer.TYPE_INT, null);
+    } else {
+      return null;
+    }
+    // A plain subclass, since the optimized rasters of Java 8 insist on their own
+    // buffer classes.
+    WritableRaster raster = new WritableRaster(layout, sink, new Point()) {
+    };
+    return new BufferedImage(destinationModel, raster, false, null);
+  }
+
+  private void measure(RasterFile source, StripFilter filter) throws IOException {
+    int height = source.getHeight();
+    int halo = filter.getHalo();
+    for (int y0 = 0; y0 < height; y0 += stripRows) {
+      int y1 = Math.min(height, y0 + stripRows);
+      int top = Math.max(0, y0 - halo);
+      filter.measure(source.read(top, Math.min(height, y1 + halo)), top, y0, y1);
+    }
+  }
+
+  private void filter(RasterFile source, List<StripFilter> group, RasterFile target)
+          throws IOException {
+    int height = source.getHeight();
+    int halo = 0;
+    for (StripFilter filter : group) {
+      halo += filter.getHalo();
+    }
+    for (int y0 = 0; y0 < height; y0 += stripRows) {
+      int y1 = Math.min(height, y0 + stripRows);
+      int top = Math.max(0, y0 - halo);
+      Raster strip = source.read(top, Math.min(height, y1 + halo));
+
+      // Each filter gives back its input minus its own halo, until only [y0, y1) is left.
+      int remaining = halo;
+      for (StripFilter filter : group) {
+        remaining -= filter.getHalo();
+        int from = Math.max(0, y0 - remaining);
+        strip = filter.apply(strip, top, from, Math.min(height, y1 + remaining));
+        top = from;
+      }
+      target.write(y0, strip);
+    }
+  }
+
+  private void encode(RasterFile file, String output) throws IOException {
+    String extension = output.substring(output.lastIndexOf('.') + 1);
+    Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(extension);
+    if (!writers.hasNext()) {
+      throw new IllegalArgumentException("Unsupported image format: " + extension);
+    }
+    ImageWriter writer = writers.next();
+    try (FileOutputStream out = new FileOutputStream(output);
+         ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+      writer.setOutput(stream);
+      writer.write(new StripImage(file, stripRows));
+    } finally {
+      writer.dispose();
+    }
+  }
+}
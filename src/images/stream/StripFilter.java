@@ -0,0 +1,54 @@
+package images.stream;
+
+import images.Raster;
+
+/**
+ * A filter that can run on a horizontal strip of an image. To produce the rows
+ * {@code [y0, y1)} it may read up to {@link #getHalo()} rows above and below them.
+ * Filters whose result depends on the whole image, such as histogram equalization,
+ * are global: they first {@link #measure} every strip of their input and only then
+ * {@link #apply} to it, so that the image is read twice but never held in memory.
+ * Global filters keep what they measured and are used for one image only.
+ */
+public interface StripFilter {
+
+  /**
+   * Get the number of rows the filter reads above and below each output row.
+   *
+   * @return the halo in rows
+   */
+  int getHalo();
+
+  /**
+   * Whether the filter needs to measure the whole image before it can apply.
+   *
+   * @return true for global filters
+   */
+  default boolean isGlobal() {
+    return false;
+  }
+
+  /**
+   * Take the statistics of the rows {@code [y0, y1)} into account.
+   *
+   * @param strip rows of the input, starting at image row {@code top}; they include
+   *              the halo around {@code [y0, y1)} wherever the image has it
+   * @param top the image row of the first row of the strip
+   * @param y0 the first row to measure
+   * @param y1 one past the last row to measure
+   */
+  default void measure(Raster strip, int top, int y0, int y1) {
+  }
+
+  /**
+   * Filter the rows {@code [y0, y1)}.
+   *
+   * @param strip rows of the input, starting at image row {@code top}; they include
+   *              the halo around {@code [y0, y1)} wherever the image has it
+   * @param top the image row of the first row of the strip
+   * @param y0 the first row to produce
+   * @param y1 one past the last row to produce
+   * @return a raster holding exactly the rows {@code [y0, y1)}
+   */
+  Raster apply(Raster strip, int top, int y0, int y1);
+}
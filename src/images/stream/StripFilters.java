@@ -0,0 +1,273 @@
+package images.stream;
+
+import images.Raster;
+import images.convolution.ConvolutionEngine;
+import images.convolution.EdgeDetector;
+import images.convolution.Kernel;
+import images.convolution.Kernels;
+import images.histogram.Histogram;
+import images.histogram.HistogramEqualizer;
+import images.parallel.TileExecutor;
+import images.pointop.ChannelLut;
+import images.pointop.ColorMatrix;
+import images.pointop.PointOperation;
+import images.pointop.PointOperationEngine;
+
+/**
+ * Creates strip filters that give the same pixels as the filters of the image model.
+ * Convolutions filter the whole strip, halo included, and keep the middle rows: a row
+ * of the result only reads rows within the kernel's reach, so it cannot tell the edge
+ * of the strip from the edge of the image.
+ */
+public class StripFilters {
+  private final TileExecutor executor;
+  private final ConvolutionEngine engine;
+  private final PointOperationEngine pointOperations;
+  private final HistogramEqualizer equalizer;
+
+  /**
+   * Constructs a factory for filters that run on the given executor.
+   *
+   * @param executor the executor to split the rows of a strip over
+   * @throws IllegalArgumentException if the executor is null
+   */
+  public StripFilters(TileExecutor executor) throws IllegalArgumentException {
+    if (executor == null) {
+      throw new IllegalArgumentException("Invalid executor provided");
+    }
+    this.executor = executor;
+    engine = new ConvolutionEngine(executor);
+    pointOperations = new PointOperationEngine(executor);
+    equalizer = new HistogramEqualizer(executor);
+  }
+
+  /**
+   * Get the blur filter.
+   *
+   * @return the filter
+   */
+  public StripFilter blur() {
+    return convolution(Kernels.BLUR);
+  }
+
+  /**
+   * Get the sharpen filter.
+   *
+   * @return the filter
+   */
+  public StripFilter sharpen() {
+    return convolution(Kernels.SHARPEN);
+  }
+
+  /**
+   * Get a Gaussian blur.
+   *
+   * @param sigma the standard deviation of the Gaussian, in pixels
+   * @return the filter
+   * @throws IllegalArgumentException if sigma is not positive
+   */
+  public StripFilter gaussian(double sigma) throws IllegalArgumentException {
+    return convolution(Kernel.gaussian(sigma));
+  }
+
+  /**
+   * Get a filter that convolves with a kernel and clamps the result.
+   *
+   * @param kernel the kernel
+   * @return the filter
+   * @throws IllegalArgumentException if the kernel is null
+   */
+  public StripFilter convolution(Kernel kernel) throws IllegalArgumentException {
+    if (kernel == null) {
+      throw new IllegalArgumentException("Invalid kernel provided");
+    }
+    return new StripFilter() {
+      @Override
+      public int getHalo() {
+        return kernel.getVerticalRadius();
+      }
+
+      @Override
+      public Raster apply(Raster strip, int top, int y0, int y1) {
+        return rows(engine.convolve(strip, kernel), top, y0, y1);
+      }
+    };
+  }
+
+  /**
+   * Get the grayscale filter.
+   *
+   * @return the filter
+   */
+  public StripFilter grayscale() {
+    return point(ColorMatrix.GRAYSCALE);
+  }
+
+  /**
+   * Get the sepia filter.
+   *
+   * @return the filter
+   */
+  public StripFilter sepia() {
+    return point(ColorMatrix.SEPIA);
+  }
+
+  /**
+   * Get a filter that applies a point operation.
+   *
+   * @param op the operation
+   * @return the filter
+   * @throws IllegalArgumentException if the operation is null
+   */
+  public StripFilter point(PointOperation op) throws IllegalArgumentException {
+    if (op == null) {
+      throw new IllegalArgumentException("Invalid point operation provided");
+    }
+    return new StripFilter() {
+      @Override
+      public int getHalo() {
+        return 0;
+      }
+
+      @Override
+      public Raster apply(Raster strip, int top, int y0, int y1) {
+        return pointOperations.apply(rows(strip, top, y0, y1), op);
+      }
+    };
+  }
+
+  /**
+   * Get the grayscale contrast enhancement: the image is greyscaled and its gray
+   * levels are equalized over the whole image.
+   *
+   * @return a new global filter
+   */
+  public StripFilter contrastEnhancement() {
+    return new StripFilter() {
+      private final int[] histogram = new int[Histogram.LEVELS];
+      private PointOperation op;
+
+      @Override
+      public int getHalo() {
+        return 0;
+      }
+
+      @Override
+      public boolean isGlobal() {
+        return true;
+      }
+
+      @Override
+      public void measure(Raster strip, int top, int y0, int y1) {
+        Raster gray = pointOperations.apply(rows(strip, top, y0, y1), ColorMatrix.GRAYSCALE);
+        add(histogram, equalizer.histogram(gray, Histogram.RED));
+      }
+
+      @Override
+      public Raster apply(Raster strip, int top, int y0, int y1) {
+        if (op == null) {
+          // A gray pixel has three equal channels, so one table serves all three.
+          op = ColorMatrix.GRAYSCALE.andThen(
+                  ChannelLut.of(Histogram.equalizationTable(histogram)));
+        }
+        return pointOperations.apply(rows(strip, top, y0, y1), op);
+      }
+    };
+  }
+
+  /**
+   * Get the channel equalization: red, green and blue are equalized independently over
+   * the whole image.
+   *
+   * @return a new global filter
+   */
+  public StripFilter channelEqualization() {
+    return new StripFilter() {
+      private final int[][] histograms = new int[3][Histogram.LEVELS];
+      private PointOperation op;
+
+      @Override
+      public int getHalo() {
+        return 0;
+      }
+
+      @Override
+      public boolean isGlobal() {
+        return true;
+      }
+
+      @Override
+      public void measure(Raster strip, int top, int y0, int y1) {
+        Raster window = rows(strip, top, y0, y1);
+        add(histograms[0], equalizer.histogram(window, Histogram.RED));
+        add(histograms[1], equalizer.histogram(window, Histogram.GREEN));
+        add(histograms[2], equalizer.histogram(window, Histogram.BLUE));
+      }
+
+      @Override
+      public Raster apply(Raster strip, int top, int y0, int y1) {
+        if (op == null) {
+          op = new ChannelLut(Histogram.equalizationTable(histograms[0]),
+                  Histogram.equalizationTable(histograms[1]),
+                  Histogram.equalizationTable(histograms[2]));
+        }
+        return pointOperations.apply(rows(strip, top, y0, y1), op);
+      }
+    };
+  }
+
+  /**
+   * Get the edge detection. The range of gradient magnitudes is measured over the
+   * whole image, so strips are stretched alike.
+   *
+   * @return a new global filter
+   */
+  public StripFilter edgeDetection() {
+    EdgeDetector detector = new EdgeDetector(executor);
+    return new StripFilter() {
+      private int min = 255;
+      private int max = 0;
+
+      @Override
+      public int getHalo() {
+        return EdgeDetector.HALO;
+      }
+
+      @Override
+      public boolean isGlobal() {
+        return true;
+      }
+
+      @Override
+      public void measure(Raster strip, int top, int y0, int y1) {
+        int[] range = detector.range(detector.magnitude(strip), strip.getWidth(), y0 - top,
+                y1 - top);
+        min = Math.min(range[0], min);
+        max = Math.max(range[1], max);
+      }
+
+      @Override
+      public Raster apply(Raster strip, int top, int y0, int y1) {
+        return detector.normalize(detector.magnitude(strip), strip.getWidth(), y0 - top,
+                y1 - top, min, max);
+      }
+    };
+  }
+
+  /**
+   * Get a view of some rows of a strip, without copying them.
+   */
+  static Raster rows(Raster strip, int top, int y0, int y1) {
+    if (y0 == top && y1 - y0 == strip.getHeight()) {
+      return strip;
+    }
+    return new Raster(strip.getWidth(), y1 - y0, strip.getPixels(), strip.index(0, y0 - top),
+            strip.getStride());
+  }
+
+  private static void add(int[] total, int[] histogram) {
+    for (int v = 0; v < Histogram.LEVELS; v++) {
+      total[v] += histogram[v];
+    }
+  }
+}
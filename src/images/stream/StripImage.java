@@ -0,0 +1,184 @@
+package images.stream;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Vector;
+
+/**
+ * A read-only {@link RenderedImage} over a {@link RasterFile}, tiled in strips of
+ * rows, which is how ImageIO writers are handed an image that is not in memory. The
+ * pixels are TYPE_INT_RGB. Writers that pull the image a few rows at a time, such as
+ * the PNG writer, only ever hold one strip; the most recent strip is kept so that
+ * pulling it row by row reads the file once.
+ */
+final class StripImage implements RenderedImage {
+  private static final int[] MASKS = {0xFF0000, 0xFF00, 0xFF};
+
+  private final RasterFile file;
+  private final int stripRows;
+  private final ColorModel colorModel;
+  private int cachedStrip = -1;
+  private images.Raster cached;
+
+  StripImage(RasterFile file, int stripRows) {
+    this.file = file;
+    this.stripRows = stripRows;
+    colorModel = new DirectColorModel(24, MASKS[0], MASKS[1], MASKS[2]);
+  }
+
+  @Override
+  public Vector<RenderedImage> getSources() {
+    return null;
+  }
+
+  @Override
+  public Object getProperty(String name) {
+    return java.awt.Image.UndefinedProperty;
+  }
+
+  @Override
+  public String[] getPropertyNames() {
+    return null;
+  }
+
+  @Override
+  public ColorModel getColorModel() {
+    return colorModel;
+  }
+
+  @Override
+  public SampleModel getSampleModel() {
+    return sampleModel(file.getWidth(), stripRows);
+  }
+
+  @Override
+  public int getWidth() {
+    return file.getWidth();
+  }
+
+  @Override
+  public int getHeight() {
+    return file.getHeight();
+  }
+
+  @Override
+  public int getMinX() {
+    return 0;
+  }
+
+  @Override
+  public int getMinY() {
+    return 0;
+  }
+
+  @Override
+  public int getNumXTiles() {
+    return 1;
+  }
+
+  @Override
+  public int getNumYTiles() {
+    return (file.getHeight() + stripRows - 1) / stripRows;
+  }
+
+  @Override
+  public int getMinTileX() {
+    return 0;
+  }
+
+  @Override
+  public int getMinTileY() {
+    return 0;
+  }
+
+  @Override
+  public int getTileWidth() {
+    return file.getWidth();
+  }
+
+  @Override
+  public int getTileHeight() {
+    return stripRows;
+  }
+
+  @Override
+  public int getTileGridXOffset() {
+    return 0;
+  }
+
+  @Override
+  public int getTileGridYOffset() {
+    return 0;
+  }
+
+  @Override
+  public Raster getTile(int tileX, int tileY) {
+    return getData(new Rectangle(0, tileY * stripRows, file.getWidth(),
+            Math.min(stripRows, file.getHeight() - tileY * stripRows)));
+  }
+
+  @Override
+  public Raster getData() {
+    return getData(new Rectangle(0, 0, file.getWidth(), file.getHeight()));
+  }
+
+  @Override
+  public Raster getData(Rectangle rect) {
+    WritableRaster raster = Raster.createWritableRaster(
+            sampleModel(rect.width, rect.height), new Point(rect.x, rect.y));
+    return copyData(raster);
+  }
+
+  @Override
+  public WritableRaster copyData(WritableRaster raster) {
+    if (raster == null) {
+      raster = Raster.createWritableRaster(getSampleModel(), new Point(0, 0));
+    }
+    Rectangle rect = raster.getBounds().intersection(
+            new Rectangle(0, 0, file.getWidth(), file.getHeight()));
+    for (int y = rect.y; y < rect.y + rect.height; ) {
+      images.Raster strip = strip(y / stripRows);
+      int top = (y / stripRows) * stripRows;
+      int rows = Math.min(rect.y + rect.height, top + strip.getHeight()) - y;
+      for (int r = 0; r < rows; r++) {
+        raster.setDataElements(rect.x, y + r, rect.width, 1,
+                copyRow(strip, y + r - top, rect.x, rect.width));
+      }
+      y += rows;
+    }
+    return raster;
+  }
+
+  private images.Raster strip(int index) {
+    if (index != cachedStrip) {
+      int y0 = index * stripRows;
+      try {
+        cached = file.read(y0, Math.min(file.getHeight(), y0 + stripRows));
+      } catch (IOException e) {
+        throw new UncheckedIOException("Error occurred reading the strip file", e);
+      }
+      cachedStrip = index;
+    }
+    return cached;
+  }
+
+  private static int[] copyRow(images.Raster strip, int y, int x, int width) {
+    int[] row = new int[width];
+    System.arraycopy(strip.getPixels(), strip.index(x, y), row, 0, width);
+    return row;
+  }
+
+  private static SampleModel sampleModel(int width, int height) {
+    return new SinglePixelPackedSampleModel(DataBufferInt.TYPE_INT, width, height, MASKS);
+  }
+}
@@ -0,0 +1,88 @@
+package images.stream;
+
+import java.awt.image.DataBuffer;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * A data buffer for the destination image of an ImageIO reader that keeps only one
+ * strip of rows in memory. Readers of sequential formats write their rows top to
+ * bottom, so every time a row below the strip is written the strip is flushed to the
+ * strip file and the window moves down. A write above the window means the reader
+ * does not write in order, as with interlaced PNGs, and fails with
+ * {@link OutOfOrderException} so that the caller can decode some other way.
+ *
+ * <p>Elements are either packed RGB pixels, or 8-bit gray levels that are mapped
+ * through a table of their colors.
+ */
+final class StripSink extends DataBuffer {
+  private final RasterFile file;
+  private final int width;
+  private final int stripRows;
+  private final int[] lut;
+  private final images.Raster strip;
+  private int top;
+
+  /**
+   * Constructs a sink that writes to the given file.
+   *
+   * @param type {@link DataBuffer#TYPE_INT} for packed pixels or
+   *             {@link DataBuffer#TYPE_BYTE} for gray levels
+   * @param lut the color of every gray level, or null for packed pixels
+   */
+  StripSink(RasterFile file, int stripRows, int type, int[] lut) {
+    super(type, file.getWidth() * file.getHeight());
+    this.file = file;
+    this.width = file.getWidth();
+    this.stripRows = stripRows;
+    this.lut = lut;
+    strip = new images.Raster(width, stripRows);
+    top = 0;
+  }
+
+  @Override
+  public int getElem(int bank, int i) {
+    int row = i / width;
+    if (row < top || row >= top + stripRows) {
+      return 0;
+    }
+    return strip.getPixels()[i - top * width];
+  }
+
+  @Override
+  public void setElem(int bank, int i, int val) {
+    int row = i / width;
+    if (row < top) {
+      throw new OutOfOrderException();
+    }
+    if (row >= top + stripRows) {
+      flush();
+      top = row - row % stripRows;
+    }
+    strip.getPixels()[i - top * width] = lut != null ? lut[val & 0xFF] : val & 0xFFFFFF;
+  }
+
+  /**
+   * Write the rows of the current window that are inside the image.
+   */
+  void flush() {
+    int rows = Math.min(stripRows, file.getHeight() - top);
+    try {
+      file.write(top, rows == stripRows ? strip
+              : new images.Raster(width, rows, strip.getPixels(), 0, width));
+    } catch (IOException e) {
+      throw new UncheckedIOException("Error occurred writing the strip file", e);
+    }
+  }
+
+  /**
+   * Thrown when a reader writes a row above the current strip.
+   */
+  static final class OutOfOrderException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    OutOfOrderException() {
+      super("The reader does not write rows in order");
+    }
+  }
+}
@@ -1,5 +1,7 @@
 package imageview;
 
+import images.ImageUtilities;
+import images.parallel.TaskMonitor;
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Dimension;
@@ -17,8 +19,14 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.net.URI;
 import java.net.URISyntaxException;
-import javax.swing.ImageIcon;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import javax.swing.JButton;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JComponent;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
@@ -28,11 +36,14 @@ import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
 import javax.swing.JSlider;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 import script.Features;
 
 /**
@@ -41,7 +52,7 @@ import script.Features;
 public class ImageGuiViewImp extends JFrame implements ImageGuiView {
   private static final long serialVersionUID = 1L;
 
-  private JLabel imageCanvas;
+  private TiledImageView imageCanvas;
   private JTextArea textArea;
   private JButton loadButton;
   private JButton saveButton;
@@ -55,6 +66,7 @@ public class ImageGuiViewImp extends JFrame implements ImageGuiView {
   private JButton exitButton;
 
   private JMenuItem blurItem;
+  private JMenuItem gaussianBlurItem;
   private JMenuItem sharpenItem;
   private JMenuItem grayscaleItem;
   private JMenuItem sepiaItem;
@@ -62,6 +74,8 @@ public class ImageGuiViewImp extends JFrame implements ImageGuiView {
   private JMenuItem mosaicItem;
   private JMenuItem edgeDetectionItem;
   private JMenuItem grayscaleContractEnhancementItem;
+  private JMenuItem channelEqualizationItem;
+  private JMenuItem adaptiveEqualizationItem;
 
   private JMenuItem loadItem;
   private JMenuItem saveItem;
@@ -73,6 +87,22 @@ public class ImageGuiViewImp extends JFrame implements ImageGuiView {
   private JMenuItem userManualItem;
   private JMenuItem aboutMeItem;
 
+  private JCheckBoxMenuItem previewItem;
+  private JMenuItem zoomInItem;
+  private JMenuItem zoomOutItem;
+  private JMenuItem actualSizeItem;
+  private JMenuItem fitItem;
+  private JScrollPane imageScrollPane;
+  private JProgressBar progressBar;
+  private JButton cancelButton;
+  private JMenu fileMenu;
+  private JMenu editMenu;
+  private JMenu filterMenu;
+  private Features features;
+  private Task task;
+  private boolean showingOrigin;
+  private Task comparison;
+
   /**
    * Constructor.
    *
@@ -95,6 +125,7 @@ public class ImageGuiViewImp extends JFrame implements ImageGuiView {
     renderImageCanvas();
     renderLogCanvas();
     renderButtons();
+    renderProgress();
 
     pack();
     setVisible(true);
@@ -102,6 +133,14 @@ public class ImageGuiViewImp extends JFrame implements ImageGuiView {
 
   @Override
   public void addFeatures(Features features) {
+    this.features = features;
+    cancelButton.addActionListener(e -> {
+      if (task != null) {
+        task.monitor.cancel();
+        cancelButton.setEnabled(false);
+      }
+    });
+
     ActionListener loadListener = e -> {
       URI uri = null;
       try {
@@ -111,9 +150,9 @@ public class ImageGuiViewImp extends JFrame implements ImageGuiView {
       }
       JFileChooser fileChooser = uri == null ? new JFileChooser() : new JFileChooser(new File(uri));
       if (fileChooser.showOpenDialog(null) == JFileChooser.APPROVE_OPTION) {
-        features.loadImage(fileChooser.getSelectedFile().getAbsolutePath());
+        String file = fileChooser.getSelectedFile().getAbsolutePath();
+        runTask("Load", () -> features.loadImage(file), false, true);
       }
-      updateImage(features.getCurrentImage());
     };
     loadItem.addActionListener(loadListener);
     loadButton.addActionListener(loadListener);
@@ -132,7 +171,8 @@ public class ImageGuiViewImp extends JFrame implements ImageGuiView {
       }
       JFileChooser fileChooser = uri == null ? new JFileChooser() : new JFileChooser(new File(uri));
       if (fileChooser.showSaveDialog(null) == JFileChooser.APPROVE_OPTION) {
-        features.saveImage(fileChooser.getSelectedFile().getAbsolutePath());
+        String file = fileChooser.getSelectedFile().getAbsolutePath();
+        runTask("Save", () -> features.saveImage(file), false, false);
       }
     };
     saveItem.addActionListener(saveListener);
@@ -152,7 +192,8 @@ public class ImageGuiViewImp extends JFrame implements ImageGuiView {
       }
       JFileChooser fileChooser = uri == null ? new JFileChooser() : new JFileChooser(new File(uri));
       if (fileChooser.showOpenDialog(null) == JFileChooser.APPROVE_OPTION) {
-        features.batchProcess(fileChooser.getSelectedFile().getAbsolutePath());
+        String file = fileChooser.getSelectedFile().getAbsolutePath();
+        runTask("Batch process", () -> features.batchProcess(file), false, true);
       }
     };
     batchProcessItem.addActionListener(batchProcessListener);
@@ -166,12 +207,7 @@ public class ImageGuiViewImp extends JFrame implements ImageGuiView {
     exitItem.addActionListener(e -> System.exit(0));
     exitButton.addActionListener(e -> System.exit(0));
 
-    ActionListener undoListener = e -> {
-      if (features.undo()) {
-        updateImage(features.getCurrentImage());
-        redoButton.setEnabled(true);
-      }
-    };
+    ActionListener undoListener = e -> runTask("Undo", features::undo, false, true);
     undoItem.addActionListener(undoListener);
     undoButton.addActionListener(undoListener);
     this.getRootPane().registerKeyboardAction(
@@ -180,11 +216,7 @@ public class ImageGuiViewImp extends JFrame implements ImageGuiView {
                     Toolkit.getDefaultToolkit().getMenuShortcutKeyMask()),
             JComponent.WHEN_IN_FOCUSED_WINDOW);
 
-    ActionListener redoListener = e -> {
-      features.redo();
-      updateImage(features.getCurrentImage());
-      redoButton.setEnabled(false);
-    };
+    ActionListener redoListener = e -> runTask("Redo", features::redo, false, true);
     redoItem.addActionListener(redoListener);
     redoButton.addActionListener(redoListener);
     this.getRootPane().registerKeyboardAction(
@@ -194,12 +226,7 @@ public class ImageGuiViewImp extends JFrame implements ImageGuiView {
                     + Toolkit.getDefaultToolkit().getMenuShortcutKeyMask()),
             JComponent.WHEN_IN_FOCUSED_WINDOW);
 
-    ActionListener resetListener = e -> {
-      if (features.reset()) {
-        updateImage(features.getCurrentImage());
-        redoButton.setEnabled(true);
-      }
-    };
+    ActionListener resetListener = e -> runTask("Reset", features::reset, false, true);
     resetItem.addActionListener(resetListener);
     resetButton.addActionListener(resetListener);
     this.getRootPane().registerKeyboardAction(
@@ -254,14 +281,12 @@ public class ImageGuiViewImp extends JFrame implements ImageGuiView {
 
       @Override
       public void mousePressed(MouseEvent e) {
-        updateImage(features.getOriginImage());
-        compareButton.setText("Showing Origin");
+        compare(true);
       }
 
       @Override
       public void mouseReleased(MouseEvent e) {
-        updateImage(features.getCurrentImage());
-        compareButton.setText("Compare");
+        compare(false);
       }
 
       @Override
@@ -280,89 +305,156 @@ public class ImageGuiViewImp extends JFrame implements ImageGuiView {
       @Override
       public void keyPressed(KeyEvent e) {
         if (e.getKeyCode() == KeyEvent.VK_TAB) {
-          updateImage(features.getOriginImage());
-          compareButton.setText("Showing Origin");
+          compare(true);
         }
       }
 
       @Override
       public void keyReleased(KeyEvent e) {
         if (e.getKeyCode() == KeyEvent.VK_TAB) {
-          updateImage(features.getCurrentImage());
-          compareButton.setText("Compare");
+          compare(false);
         }
       }
     });
 
-    blurItem.addActionListener(e -> {
-      features.blur();
-      updateImage(features.getCurrentImage());
+    zoomInItem.addActionListener(e -> imageCanvas.zoomIn());
+    zoomOutItem.addActionListener(e -> imageCanvas.zoomOut());
+    actualSizeItem.addActionListener(e -> imageCanvas.actualSize());
+    fitItem.addActionListener(e -> imageCanvas.fit());
+    int shortcut = Toolkit.getDefaultToolkit().getMenuShortcutKeyMask();
+    zoomInItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_EQUALS, shortcut));
+    zoomOutItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_MINUS, shortcut));
+    actualSizeItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_0, shortcut));
+
+    blurItem.addActionListener(e -> runFilter("Blur", features::blur));
+
+    gaussianBlurItem.addActionListener(e -> {
+      String sigma = JOptionPane.showInputDialog(this, "Blur radius (sigma): ", "2.0");
+      if (sigma != null) {
+        try {
+          double value = Double.parseDouble(sigma.trim());
+          runFilter("Gaussian blur", () -> features.gaussianBlur(value));
+        } catch (NumberFormatException nfe) {
+          showMessage("Error: invalid sigma '" + sigma + "'");
+        }
+      }
     });
 
-    sharpenItem.addActionListener(e -> {
-      features.sharpen();
-      updateImage(features.getCurrentImage());
-    });
+    sharpenItem.addActionListener(e -> runFilter("Sharpen", features::sharpen));
 
-    grayscaleItem.addActionListener(e -> {
-      features.grayscale();
-      updateImage(features.getCurrentImage());
-    });
+    grayscaleItem.addActionListener(e -> runFilter("Grayscale", features::grayscale));
 
-    sepiaItem.addActionListener(e -> {
-      features.sepia();
-      updateImage(features.getCurrentImage());
-    });
+    sepiaItem.addActionListener(e -> runFilter("Sepia", features::sepia));
 
-    ditherItem.addActionListener(e -> {
-      features.dither();
-      updateImage(features.getCurrentImage());
-    });
+    ditherItem.addActionListener(e -> runFilter("Dither", features::dither));
 
-    edgeDetectionItem.addActionListener(e -> {
-      features.edgeDetection();
-      updateImage(features.getCurrentImage());
-    });
+    edgeDetectionItem.addActionListener(e ->
+            runFilter("Edge detection", features::edgeDetection));
 
-    grayscaleContractEnhancementItem.addActionListener(e -> {
-      features.grayscaleContractEnhancement();
-      updateImage(features.getCurrentImage());
-    });
+    grayscaleContractEnhancementItem.addActionListener(e ->
+            runFilter("Contrast enhancement", features::grayscaleContractEnhancement));
 
-    mosaicItem.addActionListener(e -> {
-      int seeds = 20;
-      JLabel label = new JLabel("Mosaic Level: ");
-      JTextField textField = new JTextField(String.valueOf(seeds));
+    channelEqualizationItem.addActionListener(e ->
+            runFilter("Channel equalization", features::channelEqualization));
+
+    adaptiveEqualizationItem.addActionListener(e -> {
+      JTextField tilesField = new JTextField("8");
+      JTextField clipField = new JTextField("3.0");
       JPanel panel = new JPanel(new GridLayout(0, 1));
-      panel.setPreferredSize(new Dimension(500, 300));
-      JSlider slider = new JSlider(0, 1000, 20);
-      slider.setPaintTicks(true);
-      slider.setMinorTickSpacing(10);
-      slider.setPaintTrack(true);
-      slider.setMajorTickSpacing(100);
-      slider.setPaintLabels(true);
-      slider.setSnapToTicks(true);
-      slider.addChangeListener(e1 -> textField.setText(String.valueOf(slider.getValue())));
-
-      panel.add(label);
-      panel.add(textField);
-      panel.add(slider);
+      panel.add(new JLabel("Tiles per side: "));
+      panel.add(tilesField);
+      panel.add(new JLabel("Clip limit: "));
+      panel.add(clipField);
 
       int result = JOptionPane.showConfirmDialog(this, panel, "",
               JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
-
       if (result == JOptionPane.OK_OPTION) {
-        int setSeeds = Integer.parseInt(textField.getText());
-        seeds = setSeeds == 0 ? 1 : setSeeds;
+        try {
+          int tiles = Integer.parseInt(tilesField.getText().trim());
+          double clipLimit = Double.parseDouble(clipField.getText().trim());
+          runFilter("Adaptive equalization",
+                  () -> features.adaptiveEqualization(tiles, clipLimit));
+        } catch (NumberFormatException nfe) {
+          showMessage("Error: " + nfe.getMessage());
+        }
       }
+    });
 
-      features.mosaic(seeds);
-      updateImage(features.getCurrentImage());
+    // the small copy the dialog previews the mosaic on is computed in the background
+    mosaicItem.addActionListener(e -> {
+      if (imageCanvas.hasImage()) {
+        start(new Task("Mosaic preview", () -> { }, false,
+                () -> features.getPreviewImage(480, 320), false, this::showMosaicDialog));
+      } else {
+        showMosaicDialog(null);
+      }
     });
   }
 
+  /**
+   * Ask for the number of seeds of a mosaic, previewing it live on a small copy of
+   * the image if there is one, and apply it.
+   */
+  private void showMosaicDialog(BufferedImage proxy) {
+    int seeds = 20;
+    long randomSeed = new Random().nextLong();
+    JLabel label = new JLabel("Mosaic Level: ");
+    JTextField textField = new JTextField(String.valueOf(seeds));
+    JPanel controls = new JPanel(new GridLayout(0, 1));
+    JSlider slider = new JSlider(0, 1000, 20);
+    slider.setPaintTicks(true);
+    slider.setMinorTickSpacing(10);
+    slider.setPaintTrack(true);
+    slider.setMajorTickSpacing(100);
+    slider.setPaintLabels(true);
+    slider.setSnapToTicks(true);
+
+    controls.add(label);
+    controls.add(textField);
+    controls.add(slider);
+    JPanel panel = new JPanel(new BorderLayout());
+    panel.setPreferredSize(new Dimension(500, 500));
+    panel.add(controls, BorderLayout.NORTH);
+
+    // the mosaic of a small copy follows the slider with the seeds the filter uses
+    MosaicPreview preview = null;
+    if (proxy != null) {
+      JLabel previewLabel = new JLabel();
+      previewLabel.setHorizontalAlignment(JLabel.CENTER);
+      panel.add(previewLabel, BorderLayout.CENTER);
+      int fullWidth = imageCanvas.getImageWidth();
+      int fullHeight = imageCanvas.getImageHeight();
+      int maxSeeds = (int) Math.min(Integer.MAX_VALUE, (long) fullWidth * fullHeight);
+      preview = new MosaicPreview(ImageUtilities.toRaster(proxy), fullWidth, fullHeight,
+              randomSeed, previewLabel);
+      MosaicPreview live = preview;
+      slider.addChangeListener(e ->
+              live.request(Math.min(maxSeeds, Math.max(1, slider.getValue()))));
+      live.request(seeds);
+    }
+    slider.addChangeListener(e -> textField.setText(String.valueOf(slider.getValue())));
+
+    int result = JOptionPane.showConfirmDialog(this, panel, "",
+            JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+    if (preview != null) {
+      preview.close();
+    }
+
+    if (result == JOptionPane.OK_OPTION) {
+      int setSeeds = Integer.parseInt(textField.getText());
+      seeds = setSeeds == 0 ? 1 : setSeeds;
+      int mosaicSeeds = seeds;
+      runFilter("Mosaic", () -> features.mosaic(mosaicSeeds, randomSeed));
+    }
+  }
+
   @Override
   public void showMessage(String message) {
+    // the controller reports from the thread running a task
+    if (!SwingUtilities.isEventDispatchThread()) {
+      SwingUtilities.invokeLater(() -> showMessage(message));
+      return;
+    }
     // redirects data to the text area
     textArea.append(message + '\n');
     // scrolls the text area to the end of data
@@ -372,7 +464,7 @@ public class ImageGuiViewImp extends JFrame implements ImageGuiView {
   private void renderMenu() {
     JMenuBar manuBar = new JMenuBar();
 
-    JMenu fileMenu = new JMenu("File");
+    fileMenu = new JMenu("File");
     loadItem = new JMenuItem("Load");
     saveItem = new JMenuItem("Save");
     batchProcessItem = new JMenuItem("Batch Process");
@@ -384,7 +476,7 @@ public class ImageGuiViewImp extends JFrame implements ImageGuiView {
     fileMenu.add(exitItem);
     manuBar.add(fileMenu);
 
-    JMenu editMenu = new JMenu("Edit");
+    editMenu = new JMenu("Edit");
     undoItem = new JMenuItem("Undo");
     redoItem = new JMenuItem("Redo");
     resetItem = new JMenuItem("Reset");
@@ -393,8 +485,9 @@ public class ImageGuiViewImp extends JFrame implements ImageGuiView {
     editMenu.add(resetItem);
     manuBar.add(editMenu);
 
-    JMenu filterMenu = new JMenu("Filter");
+    filterMenu = new JMenu("Filter");
     blurItem = new JMenuItem("blur");
+    gaussianBlurItem = new JMenuItem("gaussianBlur");
     sharpenItem = new JMenuItem("sharpen");
     grayscaleItem = new JMenuItem("grayscale");
     sepiaItem = new JMenuItem("sepia");
@@ -402,8 +495,11 @@ public class ImageGuiViewImp extends JFrame implements ImageGuiView {
     mosaicItem = new JMenuItem("mosaic");
     edgeDetectionItem = new JMenuItem(("edgeDetection"));
     grayscaleContractEnhancementItem = new JMenuItem("grayscaleContractEnhancement");
+    channelEqualizationItem = new JMenuItem("channelEqualization");
+    adaptiveEqualizationItem = new JMenuItem("adaptiveEqualization");
 
     filterMenu.add(blurItem);
+    filterMenu.add(gaussianBlurItem);
     filterMenu.add(sharpenItem);
     filterMenu.add(grayscaleItem);
     filterMenu.add(sepiaItem);
@@ -411,9 +507,25 @@ public class ImageGuiViewImp extends JFrame implements ImageGuiView {
     filterMenu.add(mosaicItem);
     filterMenu.add(edgeDetectionItem);
     filterMenu.add(grayscaleContractEnhancementItem);
+    filterMenu.add(channelEqualizationItem);
+    filterMenu.add(adaptiveEqualizationItem);
 
     manuBar.add(filterMenu);
 
+    JMenu viewMenu = new JMenu("View");
+    previewItem = new JCheckBoxMenuItem("Fast preview", true);
+    viewMenu.add(previewItem);
+    viewMenu.addSeparator();
+    zoomInItem = new JMenuItem("Zoom In");
+    zoomOutItem = new JMenuItem("Zoom Out");
+    actualSizeItem = new JMenuItem("Actual Size");
+    fitItem = new JMenuItem("Fit to Window");
+    viewMenu.add(zoomInItem);
+    viewMenu.add(zoomOutItem);
+    viewMenu.add(actualSizeItem);
+    viewMenu.add(fitItem);
+    manuBar.add(viewMenu);
+
     JMenu helpMenu = new JMenu("Help");
     userManualItem = new JMenuItem("User Manual");
     aboutMeItem = new JMenuItem("About Me");
@@ -425,11 +537,9 @@ public class ImageGuiViewImp extends JFrame implements ImageGuiView {
   }
 
   private void renderImageCanvas() {
-    JPanel canvas = new JPanel();
-    imageCanvas = new JLabel();
-    canvas.add(imageCanvas);
-    canvas.setBackground(new Color(60, 63, 65));
-    JScrollPane imageScrollPane = new JScrollPane(canvas);
+    imageCanvas = new TiledImageView();
+    imageScrollPane = new JScrollPane(imageCanvas);
+    imageScrollPane.getViewport().setBackground(new Color(60, 63, 65));
     imageScrollPane.setPreferredSize(new Dimension(800, 600));
     imageScrollPane.setMinimumSize(new Dimension(800, 600));
     imageScrollPane.setBounds(0, 0, 800, 600);
@@ -437,9 +547,200 @@ public class ImageGuiViewImp extends JFrame implements ImageGuiView {
     this.getContentPane().add(imageScrollPane);
   }
 
+  private void renderProgress() {
+    JPanel progressPanel = new JPanel(new BorderLayout(10, 0));
+    progressPanel.setBackground(new Color(43, 43, 43));
+    progressBar = new JProgressBar(0, 100);
+    progressBar.setStringPainted(true);
+    progressBar.setString("");
+    progressPanel.add(progressBar, BorderLayout.CENTER);
+    cancelButton = new JButton("Cancel");
+    cancelButton.setEnabled(false);
+    progressPanel.add(cancelButton, BorderLayout.EAST);
+    this.add(progressPanel, BorderLayout.NORTH);
+  }
+
+  /**
+   * Apply a filter in the background. With fast preview on, a preview computed on a
+   * copy the size of the canvas is shown first, stretched to the size of the image,
+   * and then replaced by the full size image. A filter cancelled before its preview
+   * is shown is undone; cancelling after that only stops the full size image, which
+   * is then computed when it is needed, such as when saving.
+   */
+  private void runFilter(String name, Runnable filter) {
+    start(new Task(name, filter, true, features::getCurrentImage, previewItem.isSelected(),
+            this::updateImage));
+  }
+
+  /**
+   * Run an action of the controller on a background thread, so that the window
+   * keeps painting, then show the current image. Only one action runs at a time: the
+   * model is not thread safe, so everything that uses it is disabled until the
+   * action is done.
+   *
+   * @param name the name to show next to the progress
+   * @param action the action
+   * @param undoOnCancel whether a cancelled action left a step to undo
+   * @param showResult whether to show the current image afterwards
+   */
+  private void runTask(String name, Runnable action, boolean undoOnCancel,
+                       boolean showResult) {
+    start(new Task(name, action, undoOnCancel, showResult ? features::getCurrentImage : null,
+            false, this::updateImage));
+  }
+
+  /**
+   * Show the original image while Compare or Tab is held down, and the current image
+   * again once it is let go. Both are fetched in the background, since a lazy model
+   * may still have to compute the current image, for example after a filter was
+   * cancelled once its preview was shown; that preview is shown until the full image
+   * is ready, and stays if the fetch is cancelled. A change made while an image is
+   * fetched is caught up with once it arrives.
+   */
+  private void compare(boolean origin) {
+    if ((task != null && task != comparison) || showingOrigin == origin) {
+      return;
+    }
+    showingOrigin = origin;
+    compareButton.setText(origin ? "Showing Origin" : "Compare");
+    if (comparison == null) {
+      showCompared();
+    }
+  }
+
+  private void showCompared() {
+    boolean origin = showingOrigin;
+    comparison = new Task("Compare", () -> { }, false,
+            origin ? features::getOriginImage : features::getCurrentImage, !origin, image -> {
+              comparison = null;
+              updateImage(image);
+              if (showingOrigin != origin) {
+                showCompared();
+              }
+            });
+    start(comparison);
+  }
+
+  private void start(Task next) {
+    if (task != null) {
+      return;
+    }
+    task = next;
+    setBusy(true);
+    progressBar.setIndeterminate(true);
+    progressBar.setString(next.name);
+    task.execute();
+  }
+
+  private void setBusy(boolean busy) {
+    fileMenu.setEnabled(!busy);
+    editMenu.setEnabled(!busy);
+    filterMenu.setEnabled(!busy);
+    for (JButton button : new JButton[] {loadButton, saveButton, compareButton, undoButton,
+        resetButton, batchProcessButton}) {
+      button.setEnabled(!busy);
+    }
+    redoButton.setEnabled(!busy && features.canRedo());
+    cancelButton.setEnabled(busy);
+  }
+
+  /**
+   * An action of the controller running under a task monitor, which reports the
+   * progress of every pass over the image and stops the filter when cancelled.
+   */
+  private final class Task extends SwingWorker<BufferedImage, int[]> {
+    private final String name;
+    private final Runnable action;
+    private final boolean undoOnCancel;
+    private final Supplier<BufferedImage> result;
+    private final Consumer<BufferedImage> show;
+    private final Dimension previewSize;
+    private final TaskMonitor monitor;
+    private volatile boolean previewShown;
+
+    private Task(String name, Runnable action, boolean undoOnCancel,
+                 Supplier<BufferedImage> result, boolean preview,
+                 Consumer<BufferedImage> show) {
+      this.name = name;
+      this.action = action;
+      this.undoOnCancel = undoOnCancel;
+      this.result = result;
+      this.show = show;
+      previewSize = preview ? imageScrollPane.getViewport().getExtentSize() : null;
+      monitor = new TaskMonitor((pass, fraction) ->
+              publish(new int[] {pass, (int) (100 * fraction)}));
+    }
+
+    @Override
+    protected BufferedImage doInBackground() {
+      return monitor.call(() -> {
+        action.run();
+        if (previewSize != null && previewSize.width > 0 && previewSize.height > 0) {
+          BufferedImage preview =
+                  features.getPreviewImage(previewSize.width, previewSize.height);
+          if (preview != null) {
+            previewShown = true;
+            SwingUtilities.invokeLater(() -> showPreview(preview));
+          }
+        }
+        // a lazy model computes the filter here
+        return result == null ? null : result.get();
+      });
+    }
+
+    @Override
+    protected void process(List<int[]> chunks) {
+      int[] last = chunks.get(chunks.size() - 1);
+      progressBar.setIndeterminate(false);
+      progressBar.setValue(last[1]);
+      progressBar.setString(name + ", pass " + last[0] + ": " + last[1] + "%");
+    }
+
+    @Override
+    protected void done() {
+      BufferedImage image = null;
+      try {
+        image = get();
+        progressBar.setString(name + " done");
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof CancellationException) {
+          if (previewShown) {
+            showMessage(name + " is shown as a preview until the full image is needed");
+          } else if (undoOnCancel) {
+            features.undo();
+          }
+          showMessage(name + " cancelled");
+          progressBar.setString(name + " cancelled");
+        } else {
+          showMessage("Error: " + e.getCause().getMessage());
+          progressBar.setString(name + " failed");
+        }
+      }
+      progressBar.setIndeterminate(false);
+      progressBar.setValue(0);
+      task = null;
+      setBusy(false);
+      show.accept(image);
+    }
+  }
+
+  /**
+   * Show a preview stretched to the size of the image it stands for, so that the
+   * canvas does not jump when the full size image replaces it.
+   */
+  private void showPreview(BufferedImage preview) {
+    if (imageCanvas.hasImage()) {
+      imageCanvas.setImage(preview, imageCanvas.getImageWidth(), imageCanvas.getImageHeight());
+    } else {
+      imageCanvas.setImage(preview);
+    }
+  }
+
   private void updateImage(BufferedImage image) {
     if (image != null) {
-      imageCanvas.setIcon(new ImageIcon(image));
+      imageCanvas.setImage(image);
       this.setVisible(true);
     }
   }
@@ -0,0 +1,86 @@
+package imageview;
+
+import images.ImageUtilities;
+import images.Raster;
+import images.mosaic.MosaicSession;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.swing.ImageIcon;
+import javax.swing.JLabel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * Shows the mosaic of a small copy of the image while its number of seeds is being
+ * picked. Requests wait a moment before they start, so a slider being dragged does
+ * not start one per tick, and a request still running when a newer one comes stops
+ * between two seeds and carries on from where it got to. Only the cells the added or
+ * removed seeds touch are relabeled, through a {@link MosaicSession}.
+ */
+class MosaicPreview {
+  private static final int DELAY_MILLIS = 40;
+
+  private final MosaicSession session;
+  private final JLabel label;
+  private final AtomicInteger target = new AtomicInteger();
+  private final ExecutorService worker;
+  private final Timer debounce;
+  private volatile boolean closed;
+
+  /**
+   * Constructs a preview showing in a label.
+   *
+   * @param proxy the small copy of the image
+   * @param fullWidth the width of the full size image
+   * @param fullHeight the height of the full size image
+   * @param randomSeed the seed of the generator placing the mosaic seeds
+   * @param label the label to show the preview in
+   */
+  MosaicPreview(Raster proxy, int fullWidth, int fullHeight, long randomSeed, JLabel label) {
+    session = new MosaicSession(proxy, fullWidth, fullHeight, randomSeed);
+    this.label = label;
+    worker = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r, "mosaic-preview");
+      thread.setDaemon(true);
+      return thread;
+    });
+    debounce = new Timer(DELAY_MILLIS, e -> {
+      int goal = target.get();
+      worker.execute(() -> update(goal));
+    });
+    debounce.setRepeats(false);
+  }
+
+  /**
+   * Ask for the preview of a number of seeds. Called on the event dispatch thread.
+   *
+   * @param seeds the number of seeds at full size
+   */
+  void request(int seeds) {
+    target.set(seeds);
+    debounce.restart();
+  }
+
+  /**
+   * Stop showing previews and end the worker thread.
+   */
+  void close() {
+    closed = true;
+    debounce.stop();
+    worker.shutdown();
+  }
+
+  private void update(int goal) {
+    if (!session.setSeeds(goal, () -> target.get() != goal || closed)) {
+      return;
+    }
+    BufferedImage image = ImageUtilities.convertRaster(session.render());
+    SwingUtilities.invokeLater(() -> {
+      if (!closed) {
+        label.setIcon(new ImageIcon(image));
+      }
+    });
+  }
+}
@@ -0,0 +1,603 @@
+package imageview;
+
+import java.awt.Cursor;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.event.InputEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import javax.swing.JComponent;
+import javax.swing.JScrollPane;
+import javax.swing.JViewport;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+
+/**
+ * Shows an image at any zoom inside a scroll pane, painting only the tiles in view.
+ *
+ * <p>Zoomed out, tiles come from a mipmap pyramid: each level halves the one below by
+ * averaging 2x2 pixels, and the level drawn is the coarsest one that still has a
+ * pixel per screen pixel, so a zoomed out view of a huge image reads a few tiles
+ * instead of every pixel. Pyramid tiles are built from the four tiles below them when first
+ * drawn and kept under a byte budget, least recently drawn dropped first; tiles of the
+ * image itself are views of it and cost nothing. A new image the same size as the one
+ * shown takes over its pyramid tiles, and each is checked against the pixels below it
+ * in both images only when it is first drawn: it is rebuilt if they changed, and no
+ * tile of the images is compared more than once. The tiles of the image shown before
+ * are kept as well, so switching back to it, such as while comparing with the
+ * original, neither compares nor builds anything.
+ *
+ * <p>Ctrl and the mouse wheel zoom around the pointer, dragging pans, and the wheel
+ * alone scrolls.
+ */
+class TiledImageView extends JComponent implements Scrollable {
+  private static final long serialVersionUID = 1L;
+  private static final int TILE = 256;
+  private static final long TILE_BUDGET = 64L << 20;
+  private static final double MIN_ZOOM = 1.0 / 64;
+  private static final double MAX_ZOOM = 32;
+  private static final double ZOOM_STEP = 1.25;
+
+  private transient BufferedImage source;
+  private int imageWidth;
+  private int imageHeight;
+  private double zoom = 1;
+  private transient LinkedHashMap<Long, BufferedImage> tiles;
+  private long tileBytes;
+  private transient Set<Long> unverified;
+  private transient BufferedImage lastSource;
+  private transient LinkedHashMap<Long, BufferedImage> lastTiles;
+  private long lastTileBytes;
+  private transient Set<Long> lastUnverified;
+  private transient BitSet compared;
+  private transient BitSet changed;
+  private Point dragStart;
+
+  /**
+   * Constructs a view showing no image.
+   */
+  TiledImageView() {
+    clearTiles();
+    lastUnverified = new HashSet<>();
+    setOpaque(false);
+    MouseAdapter mouse = new MouseAdapter() {
+      @Override
+      public void mousePressed(MouseEvent e) {
+        dragStart = e.getLocationOnScreen();
+        setCursor(Cursor.getPredefinedCursor(Cursor.MOVE_CURSOR));
+      }
+
+      @Override
+      public void mouseReleased(MouseEvent e) {
+        dragStart = null;
+        setCursor(Cursor.getDefaultCursor());
+      }
+
+      @Override
+      public void mouseDragged(MouseEvent e) {
+        JViewport viewport = viewport();
+        if (dragStart == null || viewport == null) {
+          return;
+        }
+        Point now = e.getLocationOnScreen();
+        Point position = viewport.getViewPosition();
+        position.translate(dragStart.x - now.x, dragStart.y - now.y);
+        dragStart = now;
+        scrollTo(viewport, position);
+      }
+
+      @Override
+      public void mouseWheelMoved(MouseWheelEvent e) {
+        if ((e.getModifiersEx() & InputEvent.CTRL_DOWN_MASK) == 0) {
+          // leave plain scrolling to the scroll pane
+          getParent().dispatchEvent(SwingUtilities.convertMouseEvent(
+                  TiledImageView.this, e, getParent()));
+          return;
+        }
+        double factor = Math.pow(ZOOM_STEP, -e.getPreciseWheelRotation());
+        setZoom(zoom * factor, e.getPoint());
+      }
+    };
+    addMouseListener(mouse);
+    addMouseMotionListener(mouse);
+    addMouseWheelListener(mouse);
+  }
+
+  /**
+   * Show an image at its own size.
+   *
+   * @param image the image, or null to show nothing
+   */
+  void setImage(BufferedImage image) {
+    if (image == null) {
+      setImage(null, 0, 0);
+    } else {
+      setImage(image, image.getWidth(), image.getHeight());
+    }
+  }
+
+  /**
+   * Show an image stretched to a given size, such as a preview standing in for a
+   * larger image.
+   *
+   * @param image the image, or null to show nothing
+   * @param width the width to show the image at when the zoom is 1
+   * @param height the height to show the image at when the zoom is 1
+   */
+  void setImage(BufferedImage image, int width, int height) {
+    BufferedImage old = source;
+    boolean sameLayout = old != null && image != null && width == imageWidth
+            && height == imageHeight && image.getWidth() == old.getWidth()
+            && image.getHeight() == old.getHeight();
+    if (image == old) {
+      return;
+    }
+    if (sameLayout && image == lastSource) {
+      // the tiles of either image are checked against the other one, so the tiles
+      // compared so far still hold
+      LinkedHashMap<Long, BufferedImage> shownTiles = tiles;
+      long shownBytes = tileBytes;
+      Set<Long> shownUnverified = unverified;
+      tiles = lastTiles;
+      tileBytes = lastTileBytes;
+      unverified = lastUnverified;
+      lastSource = old;
+      lastTiles = shownTiles;
+      lastTileBytes = shownBytes;
+      lastUnverified = shownUnverified;
+      source = image;
+      repaint();
+      return;
+    }
+    dropUnverified();
+    lastSource = old;
+    lastTiles = tiles;
+    lastTileBytes = tileBytes;
+    lastUnverified = new HashSet<>();
+    source = image;
+    clearTiles();
+    compared = new BitSet();
+    changed = new BitSet();
+    if (!sameLayout) {
+      imageWidth = width;
+      imageHeight = height;
+      revalidate();
+      repaint();
+      return;
+    }
+
+    // the tiles over unchanged pixels carry over to the new image, found out as drawn
+    tiles.putAll(lastTiles);
+    tileBytes = lastTileBytes;
+    unverified.addAll(tiles.keySet());
+    repaint();
+  }
+
+  /**
+   * Whether an image is shown.
+   *
+   * @return true if there is an image
+   */
+  boolean hasImage() {
+    return source != null;
+  }
+
+  /**
+   * Get the width of the image shown at a zoom of 1.
+   *
+   * @return the width in pixels
+   */
+  int getImageWidth() {
+    return imageWidth;
+  }
+
+  /**
+   * Get the height of the image shown at a zoom of 1.
+   *
+   * @return the height in pixels
+   */
+  int getImageHeight() {
+    return imageHeight;
+  }
+
+  /**
+   * Get the number of screen pixels per image pixel.
+   *
+   * @return the zoom
+   */
+  double getZoom() {
+    return zoom;
+  }
+
+  /**
+   * Zoom in one step around the middle of the view.
+   */
+  void zoomIn() {
+    setZoom(zoom * ZOOM_STEP, null);
+  }
+
+  /**
+   * Zoom out one step around the middle of the view.
+   */
+  void zoomOut() {
+    setZoom(zoom / ZOOM_STEP, null);
+  }
+
+  /**
+   * Show the image at its own size.
+   */
+  void actualSize() {
+    setZoom(1, null);
+  }
+
+  /**
+   * Zoom so the whole image fits in the view.
+   */
+  void fit() {
+    JViewport viewport = viewport();
+    if (viewport == null || imageWidth == 0) {
+      return;
+    }
+    Dimension extent = viewport.getExtentSize();
+    setZoom(Math.min((double) extent.width / imageWidth, (double) extent.height / imageHeight),
+            null);
+  }
+
+  /**
+   * Change the zoom, keeping the image pixel under a point of the view in place.
+   *
+   * @param newZoom the zoom
+   * @param anchor the point in the coordinates of this component, or null for the
+   *               middle of the view
+   */
+  private void setZoom(double newZoom, Point anchor) {
+    newZoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, newZoom));
+    JViewport viewport = viewport();
+    if (newZoom == zoom || viewport == null) {
+      zoom = newZoom;
+      revalidate();
+      repaint();
+      return;
+    }
+    Rectangle view = viewport.getViewRect();
+    if (anchor == null) {
+      anchor = new Point(view.x + view.width / 2, view.y + view.height / 2);
+    }
+    double imageX = (anchor.x - originX()) / zoom;
+    double imageY = (anchor.y - originY()) / zoom;
+    int inViewX = anchor.x - view.x;
+    int inViewY = anchor.y - view.y;
+
+    zoom = newZoom;
+    revalidate();
+    JScrollPane scrollPane =
+            (JScrollPane) SwingUtilities.getAncestorOfClass(JScrollPane.class, this);
+    if (scrollPane != null) {
+      // lay the new size out now so the view can be scrolled within it
+      scrollPane.validate();
+    }
+    scrollTo(viewport, new Point((int) Math.round(originX() + imageX * zoom) - inViewX,
+            (int) Math.round(originY() + imageY * zoom) - inViewY));
+    repaint();
+  }
+
+  @Override
+  public Dimension getPreferredSize() {
+    return new Dimension((int) Math.ceil(imageWidth * zoom), (int) Math.ceil(imageHeight * zoom));
+  }
+
+  @Override
+  protected void paintComponent(Graphics g) {
+    if (source == null) {
+      return;
+    }
+    Rectangle clip = g.getClipBounds();
+    if (clip == null) {
+      clip = new Rectangle(getSize());
+    }
+    int level = level();
+    int scale = 1 << level;
+    double screenX = zoom * imageWidth / source.getWidth() * scale;
+    double screenY = zoom * imageHeight / source.getHeight() * scale;
+    int levelWidth = levelSize(source.getWidth(), level);
+    int levelHeight = levelSize(source.getHeight(), level);
+    int tx0 = Math.max(0, (int) Math.floor((clip.x - originX()) / screenX / TILE));
+    int ty0 = Math.max(0, (int) Math.floor((clip.y - originY()) / screenY / TILE));
+    int tx1 = Math.min((levelWidth - 1) / TILE,
+            (int) Math.floor((clip.x + clip.width - originX()) / screenX / TILE));
+    int ty1 = Math.min((levelHeight - 1) / TILE,
+            (int) Math.floor((clip.y + clip.height - originY()) / screenY / TILE));
+
+    Graphics2D g2 = (Graphics2D) g.create();
+    g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, Math.min(screenX, screenY) < 1
+            ? RenderingHints.VALUE_INTERPOLATION_BILINEAR
+            : RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+    for (int ty = ty0; ty <= ty1; ty++) {
+      for (int tx = tx0; tx <= tx1; tx++) {
+        Rectangle r = screenRect(level, tx, ty);
+        g2.drawImage(tile(level, tx, ty), r.x, r.y, r.width, r.height, null);
+      }
+    }
+    g2.dispose();
+  }
+
+  @Override
+  public Dimension getPreferredScrollableViewportSize() {
+    return getPreferredSize();
+  }
+
+  @Override
+  public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation,
+                                        int direction) {
+    return 16;
+  }
+
+  @Override
+  public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation,
+                                         int direction) {
+    return orientation == SwingConstants.HORIZONTAL ? visibleRect.width : visibleRect.height;
+  }
+
+  @Override
+  public boolean getScrollableTracksViewportWidth() {
+    JViewport viewport = viewport();
+    return viewport != null && viewport.getWidth() > getPreferredSize().width;
+  }
+
+  @Override
+  public boolean getScrollableTracksViewportHeight() {
+    JViewport viewport = viewport();
+    return viewport != null && viewport.getHeight() > getPreferredSize().height;
+  }
+
+  /**
+   * Get a tile of a level of the pyramid. Tiles of level 0 are views of the image.
+   */
+  private BufferedImage tile(int level, int tx, int ty) {
+    int width = Math.min(TILE, levelSize(source.getWidth(), level) - tx * TILE);
+    int height = Math.min(TILE, levelSize(source.getHeight(), level) - ty * TILE);
+    if (level == 0) {
+      return source.getSubimage(tx * TILE, ty * TILE, width, height);
+    }
+    long key = key(level, tx, ty);
+    BufferedImage tile = tiles.get(key);
+    if (tile != null && unverified.remove(key) && !unchanged(level, tx, ty)) {
+      tiles.remove(key);
+      tileBytes -= bytes(tile);
+      tile = null;
+    }
+    if (tile != null) {
+      return tile;
+    }
+
+    long[] sums = new long[3 * width * height];
+    int[] counts = new int[width * height];
+    int[] childPixels = new int[TILE * TILE];
+    int belowWidth = levelSize(source.getWidth(), level - 1);
+    int belowHeight = levelSize(source.getHeight(), level - 1);
+    for (int q = 0; q < 4; q++) {
+      int cx = 2 * tx + (q & 1);
+      int cy = 2 * ty + (q >> 1);
+      if (cx * TILE >= belowWidth || cy * TILE >= belowHeight) {
+        continue;
+      }
+      int cw = Math.min(TILE, belowWidth - cx * TILE);
+      int ch = Math.min(TILE, belowHeight - cy * TILE);
+      if (level == 1) {
+        readRegion(source, cx * TILE, cy * TILE, cw, ch, childPixels);
+      } else {
+        readRegion(tile(level - 1, cx, cy), 0, 0, cw, ch, childPixels);
+      }
+      for (int y = 0; y < ch; y++) {
+        int row = ((q >> 1) * TILE + y) / 2 * width;
+        for (int x = 0; x < cw; x++) {
+          int i = row + ((q & 1) * TILE + x) / 2;
+          int rgb = childPixels[y * cw + x];
+          sums[3 * i] += (rgb >> 16) & 0xff;
+          sums[3 * i + 1] += (rgb >> 8) & 0xff;
+          sums[3 * i + 2] += rgb & 0xff;
+          counts[i]++;
+        }
+      }
+    }
+    tile = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    int[] out = ((DataBufferInt) tile.getRaster().getDataBuffer()).getData();
+    for (int i = 0; i < out.length; i++) {
+      out[i] = (int) (sums[3 * i] / counts[i]) << 16
+              | (int) (sums[3 * i + 1] / counts[i]) << 8 | (int) (sums[3 * i + 2] / counts[i]);
+    }
+
+    tiles.put(key, tile);
+    tileBytes += bytes(tile);
+    Iterator<Map.Entry<Long, BufferedImage>> eldest = tiles.entrySet().iterator();
+    while (tileBytes > TILE_BUDGET) {
+      tileBytes -= bytes(eldest.next().getValue());
+      eldest.remove();
+    }
+    return tile;
+  }
+
+  /**
+   * Whether the pixels under a pyramid tile taken over from the image shown before are
+   * the same in both images. Each tile of the images is compared at most once.
+   */
+  private boolean unchanged(int level, int tx, int ty) {
+    int columns = (source.getWidth() + TILE - 1) / TILE;
+    int rows = (source.getHeight() + TILE - 1) / TILE;
+    int[] before = null;
+    int[] after = null;
+    for (int by = ty << level; by < Math.min(rows, (ty + 1) << level); by++) {
+      for (int bx = tx << level; bx < Math.min(columns, (tx + 1) << level); bx++) {
+        int i = by * columns + bx;
+        if (!compared.get(i)) {
+          if (before == null) {
+            before = new int[TILE * TILE];
+            after = new int[TILE * TILE];
+          }
+          int w = Math.min(TILE, source.getWidth() - bx * TILE);
+          int h = Math.min(TILE, source.getHeight() - by * TILE);
+          readRegion(lastSource, bx * TILE, by * TILE, w, h, before);
+          readRegion(source, bx * TILE, by * TILE, w, h, after);
+          compared.set(i);
+          changed.set(i, !Arrays.equals(before, after));
+        }
+        if (changed.get(i)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Read a region of an image into an array, row after row, as RGB without alpha.
+   * Images that store packed RGB ints are read straight from their buffer.
+   */
+  private static void readRegion(BufferedImage image, int x, int y, int width, int height,
+                                 int[] into) {
+    WritableRaster raster = image.getRaster();
+    if (raster.getDataBuffer() instanceof DataBufferInt
+            && raster.getSampleModel() instanceof SinglePixelPackedSampleModel
+            && image.getColorModel() instanceof DirectColorModel
+            && ((DirectColorModel) image.getColorModel()).getRedMask() == 0xff0000
+            && ((DirectColorModel) image.getColorModel()).getGreenMask() == 0xff00
+            && ((DirectColorModel) image.getColorModel()).getBlueMask() == 0xff
+            && !image.isAlphaPremultiplied()) {
+      DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+      int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+      int[] data = buffer.getData();
+      int start = buffer.getOffset() + (y - raster.getSampleModelTranslateY()) * stride
+              + x - raster.getSampleModelTranslateX();
+      for (int row = 0; row < height; row++) {
+        int from = start + row * stride;
+        int to = row * width;
+        for (int i = 0; i < width; i++) {
+          into[to + i] = data[from + i] & 0xffffff;
+        }
+      }
+    } else {
+      image.getRGB(x, y, width, height, into, 0, width);
+      for (int i = 0; i < width * height; i++) {
+        into[i] &= 0xffffff;
+      }
+    }
+    Arrays.fill(into, width * height, into.length, 0);
+  }
+
+  /**
+   * Get the coarsest level that still has at least a pixel per screen pixel.
+   */
+  private int level() {
+    double scale = zoom * Math.min((double) imageWidth / source.getWidth(),
+            (double) imageHeight / source.getHeight());
+    int level = 0;
+    while (scale * (2 << level) <= 1 && level + 1 < levels()) {
+      level++;
+    }
+    return level;
+  }
+
+  /**
+   * Get the number of levels of the pyramid, down to a level of one pixel.
+   */
+  private int levels() {
+    int levels = 1;
+    for (int size = Math.max(source.getWidth(), source.getHeight()); size > 1;
+         size = (size + 1) / 2) {
+      levels++;
+    }
+    return levels;
+  }
+
+  private static int levelSize(int size, int level) {
+    for (int i = 0; i < level; i++) {
+      size = (size + 1) / 2;
+    }
+    return size;
+  }
+
+  /**
+   * Get where a tile of a level is drawn, in the coordinates of this component.
+   */
+  private Rectangle screenRect(int level, int tx, int ty) {
+    double screenX = zoom * imageWidth / source.getWidth();
+    double screenY = zoom * imageHeight / source.getHeight();
+    int x0 = tx * TILE << level;
+    int y0 = ty * TILE << level;
+    int x1 = Math.min(source.getWidth(), (tx + 1) * TILE << level);
+    int y1 = Math.min(source.getHeight(), (ty + 1) * TILE << level);
+    int left = originX() + (int) Math.floor(x0 * screenX);
+    int top = originY() + (int) Math.floor(y0 * screenY);
+    return new Rectangle(left, top, originX() + (int) Math.ceil(x1 * screenX) - left,
+            originY() + (int) Math.ceil(y1 * screenY) - top);
+  }
+
+  /**
+   * Get the left edge of the image, which is centered when narrower than the view.
+   */
+  private int originX() {
+    return Math.max(0, (getWidth() - getPreferredSize().width) / 2);
+  }
+
+  private int originY() {
+    return Math.max(0, (getHeight() - getPreferredSize().height) / 2);
+  }
+
+  private JViewport viewport() {
+    return getParent() instanceof JViewport ? (JViewport) getParent() : null;
+  }
+
+  private void scrollTo(JViewport viewport, Point position) {
+    Dimension extent = viewport.getExtentSize();
+    Dimension size = viewport.getViewSize();
+    position.x = Math.max(0, Math.min(position.x, size.width - extent.width));
+    position.y = Math.max(0, Math.min(position.y, size.height - extent.height));
+    viewport.setViewPosition(position);
+  }
+
+  private void clearTiles() {
+    tiles = new LinkedHashMap<>(64, 0.75f, true);
+    tileBytes = 0;
+    unverified = new HashSet<>();
+  }
+
+  /**
+   * Drop the tiles not yet checked against the image shown before, which is about to
+   * be forgotten.
+   */
+  private void dropUnverified() {
+    for (Long key : unverified) {
+      BufferedImage tile = tiles.remove(key);
+      if (tile != null) {
+        tileBytes -= bytes(tile);
+      }
+    }
+    unverified.clear();
+  }
+
+  private static long key(int level, int tx, int ty) {
+    return (long) level << 56 | (long) ty << 28 | tx;
+  }
+
+  private static long bytes(BufferedImage tile) {
+    return 4L * tile.getWidth() * tile.getHeight();
+  }
+}
@@ -0,0 +1,88 @@
+package script;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Applies a recipe to many images from the command line:
+ * {@code [options] recipe outputDirectory input...}. Inputs may be files, directories
+ * or globs such as "photos/*.jpg". The options are {@code -workers n} for the threads
+ * of every stage, {@code -decoders n}, {@code -filters n} and {@code -encoders n} to
+ * size one stage, {@code -queue n} for the depth of the queues,
+ * {@code -format ext} for the output files and {@code -virtual} to read and write
+ * every file on a thread of its own, with the decoders and encoders bounding how
+ * many are in flight.
+ */
+public class BatchDriver {
+
+  /**
+   * Run the batch and print its report.
+   *
+   * @param args the options, the recipe file, the output directory and the inputs
+   */
+  public static void main(String[] args) {
+    int first = 0;
+    int workers = Runtime.getRuntime().availableProcessors();
+    int decoders = 0;
+    int filters = 0;
+    int encoders = 0;
+    int queue = 0;
+    String format = "png";
+    boolean virtual = false;
+    while (args.length > first + 1 && args[first].startsWith("-")) {
+      if ("-virtual".equals(args[first])) {
+        virtual = true;
+        first++;
+        continue;
+      }
+      String value = args[first + 1];
+      switch (args[first]) {
+        case "-workers":
+          workers = Integer.parseInt(value);
+          break;
+        case "-decoders":
+          decoders = Integer.parseInt(value);
+          break;
+        case "-filters":
+          filters = Integer.parseInt(value);
+          break;
+        case "-encoders":
+          encoders = Integer.parseInt(value);
+          break;
+        case "-queue":
+          queue = Integer.parseInt(value);
+          break;
+        case "-format":
+          format = value;
+          break;
+        default:
+          System.out.println("Unknown option " + args[first]);
+          return;
+      }
+      first += 2;
+    }
+    if (args.length < first + 3) {
+      System.out.println("Usage: BatchDriver [options] recipe outputDirectory input...");
+      return;
+    }
+
+    Recipe recipe;
+    try (Reader reader = new FileReader(args[first])) {
+      recipe = Recipe.parse(reader);
+    } catch (IOException | IllegalArgumentException e) {
+      System.out.println("Error: " + e.getMessage());
+      return;
+    }
+    List<File> inputs = BatchProcessor.expand(
+            Arrays.asList(args).subList(first + 2, args.length));
+    BatchProcessor processor = new BatchProcessor(decoders > 0 ? decoders : workers,
+            filters > 0 ? filters : workers, encoders > 0 ? encoders : workers,
+            queue > 0 ? queue : workers, virtual);
+    BatchReport report = processor.process(recipe, inputs, new File(args[first + 1]), format);
+    System.out.println(report);
+  }
+}
@@ -0,0 +1,565 @@
+package script;
+
+import images.ConcreteImageModel;
+import images.ImageUtilities;
+import images.Raster;
+import images.parallel.TileExecutor;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Runs one recipe over many image files at once, as a pipeline of three stages:
+ * decoder threads read files, filter threads apply the recipe, and encoder threads
+ * write the results. Each stage has its own threads and a bounded queue in front of
+ * it, so disk reads and writes overlap with filtering instead of alternating with it,
+ * and a stage that falls behind holds back the one before it; the caller walking a
+ * huge directory is held back the same way. Every filter thread keeps its own model,
+ * running filters on a single thread: with many files, whole files are the cheapest
+ * unit of parallelism. A file that cannot be read, filtered or written is recorded in
+ * the report and the others carry on.
+ *
+ * <p>The output directory keeps a manifest naming what each output was made from: a
+ * hash of the input file's bytes, the recipe and the format. An input whose output is
+ * still there, unchanged since the batch wrote it, and was made from the same bytes
+ * with the same recipe, is skipped without being decoded. The bytes are read once,
+ * through the storage, and decoded from memory when the input is not skipped.
+ * Recipes with a mosaic without a random seed are never skipped, since they give a
+ * new image every time.
+ */
+public class BatchProcessor {
+  private static final Job END = new Job(null, null);
+  private static final String MANIFEST = ".batch-manifest";
+
+  private final int decoders;
+  private final int filters;
+  private final int encoders;
+  private final int queueDepth;
+  private final boolean virtualIo;
+
+  /**
+   * Constructs a processor with one thread per available processor in each stage.
+   */
+  public BatchProcessor() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Constructs a processor with the same number of threads in each stage, and queues
+   * as deep as that number.
+   *
+   * @param workers the number of threads per stage
+   * @throws IllegalArgumentException if the number of workers is not positive
+   */
+  public BatchProcessor(int workers) throws IllegalArgumentException {
+    this(workers, workers, workers, workers);
+  }
+
+  /**
+   * Constructs a processor with separately sized stages.
+   *
+   * @param decoders the number of threads reading files
+   * @param filters the number of threads applying the recipe
+   * @param encoders the number of threads writing files
+   * @param queueDepth the number of images each queue holds
+   * @throws IllegalArgumentException if a number is not positive
+   */
+  public BatchProcessor(int decoders, int filters, int encoders, int queueDepth)
+          throws IllegalArgumentException {
+    this(decoders, filters, encoders, queueDepth, false);
+  }
+
+  /**
+   * Constructs a processor that can run its reads and writes on virtual threads. With
+   * virtual I/O, every file is read or written on a thread of its own, and the number
+   * of decoders or encoders is how many of them may be in flight at once; this is
+   * what bounds the memory held by decoded images. Filtering always stays on its
+   * fixed pool of platform threads. Runtimes without virtual threads use platform
+   * threads the same way.
+   *
+   * @param decoders the number of files read at once
+   * @param filters the number of threads applying the recipe
+   * @param encoders the number of files written at once
+   * @param queueDepth the number of images each queue holds
+   * @param virtualIo whether to start a thread per read and write
+   * @throws IllegalArgumentException if a number is not positive
+   */
+  public BatchProcessor(int decoders, int filters, int encoders, int queueDepth,
+                        boolean virtualIo) throws IllegalArgumentException {
+    if (decoders <= 0 || filters <= 0 || encoders <= 0) {
+      throw new IllegalArgumentException("The number of workers must be positive");
+    }
+    if (queueDepth <= 0) {
+      throw new IllegalArgumentException("The queue depth must be positive");
+    }
+    this.decoders = decoders;
+    this.filters = filters;
+    this.encoders = encoders;
+    this.queueDepth = queueDepth;
+    this.virtualIo = virtualIo;
+  }
+
+  /**
+   * Apply a recipe to every input and save each result in a directory, under the
+   * name of its input with the extension of the format. Inputs that share a name get
+   * a numbered suffix.
+   *
+   * @param recipe the filters to apply
+   * @param inputs the image files
+   * @param outputDirectory the directory to save to, created if needed
+   * @param format the extension of the files to write, such as "png"
+   * @return the report of the batch
+   * @throws IllegalArgumentException if an argument is null or the directory cannot
+   *                                  be created
+   */
+  public BatchReport process(Recipe recipe, Iterable<File> inputs, File outputDirectory,
+                             String format) throws IllegalArgumentException {
+    return process(recipe, inputs, outputDirectory, format, ImageStorage.FILES);
+  }
+
+  /**
+   * Apply a recipe to every input, reading and writing images through a storage.
+   *
+   * @param recipe the filters to apply
+   * @param inputs the image files
+   * @param outputDirectory the directory to save to, created if needed
+   * @param format the extension of the files to write, such as "png"
+   * @param storage where images are read from and written to
+   * @return the report of the batch
+   * @throws IllegalArgumentException if an argument is null or the directory cannot
+   *                                  be created
+   */
+  public BatchReport process(Recipe recipe, Iterable<File> inputs, File outputDirectory,
+                             String format, ImageStorage storage)
+          throws IllegalArgumentException {
+    if (recipe == null || inputs == null || outputDirectory == null || format == null
+            || storage == null) {
+      throw new IllegalArgumentException("Invalid batch arguments");
+    }
+    if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+      throw new IllegalArgumentException("Cannot create the output directory "
+              + outputDirectory);
+    }
+
+    Map<File, String> failures = new LinkedHashMap<>();
+    AtomicInteger succeeded = new AtomicInteger();
+    AtomicInteger skipped = new AtomicInteger();
+    AtomicLong pixels = new AtomicLong();
+    String recipeKey = recipe.getKey() == null ? null : recipe.getKey() + format;
+    File manifestFile = new File(outputDirectory, MANIFEST);
+    Properties manifest = readManifest(manifestFile);
+    Stage encode = new Stage("encode", encoders, queueDepth, null, failures, () -> job -> {
+      storage.write(job.raster, job.output.getPath());
+      pixels.addAndGet((long) job.raster.getWidth() * job.raster.getHeight());
+      succeeded.incrementAndGet();
+      synchronized (failures) {
+        failures.remove(job.input);
+      }
+      synchronized (manifest) {
+        if (job.key == null) {
+          manifest.remove(job.output.getName());
+        } else {
+          manifest.setProperty(job.output.getName(), stamp(job.key, job.output));
+        }
+      }
+    }, virtualIo ? IoThreads.create("batch-encode") : null);
+    Stage filter = new Stage("filter", filters, queueDepth, encode, failures, () -> {
+      ConcreteImageModel model = new ConcreteImageModel(TileExecutor.serial(), true);
+      return new Work() {
+        @Override
+        public void run(Job job) {
+          try {
+            model.loadRaster(job.raster);
+            recipe.applyTo(model);
+            job.raster = model.getCurrentRaster();
+          } finally {
+            model.clearHistory();
+          }
+        }
+
+        @Override
+        public void close() {
+          model.close();
+        }
+      };
+    }, null);
+    Stage decode = new Stage("decode", decoders, queueDepth, filter, failures, () -> job -> {
+      if (recipeKey != null) {
+        // the bytes are read once, hashed and decoded only if the output is stale
+        byte[] data = storage.load(job.input.getPath());
+        job.key = contentKey(recipeKey, data);
+        String made;
+        synchronized (manifest) {
+          made = manifest.getProperty(job.output.getName());
+        }
+        if (stamp(job.key, job.output).equals(made)) {
+          skipped.incrementAndGet();
+          synchronized (failures) {
+            failures.remove(job.input);
+          }
+          job.done = true;
+          return;
+        }
+        job.raster = ImageUtilities.decodeRaster(data);
+      } else {
+        job.raster = storage.read(job.input.getPath());
+      }
+    }, virtualIo ? IoThreads.create("batch-decode") : null);
+    Stage[] stages = {decode, filter, encode};
+
+    long start = System.nanoTime();
+    for (Stage stage : stages) {
+      stage.start();
+    }
+    Set<String> names = new HashSet<>();
+    for (File input : inputs) {
+      File output = new File(outputDirectory, uniqueName(names, input, format));
+      synchronized (failures) {
+        failures.put(input, null);
+      }
+      decode.put(new Job(input, output));
+    }
+    for (Stage stage : stages) {
+      stage.finish();
+    }
+    writeManifest(manifestFile, manifest);
+    long wall = System.nanoTime() - start;
+
+    List<StageReport> reports = new ArrayList<>();
+    for (Stage stage : stages) {
+      reports.add(stage.report(wall));
+    }
+    return new BatchReport(succeeded.get(), skipped.get(), failures, pixels.get(), wall,
+            reports);
+  }
+
+  /**
+   * Hash the bytes of an input together with the recipe that is applied to it.
+   */
+  private static String contentKey(String recipeKey, byte[] data) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      digest.update(recipeKey.getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+      digest.update(data);
+      StringBuilder key = new StringBuilder();
+      for (byte b : digest.digest()) {
+        key.append(String.format("%02x", b));
+      }
+      return key.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-1 is not available", e);
+    }
+  }
+
+  /**
+   * Describe an output as it is now, so that an output replaced or edited since the
+   * batch wrote it is made again.
+   */
+  private static String stamp(String key, File output) {
+    return key + " " + output.length() + " " + output.lastModified();
+  }
+
+  private static Properties readManifest(File file) {
+    Properties manifest = new Properties();
+    if (file.isFile()) {
+      try (InputStream in = new FileInputStream(file)) {
+        manifest.load(in);
+      } catch (IOException | IllegalArgumentException e) {
+        manifest.clear();
+      }
+    }
+    return manifest;
+  }
+
+  private static void writeManifest(File file, Properties manifest) {
+    try (OutputStream out = new FileOutputStream(file)) {
+      manifest.store(out, "What each output was made from");
+    } catch (IOException e) {
+      // Without a manifest the next batch just makes every output again.
+      file.delete();
+    }
+  }
+
+  /**
+   * Expand arguments into files: a directory stands for the files in it, and a name
+   * with *, ? or braces in its last part is a glob in its directory, such as
+   * "res/*.png" or "photos/{a,b}*.jpg". Files are listed in name order within each
+   * argument.
+   *
+   * @param patterns the files, directories and globs
+   * @return the files
+   * @throws IllegalArgumentException if a directory cannot be listed or a named file
+   *                                  does not exist
+   */
+  public static List<File> expand(List<String> patterns) throws IllegalArgumentException {
+    List<File> files = new ArrayList<>();
+    for (String pattern : patterns) {
+      Path path = Paths.get(pattern);
+      String last = path.getFileName() == null ? "" : path.getFileName().toString();
+      Path directory;
+      PathMatcher matcher;
+      if (last.matches(".*[*?{\\[].*")) {
+        directory = path.getParent() == null ? Paths.get(".") : path.getParent();
+        matcher = FileSystems.getDefault().getPathMatcher("glob:" + last);
+      } else if (Files.isDirectory(path)) {
+        directory = path;
+        matcher = p -> true;
+      } else if (Files.isRegularFile(path)) {
+        files.add(path.toFile());
+        continue;
+      } else {
+        throw new IllegalArgumentException("No such file: " + pattern);
+      }
+
+      List<File> matches = new ArrayList<>();
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+        for (Path p : stream) {
+          if (Files.isRegularFile(p) && matcher.matches(p.getFileName())) {
+            matches.add(p.toFile());
+          }
+        }
+      } catch (IOException | UncheckedIOException e) {
+        throw new IllegalArgumentException("Cannot list " + directory + ": " + e.getMessage());
+      }
+      matches.sort(null);
+      files.addAll(matches);
+    }
+    return files;
+  }
+
+  private static String uniqueName(Set<String> names, File input, String format) {
+    String base = input.getName();
+    int dot = base.lastIndexOf('.');
+    if (dot > 0) {
+      base = base.substring(0, dot);
+    }
+    String name = base + "." + format;
+    for (int i = 2; !names.add(name); i++) {
+      name = base + "-" + i + "." + format;
+    }
+    return name;
+  }
+
+  /**
+   * One image on its way through the pipeline.
+   */
+  private static final class Job {
+    private final File input;
+    private final File output;
+    private Raster raster;
+    private String key;
+    private boolean done;
+
+    private Job(File input, File output) {
+      this.input = input;
+      this.output = output;
+    }
+  }
+
+  /**
+   * What a stage does to one image. Each thread of a stage gets its own.
+   */
+  private interface Work {
+    void run(Job job);
+
+    /**
+     * Release what the work holds, once its thread has taken the last image.
+     */
+    default void close() {
+    }
+  }
+
+  /**
+   * A pool of threads taking images from a bounded queue, working on them and
+   * passing them on to the next stage. A failed image is recorded and dropped.
+   */
+  private static final class Stage {
+    private final String name;
+    private final Thread[] threads;
+    private final BlockingQueue<Job> queue;
+    private final Stage next;
+    private final Map<File, String> failures;
+    private final int count;
+    private final ExecutorService io;
+    private final Semaphore inFlight;
+    private final AtomicLong items = new AtomicLong();
+    private final AtomicLong busy = new AtomicLong();
+    private final AtomicLong depths = new AtomicLong();
+    private final AtomicInteger maxDepth = new AtomicInteger();
+
+    /**
+     * Constructs a stage. Without an I/O executor, the stage has a fixed number of
+     * threads; with one, a single thread hands each image to a new I/O thread, and
+     * the count bounds how many run at once.
+     */
+    private Stage(String name, int count, int capacity, Stage next,
+                  Map<File, String> failures, Supplier<Work> work, ExecutorService io) {
+      this.name = name;
+      this.count = count;
+      this.next = next;
+      this.failures = failures;
+      this.io = io;
+      queue = new ArrayBlockingQueue<>(capacity);
+      if (io == null) {
+        inFlight = null;
+        threads = new Thread[count];
+        for (int i = 0; i < count; i++) {
+          threads[i] = new Thread(() -> run(work.get()), "batch-" + name + "-" + (i + 1));
+        }
+      } else {
+        inFlight = new Semaphore(count);
+        threads = new Thread[] {new Thread(() -> dispatch(work.get()), "batch-" + name)};
+      }
+      for (Thread thread : threads) {
+        thread.setDaemon(true);
+      }
+    }
+
+    private void start() {
+      for (Thread thread : threads) {
+        thread.start();
+      }
+    }
+
+    private void put(Job job) {
+      boolean interrupted = false;
+      while (true) {
+        try {
+          queue.put(job);
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private void run(Work work) {
+      try {
+        for (Job job = take(); job != null; job = take()) {
+          handle(work, job);
+        }
+      } finally {
+        work.close();
+      }
+    }
+
+    /**
+     * Start a task on an I/O thread for each image, with at most as many running as
+     * the stage has permits, then wait for the last of them.
+     */
+    private void dispatch(Work work) {
+      for (Job taken = take(); taken != null; taken = take()) {
+        Job job = taken;
+        inFlight.acquireUninterruptibly();
+        io.execute(() -> {
+          try {
+            handle(work, job);
+          } finally {
+            inFlight.release();
+          }
+        });
+      }
+      inFlight.acquireUninterruptibly(count);
+      work.close();
+    }
+
+    /**
+     * Take the next image, or null at the end of the batch.
+     */
+    private Job take() {
+      Job job;
+      try {
+        int depth = queue.size();
+        job = queue.take();
+        depths.addAndGet(depth);
+        maxDepth.accumulateAndGet(depth, Math::max);
+      } catch (InterruptedException e) {
+        return null;
+      }
+      return job == END ? null : job;
+    }
+
+    private void handle(Work work, Job job) {
+      long start = System.nanoTime();
+      items.incrementAndGet();
+      try {
+        work.run(job);
+      } catch (RuntimeException | OutOfMemoryError e) {
+        job.raster = null;
+        synchronized (failures) {
+          failures.put(job.input, e instanceof OutOfMemoryError
+                  ? "The image does not fit in memory" : String.valueOf(e.getMessage()));
+        }
+        return;
+      } finally {
+        busy.addAndGet(System.nanoTime() - start);
+      }
+      if (next != null && !job.done) {
+        next.put(job);
+      }
+    }
+
+    /**
+     * Wait for every queued image to pass through this stage.
+     */
+    private void finish() {
+      for (int i = 0; i < threads.length; i++) {
+        put(END);
+      }
+      for (Thread thread : threads) {
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+          try {
+            thread.join();
+          } catch (InterruptedException e) {
+            interrupted = true;
+          }
+        }
+        if (interrupted) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      if (io != null) {
+        io.shutdown();
+      }
+    }
+
+    private StageReport report(long wallNanos) {
+      long taken = items.get();
+      return new StageReport(name, count, queue.remainingCapacity() + queue.size(), taken,
+              busy.get(), wallNanos, taken == 0 ? 0 : (double) depths.get() / taken,
+              maxDepth.get());
+    }
+  }
+}
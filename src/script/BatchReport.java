@@ -0,0 +1,110 @@
+package script;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of a batch: how many files were processed, how long it took, how busy
+ * each stage was, and why each failed file failed.
+ */
+public final class BatchReport {
+  private final int succeeded;
+  private final int skipped;
+  private final Map<File, String> failures;
+  private final long pixels;
+  private final long wallNanos;
+  private final List<StageReport> stages;
+
+  BatchReport(int succeeded, int skipped, Map<File, String> failures, long pixels,
+              long wallNanos, List<StageReport> stages) {
+    this.succeeded = succeeded;
+    this.skipped = skipped;
+    this.failures = Collections.unmodifiableMap(new LinkedHashMap<>(failures));
+    this.pixels = pixels;
+    this.wallNanos = wallNanos;
+    this.stages = Collections.unmodifiableList(new ArrayList<>(stages));
+  }
+
+  /**
+   * Get the number of files written.
+   *
+   * @return the number of successes
+   */
+  public int getSucceeded() {
+    return succeeded;
+  }
+
+  /**
+   * Get the number of files whose output was already up to date.
+   *
+   * @return the number of skipped files
+   */
+  public int getSkipped() {
+    return skipped;
+  }
+
+  /**
+   * Get the number of files that could not be processed.
+   *
+   * @return the number of failures
+   */
+  public int getFailed() {
+    return failures.size();
+  }
+
+  /**
+   * Get the error message of every failed file, in the order they were given.
+   *
+   * @return the messages by input file
+   */
+  public Map<File, String> getFailures() {
+    return failures;
+  }
+
+  /**
+   * Get the time from the first file starting to the last one finishing.
+   *
+   * @return the elapsed time in milliseconds
+   */
+  public double getElapsedMillis() {
+    return wallNanos / 1e6;
+  }
+
+  /**
+   * Get the number of input pixels processed per second.
+   *
+   * @return the throughput in megapixels per second
+   */
+  public double getMegapixelsPerSecond() {
+    return wallNanos == 0 ? 0 : pixels / 1e6 / (wallNanos / 1e9);
+  }
+
+  /**
+   * Get how busy each stage of the pipeline was, in pipeline order.
+   *
+   * @return the reports of the decode, filter and encode stages
+   */
+  public List<StageReport> getStages() {
+    return stages;
+  }
+
+  @Override
+  public String toString() {
+    List<String> lines = new ArrayList<>();
+    lines.add(String.format("%d succeeded, %d skipped, %d failed in %.1f s, %.1f files/s, "
+            + "%.1f MP/s", succeeded, skipped, failures.size(), wallNanos / 1e9,
+            wallNanos == 0 ? 0 : (succeeded + failures.size()) / (wallNanos / 1e9),
+            getMegapixelsPerSecond()));
+    for (StageReport stage : stages) {
+      lines.add(stage.toString());
+    }
+    for (Map.Entry<File, String> failure : failures.entrySet()) {
+      lines.add("Error: " + failure.getValue() + ". File: '" + failure.getKey() + "'");
+    }
+    return String.join(System.lineSeparator(), lines);
+  }
+}
@@ -33,6 +33,13 @@ public interface Features {
    */
   void blur();
 
+  /**
+   * Apply Gaussian blur filter.
+   *
+   * @param sigma the standard deviation of the blur, in pixels.
+   */
+  void gaussianBlur(double sigma);
+
   /**
    * Apply sharpen filter.
    */
@@ -48,6 +55,13 @@ public interface Features {
    */
   void sepia();
 
+  /**
+   * Apply a custom color matrix.
+   *
+   * @param matrix the 3x3 or 3x4 matrix, one row per output channel.
+   */
+  void colorMatrix(double[][] matrix);
+
   /**
    * Apply dither filter.
    */
@@ -60,6 +74,15 @@ public interface Features {
    */
   void mosaic(int seeds);
 
+  /**
+   * Apply mosaic filter with seeds drawn from a given random seed, such as the one a
+   * preview of the mosaic used.
+   *
+   * @param seeds the seeds of mosaic.
+   * @param randomSeed the seed of the generator placing the mosaic seeds.
+   */
+  void mosaic(int seeds, long randomSeed);
+
   /**
    * Apply edgeDetection.
    */
@@ -70,6 +93,19 @@ public interface Features {
    */
   void grayscaleContractEnhancement();
 
+  /**
+   * Apply histogram equalization to each color channel.
+   */
+  void channelEqualization();
+
+  /**
+   * Apply contrast-limited adaptive histogram equalization.
+   *
+   * @param tiles the number of tiles along each side.
+   * @param clipLimit the contrast limit.
+   */
+  void adaptiveEqualization(int tiles, double clipLimit);
+
   /**
    * Get current image.
    *
@@ -77,6 +113,15 @@ public interface Features {
    */
   BufferedImage getCurrentImage();
 
+  /**
+   * Get a quick, scaled down version of the current image.
+   *
+   * @param maxWidth the width to fit the preview in.
+   * @param maxHeight the height to fit the preview in.
+   * @return the preview.
+   */
+  BufferedImage getPreviewImage(int maxWidth, int maxHeight);
+
   /**
    * Get previous image.
    *
@@ -98,6 +143,13 @@ public interface Features {
    */
   boolean redo();
 
+  /**
+   * Whether there is an undone step to redo.
+   *
+   * @return true or false.
+   */
+  boolean canRedo();
+
   /**
    * Reset image.
    *
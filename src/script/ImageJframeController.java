@@ -5,11 +5,11 @@ import imageview.ImageGuiView;
 import java.awt.image.BufferedImage;
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
@@ -17,7 +17,8 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Scanner;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 
 /**
@@ -26,6 +27,7 @@ import java.util.stream.Stream;
 public class ImageJframeController implements Features, ImageController {
   private ImageModel model;
   private ImageGuiView view;
+  private PlanExecutor executor;
 
   /**
    * Constructor.
@@ -36,6 +38,22 @@ public class ImageJframeController implements Features, ImageController {
   public ImageJframeController(ImageModel model, ImageGuiView view) {
     this.model = model;
     this.view = view;
+    this.executor = new PlanExecutor();
+  }
+
+  /**
+   * Constructor for a controller that runs the independent branches of a batch
+   * script at once, each on a model of its own.
+   *
+   * @param model the image model.
+   * @param view the image gui view.
+   * @param branchModels makes a new model for a branch of a batch script.
+   */
+  public ImageJframeController(ImageModel model, ImageGuiView view,
+                               Supplier<ImageModel> branchModels) {
+    this(model, view);
+    this.executor = new PlanExecutor(branchModels,
+            Runtime.getRuntime().availableProcessors());
   }
 
   @Override
@@ -60,63 +78,30 @@ public class ImageJframeController implements Features, ImageController {
 
   @Override
   public void batchProcess(String file) {
-    Readable reader = null;
-    try {
-      reader = new FileReader(file);
-    } catch (FileNotFoundException e) {
+    Plan plan;
+    try (Reader reader = new FileReader(file)) {
+      plan = Plan.compile(reader, Function.identity());
+    } catch (IOException e) {
       view.showMessage("Error: " + e.getMessage());
+      return;
+    }
+    for (String error : plan.getErrors()) {
+      view.showMessage(error);
+    }
+    if (!plan.getErrors().isEmpty()) {
+      return;
     }
 
-    try (Scanner in = new Scanner(reader)) {
-      while (in.hasNext()) {
-        String input = in.nextLine();
-        view.showMessage(input);
-        String[] splitInput = input.split(" ");
-        String secondInput = "";
-        String command = splitInput[0];
-
-        for (int i = 0; i < splitInput.length; i++) {
-          if (i > 0) {
-            secondInput += " " + splitInput[i];
-          }
-        }
-
-        try {
-          switch (command) {
-            case "load":
-              loadImage(secondInput.trim());
-              continue;
-            case "save":
-              saveImage(secondInput.trim());
-              continue;
-            case "blur":
-              blur();
-              continue;
-            case "sharpen":
-              sharpen();
-              continue;
-            case "grayscale":
-              grayscale();
-              continue;
-            case "sepia":
-              sepia();
-              continue;
-            case "dither":
-              dither();
-              continue;
-            case "mosaic":
-              int seeds = Integer.parseInt(secondInput.trim());
-              mosaic(seeds);
-              continue;
-            default:
-              throw new IllegalArgumentException("Invalid Command");
-          }
-        } catch (IllegalArgumentException e) {
-          view.showMessage("Error: " + e.getMessage()
-                  + ". Command: '" + splitInput[0] + "'");
-          break;
-        }
-      }
+    plan = PlanOptimizer.optimize(plan);
+    for (Plan.Step step : plan.getSkipped()) {
+      view.showMessage("Skipped '" + step.getCommand() + "', line " + step.getLine()
+              + ": it has no visible effect");
+    }
+    try {
+      // stops between steps when the view cancels the batch
+      executor.run(plan, model, step -> view.showMessage(step.getCommand()));
+    } catch (IllegalArgumentException e) {
+      view.showMessage(e.getMessage());
     }
   }
 
@@ -130,6 +115,16 @@ public class ImageJframeController implements Features, ImageController {
     }
   }
 
+  @Override
+  public void gaussianBlur(double sigma) {
+    try {
+      view.showMessage("Apply Gaussian Blur (" + sigma + ")");
+      model.applyGaussianBlur(sigma);
+    } catch (IllegalStateException | IllegalArgumentException e) {
+      view.showMessage(e.getMessage());
+    }
+  }
+
   @Override
   public void sharpen() {
     try {
@@ -160,6 +155,16 @@ public class ImageJframeController implements Features, ImageController {
     }
   }
 
+  @Override
+  public void colorMatrix(double[][] matrix) {
+    try {
+      view.showMessage("Apply Color Matrix");
+      model.applyColorMatrix(matrix);
+    } catch (IllegalStateException | IllegalArgumentException e) {
+      view.showMessage(e.getMessage());
+    }
+  }
+
   @Override
   public void dither() {
     try {
@@ -182,6 +187,18 @@ public class ImageJframeController implements Features, ImageController {
     }
   }
 
+  @Override
+  public void mosaic(int seeds, long randomSeed) {
+    try {
+      view.showMessage("Applying Mosaic (" + seeds + ")");
+      model.applyMosaic(seeds, randomSeed);
+    } catch (IllegalStateException e) {
+      view.showMessage(e.getMessage());
+    } finally {
+      view.showMessage("Mosaic Applied");
+    }
+  }
+
   @Override
   public void edgeDetection() {
     try {
@@ -202,6 +219,26 @@ public class ImageJframeController implements Features, ImageController {
     }
   }
 
+  @Override
+  public void channelEqualization() {
+    try {
+      view.showMessage("Apply channelEqualization");
+      model.applyChannelEqualization();
+    } catch (IllegalStateException e) {
+      view.showMessage(e.getMessage());
+    }
+  }
+
+  @Override
+  public void adaptiveEqualization(int tiles, double clipLimit) {
+    try {
+      view.showMessage("Apply adaptiveEqualization (" + tiles + ", " + clipLimit + ")");
+      model.applyAdaptiveEqualization(tiles, clipLimit);
+    } catch (IllegalStateException | IllegalArgumentException e) {
+      view.showMessage(e.getMessage());
+    }
+  }
+
   @Override
   public BufferedImage getCurrentImage() {
     BufferedImage image = null;
@@ -213,6 +250,17 @@ public class ImageJframeController implements Features, ImageController {
     return image;
   }
 
+  @Override
+  public BufferedImage getPreviewImage(int maxWidth, int maxHeight) {
+    BufferedImage image = null;
+    try {
+      image = model.getPreviewImage(maxWidth, maxHeight);
+    } catch (IllegalArgumentException e) {
+      view.showMessage(e.getMessage());
+    }
+    return image;
+  }
+
   @Override
   public BufferedImage getOriginImage() {
     BufferedImage image = null;
@@ -230,7 +278,7 @@ public class ImageJframeController implements Features, ImageController {
       model.undoOneStep();
       view.showMessage("Undo one step");
       return true;
-    } catch (IllegalArgumentException e) {
+    } catch (IllegalStateException e) {
       view.showMessage(e.getMessage());
       return false;
     }
@@ -242,19 +290,24 @@ public class ImageJframeController implements Features, ImageController {
       model.redoOneStep();
       view.showMessage("Redo one step");
       return true;
-    } catch (IllegalArgumentException e) {
+    } catch (IllegalStateException e) {
       view.showMessage(e.getMessage());
       return false;
     }
   }
 
+  @Override
+  public boolean canRedo() {
+    return model.canRedo();
+  }
+
   @Override
   public boolean reset() {
     try {
       model.resetToOrigin();
       view.showMessage("Reset to origin");
       return true;
-    } catch (IllegalArgumentException e) {
+    } catch (IllegalStateException e) {
       view.showMessage(e.getMessage());
       return false;
     }
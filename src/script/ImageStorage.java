@@ -0,0 +1,65 @@
+package script;
+
+import images.ImageUtilities;
+import images.Raster;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Where a batch reads its images from and writes its results to.
+ */
+public interface ImageStorage {
+
+  /**
+   * The local file system, through {@link ImageUtilities}.
+   */
+  ImageStorage FILES = new ImageStorage() {
+    @Override
+    public Raster read(String filename) {
+      return ImageUtilities.readRaster(filename);
+    }
+
+    @Override
+    public byte[] load(String filename) {
+      try {
+        return Files.readAllBytes(Paths.get(filename));
+      } catch (IOException e) {
+        throw new IllegalArgumentException("Cannot read " + filename + ": " + e.getMessage());
+      }
+    }
+
+    @Override
+    public void write(Raster raster, String filename) {
+      ImageUtilities.writeRaster(raster, filename);
+    }
+  };
+
+  /**
+   * Read and decode an image.
+   *
+   * @param filename the name of the image
+   * @return the pixels of the image
+   * @throws IllegalArgumentException if the image cannot be read
+   */
+  Raster read(String filename) throws IllegalArgumentException;
+
+  /**
+   * Read the bytes of an image without decoding them, so that they can be hashed
+   * before deciding to decode them with {@link ImageUtilities#decodeRaster(byte[])}.
+   *
+   * @param filename the name of the image
+   * @return the contents of the file
+   * @throws IllegalArgumentException if the file cannot be read
+   */
+  byte[] load(String filename) throws IllegalArgumentException;
+
+  /**
+   * Encode and write an image. The format is taken from the extension of the name.
+   *
+   * @param raster the pixels to write
+   * @param filename the name of the image
+   * @throws IllegalArgumentException if the image cannot be written
+   */
+  void write(Raster raster, String filename) throws IllegalArgumentException;
+}
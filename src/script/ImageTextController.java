@@ -1,16 +1,20 @@
 package script;
 
 import images.ImageModel;
-import java.util.Scanner;
+import images.metrics.InstrumentedImageModel;
+import images.metrics.MetricsRegistry;
 
 /**
  * Represents a Controller for Image model: handle user input files by executing them
- * using the model; save outcomes to the user in some form.
+ * using the model; save outcomes to the user in some form. The whole file is
+ * {@link Plan#compile compiled} first, so a script with a mistake reports every one
+ * and runs nothing; file names are read from and written to the res directory.
  */
 public class ImageTextController implements ImageController {
   private ImageModel model;
   private ImageTextView view;
   private Readable input;
+  private boolean profile;
 
   /**
    * Execute a single file given an Image Model. When the execution
@@ -29,49 +33,69 @@ public class ImageTextController implements ImageController {
     this.input = input;
   }
 
+  /**
+   * Execute a single file given an Image Model, optionally measuring every command.
+   * When profiling, the time, CPU time, allocation and throughput of each operation
+   * are shown after the script, and also added to {@link MetricsRegistry#global()}.
+   *
+   * @param model the model to use
+   * @param input the source of input to use
+   * @param view the view to show results
+   * @param profile whether to show what each operation cost
+   */
+  public ImageTextController(ImageModel model, Readable input, ImageTextView view,
+                             boolean profile) {
+    this(model, input, view);
+    this.profile = profile;
+  }
+
   @Override
   public void go() {
-    try (Scanner in = new Scanner(input)) {
-      while (in.hasNext()) {
-        String input = in.nextLine();
-        view.showMessage(input);
-        String[] splitInput = input.split(" ");
-        try {
-          switch (splitInput[0]) {
-            case "load":
-              model.loadImage("res/" + splitInput[1]);
-              continue;
-            case "save":
-              model.saveImage("res/" + splitInput[1]);
-              continue;
-            case "blur":
-              model.applyBlur();
-              continue;
-            case "sharpen":
-              model.applySharpen();
-              continue;
-            case "grayscale":
-              model.applyGrayscale();
-              continue;
-            case "sepia":
-              model.applySepia();
-              continue;
-            case "dither":
-              model.applyDither();
-              continue;
-            case "mosaic":
-              int seeds = Integer.parseInt(splitInput[1]);
-              model.applyMosaic(seeds);
-              continue;
-            default:
-              throw new IllegalArgumentException("Invalid Command");
-          }
-        } catch (IllegalArgumentException e) {
-          view.showMessage("Error: " + e.getMessage()
-                  + ". Command: '" + splitInput[0] + "'");
-          break;
-        }
+    ImageModel target = model;
+    MetricsRegistry metrics = null;
+    if (profile) {
+      metrics = new MetricsRegistry(MetricsRegistry.global());
+      target = new InstrumentedImageModel(model, metrics);
+    }
+    Plan plan = Plan.compile(input, name -> "res/" + name);
+    for (String error : plan.getErrors()) {
+      view.showMessage(error);
+    }
+    if (plan.getErrors().isEmpty()) {
+      plan = PlanOptimizer.optimize(plan);
+      for (Plan.Step step : plan.getSkipped()) {
+        view.showMessage("Skipped '" + step.getCommand() + "', line " + step.getLine()
+                + ": it has no visible effect");
       }
+      try {
+        new PlanExecutor().run(plan, target, step -> view.showMessage(step.getCommand()));
+      } catch (IllegalArgumentException e) {
+        view.showMessage(e.getMessage());
+      }
+    }
+    if (metrics != null) {
+      view.showMessage(metrics.summary());
+    }
+  }
+
+  /**
+   * Parse the 9 or 12 numbers of a color matrix, row by row, from a split command.
+   *
+   * @param args the split command
+   * @param from the index of the first number
+   * @return the 3x3 or 3x4 matrix
+   * @throws IllegalArgumentException if there are not 9 or 12 numbers
+   */
+  static double[][] parseColorMatrix(String[] args, int from) throws IllegalArgumentException {
+    int count = args.length - from;
+    if (count != 9 && count != 12) {
+      throw new IllegalArgumentException("A color matrix needs 9 or 12 numbers");
+    }
+    int columns = count / 3;
+    double[][] matrix = new double[3][columns];
+    for (int i = 0; i < count; i++) {
+      matrix[i / columns][i % columns] = Double.parseDouble(args[from + i]);
     }
+    return matrix;
   }
 }
@@ -0,0 +1,42 @@
+package script;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Threads for blocking file reads and writes. On a Java runtime with virtual
+ * threads, every task gets a virtual thread of its own, so thousands of reads can
+ * wait on slow storage without tying up a platform thread each; the build targets
+ * Java 8, so they are looked up reflectively. Older runtimes get a cached pool of
+ * platform threads instead.
+ */
+final class IoThreads {
+  private IoThreads() {
+  }
+
+  /**
+   * Create an executor starting one thread per task.
+   *
+   * @param name the name of the threads, when they are platform threads
+   * @return the executor
+   */
+  static ExecutorService create(String name) {
+    ExecutorService virtual = virtual();
+    return virtual != null ? virtual : Executors.newCachedThreadPool(r -> {
+      Thread thread = new Thread(r, name);
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  private static ExecutorService virtual() {
+    try {
+      Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) factory.invoke(null);
+    } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+      // Before Java 21, or a preview feature that is not enabled.
+      return null;
+    }
+  }
+}
@@ -0,0 +1,262 @@
+package script;
+
+import images.ImageModel;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A script compiled into the steps it runs: loads, saves and the filters of a
+ * {@link Recipe}. The whole script is checked before anything runs: every command
+ * and its numbers, that an image is loaded before it is filtered or saved, that
+ * every file loaded exists or is saved earlier in the script, and that every file
+ * saved goes to a directory that exists. A script with a mistake reports all of them
+ * and touches no pixels.
+ *
+ * <p>The steps from one load up to the next make a branch: a branch starts from a
+ * file and owns its image, so branches only depend on each other through the files
+ * they read and write. See {@link PlanOptimizer} and {@link PlanExecutor}.
+ */
+public final class Plan {
+  private final List<Step> steps;
+  private final List<String> errors;
+  private final List<Step> skipped;
+
+  Plan(List<Step> steps, List<String> errors, List<Step> skipped) {
+    this.steps = Collections.unmodifiableList(steps);
+    this.errors = Collections.unmodifiableList(errors);
+    this.skipped = Collections.unmodifiableList(skipped);
+  }
+
+  /**
+   * Compile a script, one command per line, skipping blank lines.
+   *
+   * @param input the source of the commands
+   * @param paths turns a file name in the script into the path to read or write
+   * @return the plan, which has errors instead of steps if the script has mistakes
+   * @throws IllegalArgumentException if the input or the paths are null
+   */
+  public static Plan compile(Readable input, Function<String, String> paths)
+          throws IllegalArgumentException {
+    if (input == null || paths == null) {
+      throw new IllegalArgumentException("Invalid script provided");
+    }
+    List<Step> steps = new ArrayList<>();
+    List<String> errors = new ArrayList<>();
+    Set<String> saved = new HashSet<>();
+    boolean loaded = false;
+    int lineNumber = 0;
+    try (Scanner in = new Scanner(input)) {
+      while (in.hasNextLine()) {
+        lineNumber++;
+        String line = in.nextLine().trim();
+        if (line.isEmpty()) {
+          continue;
+        }
+        String[] words = line.split(" +");
+        String argument = line.substring(words[0].length()).trim();
+        try {
+          switch (words[0]) {
+            case "load":
+              String loadPath = path(argument, paths);
+              if (!saved.contains(loadPath) && !new File(loadPath).isFile()) {
+                throw new IllegalArgumentException("No such file " + argument);
+              }
+              steps.add(new Step(lineNumber, line, Step.Kind.LOAD, loadPath, null));
+              loaded = true;
+              break;
+            case "save":
+              String savePath = path(argument, paths);
+              File directory = new File(savePath).getAbsoluteFile().getParentFile();
+              if (directory == null || !directory.isDirectory()) {
+                throw new IllegalArgumentException("No such directory for " + argument);
+              }
+              requireLoaded(loaded);
+              saved.add(savePath);
+              steps.add(new Step(lineNumber, line, Step.Kind.SAVE, savePath, null));
+              break;
+            default:
+              Consumer<ImageModel> filter = Recipe.step(words);
+              requireLoaded(loaded);
+              steps.add(new Step(lineNumber, line, Step.Kind.FILTER, null, filter));
+              break;
+          }
+        } catch (IllegalArgumentException e) {
+          errors.add(describe(e.getMessage(), words[0], lineNumber));
+        } catch (IndexOutOfBoundsException e) {
+          errors.add(describe("Missing arguments", words[0], lineNumber));
+        }
+      }
+    }
+    if (!errors.isEmpty()) {
+      steps.clear();
+    }
+    return new Plan(steps, errors, new ArrayList<>());
+  }
+
+  /**
+   * Get the steps, in the order of the script.
+   *
+   * @return the steps, none if the script has errors
+   */
+  public List<Step> getSteps() {
+    return steps;
+  }
+
+  /**
+   * Get the mistakes found in the script, one per line that has one, in the form
+   * "Error: message. Command: 'name', line n".
+   *
+   * @return the errors, none if the script can run
+   */
+  public List<String> getErrors() {
+    return errors;
+  }
+
+  /**
+   * Get the steps of the script that an optimizer removed.
+   *
+   * @return the removed steps, in the order of the script
+   */
+  public List<Step> getSkipped() {
+    return skipped;
+  }
+
+  /**
+   * Split the steps into branches, each starting with a load.
+   *
+   * @return the branches, in the order of the script
+   */
+  public List<List<Step>> getBranches() {
+    List<List<Step>> branches = new ArrayList<>();
+    for (Step step : steps) {
+      if (step.getKind() == Step.Kind.LOAD || branches.isEmpty()) {
+        branches.add(new ArrayList<>());
+      }
+      branches.get(branches.size() - 1).add(step);
+    }
+    return branches;
+  }
+
+  static String describe(String message, String command, int line) {
+    return "Error: " + message + ". Command: '" + command + "', line " + line;
+  }
+
+  private static String path(String argument, Function<String, String> paths) {
+    if (argument.isEmpty()) {
+      throw new IllegalArgumentException("Missing file name");
+    }
+    return paths.apply(argument);
+  }
+
+  private static void requireLoaded(boolean loaded) {
+    if (!loaded) {
+      throw new IllegalArgumentException("No image has been loaded for processing");
+    }
+  }
+
+  /**
+   * One command of a compiled script.
+   */
+  public static final class Step {
+    /**
+     * What a step does.
+     */
+    public enum Kind {
+      /** Read an image, replacing the current one. */
+      LOAD,
+      /** Write the current image. */
+      SAVE,
+      /** Filter the current image. */
+      FILTER
+    }
+
+    private final int line;
+    private final String command;
+    private final Kind kind;
+    private final String path;
+    private final Consumer<ImageModel> filter;
+
+    private Step(int line, String command, Kind kind, String path,
+                 Consumer<ImageModel> filter) {
+      this.line = line;
+      this.command = command;
+      this.kind = kind;
+      this.path = path;
+      this.filter = filter;
+    }
+
+    /**
+     * Get the number of the line of the script the step comes from.
+     *
+     * @return the line number, starting at 1
+     */
+    public int getLine() {
+      return line;
+    }
+
+    /**
+     * Get the command as written in the script.
+     *
+     * @return the line, trimmed
+     */
+    public String getCommand() {
+      return command;
+    }
+
+    /**
+     * Get the name of the command, its first word.
+     *
+     * @return the name
+     */
+    public String getName() {
+      return command.split(" ")[0];
+    }
+
+    /**
+     * Get what the step does.
+     *
+     * @return the kind of step
+     */
+    public Kind getKind() {
+      return kind;
+    }
+
+    /**
+     * Get the file a load reads or a save writes.
+     *
+     * @return the path, or null for a filter
+     */
+    public String getPath() {
+      return path;
+    }
+
+    /**
+     * Run the step on a model.
+     *
+     * @param model the model
+     * @throws IllegalArgumentException if the model rejects the step
+     * @throws IllegalStateException if the model has no image to filter or save
+     */
+    public void applyTo(ImageModel model) throws IllegalArgumentException,
+            IllegalStateException {
+      switch (kind) {
+        case LOAD:
+          model.loadImage(path);
+          break;
+        case SAVE:
+          model.saveImage(path);
+          break;
+        default:
+          filter.accept(model);
+          break;
+      }
+    }
+  }
+}
@@ -0,0 +1,217 @@
+package script;
+
+import images.ImageModel;
+import images.parallel.TaskMonitor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Runs the steps of a {@link Plan}. Run sequentially, every step runs on one model
+ * in the order of the script, stopping at the first that fails. Given a way to make
+ * more models, the branches of the plan run at once instead, each on a model of its
+ * own, except the last, which runs on the given model so that it ends with the image
+ * it would have had; the models of the other branches are closed when they end. A
+ * branch waits for every earlier branch that reads or writes a file it writes, or
+ * writes a file it reads; a failing branch stops the branches waiting for it, and
+ * the error of the earliest failing step is reported.
+ *
+ * <p>A plan run by a task under a {@link TaskMonitor} stops between steps when the
+ * monitor is cancelled, in every branch.
+ */
+public final class PlanExecutor {
+  private final Supplier<ImageModel> branchModels;
+  private final int threads;
+
+  /**
+   * Constructs an executor running every step on the given model, in order.
+   */
+  public PlanExecutor() {
+    branchModels = null;
+    threads = 1;
+  }
+
+  /**
+   * Constructs an executor running independent branches at once.
+   *
+   * @param branchModels makes a new model for a branch, closed when the branch ends
+   * @param threads the number of branches to run at once besides the caller's
+   * @throws IllegalArgumentException if the models are null or threads is not positive
+   */
+  public PlanExecutor(Supplier<ImageModel> branchModels, int threads)
+          throws IllegalArgumentException {
+    if (branchModels == null || threads <= 0) {
+      throw new IllegalArgumentException("Invalid branch models provided");
+    }
+    this.branchModels = branchModels;
+    this.threads = threads;
+  }
+
+  /**
+   * Run a plan.
+   *
+   * @param plan the plan
+   * @param model the model to run on, which ends with the image of the last branch
+   * @param listener told about every step just before it runs, one step at a time
+   * @throws IllegalArgumentException if the plan has errors, or with the error of the
+   *                                  earliest step that failed
+   * @throws CancellationException if the task running the plan was cancelled
+   */
+  public void run(Plan plan, ImageModel model, Consumer<Plan.Step> listener)
+          throws IllegalArgumentException, CancellationException {
+    if (plan == null || !plan.getErrors().isEmpty() || model == null || listener == null) {
+      throw new IllegalArgumentException("Only a plan without errors can be run");
+    }
+    List<List<Plan.Step>> branches = plan.getBranches();
+    Consumer<Plan.Step> serialized = step -> {
+      synchronized (listener) {
+        listener.accept(step);
+      }
+    };
+    if (branchModels == null || branches.size() < 2) {
+      runSteps(plan.getSteps(), model, serialized);
+      return;
+    }
+
+    TaskMonitor monitor = TaskMonitor.current();
+    ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+      Thread thread = new Thread(r, "plan-branch");
+      thread.setDaemon(true);
+      return thread;
+    });
+    List<CompletableFuture<Void>> done = new ArrayList<>();
+    try {
+      for (int b = 0; b < branches.size(); b++) {
+        List<Plan.Step> branch = branches.get(b);
+        CompletableFuture<Void> ready = CompletableFuture.allOf(
+                dependencies(branches, b, done).toArray(new CompletableFuture<?>[0]));
+        if (b < branches.size() - 1) {
+          done.add(ready.thenRunAsync(() -> {
+            ImageModel branchModel = branchModels.get();
+            try {
+              if (monitor == null) {
+                runSteps(branch, branchModel, serialized);
+              } else {
+                monitor.call(() -> {
+                  runSteps(branch, branchModel, serialized);
+                  return null;
+                });
+              }
+            } finally {
+              branchModel.close();
+            }
+          }, pool));
+        } else {
+          // the last branch runs here, on the caller's model
+          CompletableFuture<Void> last = new CompletableFuture<>();
+          try {
+            ready.join();
+            runSteps(branch, model, serialized);
+            last.complete(null);
+          } catch (RuntimeException e) {
+            last.completeExceptionally(e);
+          }
+          done.add(last);
+        }
+      }
+      rethrowEarliest(done);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Get the earlier branches a branch must wait for: those writing a file it reads or
+   * writes, or reading a file it writes.
+   */
+  private static List<CompletableFuture<Void>> dependencies(List<List<Plan.Step>> branches,
+                                                            int b,
+                                                            List<CompletableFuture<Void>> done) {
+    List<CompletableFuture<Void>> dependencies = new ArrayList<>();
+    for (int earlier = 0; earlier < b; earlier++) {
+      if (conflict(branches.get(earlier), branches.get(b))) {
+        dependencies.add(done.get(earlier));
+      }
+    }
+    return dependencies;
+  }
+
+  private static boolean conflict(List<Plan.Step> first, List<Plan.Step> second) {
+    for (Plan.Step a : first) {
+      for (Plan.Step b : second) {
+        if (a.getPath() != null && a.getPath().equals(b.getPath())
+                && (a.getKind() == Plan.Step.Kind.SAVE || b.getKind() == Plan.Step.Kind.SAVE)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static void runSteps(List<Plan.Step> steps, ImageModel model,
+                               Consumer<Plan.Step> listener) {
+    for (Plan.Step step : steps) {
+      TaskMonitor.checkCancelled();
+      listener.accept(step);
+      try {
+        step.applyTo(model);
+      } catch (IllegalArgumentException | IllegalStateException e) {
+        throw new StepFailure(step, e);
+      }
+    }
+  }
+
+  /**
+   * Wait for every branch, then throw the cancellation or the failure of the earliest
+   * step, if any.
+   */
+  private static void rethrowEarliest(List<CompletableFuture<Void>> done) {
+    StepFailure earliest = null;
+    CancellationException cancelled = null;
+    for (CompletableFuture<Void> branch : done) {
+      try {
+        branch.join();
+      } catch (CompletionException | CancellationException e) {
+        Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+        if (cause instanceof StepFailure) {
+          StepFailure failure = (StepFailure) cause;
+          if (earliest == null || failure.step.getLine() < earliest.step.getLine()) {
+            earliest = failure;
+          }
+        } else if (cause instanceof CancellationException) {
+          cancelled = (CancellationException) cause;
+        } else if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        } else {
+          throw e;
+        }
+      }
+    }
+    if (cancelled != null) {
+      throw cancelled;
+    }
+    if (earliest != null) {
+      throw earliest;
+    }
+  }
+
+  /**
+   * A step that the model rejected, reported with the command and line it comes
+   * from.
+   */
+  private static final class StepFailure extends IllegalArgumentException {
+    private static final long serialVersionUID = 1L;
+    private final transient Plan.Step step;
+
+    private StepFailure(Plan.Step step, RuntimeException cause) {
+      super(Plan.describe(cause.getMessage(), step.getName(), step.getLine()), cause);
+      this.step = step;
+    }
+  }
+}
@@ -0,0 +1,70 @@
+package script;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Removes the steps of a {@link Plan} whose results are never seen, so that they
+ * cost nothing:
+ *
+ * <ul>
+ *   <li>a branch that saves nothing before the next load, with its load;</li>
+ *   <li>the filters after the last save of a branch that is followed by a load;</li>
+ *   <li>a save that writes the same file as the save just before it.</li>
+ * </ul>
+ *
+ * <p>The last branch is kept whole, since its image stays in the model for a view
+ * to show. Filters themselves are left alone: none of them can be dropped or merged
+ * without changing some pixel, since each truncates and clamps its output (two
+ * grayscales in a row darken some grays by one level, for example), and runs of
+ * color transformations are already fused into one pass by a lazy model.
+ */
+public final class PlanOptimizer {
+
+  private PlanOptimizer() {
+  }
+
+  /**
+   * Optimize a plan.
+   *
+   * @param plan the plan
+   * @return a plan with the same visible results, listing the steps it removed
+   * @throws IllegalArgumentException if the plan is null or has errors
+   */
+  public static Plan optimize(Plan plan) throws IllegalArgumentException {
+    if (plan == null || !plan.getErrors().isEmpty()) {
+      throw new IllegalArgumentException("Only a plan without errors can be optimized");
+    }
+    List<Plan.Step> steps = new ArrayList<>();
+    List<Plan.Step> skipped = new ArrayList<>(plan.getSkipped());
+    List<List<Plan.Step>> branches = plan.getBranches();
+    for (int b = 0; b < branches.size(); b++) {
+      List<Plan.Step> branch = branches.get(b);
+      int end = branch.size();
+      if (b < branches.size() - 1) {
+        // nothing after the last save of a branch is seen before the next load
+        end = 0;
+        for (int i = 0; i < branch.size(); i++) {
+          if (branch.get(i).getKind() == Plan.Step.Kind.SAVE) {
+            end = i + 1;
+          }
+        }
+      }
+      Plan.Step previous = null;
+      for (int i = 0; i < branch.size(); i++) {
+        Plan.Step step = branch.get(i);
+        boolean repeatedSave = previous != null && step.getKind() == Plan.Step.Kind.SAVE
+                && previous.getKind() == Plan.Step.Kind.SAVE
+                && step.getPath().equals(previous.getPath());
+        if (i >= end || repeatedSave) {
+          skipped.add(step);
+        } else {
+          steps.add(step);
+        }
+        previous = step;
+      }
+    }
+    skipped.sort((a, b) -> Integer.compare(a.getLine(), b.getLine()));
+    return new Plan(steps, new ArrayList<>(), skipped);
+  }
+}
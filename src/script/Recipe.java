@@ -0,0 +1,142 @@
+package script;
+
+import images.ImageModel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Scanner;
+import java.util.function.Consumer;
+
+/**
+ * A list of filters to apply to an image, written one command per line in the same
+ * words as a script: blur, gaussian, sharpen, grayscale, sepia, dither, mosaic,
+ * matrix, equalize and clahe. A mosaic may be given a random seed after its number
+ * of seeds, as in "mosaic 500 42", to give the same image every time. Every line is
+ * parsed up front, so a mistake in a recipe is reported before any image is touched.
+ */
+public final class Recipe {
+  private final List<String> commands;
+  private final List<Consumer<ImageModel>> steps;
+
+  private Recipe(List<String> commands, List<Consumer<ImageModel>> steps) {
+    this.commands = Collections.unmodifiableList(commands);
+    this.steps = steps;
+  }
+
+  /**
+   * Parse a recipe, skipping blank lines.
+   *
+   * @param input the source of the commands
+   * @return the recipe
+   * @throws IllegalArgumentException if the input is null or a line is not a filter
+   */
+  public static Recipe parse(Readable input) throws IllegalArgumentException {
+    if (input == null) {
+      throw new IllegalArgumentException("Invalid recipe provided");
+    }
+    List<String> commands = new ArrayList<>();
+    List<Consumer<ImageModel>> steps = new ArrayList<>();
+    try (Scanner in = new Scanner(input)) {
+      while (in.hasNextLine()) {
+        String line = in.nextLine().trim();
+        if (line.isEmpty()) {
+          continue;
+        }
+        try {
+          steps.add(step(line.split(" +")));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+          throw new IllegalArgumentException("Invalid recipe line '" + line + "': "
+                  + e.getMessage());
+        }
+        commands.add(line);
+      }
+    }
+    return new Recipe(commands, steps);
+  }
+
+  /**
+   * Parse one filter command.
+   *
+   * @param command the split command
+   * @return the filter, applied to a model
+   * @throws IllegalArgumentException if the command is not a filter or its numbers
+   *                                  are invalid
+   */
+  static Consumer<ImageModel> step(String[] command) throws IllegalArgumentException {
+    switch (command[0]) {
+      case "blur":
+        return ImageModel::applyBlur;
+      case "gaussian":
+        double sigma = Double.parseDouble(command[1]);
+        return model -> model.applyGaussianBlur(sigma);
+      case "sharpen":
+        return ImageModel::applySharpen;
+      case "grayscale":
+        return ImageModel::applyGrayscale;
+      case "sepia":
+        return ImageModel::applySepia;
+      case "dither":
+        return ImageModel::applyDither;
+      case "mosaic":
+        int seeds = Integer.parseInt(command[1]);
+        if (command.length > 2) {
+          long randomSeed = Long.parseLong(command[2]);
+          return model -> model.applyMosaic(seeds, randomSeed);
+        }
+        return model -> model.applyMosaic(seeds);
+      case "matrix":
+        double[][] matrix = ImageTextController.parseColorMatrix(command, 1);
+        return model -> model.applyColorMatrix(matrix);
+      case "equalize":
+        return ImageModel::applyChannelEqualization;
+      case "clahe":
+        int tiles = Integer.parseInt(command[1]);
+        double clipLimit = Double.parseDouble(command[2]);
+        return model -> model.applyAdaptiveEqualization(tiles, clipLimit);
+      default:
+        throw new IllegalArgumentException("Invalid Command");
+    }
+  }
+
+  /**
+   * Apply every filter, in order, to the current image of a model.
+   *
+   * @param model the model holding the image
+   * @throws IllegalArgumentException if a filter rejects the image
+   * @throws IllegalStateException if the model has no image
+   */
+  public void applyTo(ImageModel model) throws IllegalArgumentException, IllegalStateException {
+    for (Consumer<ImageModel> step : steps) {
+      step.accept(model);
+    }
+  }
+
+  /**
+   * Get a description of the recipe that is the same for recipes that give the same
+   * images: the commands with their words separated by single spaces. A mosaic
+   * without a random seed gives a different image every time, so a recipe with one
+   * has no key.
+   *
+   * @return the key, or null if the results of the recipe must not be reused
+   */
+  public String getKey() {
+    StringBuilder key = new StringBuilder();
+    for (String command : commands) {
+      String[] words = command.split(" +");
+      if ("mosaic".equals(words[0]) && words.length < 3) {
+        return null;
+      }
+      key.append(String.join(" ", words)).append('\n');
+    }
+    return key.toString();
+  }
+
+  /**
+   * Get the commands of the recipe.
+   *
+   * @return the commands, one per filter
+   */
+  public List<String> getCommands() {
+    return commands;
+  }
+}
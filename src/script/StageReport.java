@@ -0,0 +1,92 @@
+package script;
+
+/**
+ * How busy one stage of a batch pipeline was, and how full the queue feeding it
+ * ran. A stage near full utilization with a deep queue is the bottleneck; a stage
+ * whose queue is usually empty is starved by the stage before it.
+ */
+public final class StageReport {
+  private final String name;
+  private final int threads;
+  private final int capacity;
+  private final long items;
+  private final long busyNanos;
+  private final long wallNanos;
+  private final double meanDepth;
+  private final int maxDepth;
+
+  StageReport(String name, int threads, int capacity, long items, long busyNanos,
+              long wallNanos, double meanDepth, int maxDepth) {
+    this.name = name;
+    this.threads = threads;
+    this.capacity = capacity;
+    this.items = items;
+    this.busyNanos = busyNanos;
+    this.wallNanos = wallNanos;
+    this.meanDepth = meanDepth;
+    this.maxDepth = maxDepth;
+  }
+
+  /**
+   * Get the name of the stage.
+   *
+   * @return the name, such as "decode"
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Get the number of threads of the stage.
+   *
+   * @return the number of threads
+   */
+  public int getThreads() {
+    return threads;
+  }
+
+  /**
+   * Get the number of images the stage handled, including failed ones.
+   *
+   * @return the number of images
+   */
+  public long getItems() {
+    return items;
+  }
+
+  /**
+   * Get the fraction of the batch the threads of the stage spent working rather than
+   * waiting for input or for room in the next queue.
+   *
+   * @return the utilization between 0 and 1
+   */
+  public double getUtilization() {
+    return wallNanos == 0 ? 0 : (double) busyNanos / wallNanos / threads;
+  }
+
+  /**
+   * Get the average number of images waiting in the queue feeding the stage, sampled
+   * whenever a thread of the stage takes one.
+   *
+   * @return the mean queue depth
+   */
+  public double getMeanQueueDepth() {
+    return meanDepth;
+  }
+
+  /**
+   * Get the largest number of images seen waiting in the queue feeding the stage.
+   *
+   * @return the maximum queue depth
+   */
+  public int getMaxQueueDepth() {
+    return maxDepth;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%-7s %2d threads %6d images %4.0f%% busy, "
+            + "queue %.1f avg %d max of %d", name, threads, items, 100 * getUtilization(),
+            meanDepth, maxDepth, capacity);
+  }
+}
@@ -0,0 +1,132 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import images.ConcreteImageModel;
+import images.ImageUtilities;
+import images.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import script.BatchProcessor;
+import script.BatchReport;
+import script.ImageStorage;
+import script.Recipe;
+
+/**
+ * Test cases for running a recipe over many files.
+ */
+public class BatchProcessorTest {
+
+  /** Every good file gets the same result as a script, and bad files are reported. */
+  @Test
+  public void testBatch() throws IOException {
+    File in = Files.createTempDirectory("batch-in").toFile();
+    File out = Files.createTempDirectory("batch-out").toFile();
+    List<File> inputs = new ArrayList<>();
+    for (int i = 0; i < 12; i++) {
+      Raster raster = Rasters.random(20 + i, 15, i);
+      File file = new File(in, "image" + i + ".png");
+      ImageUtilities.writeRaster(raster, file.getPath());
+      inputs.add(file);
+    }
+    File broken = new File(in, "broken.png");
+    Files.write(broken.toPath(), new byte[] {1, 2, 3});
+    inputs.add(5, broken);
+
+    Recipe recipe = Recipe.parse(new StringReader("gaussian 1.5\n\nsepia\nsharpen\n"));
+    BatchProcessor[] processors = {
+        new BatchProcessor(3), new BatchProcessor(8, 2, 8, 1, true)
+    };
+    for (BatchProcessor processor : processors) {
+      BatchReport report = processor.process(recipe, inputs, out, "png");
+      assertEquals(12, report.getSucceeded());
+      assertEquals(1, report.getFailed());
+      assertTrue(report.getFailures().containsKey(broken));
+
+      ConcreteImageModel model = new ConcreteImageModel();
+      for (int i = 0; i < 12; i++) {
+        model.loadImage(new File(in, "image" + i + ".png").getPath());
+        recipe.applyTo(model);
+        Raster expected = ImageUtilities.toRaster(model.getCurrentImage());
+        Raster actual = ImageUtilities.readRaster(new File(out, "image" + i + ".png").getPath());
+        assertArrayEquals(expected.getPixels(), actual.getPixels());
+        new File(out, "image" + i + ".png").delete();
+      }
+    }
+  }
+
+  /** Outputs made from the same bytes with the same recipe are not made again. */
+  @Test
+  public void testSkipUpToDate() throws IOException {
+    File in = Files.createTempDirectory("batch-in").toFile();
+    File out = Files.createTempDirectory("batch-out").toFile();
+    List<File> inputs = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      File file = new File(in, "image" + i + ".png");
+      ImageUtilities.writeRaster(new Raster(10 + i, 10), file.getPath());
+      inputs.add(file);
+    }
+    BatchProcessor processor = new BatchProcessor(2);
+    Recipe recipe = Recipe.parse(new StringReader("blur\nmosaic 5 9\n"));
+    assertEquals(3, processor.process(recipe, inputs, out, "png").getSucceeded());
+    assertEquals(3, processor.process(recipe, inputs, out, "png").getSkipped());
+
+    ImageUtilities.writeRaster(new Raster(20, 20), inputs.get(1).getPath());
+    BatchReport report = processor.process(recipe, inputs, out, "png");
+    assertEquals(1, report.getSucceeded());
+    assertEquals(2, report.getSkipped());
+    assertEquals(3, processor.process(recipe, inputs, out, "jpg").getSucceeded());
+
+    Recipe random = Recipe.parse(new StringReader("blur\nmosaic 5\n"));
+    assertEquals(3, processor.process(random, inputs, out, "png").getSucceeded());
+    assertEquals(3, processor.process(random, inputs, out, "png").getSucceeded());
+  }
+
+  /** Every input is read from the storage once, to hash and to decode it. */
+  @Test
+  public void testEachInputReadOnce() throws IOException {
+    File in = Files.createTempDirectory("batch-in").toFile();
+    File out = Files.createTempDirectory("batch-out").toFile();
+    List<File> inputs = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      File file = new File(in, "image" + i + ".png");
+      ImageUtilities.writeRaster(Rasters.random(8, 6, i), file.getPath());
+      inputs.add(file);
+    }
+    AtomicInteger reads = new AtomicInteger();
+    ImageStorage counting = new ImageStorage() {
+      @Override
+      public Raster read(String filename) {
+        reads.incrementAndGet();
+        return ImageStorage.FILES.read(filename);
+      }
+
+      @Override
+      public byte[] load(String filename) {
+        reads.incrementAndGet();
+        return ImageStorage.FILES.load(filename);
+      }
+
+      @Override
+      public void write(Raster raster, String filename) {
+        ImageStorage.FILES.write(raster, filename);
+      }
+    };
+    Recipe recipe = Recipe.parse(new StringReader("blur\n"));
+    BatchReport report = new BatchProcessor(2).process(recipe, inputs, out, "png", counting);
+    assertEquals(4, report.getSucceeded());
+    assertEquals(4, reads.get());
+  }
+
+  /** A recipe with a line that is not a filter is rejected as a whole. */
+  @Test(expected = IllegalArgumentException.class)
+  public void testBadRecipe() {
+    Recipe.parse(new StringReader("blur\nsave out.png\n"));
+  }
+}
@@ -0,0 +1,152 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import images.Raster;
+import images.convolution.ConvolutionEngine;
+import images.convolution.Kernel;
+import images.parallel.TileExecutor;
+import org.junit.Test;
+
+/**
+ * Test cases for the convolution engine.
+ */
+public class ConvolutionEngineTest {
+
+  private static Raster gradient(int width, int height) {
+    Raster raster = new Raster(width, height);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        raster.setRGB(x, y, Raster.pack(x * 20, y * 30, (x + y) * 10));
+      }
+    }
+    return raster;
+  }
+
+  /** The identity kernel leaves every pixel unchanged. */
+  @Test
+  public void testIdentityKernel() {
+    Raster src = gradient(7, 5);
+    Kernel identity = new Kernel(new double[][] { {0, 0, 0}, {0, 1, 0}, {0, 0, 0} });
+    Raster out = new ConvolutionEngine().convolve(src, identity);
+    assertArrayEquals(src.getPixels(), out.getPixels());
+  }
+
+  /** Taps outside the image count as zero, so a box blur darkens the corners. */
+  @Test
+  public void testBorderIsZeroPadded() {
+    Raster src = new Raster(4, 4);
+    java.util.Arrays.fill(src.getPixels(), Raster.pack(90, 90, 90));
+    double ninth = 1 / 9d;
+    Kernel box = new Kernel(new double[][] {
+            {ninth, ninth, ninth}, {ninth, ninth, ninth}, {ninth, ninth, ninth}
+    });
+    Raster out = new ConvolutionEngine().convolve(src, box);
+    assertEquals(40, Raster.red(out.getRGB(0, 0)));
+    assertEquals(60, Raster.red(out.getRGB(1, 0)));
+    assertEquals(90, Raster.red(out.getRGB(1, 1)));
+  }
+
+  /** Signed results keep negative sums instead of clamping them. */
+  @Test
+  public void testSignedResults() {
+    Raster src = gradient(6, 3);
+    Kernel dx = new Kernel(new double[][] { {1, 0, -1} });
+    int[][] planes = new ConvolutionEngine().convolveSigned(src, dx);
+    assertEquals(-40, planes[0][1 * 6 + 2]);
+    assertEquals(0, planes[1][1 * 6 + 2]);
+  }
+
+  /** A blur matrix is detected as the outer product of two vectors, Sobel too. */
+  @Test
+  public void testSeparableDetection() {
+    assertTrue(new Kernel(new double[][] {
+            {1 / 16d, 1 / 8d, 1 / 16d}, {1 / 8d, 1 / 4d, 1 / 8d}, {1 / 16d, 1 / 8d, 1 / 16d}
+    }).isSeparable());
+    assertTrue(new Kernel(new double[][] { {1, 0, -1}, {2, 0, -2}, {1, 0, -1} }).isSeparable());
+    assertFalse(new Kernel(new double[][] { {0, 1, 0}, {1, 1, 1}, {0, 1, 0} }).isSeparable());
+  }
+
+  /** The two-pass path gives the same result as the full two-dimensional loop. */
+  @Test
+  public void testSeparableMatchesFullKernel() {
+    Raster src = gradient(9, 8);
+    double[][] blur = {
+            {1 / 16d, 1 / 8d, 1 / 16d}, {1 / 8d, 1 / 4d, 1 / 8d}, {1 / 16d, 1 / 8d, 1 / 16d}
+    };
+    // a weight too small for fixed-point keeps the matrix from factorizing, forcing the 2D path
+    double[][] padded = new double[5][5];
+    for (int y = 0; y < 3; y++) {
+      System.arraycopy(blur[y], 0, padded[y + 1], 1, 3);
+    }
+    padded[0][0] = 1e-6;
+    Kernel full = new Kernel(padded);
+    assertFalse(full.isSeparable());
+    Raster expected = new ConvolutionEngine().convolve(src, full);
+    Raster actual = new ConvolutionEngine().convolve(src, new Kernel(blur));
+    assertArrayEquals(expected.getPixels(), actual.getPixels());
+  }
+
+  /** A Gaussian blur repeats the edge pixels, so a flat image stays flat. */
+  @Test
+  public void testGaussianKeepsFlatImage() {
+    Raster src = new Raster(20, 10);
+    java.util.Arrays.fill(src.getPixels(), Raster.pack(200, 100, 50));
+    Raster out = new ConvolutionEngine().convolve(src, Kernel.gaussian(4));
+    assertArrayEquals(src.getPixels(), out.getPixels());
+  }
+
+  /** The widest Gaussian still keeps a flat image flat, and a wider one is rejected. */
+  @Test
+  public void testLargeSigma() {
+    Raster src = new Raster(20, 10);
+    java.util.Arrays.fill(src.getPixels(), 0x808080);
+    Raster out = new ConvolutionEngine().convolve(src, Kernel.gaussian(Kernel.MAX_SIGMA));
+    assertArrayEquals(src.getPixels(), out.getPixels());
+    for (double sigma : new double[] {Kernel.MAX_SIGMA * 1.01, 1e5, 1e9}) {
+      try {
+        Kernel.gaussian(sigma);
+        fail("sigma " + sigma + " was accepted");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+
+  /**
+   * A kernel much taller than the image keeps only the rows of the image, so a wide,
+   * short image fits in the heap at the largest sigma.
+   */
+  @Test
+  public void testLargeSigmaOnShortImage() {
+    Raster src = new Raster(20000, 4);
+    java.util.Arrays.fill(src.getPixels(), 0x406080);
+    Raster out = new ConvolutionEngine(TileExecutor.serial())
+            .convolve(src, Kernel.gaussian(Kernel.MAX_SIGMA));
+    assertArrayEquals(src.getPixels(), out.getPixels());
+  }
+
+  /** Splitting the rows over several workers gives exactly the serial result. */
+  @Test
+  public void testParallelMatchesSerial() {
+    Raster src = gradient(37, 300);
+    Kernel sharpen = new Kernel(new double[][] {
+            {-1 / 8d, -1 / 8d, -1 / 8d}, {-1 / 8d, 2d, -1 / 8d}, {-1 / 8d, -1 / 8d, -1 / 8d}
+    });
+    ConvolutionEngine serial = new ConvolutionEngine(TileExecutor.serial());
+    ConvolutionEngine parallel = new ConvolutionEngine(new TileExecutor(4));
+    assertArrayEquals(serial.convolve(src, sharpen).getPixels(),
+            parallel.convolve(src, sharpen).getPixels());
+    Kernel gaussian = Kernel.gaussian(3);
+    assertArrayEquals(serial.convolve(src, gaussian).getPixels(),
+            parallel.convolve(src, gaussian).getPixels());
+  }
+
+  /** Kernels whose weights could overflow the fixed-point sum are rejected. */
+  @Test(expected = IllegalArgumentException.class)
+  public void testOversizedKernel() {
+    new Kernel(new double[][] { {100, 100} });
+  }
+}
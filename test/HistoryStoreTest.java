@@ -0,0 +1,153 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import images.Raster;
+import images.graph.HistoryStore;
+import images.graph.OperationGraph;
+import images.graph.OperationNode;
+import images.parallel.TileExecutor;
+import images.pointop.ColorMatrix;
+import images.pointop.PointOperationEngine;
+import org.junit.Test;
+
+/**
+ * Test cases for the memory-bounded undo history.
+ */
+public class HistoryStoreTest {
+  private final OperationGraph graph =
+          new OperationGraph(new PointOperationEngine(TileExecutor.serial()));
+
+  /** Steps spilled out of a tiny budget come back with the same pixels. */
+  @Test
+  public void testSpilledStepsRestoreExactly() {
+    Raster src = Rasters.random(57, 43, 3);
+    HistoryStore history = new HistoryStore(graph, new TileExecutor(3), 0);
+    history.push(OperationNode.source(src));
+    Raster[] expected = new Raster[4];
+    expected[0] = src.copy();
+    for (int i = 1; i < expected.length; i++) {
+      OperationNode node = history.current().then(graph.point(ColorMatrix.SEPIA));
+      history.push(node);
+      expected[i] = history.materialize(node).copy();
+    }
+    assertEquals(4L * 57 * 43, history.getResidentBytes());
+
+    for (int i = expected.length - 1; i > 0; i--) {
+      assertArrayEquals(expected[i].getPixels(),
+              history.materialize(history.current()).getPixels());
+      history.undo();
+    }
+    assertArrayEquals(expected[0].getPixels(),
+            history.materialize(history.current()).getPixels());
+  }
+
+  /** A step whose source was spilled before its key was needed gets one when back. */
+  @Test
+  public void testKeyOfSpilledSource() {
+    Raster src = Rasters.random(6, 5, 3);
+    HistoryStore history = new HistoryStore(graph, TileExecutor.serial(), 0);
+    OperationNode source = OperationNode.source(src);
+    history.push(source);
+    OperationNode sepia = source.then(graph.point(ColorMatrix.SEPIA, "sepia"));
+    history.push(sepia);
+    history.materialize(sepia);
+    assertFalse(source.isMaterialized());
+    assertNull(sepia.getKey());
+
+    history.undo();
+    history.materialize(source);
+    assertEquals(OperationNode.source(src).getKey(), source.getKey());
+    assertNotNull(sepia.getKey());
+  }
+
+  /** Spills of steps dropped from the history give their space back. */
+  @Test
+  public void testDroppedSpillsAreReclaimed() {
+    HistoryStore history = new HistoryStore(graph, TileExecutor.serial(), 0);
+    history.push(OperationNode.source(Rasters.random(40, 30, 3)));
+    for (int i = 0; i < 4; i++) {
+      OperationNode node = history.current().then(graph.point(ColorMatrix.SEPIA));
+      history.push(node);
+      history.materialize(node);
+    }
+    long spilled = history.getSpilledBytes();
+    assertTrue(spilled > 0);
+
+    history.undo();
+    history.undo();
+    history.undo();
+    history.push(history.current().then(graph.point(ColorMatrix.GRAYSCALE)));
+    long kept = history.getSpilledBytes();
+    assertTrue(kept > 0 && kept < spilled);
+
+    history.close();
+    assertEquals(0, history.getResidentBytes());
+  }
+
+  /** Stepping back and forth never holds more than one image over the budget. */
+  @Test
+  public void testReadAheadStaysWithinBudget() {
+    long image = 4L * 64 * 48;
+    HistoryStore history = new HistoryStore(graph, TileExecutor.serial(), image);
+    history.push(OperationNode.source(Rasters.random(64, 48, 3)));
+    for (int i = 0; i < 5; i++) {
+      OperationNode node = history.current().then(graph.point(ColorMatrix.SEPIA));
+      history.push(node);
+      history.materialize(node);
+    }
+    for (int pass = 0; pass < 20; pass++) {
+      while (history.canUndo()) {
+        history.materialize(history.undo());
+        assertTrue(history.getResidentBytes() + history.getPrefetchedBytes() <= 2 * image);
+      }
+      while (history.canRedo()) {
+        history.materialize(history.redo());
+        assertTrue(history.getResidentBytes() + history.getPrefetchedBytes() <= 2 * image);
+      }
+    }
+    history.getSpilledBytes();
+    assertTrue(history.getPrefetchedBytes() <= image);
+
+    history.clear();
+    history.getSpilledBytes();
+    assertEquals(0, history.getPrefetchedBytes());
+    history.close();
+  }
+
+  /** Every undone step can be redone until a new step is pushed. */
+  @Test
+  public void testMultiLevelRedo() {
+    HistoryStore history = new HistoryStore(graph, TileExecutor.serial(), Long.MAX_VALUE);
+    OperationNode source = OperationNode.source(Rasters.random(4, 4, 3));
+    OperationNode gray = source.then(graph.point(ColorMatrix.GRAYSCALE));
+    OperationNode sepia = gray.then(graph.point(ColorMatrix.SEPIA));
+    history.push(source);
+    history.push(gray);
+    history.push(sepia);
+
+    history.undo();
+    history.undo();
+    assertFalse(history.canUndo());
+    assertSame(gray, history.redo());
+    assertSame(sepia, history.redo());
+    assertFalse(history.canRedo());
+
+    history.undo();
+    history.push(source);
+    assertFalse(history.canRedo());
+    assertSame(gray, history.undo());
+  }
+
+  /** Redo without an undone step fails. */
+  @Test(expected = IllegalStateException.class)
+  public void testRedoAtEnd() {
+    HistoryStore history = new HistoryStore(graph, TileExecutor.serial(), Long.MAX_VALUE);
+    history.push(OperationNode.source(Rasters.random(2, 2, 3)));
+    history.redo();
+  }
+}
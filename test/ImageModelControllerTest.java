@@ -1,4 +1,5 @@
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import images.ConcreteImageModel;
 import images.ImageModel;
@@ -73,6 +74,29 @@ public class ImageModelControllerTest {
     assertEquals(expectedView, viewLog.toString());
   }
 
+  /** A profiled script shows a line per operation, with how often it ran. */
+  @Test
+  public void testProfileSummary() {
+    StringBuilder modelLog = new StringBuilder();
+    ImageModel m = new MockImageModel(modelLog);
+
+    StringBuilder viewLog = new StringBuilder();
+    ImageTextView v = new ImageTextViewImp(viewLog);
+
+    Readable reader = new StringReader("load flower.png\nblur\nblur\n"
+            + "save flower-profile.png\n");
+    ImageController c = new ImageTextController(m, reader, v, true);
+    c.go();
+    assertEquals("Load image\nApply blur\nApply blur\nSave image\n", modelLog.toString());
+    String[] lines = viewLog.toString().split("\n");
+    assertEquals(8, lines.length);
+    assertEquals("save flower-profile.png", lines[3]);
+    assertTrue(lines[4].startsWith("operation  calls"));
+    assertTrue(lines[5].startsWith("load           1 "));
+    assertTrue(lines[6].startsWith("blur           2 "));
+    assertTrue(lines[7].startsWith("save           1 "));
+  }
+
   /**
    * Load testNoneExistFilter.txt
    * The correct filter name should be "blur" but miss type as "blue"
@@ -95,11 +119,9 @@ public class ImageModelControllerTest {
     } catch (FileNotFoundException e) {
       e.printStackTrace();
     }
-    String expectedModel = "Load image\n";
+    String expectedModel = "";
     assertEquals(expectedModel, modelLog.toString());
-    String expectedView = "load flower.png\n"
-            + "blue\n"
-            + "Error: Invalid Command. Command: 'blue'\n";
+    String expectedView = "Error: Invalid Command. Command: 'blue', line 2\n";
     assertEquals(expectedView, viewLog.toString());
   }
 
@@ -127,8 +149,7 @@ public class ImageModelControllerTest {
     }
     String expectedModel = "";
     assertEquals(expectedModel, modelLog.toString());
-    String expectedView = "Blur\n"
-            + "Error: Invalid Command. Command: 'Blur'\n";
+    String expectedView = "Error: Invalid Command. Command: 'Blur', line 1\n";
     assertEquals(expectedView, viewLog.toString());
   }
 
@@ -158,8 +179,7 @@ public class ImageModelControllerTest {
     }
     String expectedModel = "";
     assertEquals(expectedModel, modelLog.toString());
-    String expectedView = "load\n"
-            + "Error: 1. Command: 'load'\n";
+    String expectedView = "Error: Missing file name. Command: 'load', line 1\n";
     assertEquals(expectedView, viewLog.toString());
   }
 
@@ -186,11 +206,9 @@ public class ImageModelControllerTest {
     } catch (FileNotFoundException e) {
       e.printStackTrace();
     }
-    String expectedModel = "Load image\n";
+    String expectedModel = "";
     assertEquals(expectedModel, modelLog.toString());
-    String expectedView = "load flower.png\n"
-           + "mosaic c\n"
-           + "Error: For input string: \"c\". Command: 'mosaic'\n";
+    String expectedView = "Error: For input string: \"c\". Command: 'mosaic', line 2\n";
     assertEquals(expectedView, viewLog.toString());
   }
 
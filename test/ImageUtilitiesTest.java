@@ -0,0 +1,110 @@
+import static org.junit.Assert.assertEquals;
+
+import images.ImageInfo;
+import images.ImageUtilities;
+import images.Raster;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Test cases for converting between BufferedImages and rasters, and for probing files.
+ */
+public class ImageUtilitiesTest {
+
+  /** Every image type converts to the same pixels as reading them one by one. */
+  @Test
+  public void testToRasterMatchesGetRgb() {
+    int[] types = {
+        BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB,
+        BufferedImage.TYPE_INT_ARGB_PRE, BufferedImage.TYPE_INT_BGR,
+        BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR,
+        BufferedImage.TYPE_4BYTE_ABGR_PRE, BufferedImage.TYPE_BYTE_GRAY,
+        BufferedImage.TYPE_USHORT_GRAY, BufferedImage.TYPE_BYTE_BINARY,
+        BufferedImage.TYPE_BYTE_INDEXED, BufferedImage.TYPE_USHORT_565_RGB
+    };
+    Random random = new Random(11);
+    for (int type : types) {
+      BufferedImage image = new BufferedImage(29, 17, type);
+      for (int y = 0; y < image.getHeight(); y++) {
+        for (int x = 0; x < image.getWidth(); x++) {
+          image.setRGB(x, y, random.nextInt());
+        }
+      }
+      assertSamePixels(image);
+      assertSamePixels(image.getSubimage(3, 4, 20, 9));
+    }
+  }
+
+  /** Converting a raster back to an image keeps every pixel. */
+  @Test
+  public void testConvertRasterRoundTrip() {
+    Raster window = new Raster(5, 3, new int[40], 7, 8);
+    for (int i = 0; i < 40; i++) {
+      window.getPixels()[i] = i * 0x030507;
+    }
+    BufferedImage image = ImageUtilities.convertRaster(window);
+    for (int y = 0; y < 3; y++) {
+      for (int x = 0; x < 5; x++) {
+        assertEquals(window.getRGB(x, y), image.getRGB(x, y) & 0xFFFFFF);
+      }
+    }
+  }
+
+  /** A wrapped raster shows the raster's own pixels, including later changes. */
+  @Test
+  public void testWrapRasterSharesPixels() {
+    Raster window = new Raster(5, 3, new int[40], 7, 8);
+    for (int i = 0; i < 40; i++) {
+      window.getPixels()[i] = i * 0x030507;
+    }
+    BufferedImage image = ImageUtilities.wrapRaster(window);
+    assertEquals(5, image.getWidth());
+    assertEquals(3, image.getHeight());
+    for (int y = 0; y < 3; y++) {
+      for (int x = 0; x < 5; x++) {
+        assertEquals(window.getRGB(x, y), image.getRGB(x, y) & 0xFFFFFF);
+      }
+    }
+    window.setRGB(4, 2, 0x123456);
+    assertEquals(0x123456, image.getRGB(4, 2) & 0xFFFFFF);
+  }
+
+  /** Probing reads the header, and a rewritten file is probed again. */
+  @Test
+  public void testProbe() throws IOException {
+    File file = File.createTempFile("probe", ".png");
+    file.deleteOnExit();
+    ImageUtilities.writeRaster(new Raster(7, 5), file.getPath());
+    ImageInfo info = ImageUtilities.probe(file.getPath());
+    assertEquals(7, info.getWidth());
+    assertEquals(5, info.getHeight());
+    assertEquals(3, info.getBands());
+    assertEquals(8, info.getBitDepth());
+    assertEquals("png", info.getFormat());
+
+    ImageUtilities.writeRaster(new Raster(40, 9), file.getPath());
+    assertEquals(40, ImageUtilities.getWidth(file.getPath()));
+    assertEquals(9, ImageUtilities.getHeight(file.getPath()));
+  }
+
+  /** Probing a file that is not an image fails. */
+  @Test(expected = IllegalArgumentException.class)
+  public void testProbeNotAnImage() throws IOException {
+    File file = File.createTempFile("probe", ".txt");
+    file.deleteOnExit();
+    ImageUtilities.probe(file.getPath());
+  }
+
+  private static void assertSamePixels(BufferedImage image) {
+    Raster raster = ImageUtilities.toRaster(image);
+    for (int y = 0; y < image.getHeight(); y++) {
+      for (int x = 0; x < image.getWidth(); x++) {
+        assertEquals("type " + image.getType(), image.getRGB(x, y) & 0xFFFFFF,
+                raster.getRGB(x, y));
+      }
+    }
+  }
+}
@@ -0,0 +1,65 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import images.ConcreteImageModel;
+import images.ImageUtilities;
+import images.Raster;
+import images.metrics.Distribution;
+import images.metrics.InstrumentedImageModel;
+import images.metrics.MetricsRegistry;
+import images.metrics.OperationStats;
+import images.parallel.TileExecutor;
+import java.io.File;
+import java.io.IOException;
+import org.junit.Test;
+
+/**
+ * Test cases for measuring image model operations.
+ */
+public class MetricsTest {
+
+  /** Percentiles are within an eighth of the exact values. */
+  @Test
+  public void testDistribution() {
+    Distribution distribution = new Distribution();
+    for (int v = 1; v <= 100000; v++) {
+      distribution.record(v);
+    }
+    assertEquals(100000, distribution.getCount());
+    assertEquals(1, distribution.getMin());
+    assertEquals(100000, distribution.getMax());
+    assertEquals(50000.5, distribution.getMean(), 1e-9);
+    for (double fraction : new double[] {0.01, 0.5, 0.95, 0.999}) {
+      double exact = fraction * 100000;
+      assertEquals(exact, distribution.getPercentile(fraction), exact / 8);
+    }
+    assertEquals(100000, distribution.getPercentile(1));
+  }
+
+  /** Every call is recorded under its operation, and nothing while disabled. */
+  @Test
+  public void testInstrumentedModel() throws IOException {
+    File file = File.createTempFile("metrics", ".png");
+    file.deleteOnExit();
+    ImageUtilities.writeRaster(new Raster(40, 30), file.getPath());
+
+    MetricsRegistry global = new MetricsRegistry();
+    MetricsRegistry registry = new MetricsRegistry(global);
+    InstrumentedImageModel model = new InstrumentedImageModel(
+            new ConcreteImageModel(TileExecutor.serial()), registry);
+    model.loadImage(file.getPath());
+    model.applyBlur();
+    model.applyBlur();
+    model.setEnabled(false);
+    model.applySepia();
+
+    OperationStats blur = registry.get("blur");
+    assertEquals(2, blur.getCount());
+    assertEquals(1200, blur.getPixels().getMax());
+    assertTrue(blur.getWallNanos().getMin() > 0);
+    assertEquals(2, global.get("blur").getCount());
+    assertEquals(1, registry.get("load").getCount());
+    assertNull(registry.get("sepia"));
+  }
+}
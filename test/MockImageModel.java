@@ -33,6 +33,11 @@ public class MockImageModel implements ImageModel {
     log.append("Apply blur").append(System.lineSeparator());
   }
 
+  @Override
+  public void applyGaussianBlur(double sigma) throws IllegalArgumentException {
+    log.append("Apply gaussian blur").append(System.lineSeparator());
+  }
+
   @Override
   public void applySharpen() {
     log.append("Apply sharpen").append(System.lineSeparator());
@@ -50,6 +55,11 @@ public class MockImageModel implements ImageModel {
 
   }
 
+  @Override
+  public void applyColorMatrix(double[][] matrix) throws IllegalArgumentException {
+    log.append("Apply color matrix").append(System.lineSeparator());
+  }
+
   @Override
   public void applyDither() {
     log.append("Apply dither").append(System.lineSeparator());
@@ -60,6 +70,11 @@ public class MockImageModel implements ImageModel {
     log.append("Apply mosaic").append(System.lineSeparator());
   }
 
+  @Override
+  public void applyMosaic(int seeds, long randomSeed) throws IllegalArgumentException {
+    log.append("Apply mosaic").append(System.lineSeparator());
+  }
+
   @Override
   public void edgeDetection() {
 
@@ -70,11 +85,27 @@ public class MockImageModel implements ImageModel {
 
   }
 
+  @Override
+  public void applyChannelEqualization() {
+
+  }
+
+  @Override
+  public void applyAdaptiveEqualization(int tiles, double clipLimit)
+          throws IllegalArgumentException {
+
+  }
+
   @Override
   public BufferedImage getCurrentImage() {
     return null;
   }
 
+  @Override
+  public BufferedImage getPreviewImage(int maxWidth, int maxHeight) {
+    return null;
+  }
+
   @Override
   public BufferedImage getOriginalImage() {
     return null;
@@ -90,8 +121,18 @@ public class MockImageModel implements ImageModel {
 
   }
 
+  @Override
+  public boolean canRedo() {
+    return false;
+  }
+
   @Override
   public void resetToOrigin() {
 
   }
+
+  @Override
+  public void close() {
+
+  }
 }
@@ -0,0 +1,179 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import images.ConcreteImageModel;
+import images.ImageUtilities;
+import images.Raster;
+import images.RasterCache;
+import images.graph.Operation;
+import images.graph.OperationGraph;
+import images.graph.OperationNode;
+import images.graph.ResultCache;
+import images.parallel.TileExecutor;
+import images.pointop.ColorMatrix;
+import images.pointop.PointOperationEngine;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.Test;
+
+/**
+ * Test cases for the operation graph and the lazy image model.
+ */
+public class OperationGraphTest {
+  private final OperationGraph graph =
+          new OperationGraph(new PointOperationEngine(TileExecutor.serial()));
+
+  /** Nothing runs until a node is materialized, and then every step runs once. */
+  @Test
+  public void testDeferredExecution() {
+    int[] runs = new int[1];
+    Operation invert = image -> {
+      runs[0]++;
+      Raster out = image.createCompatible();
+      for (int i = 0; i < out.getPixels().length; i++) {
+        out.getPixels()[i] = ~image.getPixels()[i] & 0xFFFFFF;
+      }
+      return out;
+    };
+    Raster src = Rasters.random(5, 4, 7);
+    OperationNode node = OperationNode.source(src).then(invert).then(invert);
+    assertEquals(0, runs[0]);
+    assertFalse(node.isMaterialized());
+    assertFalse(node.getParent().isMaterialized());
+
+    Raster result = graph.materialize(node);
+    assertEquals(2, runs[0]);
+    assertTrue(node.isMaterialized());
+    assertFalse(node.getParent().isMaterialized());
+    assertArrayEquals(src.getPixels(), result.getPixels());
+
+    graph.materialize(node);
+    assertEquals(2, runs[0]);
+  }
+
+  /** Fused point operations give the same pixels as running them one by one. */
+  @Test
+  public void testFusedPointOperations() {
+    Raster src = Rasters.random(31, 17, 7);
+    PointOperationEngine engine = new PointOperationEngine(TileExecutor.serial());
+    Raster expected = engine.apply(engine.apply(src, ColorMatrix.SEPIA), ColorMatrix.GRAYSCALE);
+
+    OperationNode node = OperationNode.source(src)
+            .then(graph.point(ColorMatrix.SEPIA))
+            .then(graph.point(ColorMatrix.GRAYSCALE));
+    assertArrayEquals(expected.getPixels(), graph.materialize(node).getPixels());
+  }
+
+  /** A lazy model produces the same images as an eager one. */
+  @Test
+  public void testLazyModelMatchesEager() throws IOException {
+    File file = File.createTempFile("graph", ".png");
+    file.deleteOnExit();
+    ImageUtilities.writeRaster(Rasters.random(40, 30, 7), file.getPath());
+
+    ConcreteImageModel eager = new ConcreteImageModel(TileExecutor.serial(), false);
+    ConcreteImageModel lazy = new ConcreteImageModel(TileExecutor.serial(), true);
+    for (ConcreteImageModel model : new ConcreteImageModel[] {eager, lazy}) {
+      model.loadImage(file.getPath());
+      model.applySepia();
+      model.applyBlur();
+      model.applyGrayscale();
+      model.applyColorMatrix(new double[][] { {1, 0, 0, 20}, {0, 1, 0, 0}, {0, 0, 1, -20} });
+      model.applySharpen();
+      model.edgeDetection();
+      model.applyDither();
+      model.undoOneStep();
+    }
+    assertImagesEqual(eager.getCurrentImage(), lazy.getCurrentImage());
+    eager.undoOneStep();
+    lazy.undoOneStep();
+    assertImagesEqual(eager.getCurrentImage(), lazy.getCurrentImage());
+  }
+
+  private static void assertImagesEqual(BufferedImage expected, BufferedImage actual) {
+    assertEquals(expected.getWidth(), actual.getWidth());
+    assertEquals(expected.getHeight(), actual.getHeight());
+    for (int y = 0; y < expected.getHeight(); y++) {
+      for (int x = 0; x < expected.getWidth(); x++) {
+        assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+      }
+    }
+  }
+
+  /** A second model with the same pixels and filters finds its result in the cache. */
+  @Test
+  public void testResultCache() throws IOException {
+    ResultCache cache = new ResultCache(1 << 20,
+            new RasterCache(Files.createTempDirectory("results").toFile(), 1 << 20));
+    Raster[] results = new Raster[3];
+    for (int i = 0; i < results.length; i++) {
+      ConcreteImageModel model = new ConcreteImageModel(TileExecutor.serial(), true);
+      model.setResultCache(cache);
+      model.loadRaster(Rasters.random(30, 20, 7));
+      model.applyGaussianBlur(1.5);
+      model.applySepia();
+      model.applyMosaic(40, 11);
+      results[i] = model.getCurrentRaster();
+      if (i == 1) {
+        cache.clear();
+      }
+    }
+    assertEquals(1, cache.getMemoryHits());
+    assertEquals(1, cache.getDiskHits());
+    assertArrayEquals(results[0].getPixels(), results[1].getPixels());
+    assertArrayEquals(results[0].getPixels(), results[2].getPixels());
+
+    ConcreteImageModel model = new ConcreteImageModel(TileExecutor.serial(), true);
+    model.setResultCache(cache);
+    model.loadRaster(Rasters.random(30, 20, 7));
+    model.applyGaussianBlur(1.5);
+    model.applySepia();
+    model.applyMosaic(40, 12);
+    assertFalse(Arrays.equals(results[0].getPixels(),
+            model.getCurrentRaster().getPixels()));
+  }
+
+  /** A preview looks like the full size result scaled down. */
+  @Test
+  public void testPreview() {
+    Raster src = new Raster(480, 360);
+    for (int y = 0; y < 360; y++) {
+      for (int x = 0; x < 480; x++) {
+        int v = (x / 40 + y / 40) % 2 == 0 ? 200 : 40;
+        src.setRGB(x, y, Raster.pack(v, x * 255 / 479, y * 255 / 359));
+      }
+    }
+    BufferedImage[] images = new BufferedImage[2];
+    for (int i = 0; i < images.length; i++) {
+      ConcreteImageModel model = new ConcreteImageModel(TileExecutor.serial(), true);
+      model.loadRaster(src);
+      model.applyGaussianBlur(4);
+      model.applySepia();
+      model.applyMosaic(300, 5);
+      model.applyBlur();
+      if (i == 1) {
+        model.getCurrentRaster();
+      }
+      images[i] = model.getPreviewImage(120, 120);
+    }
+    assertEquals(120, images[0].getWidth());
+    assertEquals(90, images[0].getHeight());
+    long difference = 0;
+    for (int y = 0; y < 90; y++) {
+      for (int x = 0; x < 120; x++) {
+        int a = images[0].getRGB(x, y);
+        int b = images[1].getRGB(x, y);
+        difference += Math.abs(Raster.red(a) - Raster.red(b))
+                + Math.abs(Raster.green(a) - Raster.green(b))
+                + Math.abs(Raster.blue(a) - Raster.blue(b));
+      }
+    }
+    assertTrue("mean difference " + difference / (3.0 * 120 * 90),
+            difference < 8 * 3 * 120 * 90);
+  }
+}
@@ -0,0 +1,112 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import images.ConcreteImageModel;
+import images.ImageUtilities;
+import images.Raster;
+import images.parallel.TileExecutor;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import org.junit.Test;
+import script.Plan;
+import script.PlanExecutor;
+import script.PlanOptimizer;
+
+/**
+ * Test cases for compiling, optimizing and running scripts.
+ */
+public class PlanTest {
+
+  /** Every mistake is reported, with its line, and nothing is left to run. */
+  @Test
+  public void testCompileReportsEveryError() throws IOException {
+    File dir = Files.createTempDirectory("plan").toFile();
+    dir.deleteOnExit();
+    Plan plan = Plan.compile(new StringReader("blur\n"
+            + "load missing.png\n"
+            + "\n"
+            + "gaussian\n"
+            + "save nowhere/out.png\n"), in(dir));
+    List<String> expected = new ArrayList<>();
+    expected.add("Error: No image has been loaded for processing. Command: 'blur', line 1");
+    expected.add("Error: No such file missing.png. Command: 'load', line 2");
+    expected.add("Error: Missing arguments. Command: 'gaussian', line 4");
+    expected.add("Error: No such directory for nowhere/out.png. Command: 'save', line 5");
+    assertEquals(expected, plan.getErrors());
+    assertTrue(plan.getSteps().isEmpty());
+  }
+
+  /** Branches that save nothing, filters after the last save and repeated saves go. */
+  @Test
+  public void testOptimizerDropsUnseenSteps() throws IOException {
+    File dir = Files.createTempDirectory("plan").toFile();
+    dir.deleteOnExit();
+    image(dir, "a.png", 1);
+    Plan plan = PlanOptimizer.optimize(Plan.compile(new StringReader("load a.png\n"
+            + "blur\n"
+            + "load a.png\n"
+            + "sepia\n"
+            + "save b.png\n"
+            + "save b.png\n"
+            + "sharpen\n"
+            + "load b.png\n"
+            + "grayscale\n"), in(dir)));
+    List<Integer> kept = new ArrayList<>();
+    for (Plan.Step step : plan.getSteps()) {
+      kept.add(step.getLine());
+    }
+    List<Integer> skipped = new ArrayList<>();
+    for (Plan.Step step : plan.getSkipped()) {
+      skipped.add(step.getLine());
+    }
+    assertEquals("[3, 4, 5, 8, 9]", kept.toString());
+    assertEquals("[1, 2, 6, 7]", skipped.toString());
+  }
+
+  /** Branches run at once write what they write one after another. */
+  @Test
+  public void testParallelBranchesMatchSequential() throws IOException {
+    File dir = Files.createTempDirectory("plan").toFile();
+    dir.deleteOnExit();
+    image(dir, "a.png", 2);
+    image(dir, "b.png", 3);
+    String script = "load a.png\nblur\nsave %1$s-a.png\n"
+            + "load b.png\nsepia\nsave %1$s-b.png\n"
+            + "load %1$s-a.png\nsharpen\nsave %1$s-c.png\n"
+            + "load b.png\ngrayscale\n";
+    for (String name : new String[] {"serial", "parallel"}) {
+      Plan plan = Plan.compile(new StringReader(String.format(script, name)), in(dir));
+      PlanExecutor executor = "serial".equals(name) ? new PlanExecutor()
+              : new PlanExecutor(() -> new ConcreteImageModel(TileExecutor.serial(), true), 3);
+      ConcreteImageModel model = new ConcreteImageModel(TileExecutor.serial(), true);
+      executor.run(plan, model, step -> { });
+      assertEquals(10, model.getCurrentRaster().getWidth());
+    }
+    for (String output : new String[] {"a", "b", "c"}) {
+      File serial = new File(dir, "serial-" + output + ".png");
+      File parallel = new File(dir, "parallel-" + output + ".png");
+      serial.deleteOnExit();
+      parallel.deleteOnExit();
+      assertArrayEquals(output, ImageUtilities.readRaster(serial.getPath()).getPixels(),
+              ImageUtilities.readRaster(parallel.getPath()).getPixels());
+    }
+  }
+
+  private static Function<String, String> in(File dir) {
+    return name -> new File(dir, name).getPath();
+  }
+
+  private static File image(File dir, String name, long seed) {
+    Raster raster = Rasters.random(10, 8, seed);
+    File file = new File(dir, name);
+    file.deleteOnExit();
+    ImageUtilities.writeRaster(raster, file.getPath());
+    return file;
+  }
+}
@@ -0,0 +1,52 @@
+import static org.junit.Assert.assertEquals;
+
+import images.pointop.ChannelLut;
+import images.pointop.ColorMatrix;
+import images.pointop.PointOperation;
+import org.junit.Test;
+
+/**
+ * Test cases for point operations and their fusion.
+ */
+public class PointOperationTest {
+
+  /** A fused chain gives the same pixel as running every operation on its own. */
+  @Test
+  public void testFusedChainMatchesSequence() {
+    int[] invert = new int[256];
+    int[] brighten = new int[256];
+    for (int v = 0; v < 256; v++) {
+      invert[v] = 255 - v;
+      brighten[v] = v + 40;
+    }
+    PointOperation[] ops = {
+        ColorMatrix.GRAYSCALE, ChannelLut.of(invert), ChannelLut.of(brighten), ColorMatrix.SEPIA,
+        new ColorMatrix(new double[][] { {0, 0, 1, -10}, {0, 1, 0, 5}, {1, 0, 0, 0} })
+    };
+    PointOperation fused = ops[0];
+    for (int i = 1; i < ops.length; i++) {
+      fused = fused.andThen(ops[i]);
+    }
+    for (int rgb = 0; rgb < (1 << 24); rgb += 4099) {
+      int expected = rgb;
+      for (PointOperation op : ops) {
+        expected = op.apply(expected);
+      }
+      assertEquals(expected, fused.apply(rgb));
+    }
+  }
+
+  /** Grayscale gives the luminance on all channels and clamps nothing below 255. */
+  @Test
+  public void testGrayscale() {
+    int gray = ColorMatrix.GRAYSCALE.apply((100 << 16) | (150 << 8) | 200);
+    int expected = (int) (0.2126d * 100 + 0.7152d * 150 + 0.0722d * 200);
+    assertEquals((expected << 16) | (expected << 8) | expected, gray);
+  }
+
+  /** Matrices must have 3 rows of 3 or 4 values. */
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidMatrix() {
+    new ColorMatrix(new double[][] { {1, 0}, {0, 1}, {0, 0} });
+  }
+}
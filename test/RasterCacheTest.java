@@ -0,0 +1,78 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import images.ImageUtilities;
+import images.Raster;
+import images.RasterCache;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import org.junit.Test;
+
+/**
+ * Test cases for the raw raster cache.
+ */
+public class RasterCacheTest {
+
+  /** A cached image reads back the same, until its source changes. */
+  @Test
+  public void testInvalidation() throws IOException {
+    RasterCache cache = new RasterCache(Files.createTempDirectory("cache").toFile(), 1 << 20);
+    File source = writeImage(31, 17, 1);
+    Raster raster = ImageUtilities.readRaster(source.getPath());
+    assertNull(cache.get(source));
+    cache.put(source, raster);
+    assertArrayEquals(raster.getPixels(), cache.get(source).getPixels());
+
+    // Touching the file keeps the entry, since the contents hash the same.
+    source.setLastModified(source.lastModified() - 5000);
+    assertArrayEquals(raster.getPixels(), cache.get(source).getPixels());
+
+    ImageUtilities.writeRaster(new Raster(31, 17), source.getPath());
+    source.setLastModified(source.lastModified() + 5000);
+    assertNull(cache.get(source));
+  }
+
+  /** The directory stays under its budget by dropping the least recently used. */
+  @Test
+  public void testEviction() throws IOException, InterruptedException {
+    RasterCache cache = new RasterCache(Files.createTempDirectory("cache").toFile(),
+            3 * (64 + 4 * 100 * 100));
+    File[] sources = new File[4];
+    for (int i = 0; i < sources.length; i++) {
+      sources[i] = writeImage(100, 100, i);
+      cache.put(sources[i], ImageUtilities.readRaster(sources[i].getPath()));
+      Thread.sleep(5);
+    }
+    assertEquals(3 * (64 + 4 * 100 * 100), cache.getSize());
+    assertNull(cache.get(sources[0]));
+    assertEquals(100, cache.get(sources[3]).getWidth());
+  }
+
+  /** A keyed entry whose source fields are not zero is deleted, not checked. */
+  @Test
+  public void testKeyedEntryWithSourceFields() throws IOException {
+    File directory = Files.createTempDirectory("cache").toFile();
+    RasterCache cache = new RasterCache(directory, 1 << 20);
+    cache.put("blur 1", new Raster(5, 3));
+    File[] entries = directory.listFiles();
+    assertEquals(1, entries.length);
+    try (RandomAccessFile file = new RandomAccessFile(entries[0], "rw")) {
+      file.seek(24);
+      file.writeLong(1);
+    }
+    assertNull(cache.get("blur 1"));
+    assertFalse(entries[0].exists());
+  }
+
+  private static File writeImage(int width, int height, long seed) throws IOException {
+    Raster raster = Rasters.random(width, height, seed);
+    File file = File.createTempFile("cached", ".png");
+    file.deleteOnExit();
+    ImageUtilities.writeRaster(raster, file.getPath());
+    return file;
+  }
+}
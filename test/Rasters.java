@@ -0,0 +1,28 @@
+import images.Raster;
+import java.util.Random;
+
+/**
+ * Rasters for tests to work on.
+ */
+public final class Rasters {
+
+  private Rasters() {
+  }
+
+  /**
+   * Make a raster of random colors, the same for the same seed.
+   *
+   * @param width the width in pixels
+   * @param height the height in pixels
+   * @param seed the seed of the colors
+   * @return the raster
+   */
+  public static Raster random(int width, int height, long seed) {
+    Random random = new Random(seed);
+    Raster raster = new Raster(width, height);
+    for (int i = 0; i < width * height; i++) {
+      raster.getPixels()[i] = random.nextInt(1 << 24);
+    }
+    return raster;
+  }
+}
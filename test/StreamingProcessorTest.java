@@ -0,0 +1,53 @@
+import static org.junit.Assert.assertEquals;
+
+import images.ConcreteImageModel;
+import images.ImageUtilities;
+import images.Raster;
+import images.parallel.TileExecutor;
+import images.stream.StreamingProcessor;
+import images.stream.StripFilters;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import org.junit.Test;
+
+/**
+ * Test cases for filtering images in strips.
+ */
+public class StreamingProcessorTest {
+
+  /** A chain with halos and global filters matches the in-memory model. */
+  @Test
+  public void testStripsMatchModel() throws IOException {
+    Raster raster = Rasters.random(45, 61, 5);
+    File input = File.createTempFile("stream", ".png");
+    File output = File.createTempFile("stream", ".png");
+    input.deleteOnExit();
+    output.deleteOnExit();
+    ImageUtilities.writeRaster(raster, input.getPath());
+
+    ConcreteImageModel model = new ConcreteImageModel(TileExecutor.serial());
+    model.loadImage(input.getPath());
+    model.applyGaussianBlur(1.5);
+    model.applySepia();
+    model.applySharpen();
+    model.edgeDetection();
+    model.applyBlur();
+    model.grayscaleContractEnhancement();
+    model.applyChannelEqualization();
+
+    StripFilters filters = new StripFilters(new TileExecutor(2));
+    new StreamingProcessor(7).process(input.getPath(), output.getPath(), Arrays.asList(
+            filters.gaussian(1.5), filters.sepia(), filters.sharpen(), filters.edgeDetection(),
+            filters.blur(), filters.contrastEnhancement(), filters.channelEqualization()));
+
+    BufferedImage expected = model.getCurrentImage();
+    Raster actual = ImageUtilities.readRaster(output.getPath());
+    for (int y = 0; y < raster.getHeight(); y++) {
+      for (int x = 0; x < raster.getWidth(); x++) {
+        assertEquals(expected.getRGB(x, y) & 0xFFFFFF, actual.getRGB(x, y));
+      }
+    }
+  }
+}
@@ -0,0 +1,60 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import images.Raster;
+import images.convolution.ConvolutionEngine;
+import images.convolution.Kernels;
+import images.parallel.TaskMonitor;
+import images.parallel.TileExecutor;
+import java.util.concurrent.CancellationException;
+import org.junit.Test;
+
+/**
+ * Test cases for watching and cancelling filters.
+ */
+public class TaskMonitorTest {
+
+  /** A monitored filter reports every pass up to the end and gives the same image. */
+  @Test
+  public void testProgress() {
+    Raster src = Rasters.random(50, 300, 5);
+    double[] last = new double[2];
+    TaskMonitor monitor = new TaskMonitor((pass, fraction) -> {
+      assertTrue(fraction >= 0 && fraction <= 1);
+      last[0] = pass;
+      last[1] = fraction;
+    });
+    for (TileExecutor executor : new TileExecutor[] {TileExecutor.serial(), new TileExecutor(3)}) {
+      ConvolutionEngine engine = new ConvolutionEngine(executor);
+      Raster monitored = monitor.call(() -> engine.convolve(src, Kernels.BLUR));
+      assertArrayEquals(engine.convolve(src, Kernels.BLUR).getPixels(), monitored.getPixels());
+      assertEquals(1, last[1], 1e-9);
+    }
+    assertEquals(2, last[0], 0);
+    assertFalse(monitor.isCancelled());
+  }
+
+  /** Cancelling from the progress listener stops the filter at the next band. */
+  @Test
+  public void testCancel() {
+    Raster src = Rasters.random(50, 300, 5);
+    int[] reports = new int[1];
+    TaskMonitor[] monitor = new TaskMonitor[1];
+    monitor[0] = new TaskMonitor((pass, fraction) -> {
+      if (++reports[0] == 3) {
+        monitor[0].cancel();
+      }
+    });
+    ConvolutionEngine engine = new ConvolutionEngine(TileExecutor.serial());
+    try {
+      monitor[0].call(() -> engine.convolve(src, Kernels.BLUR));
+      fail("the filter should have been cancelled");
+    } catch (CancellationException e) {
+      assertEquals(3, reports[0]);
+    }
+    assertTrue(monitor[0].isCancelled());
+  }
+}
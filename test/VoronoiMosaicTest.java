@@ -0,0 +1,92 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import images.Raster;
+import images.mosaic.MosaicSession;
+import images.mosaic.VoronoiMosaic;
+import images.parallel.TileExecutor;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Test cases for the Voronoi mosaic.
+ */
+public class VoronoiMosaicTest {
+
+  /** The bucketed search finds the same nearest seed as comparing every seed. */
+  @Test
+  public void testLabelsMatchBruteForce() {
+    int width = 53;
+    int height = 41;
+    VoronoiMosaic mosaic = new VoronoiMosaic(new TileExecutor(3));
+    for (int seeds : new int[] {1, 2, 7, 60, 500, width * height}) {
+      int[] seedPixels = VoronoiMosaic.sampleSeeds(width, height, seeds, new Random(seeds));
+      int[] labels = mosaic.label(width, height, seedPixels);
+      for (int y = 0; y < height; y++) {
+        for (int x = 0; x < width; x++) {
+          int best = 0;
+          long bestDist = Long.MAX_VALUE;
+          for (int s = 0; s < seedPixels.length; s++) {
+            long dx = seedPixels[s] % width - x;
+            long dy = seedPixels[s] / width - y;
+            if (dx * dx + dy * dy < bestDist) {
+              bestDist = dx * dx + dy * dy;
+              best = s;
+            }
+          }
+          assertEquals("seeds " + seeds + " at " + x + "," + y, best, labels[y * width + x]);
+        }
+      }
+    }
+  }
+
+  /** Sampled seeds are distinct pixels inside the image. */
+  @Test
+  public void testSeedsAreDistinct() {
+    int[] seedPixels = VoronoiMosaic.sampleSeeds(10, 10, 100, new Random(1));
+    for (int i = 0; i < seedPixels.length; i++) {
+      assertEquals(i, seedPixels[i]);
+    }
+    seedPixels = VoronoiMosaic.sampleSeeds(10, 10, 30, new Random(2));
+    for (int i = 1; i < seedPixels.length; i++) {
+      assertTrue(seedPixels[i] > seedPixels[i - 1]);
+    }
+  }
+
+  /** Every cell is painted with the average color of its pixels. */
+  @Test
+  public void testSingleSeedAveragesImage() {
+    Raster src = new Raster(2, 2);
+    src.setRGB(0, 0, Raster.pack(0, 0, 0));
+    src.setRGB(1, 0, Raster.pack(100, 0, 0));
+    src.setRGB(0, 1, Raster.pack(0, 200, 0));
+    src.setRGB(1, 1, Raster.pack(100, 200, 40));
+    Raster out = new VoronoiMosaic(TileExecutor.serial()).apply(src, 1, new Random(3));
+    for (int rgb : out.getPixels()) {
+      assertEquals(Raster.pack(50, 100, 10), rgb);
+    }
+  }
+
+  /** Asking for more seeds than pixels is rejected. */
+  @Test(expected = IllegalArgumentException.class)
+  public void testTooManySeeds() {
+    new VoronoiMosaic(TileExecutor.serial()).apply(new Raster(3, 3), 10, new Random());
+  }
+
+  /** Adding and removing seeds one at a time gives the mosaic of the new count. */
+  @Test
+  public void testSessionMatchesScaledMosaic() {
+    Raster proxy = Rasters.random(47, 31, 5);
+    VoronoiMosaic mosaic = new VoronoiMosaic(TileExecutor.serial());
+    MosaicSession session = new MosaicSession(proxy, 200, 130, 9);
+    for (int seeds : new int[] {1, 50, 7, 300, 3}) {
+      assertTrue(session.setSeeds(seeds, () -> false));
+      Raster expected = mosaic.applyScaled(proxy, 200, 130, seeds, new Random(9));
+      assertArrayEquals("seeds " + seeds, expected.getPixels(), session.render().getPixels());
+    }
+    assertFalse(session.setSeeds(10, () -> true));
+    assertEquals(3, session.getSeeds());
+  }
+}